@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.conf.Configuration;
+import org.smartdata.conf.SmartConfKeys;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the buffers used by the data paths of actions, shared in a JVM
+ * by the actions with the same pool settings.
+ *
+ * <p>Buffers are leased in power of two size classes, on heap or direct,
+ * and return to the pool when their {@link Lease} is closed. Idle buffers
+ * of each kind are bounded by a capacity in bytes, beyond which released
+ * buffers are dropped. Requests larger than the max class are served by
+ * unpooled buffers.
+ *
+ * <p>Each lease is accounted to an owner, normally the action, so that the
+ * buffers still leased by an owner can be inspected and dropped once it
+ * finishes. Only a closed lease returns its buffer to the pool, as a leaked
+ * one may still be used by a thread of its owner. With
+ * leak tracking on, the stack leasing each buffer is recorded and reported
+ * by {@link #checkNoLeaks()}.
+ */
+public class BufferPool {
+  public static final int MIN_BUFFER_SIZE = 4 * 1024;
+  // Pools by their settings, see get(Configuration)
+  private static final Map<String, BufferPool> pools = new HashMap<>();
+  private static BufferPool instance;
+
+  private final int maxBufferSize;
+  private final long heapCapacity;
+  private final long directCapacity;
+  // Idle buffers by size class
+  private final Queue<byte[]>[] heapBuffers;
+  private final Queue<ByteBuffer>[] directBuffers;
+  private final AtomicLong pooledHeapBytes = new AtomicLong();
+  private final AtomicLong pooledDirectBytes = new AtomicLong();
+  private final AtomicLong numAllocated = new AtomicLong();
+  private final AtomicLong numReused = new AtomicLong();
+  private final AtomicLong numLeaked = new AtomicLong();
+  private final Set<Lease> outstanding =
+      Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+  private volatile boolean trackLeaks = false;
+
+  @SuppressWarnings("unchecked")
+  public BufferPool(int maxBufferSize, long heapCapacity, long directCapacity) {
+    this.maxBufferSize = getClassSize(Math.max(maxBufferSize, MIN_BUFFER_SIZE));
+    this.heapCapacity = heapCapacity;
+    this.directCapacity = directCapacity;
+    int numClasses = getClassIndex(this.maxBufferSize) + 1;
+    this.heapBuffers = new Queue[numClasses];
+    this.directBuffers = new Queue[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      heapBuffers[i] = new ConcurrentLinkedQueue<>();
+      directBuffers[i] = new ConcurrentLinkedQueue<>();
+    }
+  }
+
+  /**
+   * Get the pool shared by the actions in this JVM with the pool settings of
+   * conf. Actions configured alike share one pool, while each distinct
+   * setting gets its own. conf may be null for the defaults.
+   */
+  public static synchronized BufferPool get(Configuration conf) {
+    if (instance != null) {
+      return instance;
+    }
+    if (conf == null) {
+      conf = new Configuration(false);
+    }
+    int maxBufferSize = conf.getInt(
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_KEY,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT);
+    long heapCapacity = conf.getLong(
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_KEY,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_DEFAULT);
+    long directCapacity = conf.getLong(
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_KEY,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_DEFAULT);
+    String key = maxBufferSize + ":" + heapCapacity + ":" + directCapacity;
+    BufferPool pool = pools.get(key);
+    if (pool == null) {
+      pool = new BufferPool(maxBufferSize, heapCapacity, directCapacity);
+      pools.put(key, pool);
+    }
+    return pool;
+  }
+
+  /**
+   * Make {@link #get(Configuration)} return pool whatever the settings, or
+   * the pool of the settings again if null.
+   */
+  @VisibleForTesting
+  public static synchronized void set(BufferPool pool) {
+    instance = pool;
+  }
+
+  /**
+   * Record the stack leasing each buffer, reported if it is leaked.
+   */
+  public void setTrackLeaks(boolean trackLeaks) {
+    this.trackLeaks = trackLeaks;
+  }
+
+  /**
+   * Lease a heap buffer of at least size bytes. Its content is undefined.
+   */
+  public Lease lease(Object owner, int size) {
+    return lease(owner, size, false);
+  }
+
+  /**
+   * Lease a direct buffer of at least size bytes. Its content is undefined.
+   */
+  public Lease leaseDirect(Object owner, int size) {
+    return lease(owner, size, true);
+  }
+
+  private Lease lease(Object owner, int size, boolean direct) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid buffer size " + size);
+    }
+    boolean pooled = size <= maxBufferSize;
+    int capacity = pooled ? getClassSize(size) : size;
+    byte[] array = null;
+    ByteBuffer buffer = null;
+    if (pooled) {
+      int index = getClassIndex(capacity);
+      if (direct) {
+        buffer = directBuffers[index].poll();
+        if (buffer != null) {
+          pooledDirectBytes.addAndGet(-capacity);
+        }
+      } else {
+        array = heapBuffers[index].poll();
+        if (array != null) {
+          pooledHeapBytes.addAndGet(-capacity);
+        }
+      }
+    }
+    if (buffer == null && array == null) {
+      numAllocated.incrementAndGet();
+      if (direct) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+      } else {
+        array = new byte[capacity];
+      }
+    } else {
+      numReused.incrementAndGet();
+    }
+    if (direct) {
+      buffer.clear();
+      buffer.limit(size);
+    } else {
+      buffer = ByteBuffer.wrap(array, 0, size);
+    }
+    Lease lease = new Lease(owner, size, array, buffer, pooled,
+        trackLeaks ? new Throwable("Leased " + size + " bytes by " + owner) : null);
+    outstanding.add(lease);
+    return lease;
+  }
+
+  private void release(Lease lease) {
+    outstanding.remove(lease);
+    if (!lease.pooled) {
+      return;
+    }
+    int capacity = lease.capacity();
+    int index = getClassIndex(capacity);
+    if (lease.array != null) {
+      if (pooledHeapBytes.addAndGet(capacity) <= heapCapacity) {
+        heapBuffers[index].offer(lease.array);
+      } else {
+        pooledHeapBytes.addAndGet(-capacity);
+      }
+    } else {
+      if (pooledDirectBytes.addAndGet(capacity) <= directCapacity) {
+        directBuffers[index].offer(lease.buffer);
+      } else {
+        pooledDirectBytes.addAndGet(-capacity);
+      }
+    }
+  }
+
+  /**
+   * Get the leases of owner not closed yet.
+   */
+  public List<Lease> getOutstandingLeases(Object owner) {
+    List<Lease> leases = new ArrayList<>();
+    for (Lease lease : outstanding) {
+      if (lease.owner == owner) {
+        leases.add(lease);
+      }
+    }
+    return leases;
+  }
+
+  /**
+   * Get the bytes of the buffers leased by owner and not released yet.
+   */
+  public long getLeasedBytes(Object owner) {
+    long bytes = 0;
+    for (Lease lease : getOutstandingLeases(owner)) {
+      bytes += lease.capacity();
+    }
+    return bytes;
+  }
+
+  /**
+   * Drop the outstanding leases of owner, e.g., on its completion. Their
+   * buffers are not returned to the pool, even if closed later.
+   *
+   * @return the leases dropped, which were leaked by owner
+   */
+  public List<Lease> dropLeaked(Object owner) {
+    List<Lease> leases = getOutstandingLeases(owner);
+    for (Lease lease : leases) {
+      lease.drop();
+    }
+    return leases;
+  }
+
+  /**
+   * Check that all the leases are closed.
+   *
+   * @throws IllegalStateException with the leasing stack of the first leaked
+   *   buffer as the cause, if leak tracking is on
+   */
+  public void checkNoLeaks() {
+    List<Lease> leaked = new ArrayList<>(outstanding);
+    if (!leaked.isEmpty()) {
+      Lease first = leaked.get(0);
+      throw new IllegalStateException(leaked.size() + " buffers leaked, e.g., "
+          + first.size + " bytes by " + first.owner, first.site);
+    }
+  }
+
+  public int getNumOutstanding() {
+    return outstanding.size();
+  }
+
+  public long getNumAllocated() {
+    return numAllocated.get();
+  }
+
+  public long getNumReused() {
+    return numReused.get();
+  }
+
+  /**
+   * Get the number of leases dropped without being closed.
+   */
+  public long getNumLeaked() {
+    return numLeaked.get();
+  }
+
+  public long getPooledBytes(boolean direct) {
+    return direct ? pooledDirectBytes.get() : pooledHeapBytes.get();
+  }
+
+  public int getMaxBufferSize() {
+    return maxBufferSize;
+  }
+
+  @VisibleForTesting
+  static int getClassSize(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return MIN_BUFFER_SIZE;
+    }
+    return Integer.highestOneBit(size - 1) << 1;
+  }
+
+  private static int getClassIndex(int classSize) {
+    return Integer.numberOfTrailingZeros(classSize)
+        - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+  }
+
+  /**
+   * A buffer leased from the pool, which must not be used once closed.
+   * Closing it more than once is harmless.
+   */
+  public final class Lease implements Closeable {
+    private final Object owner;
+    private final int size;
+    private final byte[] array;
+    private final ByteBuffer buffer;
+    private final boolean pooled;
+    private final Throwable site;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Lease(Object owner, int size, byte[] array, ByteBuffer buffer,
+        boolean pooled, Throwable site) {
+      this.owner = owner;
+      this.size = size;
+      this.array = array;
+      this.buffer = buffer;
+      this.pooled = pooled;
+      this.site = site;
+    }
+
+    /**
+     * Get the backing array of a heap buffer, which may be longer than the
+     * size leased.
+     */
+    public byte[] array() {
+      if (array == null) {
+        throw new UnsupportedOperationException("Direct buffer has no array");
+      }
+      return array;
+    }
+
+    /**
+     * Get the buffer, with its limit set to the size leased.
+     */
+    public ByteBuffer buffer() {
+      return buffer;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int capacity() {
+      return array != null ? array.length : buffer.capacity();
+    }
+
+    public boolean isDirect() {
+      return array == null;
+    }
+
+    public Object getOwner() {
+      return owner;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        release(this);
+      }
+    }
+
+    private void drop() {
+      if (closed.compareAndSet(false, true)) {
+        outstanding.remove(this);
+        numLeaked.incrementAndGet();
+      }
+    }
+  }
+}
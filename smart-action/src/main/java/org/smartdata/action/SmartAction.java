@@ -27,6 +27,7 @@
 
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -51,6 +52,9 @@ public abstract class SmartAction {
   private long finishTime;
   private Throwable throwable;
   private boolean finished;
+  // Buffers leased from the pool by this action
+  private volatile int numLeases;
+  private volatile long leasedBytes;
 
   public SmartAction() {
     this.successful = false;
@@ -135,12 +139,64 @@ public final void run() {
       setThrowable(t);
       appendLog(ExceptionUtils.getFullStackTrace(t));
     } finally {
+      releaseBuffers();
       setFinishTime();
       finished = true;
       stop();
     }
   }
 
+  private BufferPool getBufferPool() {
+    return BufferPool.get(context == null ? null : context.getConf());
+  }
+
+  /**
+   * Lease a heap buffer of at least size bytes from the buffer pool shared
+   * by actions. It should be closed once not used, otherwise it is
+   * dropped from the pool when the action finishes.
+   */
+  protected BufferPool.Lease leaseBuffer(int size) {
+    return account(getBufferPool().lease(this, size));
+  }
+
+  /**
+   * Lease a direct buffer, see {@link #leaseBuffer(int)}.
+   */
+  protected BufferPool.Lease leaseDirectBuffer(int size) {
+    return account(getBufferPool().leaseDirect(this, size));
+  }
+
+  private synchronized BufferPool.Lease account(BufferPool.Lease lease) {
+    numLeases++;
+    leasedBytes += lease.capacity();
+    return lease;
+  }
+
+  private void releaseBuffers() {
+    if (numLeases == 0) {
+      return;
+    }
+    List<BufferPool.Lease> leaked = getBufferPool().dropLeaked(this);
+    if (!leaked.isEmpty()) {
+      LOG.warn("Action {} leaked {} of its {} leased buffers, they are not "
+          + "returned to the pool", actionId, leaked.size(), numLeases);
+    }
+  }
+
+  /**
+   * Get the number of buffers leased by this action.
+   */
+  public int getNumLeasedBuffers() {
+    return numLeases;
+  }
+
+  /**
+   * Get the bytes of all the buffers leased by this action.
+   */
+  public long getLeasedBufferBytes() {
+    return leasedBytes;
+  }
+
   private void setStartTime() {
     this.startTime = System.currentTimeMillis();
   }
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A benchmark tool to compare the allocation rate and GC of a storm of
+ * short data-moving actions, with buffers allocated for each action or
+ * leased from {@link BufferPool}.
+ */
+public final class BufferPoolBenchmark {
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static final byte[] SOURCE = new byte[64 * 1024];
+
+  private BufferPoolBenchmark() {
+    // prevent instantiation
+  }
+
+  private static void usage(String message) {
+    if (message != null) {
+      System.out.println(message);
+    }
+    System.out.println(
+        "Usage: BufferPoolBenchmark <fresh/pooled> [numActions] [threads] "
+            + "[bufferSize-in-KB] [dataSize-per-action-in-KB]");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numActions = 2000;
+    int threads = 4;
+    int bufferSizeKB = 1024;
+    int dataSizeKB = 4096;
+    if (args.length < 1) {
+      usage(null);
+    }
+    boolean pooled;
+    if (args[0].equals("pooled")) {
+      pooled = true;
+    } else if (args[0].equals("fresh")) {
+      pooled = false;
+    } else {
+      usage("Invalid mode: " + args[0]);
+      return;
+    }
+    try {
+      if (args.length > 1) {
+        numActions = Integer.parseInt(args[1]);
+      }
+      if (args.length > 2) {
+        threads = Integer.parseInt(args[2]);
+      }
+      if (args.length > 3) {
+        bufferSizeKB = Integer.parseInt(args[3]);
+      }
+      if (args.length > 4) {
+        dataSizeKB = Integer.parseInt(args[4]);
+      }
+    } catch (NumberFormatException e) {
+      usage("Malformed number: " + e.getMessage());
+    }
+    // Warm up, then measure
+    performBench(pooled, numActions / 10, threads, bufferSizeKB, dataSizeKB, false);
+    performBench(pooled, numActions, threads, bufferSizeKB, dataSizeKB, true);
+  }
+
+  /**
+   * Run the actions and print the bytes allocated by them and the GC.
+   *
+   * @return the bytes allocated by the threads running the actions
+   */
+  public static long performBench(final boolean pooled, int numActions, int threads,
+      int bufferSizeKB, int dataSizeKB, boolean print) throws Exception {
+    final int bufferSize = bufferSizeKB * 1024;
+    final long dataSize = dataSizeKB * 1024L;
+    final AtomicLong allocated = new AtomicLong();
+    long gcCount = getGcCount();
+    long gcTime = getGcTime();
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>(numActions);
+      for (int i = 0; i < numActions; i++) {
+        final long actionId = i;
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            long threadId = Thread.currentThread().getId();
+            long before = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+            StormAction action = new StormAction(pooled, bufferSize, dataSize);
+            action.setActionId(actionId);
+            action.run();
+            allocated.addAndGet(THREAD_BEAN.getThreadAllocatedBytes(threadId) - before);
+            return action.isSuccessful();
+          }
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        if (!future.get()) {
+          throw new IllegalStateException("Action failed");
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+    if (print) {
+      double allocatedMB = allocated.get() / 1048576.0;
+      System.out.println(String.format("%s: %d actions in %d ms, allocated %.1f MB "
+              + "(%.1f KB/action, %.1f MB/s), GC %d times in %d ms",
+          pooled ? "pooled" : "fresh", numActions, elapsedMs, allocatedMB,
+          allocated.get() / 1024.0 / numActions, allocatedMB * 1000 / elapsedMs,
+          getGcCount() - gcCount, getGcTime() - gcTime));
+    }
+    return allocated.get();
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long getGcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return time;
+  }
+
+  /**
+   * Copies dataSize bytes through a buffer, as CopyFileAction does.
+   */
+  private static class StormAction extends SmartAction {
+    private final boolean pooled;
+    private final int bufferSize;
+    private final long dataSize;
+    private long checksum;
+
+    StormAction(boolean pooled, int bufferSize, long dataSize) {
+      this.pooled = pooled;
+      this.bufferSize = bufferSize;
+      this.dataSize = dataSize;
+    }
+
+    @Override
+    protected void execute() throws Exception {
+      BufferPool.Lease lease = pooled ? leaseBuffer(bufferSize) : null;
+      byte[] buf = pooled ? lease.array() : new byte[bufferSize];
+      try {
+        long bytesRemaining = dataSize;
+        while (bytesRemaining > 0) {
+          int len = (int) Math.min(bytesRemaining, bufferSize);
+          // "Read" into the buffer and "write" it out
+          for (int off = 0; off < len; off += SOURCE.length) {
+            System.arraycopy(SOURCE, 0, buf, off, Math.min(SOURCE.length, len - off));
+          }
+          for (int i = 0; i < len; i += 4096) {
+            checksum += buf[i];
+          }
+          bytesRemaining -= len;
+        }
+      } finally {
+        if (lease != null) {
+          lease.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.conf.SmartConfKeys;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestBufferPool {
+  private BufferPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new BufferPool(1024 * 1024, 4 * 1024 * 1024, 4 * 1024 * 1024);
+    pool.setTrackLeaks(true);
+    BufferPool.set(pool);
+  }
+
+  @After
+  public void tearDown() {
+    BufferPool.set(null);
+  }
+
+  @Test
+  public void testSizeClasses() {
+    Assert.assertEquals(4096, BufferPool.getClassSize(0));
+    Assert.assertEquals(4096, BufferPool.getClassSize(4096));
+    Assert.assertEquals(8192, BufferPool.getClassSize(4097));
+    Assert.assertEquals(1024 * 1024, BufferPool.getClassSize(1000 * 1000));
+    Assert.assertEquals(1024 * 1024, BufferPool.getClassSize(1024 * 1024));
+  }
+
+  @Test
+  public void testReuse() {
+    BufferPool.Lease lease = pool.lease(this, 100 * 1000);
+    byte[] array = lease.array();
+    Assert.assertEquals(128 * 1024, array.length);
+    Assert.assertEquals(100 * 1000, lease.buffer().remaining());
+    Assert.assertFalse(lease.isDirect());
+    lease.close();
+    // Closing twice does not pool the buffer twice
+    lease.close();
+    Assert.assertEquals(128 * 1024, pool.getPooledBytes(false));
+
+    BufferPool.Lease again = pool.lease(this, 128 * 1024);
+    Assert.assertSame(array, again.array());
+    BufferPool.Lease other = pool.lease(this, 100 * 1000);
+    Assert.assertNotSame(array, other.array());
+    again.close();
+    other.close();
+    Assert.assertEquals(2, pool.getNumAllocated());
+    Assert.assertEquals(1, pool.getNumReused());
+    pool.checkNoLeaks();
+  }
+
+  @Test
+  public void testDirect() {
+    BufferPool.Lease lease = pool.leaseDirect(this, 5000);
+    ByteBuffer buffer = lease.buffer();
+    Assert.assertTrue(lease.isDirect());
+    Assert.assertTrue(buffer.isDirect());
+    Assert.assertEquals(8192, lease.capacity());
+    Assert.assertEquals(5000, buffer.limit());
+    buffer.position(100);
+    lease.close();
+
+    BufferPool.Lease again = pool.leaseDirect(this, 6000);
+    Assert.assertSame(buffer, again.buffer());
+    Assert.assertEquals(0, again.buffer().position());
+    Assert.assertEquals(6000, again.buffer().limit());
+    try {
+      again.array();
+      Assert.fail("Direct buffer should have no array");
+    } catch (UnsupportedOperationException e) {
+      // Expected
+    }
+    again.close();
+    // Heap and direct buffers are pooled separately
+    Assert.assertNotNull(pool.lease(this, 6000).array());
+    pool.dropLeaked(this);
+    pool.checkNoLeaks();
+  }
+
+  @Test
+  public void testCapacity() {
+    BufferPool small = new BufferPool(64 * 1024, 64 * 1024, 0);
+    BufferPool.Lease first = small.lease(this, 64 * 1024);
+    BufferPool.Lease second = small.lease(this, 64 * 1024);
+    BufferPool.Lease large = small.lease(this, 64 * 1024 + 1);
+    Assert.assertEquals(64 * 1024 + 1, large.capacity());
+    first.close();
+    second.close();
+    large.close();
+    // Only one buffer fits in the capacity, the large one is never pooled
+    Assert.assertEquals(64 * 1024, small.getPooledBytes(false));
+
+    BufferPool.Lease direct = small.leaseDirect(this, 1024);
+    direct.close();
+    Assert.assertEquals(0, small.getPooledBytes(true));
+  }
+
+  @Test
+  public void testAccountingAndLeaks() {
+    Object owner = new Object();
+    BufferPool.Lease a = pool.lease(owner, 4096);
+    BufferPool.Lease b = pool.leaseDirect(owner, 10000);
+    BufferPool.Lease c = pool.lease(this, 4096);
+    Assert.assertEquals(2, pool.getOutstandingLeases(owner).size());
+    Assert.assertEquals(4096 + 16384, pool.getLeasedBytes(owner));
+    a.close();
+    Assert.assertEquals(16384, pool.getLeasedBytes(owner));
+    c.close();
+
+    try {
+      pool.checkNoLeaks();
+      Assert.fail("The leaked buffer should be reported");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains("1 buffers leaked"));
+      // The leasing stack is recorded
+      Assert.assertNotNull(e.getCause());
+    }
+    long pooledDirect = pool.getPooledBytes(true);
+    List<BufferPool.Lease> leaked = pool.dropLeaked(owner);
+    Assert.assertEquals(1, leaked.size());
+    Assert.assertSame(b, leaked.get(0));
+    Assert.assertEquals(1, pool.getNumLeaked());
+    Assert.assertEquals(0, pool.getLeasedBytes(owner));
+    pool.checkNoLeaks();
+    // A leaked buffer never returns to the pool, it may be still in use
+    b.close();
+    Assert.assertEquals(pooledDirect, pool.getPooledBytes(true));
+    Assert.assertNotSame(b.buffer(), pool.leaseDirect(owner, 10000).buffer());
+  }
+
+  @Test
+  public void testActionDropsLeakedBuffers() {
+    LeasingAction action = new LeasingAction(3, 1);
+    action.run();
+    Assert.assertTrue(action.isSuccessful());
+    Assert.assertEquals(3, action.getNumLeasedBuffers());
+    Assert.assertEquals(3 * 64 * 1024, action.getLeasedBufferBytes());
+    Assert.assertEquals(0, pool.getNumOutstanding());
+    Assert.assertEquals(1, pool.getNumLeaked());
+    // The heap buffer closed first is reused by the leaked lease, which
+    // does not return it
+    Assert.assertEquals(0, pool.getPooledBytes(false));
+    Assert.assertEquals(64 * 1024, pool.getPooledBytes(true));
+    pool.checkNoLeaks();
+
+    // Buffers are dropped if the action fails too
+    LeasingAction failed = new LeasingAction(2, 2);
+    failed.fail = true;
+    failed.run();
+    Assert.assertFalse(failed.isSuccessful());
+    Assert.assertEquals(3, pool.getNumLeaked());
+    pool.checkNoLeaks();
+  }
+
+  @Test
+  public void testPoolsBySettings() {
+    BufferPool.set(null);
+    Configuration conf = new Configuration(false);
+    BufferPool defaults = BufferPool.get(null);
+    Assert.assertSame(defaults, BufferPool.get(conf));
+
+    conf.setInt(SmartConfKeys.SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_KEY,
+        64 * 1024);
+    BufferPool small = BufferPool.get(conf);
+    Assert.assertNotSame(defaults, small);
+    Assert.assertEquals(64 * 1024, small.getMaxBufferSize());
+    Assert.assertSame(small, BufferPool.get(new Configuration(conf)));
+    Assert.assertSame(defaults, BufferPool.get(null));
+  }
+
+  @Test
+  public void testActionStorm() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            LeasingAction action = new LeasingAction(2, 0);
+            action.run();
+            return action.isSuccessful();
+          }
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        Assert.assertTrue(future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    pool.checkNoLeaks();
+    // At most the buffers in use concurrently are allocated
+    Assert.assertTrue(pool.getNumAllocated() <= 4 * 2);
+    Assert.assertEquals(400, pool.getNumAllocated() + pool.getNumReused());
+  }
+
+  /**
+   * Leases some buffers and leaves the last ones open.
+   */
+  private static class LeasingAction extends SmartAction {
+    private final int buffers;
+    private final int leaked;
+    private boolean fail = false;
+
+    LeasingAction(int buffers, int leaked) {
+      this.buffers = buffers;
+      this.leaked = leaked;
+    }
+
+    @Override
+    protected void execute() throws Exception {
+      for (int i = 0; i < buffers; i++) {
+        BufferPool.Lease lease = i % 2 == 0
+            ? leaseBuffer(64 * 1024) : leaseDirectBuffer(64 * 1024);
+        lease.buffer().put((byte) i);
+        if (i < buffers - leaked) {
+          lease.close();
+        }
+      }
+      if (fail) {
+        throw new Exception("Failed as expected");
+      }
+    }
+  }
+}
@@ -31,7 +31,9 @@ public class SmartConstants {
         + "org.smartdata.hdfs.scheduler.SmallFileScheduler,"
         + "org.smartdata.hdfs.scheduler.CompressionScheduler,"
         + "org.smartdata.hdfs.scheduler.ErasureCodingScheduler,"
-        + "org.smartdata.hdfs.scheduler.CacheScheduler";
+        + "org.smartdata.hdfs.scheduler.BlockErasureCodeScheduler,"
+        + "org.smartdata.hdfs.scheduler.CacheScheduler,"
+        + "org.smartdata.hdfs.scheduler.ChecksumScheduler";
 
   public static final String SMART_HDFS_LAST_INOTIFY_TXID =
     "smart_hadoop_last_inotify_txid";
@@ -55,5 +57,7 @@ public class SmartConstants {
 
   public static final String SMART_FILE_STATE_XATTR_NAME = "user.ssmFileState";
 
+  public static final String SMART_S3_LOCATION_XATTR_NAME = "user.coldloc";
+
   public static final String AGENT_CMDLET_SERVICE_NAME = "AgentCmdletService";
 }
@@ -149,6 +149,34 @@ public class SmartConfKeys {
   public static final long SMART_ACTION_COPY_THROTTLE_MB_DEFAULT = 0L;  // 0 means unlimited
   public static final String SMART_ACTION_EC_THROTTLE_MB_KEY = "smart.action.ec.throttle.mb";
   public static final long SMART_ACTION_EC_THROTTLE_MB_DEFAULT = 0L;
+  // Overlap reading the source with encoding/writing the target in EC conversion
+  public static final String SMART_ACTION_EC_PIPELINED_KEY = "smart.action.ec.pipelined";
+  public static final boolean SMART_ACTION_EC_PIPELINED_DEFAULT = true;
+  public static final String SMART_ACTION_EC_BUFFERS_KEY = "smart.action.ec.buffers";
+  public static final int SMART_ACTION_EC_BUFFERS_DEFAULT = 4;
+  public static final String SMART_ACTION_EC_CHECKPOINT_BLOCKS_KEY =
+      "smart.action.ec.checkpoint.blocks";
+  public static final int SMART_ACTION_EC_CHECKPOINT_BLOCKS_DEFAULT = 1;
+  public static final String SMART_ACTION_EC_CHECKPOINT_TTL_MS_KEY =
+      "smart.action.ec.checkpoint.ttl.ms";
+  public static final long SMART_ACTION_EC_CHECKPOINT_TTL_MS_DEFAULT = 7 * 24 * 3600 * 1000L;
+  // Order and filter ec conversions submitted by rules by their space saving
+  public static final String SMART_ACTION_EC_PLANNER_ENABLED_KEY =
+      "smart.action.ec.planner.enabled";
+  public static final boolean SMART_ACTION_EC_PLANNER_ENABLED_DEFAULT = true;
+  public static final String SMART_ACTION_EC_PLANNER_CHURN_PERIOD_MS_KEY =
+      "smart.action.ec.planner.churn.period.ms";
+  public static final long SMART_ACTION_EC_PLANNER_CHURN_PERIOD_MS_DEFAULT = 3600 * 1000L;
+  // Buffers shared by the data paths of actions in an agent
+  public static final String SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_KEY =
+      "smart.action.buffer.pool.heap.capacity";
+  public static final long SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_DEFAULT = 64 * 1024 * 1024;
+  public static final String SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_KEY =
+      "smart.action.buffer.pool.direct.capacity";
+  public static final long SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_DEFAULT = 32 * 1024 * 1024;
+  public static final String SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_KEY =
+      "smart.action.buffer.pool.max.buffer.size";
+  public static final int SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT = 8 * 1024 * 1024;
   public static final String SMART_ACTION_LOCAL_EXECUTION_DISABLED_KEY =
     "smart.action.local.execution.disabled";
   public static final boolean SMART_ACTION_LOCAL_EXECUTION_DISABLED_DEFAULT = false;
@@ -172,6 +200,38 @@ public class SmartConfKeys {
       "smart.compact.container.file.threshold.mb";
   public static final long SMART_COMPACT_CONTAINER_FILE_THRESHOLD_MB_DEFAULT =
       1024;
+  public static final String SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY =
+      "smart.compact.container.index.enabled";
+  public static final boolean SMART_COMPACT_CONTAINER_INDEX_ENABLED_DEFAULT =
+      false;
+
+  // Cache
+  /**
+   * Cache and uncache actions scheduled within this window are coalesced and
+   * their directives applied by SSM server in one batch. 0 disables batching.
+   */
+  public static final String SMART_CACHE_BATCH_WINDOW_MS_KEY = "smart.cache.batch.window.ms";
+  public static final long SMART_CACHE_BATCH_WINDOW_MS_DEFAULT = 500;
+
+  // Predictive cache prefetch
+  public static final String SMART_CACHE_PREFETCH_ENABLED_KEY = "smart.cache.prefetch.enabled";
+  public static final boolean SMART_CACHE_PREFETCH_ENABLED_DEFAULT = false;
+  public static final String SMART_CACHE_PREFETCH_BUDGET_KEY = "smart.cache.prefetch.budget";
+  public static final long SMART_CACHE_PREFETCH_BUDGET_DEFAULT = 1024 * 1024 * 1024L;
+  public static final String SMART_CACHE_PREFETCH_THRESHOLD_KEY =
+      "smart.cache.prefetch.threshold";
+  public static final double SMART_CACHE_PREFETCH_THRESHOLD_DEFAULT = 0.5;
+  public static final String SMART_CACHE_PREFETCH_MIN_PERIODS_KEY =
+      "smart.cache.prefetch.min.periods";
+  public static final int SMART_CACHE_PREFETCH_MIN_PERIODS_DEFAULT = 2;
+  public static final String SMART_CACHE_PREFETCH_MAX_IDLE_PERIODS_KEY =
+      "smart.cache.prefetch.max.idle.periods";
+  public static final int SMART_CACHE_PREFETCH_MAX_IDLE_PERIODS_DEFAULT = 7;
+  public static final String SMART_CACHE_PREFETCH_LEAD_MS_KEY = "smart.cache.prefetch.lead.ms";
+  public static final long SMART_CACHE_PREFETCH_LEAD_MS_DEFAULT = 5 * 60 * 1000L;
+  public static final String SMART_CACHE_PREFETCH_TOP_FILES_KEY =
+      "smart.cache.prefetch.top.files";
+  public static final int SMART_CACHE_PREFETCH_TOP_FILES_DEFAULT = 1000;
 
   // SmartClient
 
@@ -213,6 +273,69 @@ public class SmartConfKeys {
   // Compression
   public static final String SMART_COMPRESSION_CODEC = "smart.compression.codec";
   public static final String SMART_COMPRESSION_CODEC_DEFAULT = "Zlib";
+  public static final String SMART_COMPRESSION_CODEC_IMPL = "smart.compression.codec.impl";
+  public static final String SMART_COMPRESSION_CODEC_IMPL_DEFAULT = "auto";
   public static final String SMART_COMPRESSION_MAX_SPLIT = "smart.compression.max.split";
   public static final int SMART_COMPRESSION_MAX_SPLIT_DEFAULT = 1000;
+  public static final String SMART_COMPRESSION_THREADS = "smart.compression.threads";
+  public static final int SMART_COMPRESSION_THREADS_DEFAULT = 4;
+  public static final String SMART_COMPRESSION_MAX_MEMORY = "smart.compression.max.memory";
+  public static final long SMART_COMPRESSION_MAX_MEMORY_DEFAULT = 64 * 1024 * 1024;
+  public static final String SMART_COMPRESSION_ADAPTIVE_CODECS =
+      "smart.compression.adaptive.codecs";
+  public static final String SMART_COMPRESSION_ADAPTIVE_CODECS_DEFAULT = "Zlib,Lz4,snappy";
+  public static final String SMART_COMPRESSION_ADAPTIVE_BUFFER_SIZES =
+      "smart.compression.adaptive.buffer.sizes";
+  public static final String SMART_COMPRESSION_ADAPTIVE_BUFFER_SIZES_DEFAULT = "1MB,4MB";
+  public static final String SMART_COMPRESSION_ADAPTIVE_SAMPLES =
+      "smart.compression.adaptive.samples";
+  public static final int SMART_COMPRESSION_ADAPTIVE_SAMPLES_DEFAULT = 4;
+  public static final String SMART_COMPRESSION_ADAPTIVE_SAMPLE_BYTES =
+      "smart.compression.adaptive.sample.bytes";
+  public static final long SMART_COMPRESSION_ADAPTIVE_SAMPLE_BYTES_DEFAULT = 8 * 1024 * 1024;
+  public static final String SMART_COMPRESSION_ADAPTIVE_MAX_RATIO =
+      "smart.compression.adaptive.max.ratio";
+  public static final float SMART_COMPRESSION_ADAPTIVE_MAX_RATIO_DEFAULT = 0.9f;
+  public static final String SMART_COMPRESSION_ADAPTIVE_DECODE_WEIGHT =
+      "smart.compression.adaptive.decode.weight";
+  public static final float SMART_COMPRESSION_ADAPTIVE_DECODE_WEIGHT_DEFAULT = 0.01f;
+
+  // Block level erasure coding of files on Hadoop 2.x
+  public static final String SMART_BLOCK_EC_PARITY_DIR_KEY = "smart.block.ec.parity.dir";
+  public static final String SMART_BLOCK_EC_PARITY_DIR_DEFAULT = "/system/ssm/ec_parity/";
+  public static final String SMART_BLOCK_EC_DATA_UNITS_KEY = "smart.block.ec.data.units";
+  public static final int SMART_BLOCK_EC_DATA_UNITS_DEFAULT = 6;
+  public static final String SMART_BLOCK_EC_PARITY_UNITS_KEY = "smart.block.ec.parity.units";
+  public static final int SMART_BLOCK_EC_PARITY_UNITS_DEFAULT = 3;
+  public static final String SMART_BLOCK_EC_CELL_SIZE_KEY = "smart.block.ec.cell.size";
+  public static final int SMART_BLOCK_EC_CELL_SIZE_DEFAULT = 1024 * 1024;
+  public static final String SMART_BLOCK_EC_REPLICATION_KEY = "smart.block.ec.replication";
+  public static final short SMART_BLOCK_EC_REPLICATION_DEFAULT = 1;
+
+  // Remote (S3) read
+  public static final String SMART_S3_READ_RANGE_SIZE_KEY = "smart.s3.read.range.size";
+  public static final int SMART_S3_READ_RANGE_SIZE_DEFAULT = 1024 * 1024;
+  public static final String SMART_S3_READ_AHEAD_MAX_KEY = "smart.s3.read.ahead.max";
+  public static final long SMART_S3_READ_AHEAD_MAX_DEFAULT = 16 * 1024 * 1024;
+  public static final String SMART_S3_READ_CACHE_CAPACITY_KEY = "smart.s3.read.cache.capacity";
+  public static final long SMART_S3_READ_CACHE_CAPACITY_DEFAULT = 128 * 1024 * 1024;
+
+  // Compacted small file read
+  public static final String SMART_CLIENT_CONTAINER_CACHE_HANDLES_KEY =
+      "smart.client.container.cache.handles";
+  public static final int SMART_CLIENT_CONTAINER_CACHE_HANDLES_DEFAULT = 16;
+  public static final String SMART_CLIENT_CONTAINER_CACHE_RANGE_SIZE_KEY =
+      "smart.client.container.cache.range.size";
+  public static final int SMART_CLIENT_CONTAINER_CACHE_RANGE_SIZE_DEFAULT = 64 * 1024;
+  public static final String SMART_CLIENT_CONTAINER_CACHE_CAPACITY_KEY =
+      "smart.client.container.cache.capacity";
+  public static final long SMART_CLIENT_CONTAINER_CACHE_CAPACITY_DEFAULT = 0;
+  public static final String SMART_CLIENT_CONTAINER_CACHE_IDLE_MS_KEY =
+      "smart.client.container.cache.idle.ms";
+  public static final long SMART_CLIENT_CONTAINER_CACHE_IDLE_MS_DEFAULT = 60 * 1000L;
+
+  // Compressed file read
+  public static final String SMART_CLIENT_COMPRESSION_CACHE_CHUNKS_KEY =
+      "smart.client.compression.cache.chunks";
+  public static final int SMART_CLIENT_COMPRESSION_CACHE_CHUNKS_DEFAULT = 4;
 }
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+import java.io.Serializable;
+
+/**
+ * State of a file erasure coded at block level by SSM on Hadoop 2.x. Every
+ * numDataUnits consecutive blocks of the file form a group. Parity unit i of
+ * group g is stored at offset g * blockSize of parity file i, see
+ * {@link #getParityFilePath(int)}. The parity is only valid for the file
+ * length and modification time recorded here.
+ */
+public class BlockECFileState extends FileState implements Serializable {
+  private String parityPath;
+  private String codecName;
+  private int numDataUnits;
+  private int numParityUnits;
+  private int cellSize;
+  private long blockSize;
+  private long fileLength;
+  private long modificationTime;
+
+  public BlockECFileState(String path, String parityPath, String codecName,
+      int numDataUnits, int numParityUnits, int cellSize, long blockSize,
+      long fileLength, long modificationTime) {
+    this(path, parityPath, codecName, numDataUnits, numParityUnits, cellSize,
+        blockSize, fileLength, modificationTime, FileStage.DONE);
+  }
+
+  public BlockECFileState(String path, String parityPath, String codecName,
+      int numDataUnits, int numParityUnits, int cellSize, long blockSize,
+      long fileLength, long modificationTime, FileStage stage) {
+    super(path, FileType.BLOCK_EC, stage);
+    this.parityPath = parityPath;
+    this.codecName = codecName;
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+    this.cellSize = cellSize;
+    this.blockSize = blockSize;
+    this.fileLength = fileLength;
+    this.modificationTime = modificationTime;
+  }
+
+  /**
+   * @return common prefix of the parity files
+   */
+  public String getParityPath() {
+    return parityPath;
+  }
+
+  public String getParityFilePath(int parityIndex) {
+    return getParityFilePath(parityPath, parityIndex);
+  }
+
+  public static String getParityFilePath(String parityPath, int parityIndex) {
+    return parityPath + "_p" + parityIndex;
+  }
+
+  public String getCodecName() {
+    return codecName;
+  }
+
+  public int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  public int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  public int getCellSize() {
+    return cellSize;
+  }
+
+  public long getBlockSize() {
+    return blockSize;
+  }
+
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * @return modification time of the file when it was encoded
+   */
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
+  public void setModificationTime(long modificationTime) {
+    this.modificationTime = modificationTime;
+  }
+
+  public int getNumBlocks() {
+    return (int) ((fileLength + blockSize - 1) / blockSize);
+  }
+
+  public int getNumGroups() {
+    return (getNumBlocks() + numDataUnits - 1) / numDataUnits;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("BlockECFileState{path=%s, parityPath=%s, codec=%s, "
+        + "dataUnits=%d, parityUnits=%d, cellSize=%d, blockSize=%d, "
+        + "fileLength=%d, modificationTime=%d}", path, parityPath, codecName,
+        numDataUnits, numParityUnits, cellSize, blockSize, fileLength,
+        modificationTime);
+  }
+}
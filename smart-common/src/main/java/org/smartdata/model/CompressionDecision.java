@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+/**
+ * The codec and chunk (buffer) size chosen for a file by sampling it in
+ * adaptive compression, along with the estimation it is based on.
+ */
+public class CompressionDecision {
+  private String codec;
+  private int bufferSize;
+  // Compressed size / original size, including chunk index overhead
+  private double estimatedRatio;
+  // Decompression throughput in MB/s
+  private double decodeThroughput;
+  private double cost;
+  // True if the file is not worth compressing
+  private boolean skipped;
+
+  public CompressionDecision(String codec, int bufferSize, double estimatedRatio,
+      double decodeThroughput, double cost) {
+    this.codec = codec;
+    this.bufferSize = bufferSize;
+    this.estimatedRatio = estimatedRatio;
+    this.decodeThroughput = decodeThroughput;
+    this.cost = cost;
+  }
+
+  public String getCodec() {
+    return codec;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public double getEstimatedRatio() {
+    return estimatedRatio;
+  }
+
+  public double getDecodeThroughput() {
+    return decodeThroughput;
+  }
+
+  public double getCost() {
+    return cost;
+  }
+
+  public boolean isSkipped() {
+    return skipped;
+  }
+
+  public void setSkipped(boolean skipped) {
+    this.skipped = skipped;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("codec=%s, bufferSize=%d, estimatedRatio=%.3f, "
+            + "decodeThroughput=%.1fMB/s, cost=%.3f, skipped=%s",
+        codec, bufferSize, estimatedRatio, decodeThroughput, cost, skipped);
+  }
+}
@@ -27,6 +27,8 @@ public class CompressionFileInfo {
   private boolean needReplace = false;
   private String tempPath = null;
   private CompressionFileState compressionFileState = null;
+  // Only for adaptive compression
+  private CompressionDecision compressionDecision = null;
 
   public CompressionFileInfo(boolean needReplace, CompressionFileState compressionFileState) {
     this(needReplace, null, compressionFileState);
@@ -51,6 +53,14 @@ public void setNeedReplace(boolean needReplace) {
     this.needReplace = needReplace;
   }
 
+  public void setCompressionDecision(CompressionDecision compressionDecision) {
+    this.compressionDecision = compressionDecision;
+  }
+
+  public CompressionDecision getCompressionDecision() {
+    return compressionDecision;
+  }
+
   public CompressionFileState getCompressionFileState() {
     return compressionFileState;
   }
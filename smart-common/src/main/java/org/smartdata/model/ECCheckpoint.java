@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+import java.util.Objects;
+
+/**
+ * Progress of a partially finished ec or unec conversion. The bytes before
+ * committed are already written to closed parts of the temp file, which are
+ * reused by the next attempt as long as the source still has the recorded
+ * length and modification time.
+ */
+public class ECCheckpoint {
+  private String path;
+  private String tmpPath;
+  private long committed;
+  private long srcLength;
+  private long srcMtime;
+  private long updateTime;
+
+  public ECCheckpoint(String path, String tmpPath, long committed,
+      long srcLength, long srcMtime, long updateTime) {
+    this.path = path;
+    this.tmpPath = tmpPath;
+    this.committed = committed;
+    this.srcLength = srcLength;
+    this.srcMtime = srcMtime;
+    this.updateTime = updateTime;
+  }
+
+  public ECCheckpoint() {
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  public String getTmpPath() {
+    return tmpPath;
+  }
+
+  public void setTmpPath(String tmpPath) {
+    this.tmpPath = tmpPath;
+  }
+
+  public long getCommitted() {
+    return committed;
+  }
+
+  public void setCommitted(long committed) {
+    this.committed = committed;
+  }
+
+  public long getSrcLength() {
+    return srcLength;
+  }
+
+  public void setSrcLength(long srcLength) {
+    this.srcLength = srcLength;
+  }
+
+  public long getSrcMtime() {
+    return srcMtime;
+  }
+
+  public void setSrcMtime(long srcMtime) {
+    this.srcMtime = srcMtime;
+  }
+
+  public long getUpdateTime() {
+    return updateTime;
+  }
+
+  public void setUpdateTime(long updateTime) {
+    this.updateTime = updateTime;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ECCheckpoint that = (ECCheckpoint) o;
+    return committed == that.committed
+        && srcLength == that.srcLength
+        && srcMtime == that.srcMtime
+        && updateTime == that.updateTime
+        && Objects.equals(path, that.path)
+        && Objects.equals(tmpPath, that.tmpPath);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(path, tmpPath, committed, srcLength, srcMtime, updateTime);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ECCheckpoint{path=\'%s\', tmpPath=\'%s\', committed=%s, srcLength=%s, "
+            + "srcMtime=%s, updateTime=%s}",
+        path, tmpPath, committed, srcLength, srcMtime, updateTime);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+import java.util.List;
+
+/**
+ * Block level checksums of a file. It is generated by CheckSumAction and
+ * persisted into metastore keyed by fid and block index. The modification
+ * time and length are kept as a fingerprint, so that an unchanged file can
+ * be skipped in later incremental checksum runs.
+ */
+public class FileBlockChecksum {
+  private String path;
+  private long fid;
+  private long modificationTime;
+  private long length;
+  private long blockSize;
+  private String algorithm;
+  private List<String> blockChecksums;
+
+  public FileBlockChecksum(String path, long fid, long modificationTime,
+      long length, long blockSize, String algorithm, List<String> blockChecksums) {
+    this.path = path;
+    this.fid = fid;
+    this.modificationTime = modificationTime;
+    this.length = length;
+    this.blockSize = blockSize;
+    this.algorithm = algorithm;
+    this.blockChecksums = blockChecksums;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  public long getFid() {
+    return fid;
+  }
+
+  public long getModificationTime() {
+    return modificationTime;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public long getBlockSize() {
+    return blockSize;
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  public List<String> getBlockChecksums() {
+    return blockChecksums;
+  }
+
+  /**
+   * Whether the file described by the given status is unchanged since
+   * this checksum was calculated.
+   */
+  public boolean matches(long fid, long modificationTime, long length) {
+    return this.fid == fid && this.modificationTime == modificationTime
+        && this.length == length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "FileBlockChecksum{path=%s, fid=%d, modificationTime=%d, length=%d, "
+            + "blockSize=%d, algorithm=%s, blockChecksums=%s}",
+        path, fid, modificationTime, length, blockSize, algorithm, blockChecksums);
+  }
+}
@@ -77,7 +77,8 @@ public enum FileType {
     NORMAL(0),
     COMPACT(1),
     COMPRESSION(2),
-    S3(3);
+    S3(3),
+    BLOCK_EC(4);
 
     private final int value;
 
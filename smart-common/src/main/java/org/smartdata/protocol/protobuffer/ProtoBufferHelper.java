@@ -21,6 +21,7 @@
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.ActionDescriptor;
 import org.smartdata.model.ActionInfo;
+import org.smartdata.model.BlockECFileState;
 import org.smartdata.model.CmdletDescriptor;
 import org.smartdata.model.CmdletInfo;
 import org.smartdata.model.CmdletState;
@@ -36,6 +37,7 @@
 import org.smartdata.protocol.AdminServerProto.ActionInfoProto.Builder;
 import org.smartdata.protocol.AdminServerProto.CmdletInfoProto;
 import org.smartdata.protocol.AdminServerProto.RuleInfoProto;
+import org.smartdata.protocol.ClientServerProto.BlockECFileStateProto;
 import org.smartdata.protocol.ClientServerProto.CompactFileStateProto;
 import org.smartdata.protocol.ClientServerProto.CompressionFileStateProto;
 import org.smartdata.protocol.ClientServerProto.FileStateProto;
@@ -217,6 +219,12 @@ public static FileState convert(FileStateProto proto) {
         // convert to S3FileState
         // fileState = convert(path, type, stage, s3Proto);
         break;
+      case BLOCK_EC:
+        // Still readable as a normal file while being erasure coded
+        fileState = proto.hasBlockECFileState()
+            ? convert(path, stage, proto.getBlockECFileState())
+            : new NormalFileState(path);
+        break;
       default:
     }
     return fileState;
@@ -236,6 +244,8 @@ public static FileStateProto convert(FileState fileState) {
           .setLength(fileContainerInfo.getLength()));
     } else if (fileState instanceof CompressionFileState) {
       builder.setCompressionFileState(convert((CompressionFileState) fileState));
+    } else if (fileState instanceof BlockECFileState) {
+      builder.setBlockECFileState(convert((BlockECFileState) fileState));
     }
     /*else if (fileState instanceof S3FileState) {
       builder.setS3FileState();
@@ -269,4 +279,25 @@ public static CompressionFileStateProto convert(CompressionFileState fileState)
     builder.addAllCompressedPos(Arrays.asList(fileState.getCompressedPos()));
     return builder.build();
   }
+
+  public static BlockECFileState convert(String path,
+      FileState.FileStage stage, BlockECFileStateProto proto) {
+    return new BlockECFileState(path, proto.getParityPath(),
+        proto.getCodecName(), proto.getNumDataUnits(),
+        proto.getNumParityUnits(), proto.getCellSize(), proto.getBlockSize(),
+        proto.getFileLength(), proto.getModificationTime(), stage);
+  }
+
+  public static BlockECFileStateProto convert(BlockECFileState fileState) {
+    return BlockECFileStateProto.newBuilder()
+        .setParityPath(fileState.getParityPath())
+        .setCodecName(fileState.getCodecName())
+        .setNumDataUnits(fileState.getNumDataUnits())
+        .setNumParityUnits(fileState.getNumParityUnits())
+        .setCellSize(fileState.getCellSize())
+        .setBlockSize(fileState.getBlockSize())
+        .setFileLength(fileState.getFileLength())
+        .setModificationTime(fileState.getModificationTime())
+        .build();
+  }
 }
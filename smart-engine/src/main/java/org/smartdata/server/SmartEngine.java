@@ -25,6 +25,7 @@
 import org.smartdata.model.Utilization;
 import org.smartdata.server.cluster.NodeInfo;
 import org.smartdata.server.engine.ActiveServerInfo;
+import org.smartdata.server.engine.CachePrefetcher;
 import org.smartdata.server.engine.CmdletManager;
 import org.smartdata.server.engine.ConfManager;
 import org.smartdata.server.engine.RuleManager;
@@ -51,6 +52,7 @@ public class SmartEngine extends AbstractService {
   private StatesManager statesMgr;
   private RuleManager ruleMgr;
   private CmdletManager cmdletManager;
+  private CachePrefetcher cachePrefetcher;
   private AgentExecutorService agentService;
   private HazelcastExecutorService hazelcastService;
   private List<AbstractService> services = new ArrayList<>();
@@ -74,6 +76,8 @@ public void init() throws IOException {
     cmdletManager.registerExecutorService(hazelcastService);
     ruleMgr = new RuleManager(serverContext, statesMgr, cmdletManager);
     services.add(ruleMgr);
+    cachePrefetcher = new CachePrefetcher(serverContext, statesMgr, cmdletManager);
+    services.add(cachePrefetcher);
 
     for (AbstractService s : services) {
       s.init();
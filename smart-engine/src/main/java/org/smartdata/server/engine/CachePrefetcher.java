@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.AbstractService;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.action.CacheFileAction;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.metastore.dao.AccessCountTable;
+import org.smartdata.metastore.utils.TimeGranularity;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CachedFileStatus;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileAccessInfo;
+import org.smartdata.model.FileInfo;
+import org.smartdata.server.engine.data.AccessPredictor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches files ahead of their predicted access. Daily access patterns are
+ * learned from the hourly access count tables; files predicted for the next
+ * hour are cached shortly before it starts, as long as all cached files
+ * stay within the configured budget, and uncached once the hour ends unless
+ * predicted again.
+ *
+ * <p>Only files whose cache directive was created by the prefetcher are
+ * uncached; files cached by others (e.g. rules) are left untouched.
+ *
+ * <p>Neither the learned model nor the set of prefetched files is persisted.
+ * After a restart the model is rebuilt from the hourly tables still kept in
+ * the metastore, and files prefetched before the restart stay cached until
+ * uncached by other means.
+ */
+public class CachePrefetcher extends AbstractService {
+  static final Logger LOG = LoggerFactory.getLogger(CachePrefetcher.class);
+
+  private static final long HOUR = 60 * 60 * 1000L;
+  private static final long DAY = 24 * HOUR;
+  private static final long CHECK_INTERVAL_MS = 60 * 1000L;
+
+  private final ServerContext serverContext;
+  private final StatesManager statesManager;
+  private final CmdletManager cmdletManager;
+  private final boolean enabled;
+  private final long budget;
+  private final long leadMs;
+  private final int topFiles;
+  private final AccessPredictor predictor;
+  // Files cached by prefetching
+  private final Map<String, Prefetch> prefetched = new HashMap<>();
+  private long lastPrefetchedBucket = -1;
+  private ScheduledExecutorService executorService;
+
+  public CachePrefetcher(ServerContext context, StatesManager statesManager,
+      CmdletManager cmdletManager) {
+    super(context);
+    this.serverContext = context;
+    this.statesManager = statesManager;
+    this.cmdletManager = cmdletManager;
+    SmartConf conf = context.getConf();
+    this.enabled = conf.getBoolean(SmartConfKeys.SMART_CACHE_PREFETCH_ENABLED_KEY,
+        SmartConfKeys.SMART_CACHE_PREFETCH_ENABLED_DEFAULT);
+    this.budget = conf.getLong(SmartConfKeys.SMART_CACHE_PREFETCH_BUDGET_KEY,
+        SmartConfKeys.SMART_CACHE_PREFETCH_BUDGET_DEFAULT);
+    this.leadMs = conf.getLong(SmartConfKeys.SMART_CACHE_PREFETCH_LEAD_MS_KEY,
+        SmartConfKeys.SMART_CACHE_PREFETCH_LEAD_MS_DEFAULT);
+    this.topFiles = conf.getInt(SmartConfKeys.SMART_CACHE_PREFETCH_TOP_FILES_KEY,
+        SmartConfKeys.SMART_CACHE_PREFETCH_TOP_FILES_DEFAULT);
+    this.predictor = new AccessPredictor(HOUR, DAY,
+        conf.getDouble(SmartConfKeys.SMART_CACHE_PREFETCH_THRESHOLD_KEY,
+            SmartConfKeys.SMART_CACHE_PREFETCH_THRESHOLD_DEFAULT),
+        conf.getInt(SmartConfKeys.SMART_CACHE_PREFETCH_MIN_PERIODS_KEY,
+            SmartConfKeys.SMART_CACHE_PREFETCH_MIN_PERIODS_DEFAULT),
+        conf.getInt(SmartConfKeys.SMART_CACHE_PREFETCH_MAX_IDLE_PERIODS_KEY,
+            SmartConfKeys.SMART_CACHE_PREFETCH_MAX_IDLE_PERIODS_DEFAULT));
+  }
+
+  @Override
+  public void init() throws IOException {
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    executorService = Executors.newSingleThreadScheduledExecutor();
+    executorService.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          check(System.currentTimeMillis());
+        } catch (Throwable t) {
+          LOG.error("Cache prefetch check failed", t);
+        }
+      }
+    }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    LOG.info("Cache prefetch started with budget {} bytes", budget);
+  }
+
+  @Override
+  public void stop() throws IOException {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized void check(long now) throws MetaStoreException {
+    ingestHistory();
+    confirmPrefetches();
+    uncacheExpired(now);
+    long nextBucket = (now / HOUR + 1) * HOUR;
+    if (now >= nextBucket - leadMs && nextBucket != lastPrefetchedBucket) {
+      prefetch(nextBucket);
+      lastPrefetchedBucket = nextBucket;
+    }
+  }
+
+  private void ingestHistory() throws MetaStoreException {
+    MetaStore metaStore = serverContext.getMetaStore();
+    for (AccessCountTable table : statesManager.getTables(TimeGranularity.HOUR)) {
+      if (table.getStartTime() <= predictor.getLastObserved()) {
+        continue;
+      }
+      List<String> paths = new ArrayList<>();
+      for (FileAccessInfo info : metaStore.getHotFiles(
+          Collections.singletonList(table), topFiles)) {
+        paths.add(info.getPath());
+      }
+      predictor.observe(table.getStartTime(), paths);
+    }
+  }
+
+  private void prefetch(long bucket) throws MetaStoreException {
+    Map<String, Double> predictions = predictor.predict(bucket);
+    if (predictions.isEmpty()) {
+      return;
+    }
+    // Files staying cached into the bucket count against the budget. Only
+    // prefetched files expiring when it starts may be replaced.
+    Set<String> cached = new HashSet<>();
+    MetaStore metaStore = serverContext.getMetaStore();
+    for (CachedFileStatus status : metaStore.getCachedFileStatus()) {
+      Prefetch prefetch = prefetched.get(status.getPath());
+      if (prefetch == null || prefetch.expireTime > bucket) {
+        cached.add(status.getPath());
+      }
+    }
+    for (Map.Entry<String, Prefetch> entry : prefetched.entrySet()) {
+      if (entry.getValue().expireTime > bucket) {
+        cached.add(entry.getKey());
+      }
+    }
+    predictions.keySet().removeAll(cached);
+    if (predictions.isEmpty()) {
+      return;
+    }
+
+    Set<String> paths = new HashSet<>(cached);
+    paths.addAll(predictions.keySet());
+    long cachedBytes = 0;
+    Map<String, Long> lengths = new HashMap<>();
+    for (FileInfo info : metaStore.getFilesByPaths(paths)) {
+      if (cached.contains(info.getPath())) {
+        cachedBytes += info.getLength();
+      } else if (!info.isdir()) {
+        lengths.put(info.getPath(), info.getLength());
+      }
+    }
+    long expireTime = bucket + HOUR;
+    for (String path : AccessPredictor.selectWithinBudget(
+        predictions, lengths, budget - cachedBytes)) {
+      Prefetch prefetch = prefetched.get(path);
+      if (prefetch != null) {
+        // Predicted again, keep it cached for one more hour
+        prefetch.expireTime = expireTime;
+        continue;
+      }
+      long cid = submit("cache -file " + path);
+      if (cid >= 0) {
+        prefetched.put(path, new Prefetch(cid, expireTime));
+      }
+    }
+  }
+
+  /**
+   * Keep the files only once their cache cmdlets are done and their cache
+   * actions report having created the cache directive. Files found cached
+   * by others in the meantime, or whose cache cmdlets failed, are forgotten.
+   */
+  private void confirmPrefetches() {
+    Iterator<Map.Entry<String, Prefetch>> it = prefetched.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Prefetch> entry = it.next();
+      Prefetch prefetch = entry.getValue();
+      if (prefetch.confirmed) {
+        continue;
+      }
+      try {
+        CmdletInfo cmdletInfo = cmdletManager.getCmdletInfo(prefetch.cid);
+        if (cmdletInfo == null) {
+          it.remove();
+          continue;
+        }
+        if (!CmdletState.isTerminalState(cmdletInfo.getState())) {
+          continue;
+        }
+        if (cmdletInfo.getState() == CmdletState.DONE) {
+          ActionInfo actionInfo = cmdletManager.getActionInfo(cmdletInfo.getAids().get(0));
+          String result = actionInfo == null ? null : actionInfo.getResult();
+          if (result != null && result.contains(CacheFileAction.DIRECTIVE_ADDED)) {
+            prefetch.confirmed = true;
+            continue;
+          }
+        }
+        it.remove();
+      } catch (IOException e) {
+        LOG.warn("Failed to check cache cmdlet " + prefetch.cid
+            + " of " + entry.getKey(), e);
+      }
+    }
+  }
+
+  private void uncacheExpired(long now) {
+    Iterator<Map.Entry<String, Prefetch>> it = prefetched.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Prefetch> entry = it.next();
+      Prefetch prefetch = entry.getValue();
+      if (prefetch.confirmed && prefetch.expireTime <= now
+          && submit("uncache -file " + entry.getKey()) >= 0) {
+        it.remove();
+      }
+    }
+  }
+
+  private long submit(String cmd) {
+    try {
+      return cmdletManager.submitCmdlet(cmd);
+    } catch (IOException e) {
+      LOG.warn("Failed to submit '" + cmd + "'", e);
+      return -1;
+    }
+  }
+
+  private static class Prefetch {
+    // Cmdlet caching the file
+    private final long cid;
+    // Time after which the file can be uncached
+    private long expireTime;
+    // Whether the cache directive was created by the cmdlet
+    private boolean confirmed;
+
+    Prefetch(long cid, long expireTime) {
+      this.cid = cid;
+      this.expireTime = expireTime;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized Set<String> getPrefetched() {
+    return new HashSet<>(prefetched.keySet());
+  }
+}
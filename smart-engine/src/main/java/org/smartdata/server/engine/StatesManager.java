@@ -27,6 +27,7 @@
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.metastore.dao.AccessCountTable;
 import org.smartdata.metastore.dao.AccessCountTableManager;
+import org.smartdata.metastore.utils.TimeGranularity;
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.metrics.FileAccessEventSource;
 import org.smartdata.metrics.impl.MetricsFactory;
@@ -139,6 +140,10 @@ public List<AccessCountTable> getTablesInLast(long timeInMills) throws MetaStore
     return this.accessCountTableManager.getTables(timeInMills);
   }
 
+  public List<AccessCountTable> getTables(TimeGranularity granularity) {
+    return this.accessCountTableManager.getTables(granularity);
+  }
+
   public void reportFileAccessEvent(FileAccessEvent event) throws IOException {
     String path = event.getPath();
     path = path + (path.endsWith("/") ? "" : "/");
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Learns periodic access patterns from access counts aggregated in fixed-size
+ * time buckets, and predicts the files to be accessed in an upcoming bucket.
+ *
+ * <p>A period (e.g. one day) is split into slots of bucket size (e.g. one hour).
+ * For every file and every parent directory the predictor counts in how many
+ * observed periods it was accessed in each slot. A file is predicted for a slot
+ * if that fraction reaches the threshold. Files of a directory that is regularly
+ * accessed in a slot are predicted as well if they have been accessed in that
+ * slot before, which captures jobs reading a varying subset of sibling files.
+ *
+ * <p>Files and directories not accessed for maxIdlePeriods periods are
+ * forgotten, so the history kept is bounded by the paths accessed lately.
+ */
+public class AccessPredictor {
+  private static final int PERIODICITY_FACTOR = 2;
+
+  private final long bucketMillis;
+  private final long periodMillis;
+  private final int slotsPerPeriod;
+  private final double threshold;
+  private final int minPeriods;
+  private final long maxIdleMillis;
+
+  private final int[] slotObservations;
+  private final Map<String, Hits> fileHits = new HashMap<>();
+  private final Map<String, Hits> dirHits = new HashMap<>();
+  private final Map<String, Set<String>> dirFiles = new HashMap<>();
+  private long lastObserved = Long.MIN_VALUE;
+  private long lastEvicted = Long.MIN_VALUE;
+
+  public AccessPredictor(long bucketMillis, long periodMillis,
+      double threshold, int minPeriods, int maxIdlePeriods) {
+    if (bucketMillis <= 0 || periodMillis % bucketMillis != 0) {
+      throw new IllegalArgumentException("Period must be a multiple of bucket size");
+    }
+    if (maxIdlePeriods <= 0) {
+      throw new IllegalArgumentException("Invalid max idle periods " + maxIdlePeriods);
+    }
+    this.bucketMillis = bucketMillis;
+    this.periodMillis = periodMillis;
+    this.slotsPerPeriod = (int) (periodMillis / bucketMillis);
+    this.threshold = threshold;
+    this.minPeriods = minPeriods;
+    this.maxIdleMillis = maxIdlePeriods * periodMillis;
+    this.slotObservations = new int[slotsPerPeriod];
+  }
+
+  public long getBucketMillis() {
+    return bucketMillis;
+  }
+
+  public synchronized long getLastObserved() {
+    return lastObserved;
+  }
+
+  /**
+   * Record the files accessed in the bucket starting at bucketStart.
+   * Buckets must be observed in time order, each one once.
+   */
+  public synchronized void observe(long bucketStart, Collection<String> accessedPaths) {
+    if (bucketStart <= lastObserved) {
+      return;
+    }
+    lastObserved = bucketStart;
+    int slot = slotOf(bucketStart);
+    slotObservations[slot]++;
+    Set<String> dirs = new HashSet<>();
+    for (String path : new HashSet<>(accessedPaths)) {
+      increment(fileHits, path, bucketStart, slot);
+      String dir = parentOf(path);
+      if (dir != null) {
+        dirs.add(dir);
+        Set<String> files = dirFiles.get(dir);
+        if (files == null) {
+          files = new HashSet<>();
+          dirFiles.put(dir, files);
+        }
+        files.add(path);
+      }
+    }
+    for (String dir : dirs) {
+      increment(dirHits, dir, bucketStart, slot);
+    }
+    if (bucketStart >= lastEvicted + periodMillis) {
+      evictIdle(bucketStart - maxIdleMillis);
+      lastEvicted = bucketStart;
+    }
+  }
+
+  /**
+   * Forget the files and directories last accessed before the given time.
+   * A directory is last accessed when its latest file is, so it is
+   * forgotten together with its last file.
+   */
+  private void evictIdle(long before) {
+    Iterator<Map.Entry<String, Hits>> it = fileHits.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Hits> entry = it.next();
+      if (entry.getValue().lastAccess >= before) {
+        continue;
+      }
+      it.remove();
+      String dir = parentOf(entry.getKey());
+      if (dir == null) {
+        continue;
+      }
+      Set<String> files = dirFiles.get(dir);
+      files.remove(entry.getKey());
+      if (files.isEmpty()) {
+        dirFiles.remove(dir);
+        dirHits.remove(dir);
+      }
+    }
+  }
+
+  /**
+   * Get the number of files with access history.
+   */
+  public synchronized int getNumFiles() {
+    return fileHits.size();
+  }
+
+  /**
+   * Get the number of directories with access history.
+   */
+  public synchronized int getNumDirs() {
+    return dirHits.size();
+  }
+
+  /**
+   * Predict the files to be accessed in the bucket starting at bucketStart.
+   *
+   * @return predicted paths with a score in (0, 1]
+   */
+  public synchronized Map<String, Double> predict(long bucketStart) {
+    Map<String, Double> predictions = new HashMap<>();
+    int slot = slotOf(bucketStart);
+    int periods = slotObservations[slot];
+    if (periods < minPeriods) {
+      return predictions;
+    }
+    for (Map.Entry<String, Hits> entry : fileHits.entrySet()) {
+      double p = (double) entry.getValue().counts[slot] / periods;
+      if (p >= threshold) {
+        predictions.put(entry.getKey(), p);
+      }
+    }
+    for (Map.Entry<String, Hits> entry : dirHits.entrySet()) {
+      int[] hits = entry.getValue().counts;
+      double dirP = (double) hits[slot] / periods;
+      if (dirP < threshold || !isPeriodic(hits, slot)) {
+        continue;
+      }
+      for (String file : dirFiles.get(entry.getKey())) {
+        int fileHitsInSlot = fileHits.get(file).counts[slot];
+        if (fileHitsInSlot > 0 && !predictions.containsKey(file)) {
+          predictions.put(file, (dirP + (double) fileHitsInSlot / periods) / 2);
+        }
+      }
+    }
+    return predictions;
+  }
+
+  /**
+   * Pick the predicted files with the highest scores whose total length
+   * fits in the budget. Files of unknown length are skipped.
+   */
+  public static List<String> selectWithinBudget(final Map<String, Double> predictions,
+      Map<String, Long> lengths, long budget) {
+    List<String> candidates = new ArrayList<>(predictions.keySet());
+    Collections.sort(candidates, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int c = Double.compare(predictions.get(b), predictions.get(a));
+        return c != 0 ? c : a.compareTo(b);
+      }
+    });
+    List<String> selected = new ArrayList<>();
+    long used = 0;
+    for (String path : candidates) {
+      Long length = lengths.get(path);
+      if (length == null || used + length > budget) {
+        continue;
+      }
+      used += length;
+      selected.add(path);
+    }
+    return selected;
+  }
+
+  /**
+   * A directory accessed around the clock (e.g. by many unrelated clients)
+   * says nothing about which of its files will be read in a given slot, so
+   * siblings are only pulled in if the slot stands out from the average.
+   */
+  private boolean isPeriodic(int[] hits, int slot) {
+    long total = 0;
+    for (int h : hits) {
+      total += h;
+    }
+    return (long) hits[slot] * slotsPerPeriod >= PERIODICITY_FACTOR * total;
+  }
+
+  private int slotOf(long time) {
+    return (int) ((time % periodMillis) / bucketMillis);
+  }
+
+  private void increment(Map<String, Hits> hits, String key, long time, int slot) {
+    Hits entry = hits.get(key);
+    if (entry == null) {
+      entry = new Hits(slotsPerPeriod);
+      hits.put(key, entry);
+    }
+    entry.counts[slot]++;
+    entry.lastAccess = time;
+  }
+
+  private static String parentOf(String path) {
+    int idx = path.lastIndexOf('/');
+    return idx > 0 ? path.substring(0, idx) : null;
+  }
+
+  /**
+   * The number of observed periods with accesses in each slot, and the time
+   * of the last access.
+   */
+  private static final class Hits {
+    private final int[] counts;
+    private long lastAccess;
+
+    Hits(int slots) {
+      this.counts = new int[slots];
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.rule;
+
+import org.smartdata.SmartFilePermission;
+import org.smartdata.hdfs.action.SmallFileCompactAction;
+import org.smartdata.model.FileInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans which container each small file is compacted to.
+ *
+ * <p>Small files are first grouped by directory, permission, storage policy
+ * and whether they have been accessed recently, so a container only holds
+ * files likely to be read and uncompacted together. Each group is packed
+ * with best-fit decreasing into containers of the configured size, reusing
+ * the free space of existing containers of the same directory and
+ * permission first. Inside a container, files are ordered to fill each
+ * block as tightly as possible; the small gap left at the end of a block
+ * is padded by the compact action (see
+ * {@link SmallFileCompactAction#alignOffset}), so that hardly any file
+ * straddles a block boundary. Since padding takes up to
+ * 1/{@link #MAX_PADDING_RATIO} of each block, that much room is kept free
+ * per block when packing, so the padded container stays within its size.
+ * A container is filled by one or more batches of at most batchSize files,
+ * which must be compacted in the order they are planned.
+ */
+public class SmallFilePackingPlanner {
+  // Padding at most 1% of a block to align a small file
+  public static final int MAX_PADDING_RATIO = 100;
+  private final long containerSize;
+  private final long blockSize;
+  private final int batchSize;
+
+  /**
+   * @param containerSize max size of a container file
+   * @param blockSize block size of new container files
+   * @param batchSize max number of small files per compact action
+   */
+  public SmallFilePackingPlanner(long containerSize, long blockSize, int batchSize) {
+    this.containerSize = containerSize;
+    this.blockSize = blockSize;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @return the max padding of a block in a container of the given block size
+   */
+  public static long getMaxPadding(long blockSize) {
+    return blockSize / MAX_PADDING_RATIO;
+  }
+
+  /**
+   * @return room kept for padding in a container of the given block size
+   */
+  private long getPaddingReserve(long blockSize) {
+    if (blockSize <= 0) {
+      return 0;
+    }
+    return (containerSize + blockSize - 1) / blockSize * getMaxPadding(blockSize);
+  }
+
+  /**
+   * Plan the batches to compact the given small files.
+   *
+   * @param smallFiles small files to be compacted
+   * @param accessCounts recent access counts by path, may be partial
+   * @param containers existing container files which can be appended to,
+   *                   the ones chosen are removed from the list
+   * @return batches in the order they should be submitted
+   */
+  public List<Batch> plan(List<FileInfo> smallFiles,
+      Map<String, Integer> accessCounts, List<FileInfo> containers) {
+    // Group small files
+    Map<GroupKey, List<FileInfo>> groups = new LinkedHashMap<>();
+    for (FileInfo fileInfo : smallFiles) {
+      Integer count = accessCounts.get(fileInfo.getPath());
+      GroupKey key = new GroupKey(fileInfo, count != null && count > 0);
+      List<FileInfo> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(key, group);
+      }
+      group.add(fileInfo);
+    }
+
+    List<Batch> batches = new ArrayList<>();
+    for (Map.Entry<GroupKey, List<FileInfo>> entry : groups.entrySet()) {
+      for (Bin bin : pack(entry.getKey(), entry.getValue(), containers)) {
+        List<FileInfo> ordered = alignToBlocks(bin);
+        for (int i = 0; i < ordered.size(); i += batchSize) {
+          List<String> paths = new ArrayList<>();
+          for (FileInfo fileInfo : ordered.subList(i, Math.min(i + batchSize, ordered.size()))) {
+            paths.add(fileInfo.getPath());
+          }
+          batches.add(new Batch(bin.container, paths));
+        }
+      }
+    }
+    return batches;
+  }
+
+  /**
+   * Best-fit decreasing packing of one group.
+   */
+  private List<Bin> pack(GroupKey key, List<FileInfo> files, List<FileInfo> containers) {
+    List<Bin> bins = new ArrayList<>();
+    List<FileInfo> sorted = new ArrayList<>(files);
+    Collections.sort(sorted, new Comparator<FileInfo>() {
+      @Override
+      public int compare(FileInfo a, FileInfo b) {
+        return Long.compare(b.getLength(), a.getLength());
+      }
+    });
+
+    for (FileInfo fileInfo : sorted) {
+      Bin best = null;
+      for (Bin bin : bins) {
+        if (bin.free() >= fileInfo.getLength()
+            && (best == null || bin.free() < best.free())) {
+          best = bin;
+        }
+      }
+      if (best == null) {
+        best = takeContainer(key, fileInfo.getLength(), containers);
+      }
+      if (best == null) {
+        best = new Bin(new Container(key.dir, key.permission, blockSize), 0);
+      }
+      if (!bins.contains(best)) {
+        bins.add(best);
+      }
+      best.add(fileInfo);
+    }
+    return bins;
+  }
+
+  /**
+   * Take the existing container of the group with least free space
+   * which can still hold the file.
+   */
+  private Bin takeContainer(GroupKey key, long length, List<FileInfo> containers) {
+    FileInfo best = null;
+    for (FileInfo container : containers) {
+      String path = container.getPath();
+      if (path.substring(0, path.lastIndexOf("/") + 1).equals(key.dir)
+          && new SmartFilePermission(container).equals(key.permission)
+          && containerSize - getPaddingReserve(getBlockSize(container))
+              - container.getLength() >= length
+          && (best == null || container.getLength() > best.getLength())) {
+        best = container;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    containers.remove(best);
+    return new Bin(new Container(best.getPath(), getBlockSize(best)), best.getLength());
+  }
+
+  private long getBlockSize(FileInfo container) {
+    return container.getBlocksize() > 0 ? container.getBlocksize() : blockSize;
+  }
+
+  /**
+   * Order the files of a bin so that each one fits in the rest of the
+   * current block if possible. When nothing fits, the gap is padded if
+   * small enough, otherwise the largest file straddles.
+   */
+  private List<FileInfo> alignToBlocks(Bin bin) {
+    List<FileInfo> remaining = new ArrayList<>(bin.files);
+    // Largest first, so the largest fitting file is the first found
+    Collections.sort(remaining, new Comparator<FileInfo>() {
+      @Override
+      public int compare(FileInfo a, FileInfo b) {
+        return Long.compare(b.getLength(), a.getLength());
+      }
+    });
+    List<FileInfo> ordered = new ArrayList<>(remaining.size());
+    long blockSize = bin.container.blockSize;
+    long maxPadding = bin.container.getMaxPadding();
+    long offset = bin.startOffset;
+    while (!remaining.isEmpty()) {
+      long rest = blockSize - offset % blockSize;
+      FileInfo next = null;
+      for (Iterator<FileInfo> it = remaining.iterator(); it.hasNext();) {
+        FileInfo fileInfo = it.next();
+        if (fileInfo.getLength() <= rest) {
+          next = fileInfo;
+          it.remove();
+          break;
+        }
+      }
+      if (next == null) {
+        next = remaining.remove(0);
+      }
+      ordered.add(next);
+      offset = SmallFileCompactAction.alignOffset(
+          offset, next.getLength(), blockSize, maxPadding) + next.getLength();
+    }
+    return ordered;
+  }
+
+  /**
+   * Number of blocks to be read for a small file in a container.
+   */
+  public static long blocksSpanned(long offset, long length, long blockSize) {
+    if (length <= 0) {
+      return 0;
+    }
+    return (offset + length - 1) / blockSize - offset / blockSize + 1;
+  }
+
+  /**
+   * Target container of planned batches. The path of a new container is
+   * chosen by the caller, batches of the same new container share it.
+   */
+  public static class Container {
+    private final String path;
+    private final String dir;
+    private final SmartFilePermission permission;
+    private final long blockSize;
+
+    private Container(String path, long blockSize) {
+      this.path = path;
+      this.dir = null;
+      this.permission = null;
+      this.blockSize = blockSize;
+    }
+
+    private Container(String dir, SmartFilePermission permission, long blockSize) {
+      this.path = null;
+      this.dir = dir;
+      this.permission = permission;
+      this.blockSize = blockSize;
+    }
+
+    /**
+     * @return path of the existing container, or null for a new one
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * @return directory of the new container
+     */
+    public String getDir() {
+      return dir;
+    }
+
+    /**
+     * @return permission of the new container
+     */
+    public SmartFilePermission getPermission() {
+      return permission;
+    }
+
+    public boolean isNew() {
+      return path == null;
+    }
+
+    public long getBlockSize() {
+      return blockSize;
+    }
+
+    /**
+     * @return max padding to align small files in this container
+     */
+    public long getMaxPadding() {
+      return SmallFilePackingPlanner.getMaxPadding(blockSize);
+    }
+  }
+
+  /**
+   * Small files compacted to a container by one action.
+   */
+  public static class Batch {
+    private final Container container;
+    private final List<String> smallFiles;
+
+    private Batch(Container container, List<String> smallFiles) {
+      this.container = container;
+      this.smallFiles = smallFiles;
+    }
+
+    public Container getContainer() {
+      return container;
+    }
+
+    public List<String> getSmallFiles() {
+      return smallFiles;
+    }
+  }
+
+  private class Bin {
+    private final Container container;
+    private final long startOffset;
+    private final List<FileInfo> files = new ArrayList<>();
+    private long used;
+
+    private Bin(Container container, long startOffset) {
+      this.container = container;
+      this.startOffset = startOffset;
+      this.used = startOffset;
+    }
+
+    private long free() {
+      return containerSize - getPaddingReserve(container.blockSize) - used;
+    }
+
+    private void add(FileInfo fileInfo) {
+      files.add(fileInfo);
+      used += fileInfo.getLength();
+    }
+  }
+
+  private static class GroupKey {
+    private final String dir;
+    private final SmartFilePermission permission;
+    private final byte storagePolicy;
+    private final boolean accessed;
+
+    private GroupKey(FileInfo fileInfo, boolean accessed) {
+      String path = fileInfo.getPath();
+      this.dir = path.substring(0, path.lastIndexOf("/") + 1);
+      this.permission = new SmartFilePermission(fileInfo);
+      this.storagePolicy = fileInfo.getStoragePolicy();
+      this.accessed = accessed;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = dir.hashCode() ^ permission.hashCode();
+      result = 31 * result + storagePolicy;
+      return 31 * result + (accessed ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof GroupKey)) {
+        return false;
+      }
+      GroupKey other = (GroupKey) o;
+      return dir.equals(other.dir) && permission.equals(other.permission)
+          && storagePolicy == other.storagePolicy && accessed == other.accessed;
+    }
+  }
+}
@@ -31,6 +31,7 @@
 import org.smartdata.model.CmdletDescriptor;
 import org.smartdata.model.CmdletInfo;
 import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileAccessInfo;
 import org.smartdata.model.FileInfo;
 import org.smartdata.model.FileState;
 import org.smartdata.model.RuleInfo;
@@ -56,10 +57,13 @@ public class SmallFilePlugin implements RuleExecutorPlugin {
   private MetaStore metaStore;
   private CmdletManager cmdletManager;
   private long containerFileSizeThreshold;
-  private Map<String, FileInfo> firstFileInfoCache;
-  private Map<RuleInfo, Map<String, FileInfo>> containerFileInfoCache;
+  private SmallFilePackingPlanner planner;
+  private Map<RuleInfo, Map<String, SmallFilePackingPlanner.Batch>> plannedBatchCache;
+  private Map<RuleInfo, Map<SmallFilePackingPlanner.Container, String>> newContainerCache;
   private static final String COMPACT_ACTION_NAME = "compact";
   private static final String CONTAINER_FILE_PREFIX = "_container_file_";
+  private static final String DFS_BLOCK_SIZE_KEY = "dfs.blocksize";
+  private static final long DFS_BLOCK_SIZE_DEFAULT = 128 * 1024 * 1024;
   private static final Logger LOG = LoggerFactory.getLogger(SmallFilePlugin.class);
 
   public SmallFilePlugin(ServerContext context, CmdletManager cmdletManager) {
@@ -72,8 +76,11 @@ public SmallFilePlugin(ServerContext context, CmdletManager cmdletManager) {
         SmartConfKeys.SMART_COMPACT_CONTAINER_FILE_THRESHOLD_MB_KEY,
         SmartConfKeys.SMART_COMPACT_CONTAINER_FILE_THRESHOLD_MB_DEFAULT);
     this.containerFileSizeThreshold = containerFileThresholdMB * 1024 * 1024;
-    this.firstFileInfoCache = new ConcurrentHashMap<>();
-    this.containerFileInfoCache = new ConcurrentHashMap<>();
+    this.planner = new SmallFilePackingPlanner(containerFileSizeThreshold,
+        context.getConf().getLongBytes(DFS_BLOCK_SIZE_KEY, DFS_BLOCK_SIZE_DEFAULT),
+        batchSize);
+    this.plannedBatchCache = new ConcurrentHashMap<>();
+    this.newContainerCache = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -93,9 +100,9 @@ public List<String> preSubmitCmdlet(final RuleInfo ruleInfo, List<String> object
         return objects;
       }
 
-      // Split valid small files according to the file permission
+      // Filter out container files
       Map<String, FileInfo> containerFileInfoMap = getContainerFileInfos();
-      Map<SmallFileStatus, List<String>> smallFileStateMap = new HashMap<>();
+      List<String> candidates = new ArrayList<>();
       for (String object : objects) {
         LOG.debug("Start handling the file: {}.", object);
 
@@ -109,46 +116,50 @@ public List<String> preSubmitCmdlet(final RuleInfo ruleInfo, List<String> object
             continue;
           }
         }
+        candidates.add(object);
+      }
 
-        // Check file info and state
-        try {
-          FileInfo fileInfo = metaStore.getFile(object);
-          FileState fileState = metaStore.getFileState(object);
-          if (fileInfo != null
-              && fileInfo.getLength() > 0
+      // Check file info and state of all the candidates at once
+      List<FileInfo> smallFileInfos = new ArrayList<>();
+      try {
+        Map<String, FileState> fileStates = metaStore.getFileStates(candidates);
+        for (FileInfo fileInfo : metaStore.getFilesByPaths(candidates)) {
+          FileState fileState = fileStates.get(fileInfo.getPath());
+          if (fileInfo.getLength() > 0
               && fileInfo.getLength() < containerFileSizeThreshold
-              && fileState.getFileType().equals(FileState.FileType.NORMAL)
-              && fileState.getFileStage().equals(FileState.FileStage.DONE)) {
-            SmallFileStatus smallFileStatus = new SmallFileStatus(fileInfo);
-            if (smallFileStateMap.containsKey(smallFileStatus)) {
-              smallFileStateMap.get(smallFileStatus).add(object);
-            } else {
-              firstFileInfoCache.put(object, fileInfo);
-              List<String> list = new ArrayList<>();
-              list.add(object);
-              smallFileStateMap.put(smallFileStatus, list);
-            }
+              && (fileState == null
+              || (fileState.getFileType().equals(FileState.FileType.NORMAL)
+              && fileState.getFileStage().equals(FileState.FileStage.DONE)))) {
+            smallFileInfos.add(fileInfo);
           } else {
-            LOG.debug("Invalid file {} for small file compact.", object);
+            LOG.debug("Invalid file {} for small file compact.", fileInfo.getPath());
           }
-        } catch (MetaStoreException e) {
-          LOG.error(String.format("Failed to get file info of %s.", object), e);
         }
+      } catch (MetaStoreException e) {
+        LOG.error("Failed to get file info of small files.", e);
+        return new ArrayList<>();
       }
 
-      // Split small files according to the batch size
+      // Plan containers and batches of small files
+      List<FileInfo> containers = new ArrayList<>(
+          getAvailableContainerFiles(ruleInfo, containerFileInfoMap).values());
+      List<SmallFilePackingPlanner.Batch> batches = planner.plan(
+          smallFileInfos, smallFileInfos.isEmpty() ? new HashMap<String, Integer>()
+              : getAccessCounts(smallFileInfos.size()), containers);
+      Map<String, SmallFilePackingPlanner.Batch> plannedBatches = new HashMap<>();
+      Map<SmallFilePackingPlanner.Container, String> newContainers = new HashMap<>();
       List<String> smallFileList = new ArrayList<>();
-      for (List<String> listElement : smallFileStateMap.values()) {
-        int size = listElement.size();
-        for (int i = 0; i < size; i += batchSize) {
-          int toIndex = (i + batchSize <= size) ? i + batchSize : size;
-          String smallFiles = new Gson().toJson(listElement.subList(i, toIndex));
-          smallFileList.add(smallFiles);
+      for (SmallFilePackingPlanner.Batch batch : batches) {
+        SmallFilePackingPlanner.Container container = batch.getContainer();
+        if (container.isNew() && !newContainers.containsKey(container)) {
+          newContainers.put(container, container.getDir() + CONTAINER_FILE_PREFIX
+              + UUID.randomUUID().toString().replace("-", ""));
         }
+        plannedBatches.put(batch.getSmallFiles().get(0), batch);
+        smallFileList.add(new Gson().toJson(batch.getSmallFiles()));
       }
-
-      // Update container file info cache for preSubmitCmdletDescriptor
-      updateContainerFileInfoCache(ruleInfo, containerFileInfoMap);
+      plannedBatchCache.put(ruleInfo, plannedBatches);
+      newContainerCache.put(ruleInfo, newContainers);
 
       return smallFileList;
     } else {
@@ -156,6 +167,22 @@ public List<String> preSubmitCmdlet(final RuleInfo ruleInfo, List<String> object
     }
   }
 
+  /**
+   * Get recent access counts of files, empty if not available.
+   */
+  private Map<String, Integer> getAccessCounts(int topNum) {
+    Map<String, Integer> accessCounts = new HashMap<>();
+    try {
+      for (FileAccessInfo info : metaStore.getHotFiles(
+          metaStore.getAllSortedTables(), topNum)) {
+        accessCounts.put(info.getPath(), info.getAccessCount());
+      }
+    } catch (MetaStoreException e) {
+      LOG.debug("Failed to get access counts of files.", e);
+    }
+    return accessCounts;
+  }
+
   /**
    * Get container file info map from meta store.
    */
@@ -185,16 +212,17 @@ public int compare(FileInfo a, FileInfo b) {
   }
 
   /**
-   * Update container file info cache based on containerFileSizeThreshold
-   * and cmdlet.
+   * Get container files which are below containerFileSizeThreshold
+   * and not used by any running cmdlet.
    */
-  private void updateContainerFileInfoCache(RuleInfo ruleInfo,
+  private Map<String, FileInfo> getAvailableContainerFiles(RuleInfo ruleInfo,
       Map<String, FileInfo> containerFileInfoMap) {
     if (!containerFileInfoMap.isEmpty()) {
       // Remove container file whose size is greater than containerFileSizeThreshold
-      for (Map.Entry<String, FileInfo> entry : containerFileInfoMap.entrySet()) {
-        if (entry.getValue().getLength() >= containerFileSizeThreshold) {
-          containerFileInfoMap.remove(entry.getKey());
+      for (Iterator<Map.Entry<String, FileInfo>> iter =
+           containerFileInfoMap.entrySet().iterator(); iter.hasNext();) {
+        if (iter.next().getValue().getLength() >= containerFileSizeThreshold) {
+          iter.remove();
         }
       }
 
@@ -220,7 +248,7 @@ private void updateContainerFileInfoCache(RuleInfo ruleInfo,
       }
     }
 
-    containerFileInfoCache.put(ruleInfo, containerFileInfoMap);
+    return containerFileInfoMap;
   }
 
   @Override
@@ -238,12 +266,22 @@ public CmdletDescriptor preSubmitCmdletDescriptor(
             continue;
           }
 
-          // Get the first small file info
+          // Get the planned container of this batch
           String firstFile = smallFileList.get(0);
-          FileInfo firstFileInfo;
-          if (firstFileInfoCache.containsKey(firstFile)) {
-            firstFileInfo = firstFileInfoCache.get(firstFile);
+          Map<String, SmallFilePackingPlanner.Batch> plannedBatches =
+              plannedBatchCache.get(ruleInfo);
+          SmallFilePackingPlanner.Batch batch =
+              plannedBatches == null ? null : plannedBatches.remove(firstFile);
+          CompactActionArgs args;
+          if (batch != null && !batch.getContainer().isNew()) {
+            args = new CompactActionArgs(batch.getContainer().getPath(),
+                null, smallFileList);
+          } else if (batch != null) {
+            args = new CompactActionArgs(
+                newContainerCache.get(ruleInfo).get(batch.getContainer()),
+                batch.getContainer().getPermission(), smallFileList);
           } else {
+            FileInfo firstFileInfo;
             try {
               firstFileInfo = metaStore.getFile(firstFile);
               if (firstFileInfo == null) {
@@ -254,14 +292,15 @@ public CmdletDescriptor preSubmitCmdletDescriptor(
               LOG.error(String.format("Failed to get file info of: %s.", firstFile), e);
               continue;
             }
+            String firstFileDir = firstFile.substring(0, firstFile.lastIndexOf("/") + 1);
+            args = genCompactActionArgs(firstFileDir,
+                new SmartFilePermission(firstFileInfo), smallFileList);
           }
 
-          // Get valid compact action arguments
-          SmartFilePermission firstFilePermission = new SmartFilePermission(
-              firstFileInfo);
-          String firstFileDir = firstFile.substring(0, firstFile.lastIndexOf("/") + 1);
-          CompactActionArgs args = getCompactActionArgs(ruleInfo, firstFileDir,
-              firstFilePermission, smallFileList);
+          if (batch != null) {
+            descriptor.addActionArg(i, SmallFileCompactAction.MAX_PADDING,
+                String.valueOf(batch.getContainer().getMaxPadding()));
+          }
 
           // Set container file path and its permission, file path of this action
           descriptor.addActionArg(
@@ -293,41 +332,6 @@ private CompactActionArgs(String containerFile,
     }
   }
 
-  /**
-   * Get valid compact action arguments.
-   */
-  private CompactActionArgs getCompactActionArgs(RuleInfo ruleInfo, String firstFileDir,
-      SmartFilePermission firstFilePermission, List<String> smallFileList) {
-    Map<String, FileInfo> containerFileMap = containerFileInfoCache.get(ruleInfo);
-    for (Iterator<Map.Entry<String, FileInfo>> iter =
-         containerFileMap.entrySet().iterator(); iter.hasNext();) {
-      Map.Entry<String, FileInfo> entry = iter.next();
-      String containerFilePath = entry.getKey();
-      FileInfo containerFileInfo = entry.getValue();
-      iter.remove();
-
-      // Get compact action arguments
-      String containerFileDir = containerFilePath.substring(
-          0, containerFilePath.lastIndexOf("/") + 1);
-      if (firstFileDir.equals(containerFileDir)
-          && firstFilePermission.equals(
-          new SmartFilePermission(containerFileInfo))) {
-        List<String> validSmallFiles;
-        try {
-          validSmallFiles = getValidSmallFiles(containerFileInfo, smallFileList);
-        } catch (MetaStoreException e) {
-          LOG.error("Failed to get file info of small files.", e);
-          continue;
-        }
-        if (validSmallFiles != null) {
-          return new CompactActionArgs(containerFilePath, null, validSmallFiles);
-        }
-      }
-    }
-
-    return genCompactActionArgs(firstFileDir, firstFilePermission, smallFileList);
-  }
-
   /**
    * Generate new compact action arguments based on first file info.
    */
@@ -340,77 +344,6 @@ private CompactActionArgs genCompactActionArgs(String firstFileDir,
         firstFilePermission, smallFileList);
   }
 
-  /**
-   * Get valid small files according to container file.
-   */
-  private List<String> getValidSmallFiles(FileInfo containerFileInfo,
-      List<String> smallFileList) throws MetaStoreException {
-    // Get container file len
-    long containerFileLen = containerFileInfo.getLength();
-
-    // Sort small file list for getting most eligible small files
-    List<String> ret = new ArrayList<>();
-    List<FileInfo> smallFileInfos = metaStore.getFilesByPaths(smallFileList);
-    Collections.sort(smallFileInfos, new Comparator<FileInfo>(){
-      @Override
-      public int compare(FileInfo a, FileInfo b) {
-        return Long.compare(a.getLength(), b.getLength());
-      }
-    });
-
-    // Get small files can be compacted to container file
-    for (FileInfo fileInfo : smallFileInfos) {
-      long fileLen = fileInfo.getLength();
-      if (fileLen > 0) {
-        containerFileLen += fileLen;
-        if (containerFileLen < containerFileSizeThreshold * 1.2) {
-          ret.add(fileInfo.getPath());
-        }
-        if (containerFileLen >= containerFileSizeThreshold) {
-          break;
-        }
-      }
-    }
-
-    if (!ret.isEmpty()) {
-      return ret;
-    } else {
-      return null;
-    }
-  }
-
-  /**
-   * Handle small file status.
-   */
-  private class SmallFileStatus {
-    private String dir;
-    private SmartFilePermission smartFilePermission;
-
-    private SmallFileStatus(FileInfo fileInfo) {
-      String path = fileInfo.getPath();
-      this.dir = path.substring(0, path.lastIndexOf("/") + 1);
-      this.smartFilePermission = new SmartFilePermission(fileInfo);
-    }
-
-    @Override
-    public int hashCode() {
-      return dir.hashCode() ^ smartFilePermission.hashCode();
-    }
-
-    @Override
-    public boolean equals(Object smallFileStatus) {
-      if (this == smallFileStatus) {
-        return true;
-      }
-      if (smallFileStatus instanceof SmallFileStatus) {
-        SmallFileStatus anSmallFileStatus = (SmallFileStatus) smallFileStatus;
-        return (this.dir.equals(anSmallFileStatus.dir))
-            && this.smartFilePermission.equals(anSmallFileStatus.smartFilePermission);
-      }
-      return false;
-    }
-  }
-
   @Override
   public void onRuleExecutorExit(final RuleInfo ruleInfo) {
   }
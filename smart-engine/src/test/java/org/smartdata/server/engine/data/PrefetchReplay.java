@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.data;
+
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metrics.FileAccessEvent;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Offline harness that replays recorded file access events against an
+ * {@link AccessPredictor} and scores how well prefetching would have worked.
+ *
+ * <p>At the start of every bucket the files predicted for it are "cached"
+ * within the budget; accesses during the bucket to cached files count as
+ * hits. The bucket is then fed to the predictor as history.
+ */
+public class PrefetchReplay {
+  private final AccessPredictor predictor;
+  private final Map<String, Long> lengths;
+  private final long budget;
+
+  /**
+   * @param lengths file lengths used for the budget; files not in the map
+   *                are assumed to have length 1, so that a budget without
+   *                lengths limits the number of files
+   */
+  public PrefetchReplay(AccessPredictor predictor, Map<String, Long> lengths, long budget) {
+    this.predictor = predictor;
+    this.lengths = lengths;
+    this.budget = budget;
+  }
+
+  public Result replay(List<FileAccessEvent> events) {
+    Result result = new Result();
+    if (events.isEmpty()) {
+      return result;
+    }
+    List<FileAccessEvent> sorted = new ArrayList<>(events);
+    Collections.sort(sorted, new Comparator<FileAccessEvent>() {
+      @Override
+      public int compare(FileAccessEvent a, FileAccessEvent b) {
+        return Long.compare(a.getTimestamp(), b.getTimestamp());
+      }
+    });
+
+    long bucketMillis = predictor.getBucketMillis();
+    long bucket = sorted.get(0).getTimestamp() / bucketMillis * bucketMillis;
+    int idx = 0;
+    while (idx < sorted.size()) {
+      Set<String> cached = prefetch(bucket);
+      Set<String> accessed = new HashSet<>();
+      long end = bucket + bucketMillis;
+      for (; idx < sorted.size() && sorted.get(idx).getTimestamp() < end; idx++) {
+        String path = sorted.get(idx).getPath();
+        accessed.add(path);
+        result.accesses++;
+        if (cached.contains(path)) {
+          result.hits++;
+        }
+      }
+      result.prefetched += cached.size();
+      for (String path : cached) {
+        if (accessed.contains(path)) {
+          result.usefulPrefetches++;
+        }
+      }
+      predictor.observe(bucket, accessed);
+      bucket = end;
+    }
+    return result;
+  }
+
+  private Set<String> prefetch(long bucket) {
+    Map<String, Double> predictions = predictor.predict(bucket);
+    Map<String, Long> candidateLengths = new HashMap<>();
+    for (String path : predictions.keySet()) {
+      Long length = lengths.get(path);
+      candidateLengths.put(path, length == null ? 1L : length);
+    }
+    return new HashSet<>(
+        AccessPredictor.selectWithinBudget(predictions, candidateLengths, budget));
+  }
+
+  /**
+   * Hit statistics of a replay.
+   */
+  public static class Result {
+    private long accesses;
+    private long hits;
+    private long prefetched;
+    private long usefulPrefetches;
+
+    public long getAccesses() {
+      return accesses;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getPrefetched() {
+      return prefetched;
+    }
+
+    public long getUsefulPrefetches() {
+      return usefulPrefetches;
+    }
+
+    /** Fraction of accesses served by prefetched files. */
+    public double getHitRate() {
+      return accesses == 0 ? 0 : (double) hits / accesses;
+    }
+
+    /** Fraction of prefetched files that were accessed in their bucket. */
+    public double getPrecision() {
+      return prefetched == 0 ? 0 : (double) usefulPrefetches / prefetched;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("accesses=%d, hits=%d, hitRate=%.4f, prefetched=%d, precision=%.4f",
+          accesses, hits, getHitRate(), prefetched, getPrecision());
+    }
+  }
+
+  /**
+   * Replay an access log where each line is "timestamp path".
+   * Usage: PrefetchReplay logFile [maxFiles] [threshold] [bucketMillis] [periodMillis]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: PrefetchReplay logFile [maxFiles] [threshold] "
+          + "[bucketMillis] [periodMillis]");
+      System.exit(1);
+    }
+    long maxFiles = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+    long bucketMillis = args.length > 3 ? Long.parseLong(args[3]) : 60 * 60 * 1000L;
+    long periodMillis = args.length > 4 ? Long.parseLong(args[4]) : 24 * 60 * 60 * 1000L;
+
+    List<FileAccessEvent> events = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(args[0]), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] parts = line.split("\\s+", 2);
+        events.add(new FileAccessEvent(parts[1], Long.parseLong(parts[0])));
+      }
+    }
+    AccessPredictor predictor =
+        new AccessPredictor(bucketMillis, periodMillis, threshold, 1,
+            SmartConfKeys.SMART_CACHE_PREFETCH_MAX_IDLE_PERIODS_DEFAULT);
+    Result result = new PrefetchReplay(predictor, new HashMap<String, Long>(), maxFiles)
+        .replay(events);
+    System.out.println(result);
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.metrics.FileAccessEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TestAccessPredictor {
+  private static final long HOUR = 60 * 60 * 1000L;
+  private static final long DAY = 24 * HOUR;
+
+  @Test
+  public void testPeriodicPrediction() {
+    AccessPredictor predictor = new AccessPredictor(HOUR, DAY, 0.5, 2, 7);
+    for (int day = 0; day < 3; day++) {
+      for (int hour = 0; hour < 24; hour++) {
+        long bucket = day * DAY + hour * HOUR;
+        if (hour == 2) {
+          predictor.observe(bucket, Arrays.asList("/daily/a", "/daily/b"));
+        } else if (hour == 5 && day == 0) {
+          predictor.observe(bucket, Arrays.asList("/once"));
+        } else if (hour == 10) {
+          // A job reading a different subset of sibling files every day
+          predictor.observe(bucket, Arrays.asList("/job/part-" + day));
+        } else {
+          predictor.observe(bucket, new ArrayList<String>());
+        }
+      }
+    }
+    Map<String, Double> predictions = predictor.predict(3 * DAY + 2 * HOUR);
+    Assert.assertEquals(2, predictions.size());
+    Assert.assertTrue(predictions.containsKey("/daily/a"));
+    Assert.assertTrue(predictor.predict(3 * DAY + 5 * HOUR).isEmpty());
+    Assert.assertTrue(predictor.predict(3 * DAY + 3 * HOUR).isEmpty());
+    // Sibling files are predicted through their directory
+    Assert.assertEquals(3, predictor.predict(3 * DAY + 10 * HOUR).size());
+
+    Map<String, Long> lengths = new HashMap<>();
+    lengths.put("/daily/a", 100L);
+    lengths.put("/daily/b", 100L);
+    Assert.assertEquals(1,
+        AccessPredictor.selectWithinBudget(predictions, lengths, 150).size());
+    Assert.assertEquals(2,
+        AccessPredictor.selectWithinBudget(predictions, lengths, 200).size());
+  }
+
+  @Test
+  public void testIdleEviction() {
+    AccessPredictor predictor = new AccessPredictor(HOUR, DAY, 0.5, 1, 2);
+    for (int day = 0; day < 5; day++) {
+      List<String> paths = new ArrayList<>();
+      paths.add("/daily/a");
+      if (day == 0) {
+        paths.add("/once/a");
+        paths.add("/daily/once");
+      }
+      predictor.observe(day * DAY, paths);
+    }
+    // Files not accessed for 2 days are forgotten, with their directory
+    // once it has no files left
+    Assert.assertEquals(1, predictor.getNumFiles());
+    Assert.assertEquals(1, predictor.getNumDirs());
+    Assert.assertEquals(Collections.singleton("/daily/a"),
+        predictor.predict(5 * DAY).keySet());
+  }
+
+  @Test
+  public void testReplay() {
+    Random random = new Random(0);
+    List<FileAccessEvent> events = new ArrayList<>();
+    for (int day = 0; day < 7; day++) {
+      long base = day * DAY;
+      for (int i = 0; i < 10; i++) {
+        // Daily job reads the same files at 02:xx
+        events.add(new FileAccessEvent("/daily/file" + i,
+            base + 2 * HOUR + random.nextInt((int) HOUR)));
+      }
+      for (int i = 0; i < 20; i++) {
+        // Noise spread over the day
+        events.add(new FileAccessEvent("/random/file" + random.nextInt(1000),
+            base + random.nextInt((int) DAY)));
+      }
+    }
+    PrefetchReplay.Result result = new PrefetchReplay(
+        new AccessPredictor(HOUR, DAY, 0.6, 2, 7), new HashMap<String, Long>(), 100)
+        .replay(events);
+    Assert.assertEquals(events.size(), result.getAccesses());
+    // Daily accesses from the third day on are prefetched
+    Assert.assertEquals(50, result.getHits());
+    Assert.assertEquals(1.0, result.getPrecision(), 0.0001);
+
+    // A tight budget caps the number of prefetched files
+    result = new PrefetchReplay(
+        new AccessPredictor(HOUR, DAY, 0.6, 2, 7), new HashMap<String, Long>(), 4)
+        .replay(events);
+    Assert.assertEquals(20, result.getHits());
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.rule;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.SmartFilePermission;
+import org.smartdata.hdfs.action.SmallFileCompactAction;
+import org.smartdata.model.FileInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class TestSmallFilePackingPlanner {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(TestSmallFilePackingPlanner.class);
+  private static final long KB = 1024L;
+  private static final long MB = 1024 * KB;
+  private static final long CONTAINER_SIZE = 64 * MB;
+  private static final long BLOCK_SIZE = 8 * MB;
+  private static final int BATCH_SIZE = 200;
+
+  private static FileInfo file(String path, long length, String owner) {
+    return FileInfo.newBuilder().setPath(path).setLength(length)
+        .setOwner(owner).setGroup("hadoop").setPermission((short) 0644)
+        .setBlocksize(BLOCK_SIZE).setStoragePolicy((byte) 7).build();
+  }
+
+  private static String dir(String path) {
+    return path.substring(0, path.lastIndexOf("/") + 1);
+  }
+
+  /**
+   * Small files of several directories and owners, discovered interleaved.
+   */
+  private static List<FileInfo> genSmallFiles(Random random) {
+    int[] filesPerDir = {1500, 900, 400, 60};
+    List<FileInfo> files = new ArrayList<>();
+    for (int d = 0; d < filesPerDir.length; d++) {
+      for (int i = 0; i < filesPerDir[d]; i++) {
+        // Mostly tens of KB, some of one or two MB
+        long length = random.nextInt(20) == 0
+            ? MB + random.nextInt((int) MB)
+            : KB + random.nextInt((int) (100 * KB));
+        files.add(file("/data/d" + d + "/f" + i, length,
+            random.nextBoolean() ? "alice" : "bob"));
+      }
+    }
+    Collections.shuffle(files, random);
+    return files;
+  }
+
+  /**
+   * Grouping done before the planner: by directory and permission in
+   * discovery order, a new container per batch of batchSize files.
+   */
+  private static List<List<FileInfo>> baseline(List<FileInfo> files) {
+    Map<String, List<FileInfo>> groups = new LinkedHashMap<>();
+    for (FileInfo fileInfo : files) {
+      String key = dir(fileInfo.getPath()) + new SmartFilePermission(fileInfo).hashCode();
+      if (!groups.containsKey(key)) {
+        groups.put(key, new ArrayList<FileInfo>());
+      }
+      groups.get(key).add(fileInfo);
+    }
+    List<List<FileInfo>> containers = new ArrayList<>();
+    for (List<FileInfo> group : groups.values()) {
+      for (int i = 0; i < group.size(); i += BATCH_SIZE) {
+        containers.add(group.subList(i, Math.min(i + BATCH_SIZE, group.size())));
+      }
+    }
+    return containers;
+  }
+
+  private static double blocksPerMember(List<List<FileInfo>> containers,
+      long maxPadding) {
+    long blocks = 0;
+    long members = 0;
+    for (List<FileInfo> container : containers) {
+      long offset = 0;
+      for (FileInfo fileInfo : container) {
+        // Laid out like SmallFileCompactAction does
+        offset = SmallFileCompactAction.alignOffset(
+            offset, fileInfo.getLength(), BLOCK_SIZE, maxPadding);
+        blocks += SmallFilePackingPlanner.blocksSpanned(
+            offset, fileInfo.getLength(), BLOCK_SIZE);
+        offset += fileInfo.getLength();
+        members++;
+      }
+    }
+    return (double) blocks / members;
+  }
+
+  private static List<List<FileInfo>> toContainers(
+      List<SmallFilePackingPlanner.Batch> batches, Map<String, FileInfo> infos) {
+    Map<SmallFilePackingPlanner.Container, List<FileInfo>> containers =
+        new LinkedHashMap<>();
+    for (SmallFilePackingPlanner.Batch batch : batches) {
+      Assert.assertTrue(batch.getSmallFiles().size() <= BATCH_SIZE);
+      if (!containers.containsKey(batch.getContainer())) {
+        containers.put(batch.getContainer(), new ArrayList<FileInfo>());
+      }
+      for (String path : batch.getSmallFiles()) {
+        containers.get(batch.getContainer()).add(infos.get(path));
+      }
+    }
+    return new ArrayList<>(containers.values());
+  }
+
+  @Test
+  public void testPackingBenchmark() {
+    List<FileInfo> files = genSmallFiles(new Random(2018));
+    Map<String, FileInfo> infos = new HashMap<>();
+    for (FileInfo fileInfo : files) {
+      infos.put(fileInfo.getPath(), fileInfo);
+    }
+    // A tenth of the files of d0 have been read recently
+    Map<String, Integer> accessCounts = new HashMap<>();
+    for (FileInfo fileInfo : files) {
+      if (fileInfo.getPath().startsWith("/data/d0/f1")) {
+        accessCounts.put(fileInfo.getPath(), 3);
+      }
+    }
+
+    SmallFilePackingPlanner planner =
+        new SmallFilePackingPlanner(CONTAINER_SIZE, BLOCK_SIZE, BATCH_SIZE);
+    List<SmallFilePackingPlanner.Batch> batches =
+        planner.plan(files, accessCounts, new ArrayList<FileInfo>());
+    List<List<FileInfo>> packed = toContainers(batches, infos);
+    List<List<FileInfo>> baseline = baseline(files);
+
+    // Every small file is planned once, containers are homogeneous and
+    // bounded including padding
+    Set<String> planned = new HashSet<>();
+    long maxPadding = SmallFilePackingPlanner.getMaxPadding(BLOCK_SIZE);
+    for (List<FileInfo> container : packed) {
+      long size = 0;
+      FileInfo first = container.get(0);
+      for (FileInfo fileInfo : container) {
+        Assert.assertTrue(planned.add(fileInfo.getPath()));
+        Assert.assertEquals(dir(first.getPath()), dir(fileInfo.getPath()));
+        Assert.assertEquals(first.getOwner(), fileInfo.getOwner());
+        Assert.assertEquals(accessCounts.containsKey(first.getPath()),
+            accessCounts.containsKey(fileInfo.getPath()));
+        size = SmallFileCompactAction.alignOffset(
+            size, fileInfo.getLength(), BLOCK_SIZE, maxPadding) + fileInfo.getLength();
+      }
+      Assert.assertTrue(size <= CONTAINER_SIZE);
+    }
+    Assert.assertEquals(files.size(), planned.size());
+
+    double packedBlocks = blocksPerMember(packed, maxPadding);
+    double baselineBlocks = blocksPerMember(baseline, 0);
+    String result = String.format("Containers: baseline %d, packed %d; "
+        + "blocks per member read: baseline %.4f, packed %.4f",
+        baseline.size(), packed.size(), baselineBlocks, packedBlocks);
+    LOG.info(result);
+    Assert.assertTrue(result, packed.size() < baseline.size());
+    Assert.assertTrue(result, packedBlocks < baselineBlocks);
+  }
+
+  @Test
+  public void testAppendToExistingContainer() {
+    FileInfo container = file("/data/d0/_container_file_x", 60 * MB, "alice");
+    FileInfo other = file("/data/d1/_container_file_y", MB, "alice");
+    List<FileInfo> containers = new ArrayList<>();
+    containers.add(container);
+    containers.add(other);
+    List<FileInfo> files = new ArrayList<>();
+    files.add(file("/data/d0/a", 3 * MB, "alice"));
+    files.add(file("/data/d0/b", 2 * MB, "alice"));
+    files.add(file("/data/d0/c", MB, "bob"));
+
+    SmallFilePackingPlanner planner =
+        new SmallFilePackingPlanner(CONTAINER_SIZE, BLOCK_SIZE, BATCH_SIZE);
+    List<SmallFilePackingPlanner.Batch> batches =
+        planner.plan(files, new HashMap<String, Integer>(), containers);
+    Assert.assertEquals(3, batches.size());
+    Map<String, String> targets = new HashMap<>();
+    for (SmallFilePackingPlanner.Batch batch : batches) {
+      Assert.assertEquals(1, batch.getSmallFiles().size());
+      targets.put(batch.getSmallFiles().get(0), batch.getContainer().getPath());
+    }
+    // 3MB fills the existing container up to its padding reserve,
+    // 2MB overflows to a new one,
+    // files of another owner never go to it
+    Assert.assertEquals(container.getPath(), targets.get("/data/d0/a"));
+    Assert.assertNull(targets.get("/data/d0/b"));
+    Assert.assertNull(targets.get("/data/d0/c"));
+    Assert.assertEquals(1, containers.size());
+    Assert.assertEquals(other.getPath(), containers.get(0).getPath());
+  }
+}
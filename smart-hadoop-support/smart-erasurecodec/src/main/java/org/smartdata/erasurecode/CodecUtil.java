@@ -23,6 +23,7 @@
 import org.smartdata.erasurecode.rawcoder.*;
 import org.smartdata.erasurecode.codec.ErasureCodec;
 import org.smartdata.erasurecode.codec.HHXORErasureCodec;
+import org.smartdata.erasurecode.codec.LRCErasureCodec;
 import org.smartdata.erasurecode.codec.RSErasureCodec;
 import org.smartdata.erasurecode.codec.XORErasureCodec;
 import org.smartdata.erasurecode.coder.ErasureDecoder;
@@ -59,6 +60,11 @@ public final class CodecUtil {
       "io.erasurecode.codec.hhxor";
   public static final String IO_ERASURECODE_CODEC_HHXOR =
       HHXORErasureCodec.class.getCanonicalName();
+  /** Erasure coder locally repairable codec. */
+  public static final String IO_ERASURECODE_CODEC_LRC_KEY =
+      "io.erasurecode.codec.lrc";
+  public static final String IO_ERASURECODE_CODEC_LRC =
+      LRCErasureCodec.class.getCanonicalName();
 
   /** Supported erasure codec classes. */
 
@@ -80,6 +86,12 @@ public final class CodecUtil {
   public static final String IO_ERASURECODE_CODEC_XOR_RAWCODER_DEFAULT =
       XORRawErasureCoderFactory.class.getCanonicalName();
 
+  /** Raw coder factory for the LRC codec. */
+  public static final String IO_ERASURECODE_CODEC_LRC_RAWCODER_KEY =
+      "io.erasurecode.codec.lrc.rawcoder";
+  public static final String IO_ERASURECODE_CODEC_LRC_RAWCODER_DEFAULT =
+      LRCRawErasureCoderFactory.class.getCanonicalName();
+
   private CodecUtil() { }
 
   /**
@@ -190,6 +202,10 @@ private static String getRawCoderFactNameFromCodec(Configuration conf,
       return conf.get(
           IO_ERASURECODE_CODEC_XOR_RAWCODER_KEY,
           IO_ERASURECODE_CODEC_XOR_RAWCODER_DEFAULT);
+    case ErasureCodeConstants.LRC_CODEC_NAME:
+      return conf.get(
+          IO_ERASURECODE_CODEC_LRC_RAWCODER_KEY,
+          IO_ERASURECODE_CODEC_LRC_RAWCODER_DEFAULT);
     default:
       // For custom codec, we throw exception if the factory is not configured
       String rawCoderKey = "io.erasurecode.codec." + codec + ".rawcoder";
@@ -245,6 +261,10 @@ private static String getCodecClassName(Configuration conf, String codec) {
       return conf.get(
           CodecUtil.IO_ERASURECODE_CODEC_HHXOR_KEY,
           CodecUtil.IO_ERASURECODE_CODEC_HHXOR);
+    case ErasureCodeConstants.LRC_CODEC_NAME:
+      return conf.get(
+          CodecUtil.IO_ERASURECODE_CODEC_LRC_KEY,
+          CodecUtil.IO_ERASURECODE_CODEC_LRC);
     default:
       // For custom codec, we throw exception if the factory is not configured
       String codecKey = "io.erasurecode.codec." + codec + ".coder";
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe pool of fixed size buffers for erasure coding cells. Direct
+ * buffers are aligned to the given alignment, so that the word wide loops of
+ * the coders don't straddle cache lines. At most maxPooled idle buffers are
+ * kept, the others are left to GC when returned.
+ */
+@InterfaceAudience.Private
+public class ECBufferPool {
+  public static final int DEFAULT_ALIGNMENT = 64;
+
+  private static final Field ADDRESS_FIELD = getAddressField();
+
+  private final int bufferSize;
+  private final int alignment;
+  private final boolean direct;
+  private final int maxPooled;
+  private final Queue<ByteBuffer> buffers =
+      new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicInteger numPooled = new AtomicInteger(0);
+  private final AtomicInteger numAllocated = new AtomicInteger(0);
+
+  public ECBufferPool(int bufferSize, boolean direct, int maxPooled) {
+    this(bufferSize, DEFAULT_ALIGNMENT, direct, maxPooled);
+  }
+
+  public ECBufferPool(int bufferSize, int alignment, boolean direct,
+                      int maxPooled) {
+    Preconditions.checkArgument(bufferSize > 0, "Invalid buffer size");
+    Preconditions.checkArgument(alignment > 0
+        && (alignment & (alignment - 1)) == 0, "Invalid alignment");
+    this.bufferSize = bufferSize;
+    this.alignment = alignment;
+    this.direct = direct;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * @return a buffer of bufferSize, with position 0 and limit bufferSize.
+   *         The content is undefined.
+   */
+  public ByteBuffer get() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer != null) {
+      numPooled.decrementAndGet();
+      buffer.clear();
+      return buffer;
+    }
+    numAllocated.incrementAndGet();
+    return direct ? allocateAligned() : ByteBuffer.allocate(bufferSize);
+  }
+
+  /**
+   * @return numBuffers buffers, see {@link #get()}
+   */
+  public ByteBuffer[] get(int numBuffers) {
+    ByteBuffer[] result = new ByteBuffer[numBuffers];
+    for (int i = 0; i < numBuffers; i++) {
+      result[i] = get();
+    }
+    return result;
+  }
+
+  /**
+   * Return a buffer got from this pool. Buffers of other sizes or kinds
+   * are ignored.
+   */
+  public void put(ByteBuffer buffer) {
+    if (buffer == null || buffer.capacity() != bufferSize
+        || buffer.isDirect() != direct) {
+      return;
+    }
+    if (numPooled.incrementAndGet() > maxPooled) {
+      numPooled.decrementAndGet();
+      return;
+    }
+    buffers.offer(buffer);
+  }
+
+  public void put(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      put(buffer);
+    }
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * @return the number of idle buffers in the pool
+   */
+  public int getNumPooled() {
+    return numPooled.get();
+  }
+
+  /**
+   * @return the number of buffers allocated by the pool so far
+   */
+  public int getNumAllocated() {
+    return numAllocated.get();
+  }
+
+  private ByteBuffer allocateAligned() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize + alignment);
+    long address = getAddress(buffer);
+    int offset = address < 0 ? 0
+        : (int) ((alignment - (address & (alignment - 1))) & (alignment - 1));
+    buffer.position(offset);
+    buffer.limit(offset + bufferSize);
+    return buffer.slice();
+  }
+
+  /**
+   * @return the native address of a direct buffer, or -1 if unknown
+   */
+  static long getAddress(ByteBuffer buffer) {
+    if (ADDRESS_FIELD == null || !buffer.isDirect()) {
+      return -1;
+    }
+    try {
+      return ADDRESS_FIELD.getLong(buffer);
+    } catch (IllegalAccessException e) {
+      return -1;
+    }
+  }
+
+  private static Field getAddressField() {
+    try {
+      Field field = Buffer.class.getDeclaredField("address");
+      field.setAccessible(true);
+      return field;
+    } catch (Exception e) {
+      // Not accessible on this JVM, buffers are left as allocated.
+      return null;
+    }
+  }
+}
@@ -17,6 +17,8 @@
  */
 package org.smartdata.erasurecode;
 
+import java.util.Collections;
+
 /**
  * Constants related to the erasure code feature.
  */
@@ -29,6 +31,10 @@ private ErasureCodeConstants() {
   public static final String RS_LEGACY_CODEC_NAME = "rs-legacy";
   public static final String XOR_CODEC_NAME = "xor";
   public static final String HHXOR_CODEC_NAME = "hhxor";
+  public static final String LRC_CODEC_NAME = "lrc";
+
+  /** Schema extra option of LRC, parities are local ones + global ones. */
+  public static final String LRC_NUM_LOCAL_GROUPS_KEY = "numLocalGroups";
 
   public static final ECSchema RS_6_3_SCHEMA = new ECSchema(
       RS_DEFAULT_CODEC_NAME, 6, 3);
@@ -44,4 +50,12 @@ private ErasureCodeConstants() {
 
   public static final ECSchema RS_10_4_SCHEMA = new ECSchema(
       RS_DEFAULT_CODEC_NAME, 10, 4);
+
+  public static final ECSchema LRC_6_2_2_SCHEMA = new ECSchema(
+      LRC_CODEC_NAME, 6, 4,
+      Collections.singletonMap(LRC_NUM_LOCAL_GROUPS_KEY, "2"));
+
+  public static final ECSchema LRC_12_2_2_SCHEMA = new ECSchema(
+      LRC_CODEC_NAME, 12, 4,
+      Collections.singletonMap(LRC_NUM_LOCAL_GROUPS_KEY, "2"));
 }
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.rawcoder.RawErasureCoderFactory;
+import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode many independent stripes concurrently.
+ *
+ * A raw encoder is not thread safe, so each worker thread creates its own
+ * encoder on first use and keeps it, together with the coding tables built
+ * by its constructor, for the life of the service. Submitting blocks once
+ * maxPendingStripes stripes are queued or being encoded, which bounds the
+ * memory held by a fast producer. Cell buffers can be taken from
+ * {@link #getBufferPool()} and returned there once a stripe is consumed.
+ */
+@InterfaceAudience.Private
+public class ErasureCodingService implements Closeable {
+  private final RawErasureCoderFactory factory;
+  private final ErasureCoderOptions coderOptions;
+  private final ExecutorService executor;
+  private final Semaphore pendingStripes;
+  private final ECBufferPool bufferPool;
+  private final Queue<RawErasureEncoder> encoders =
+      new ConcurrentLinkedQueue<RawErasureEncoder>();
+  private final ThreadLocal<RawErasureEncoder> encoder =
+      new ThreadLocal<RawErasureEncoder>() {
+        @Override
+        protected RawErasureEncoder initialValue() {
+          RawErasureEncoder rawEncoder = factory.createEncoder(coderOptions);
+          encoders.add(rawEncoder);
+          return rawEncoder;
+        }
+      };
+
+  /**
+   * @param factory factory of the raw encoders
+   * @param coderOptions coder options of the raw encoders
+   * @param numThreads number of worker threads
+   * @param maxPendingStripes max number of stripes submitted but not encoded
+   * @param cellSize size of the buffers in the buffer pool
+   */
+  public ErasureCodingService(RawErasureCoderFactory factory,
+      ErasureCoderOptions coderOptions, int numThreads, int maxPendingStripes,
+      int cellSize) {
+    Preconditions.checkArgument(numThreads > 0, "Invalid numThreads");
+    Preconditions.checkArgument(maxPendingStripes >= numThreads,
+        "maxPendingStripes should be no less than numThreads");
+    this.factory = factory;
+    this.coderOptions = coderOptions;
+    this.pendingStripes = new Semaphore(maxPendingStripes);
+    this.executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("ECEncoder-%d").build());
+    RawErasureEncoder probe = factory.createEncoder(coderOptions);
+    this.bufferPool = new ECBufferPool(cellSize, probe.preferDirectBuffer(),
+        maxPendingStripes * coderOptions.getNumAllUnits());
+    probe.release();
+  }
+
+  /**
+   * Encode a stripe asynchronously. The buffers must not be touched until
+   * the returned future is done, when the inputs are consumed and the
+   * outputs are ready to read, see
+   * {@link RawErasureEncoder#encode(ByteBuffer[], ByteBuffer[])}.
+   * Blocks while too many stripes are pending.
+   * @return future of the outputs
+   */
+  public Future<ByteBuffer[]> encode(final ByteBuffer[] inputs,
+      final ByteBuffer[] outputs) throws InterruptedException {
+    pendingStripes.acquire();
+    try {
+      return executor.submit(new Callable<ByteBuffer[]>() {
+        @Override
+        public ByteBuffer[] call() {
+          try {
+            encoder.get().encode(inputs, outputs);
+            return outputs;
+          } finally {
+            pendingStripes.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pendingStripes.release();
+      throw new IllegalStateException("Service is closed", e);
+    }
+  }
+
+  /**
+   * Encode a batch of stripes, inputs.get(i) into outputs.get(i).
+   * @return futures of the outputs, in the order of the stripes
+   */
+  public List<Future<ByteBuffer[]>> encode(List<ByteBuffer[]> inputs,
+      List<ByteBuffer[]> outputs) throws InterruptedException {
+    Preconditions.checkArgument(inputs.size() == outputs.size(),
+        "Inputs and outputs don't match");
+    List<Future<ByteBuffer[]>> futures =
+        new ArrayList<Future<ByteBuffer[]>>(inputs.size());
+    for (int i = 0; i < inputs.size(); i++) {
+      futures.add(encode(inputs.get(i), outputs.get(i)));
+    }
+    return futures;
+  }
+
+  /**
+   * Encode large buffers as independent stripes of cellSize bytes, i.e. the
+   * remaining bytes of each input and output are cut into cells, and the
+   * n-th cells of all units are encoded as a stripe. The positions of the
+   * given buffers are not changed.
+   * @return futures of the stripes, in buffer order
+   */
+  public List<Future<ByteBuffer[]>> encode(ByteBuffer[] inputs,
+      ByteBuffer[] outputs, int cellSize) throws InterruptedException {
+    Preconditions.checkArgument(cellSize > 0, "Invalid cellSize");
+    int length = -1;
+    for (ByteBuffer buffer : inputs) {
+      if (buffer != null) {
+        length = buffer.remaining();
+        break;
+      }
+    }
+    Preconditions.checkArgument(length >= 0, "No valid input");
+
+    List<Future<ByteBuffer[]>> futures = new ArrayList<Future<ByteBuffer[]>>();
+    for (int offset = 0; offset < length; offset += cellSize) {
+      int len = Math.min(cellSize, length - offset);
+      futures.add(encode(slice(inputs, offset, len),
+          slice(outputs, offset, len)));
+    }
+    return futures;
+  }
+
+  public ECBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public ErasureCoderOptions getCoderOptions() {
+    return coderOptions;
+  }
+
+  /**
+   * Finish the pending stripes, then release the encoders.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        // Bounded by maxPendingStripes.
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    RawErasureEncoder rawEncoder;
+    while ((rawEncoder = encoders.poll()) != null) {
+      rawEncoder.release();
+    }
+  }
+
+  private static ByteBuffer[] slice(ByteBuffer[] buffers, int offset,
+      int len) {
+    ByteBuffer[] result = new ByteBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] != null) {
+        ByteBuffer buffer = buffers[i].duplicate();
+        buffer.position(buffers[i].position() + offset);
+        buffer.limit(buffer.position() + len);
+        result[i] = buffer.slice();
+      }
+    }
+    return result;
+  }
+}
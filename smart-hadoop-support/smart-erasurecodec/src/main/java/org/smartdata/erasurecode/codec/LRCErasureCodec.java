@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.codec;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.smartdata.erasurecode.ErasureCodeConstants;
+import org.smartdata.erasurecode.ErasureCodecOptions;
+import org.smartdata.erasurecode.coder.ErasureDecoder;
+import org.smartdata.erasurecode.coder.ErasureEncoder;
+import org.smartdata.erasurecode.coder.LRCErasureDecoder;
+import org.smartdata.erasurecode.coder.LRCErasureEncoder;
+import org.smartdata.erasurecode.rawcoder.LRCRawEncoder;
+
+/**
+ * A locally repairable erasure codec. The number of local groups is taken
+ * from the schema extra option
+ * {@link ErasureCodeConstants#LRC_NUM_LOCAL_GROUPS_KEY}, the remaining
+ * parity units are global ones.
+ */
+@InterfaceAudience.Private
+public class LRCErasureCodec extends ErasureCodec {
+  private final int numLocalGroups;
+
+  public LRCErasureCodec(Configuration conf, ErasureCodecOptions options) {
+    super(conf, options);
+    String value = options.getSchema().getExtraOptions().get(
+        ErasureCodeConstants.LRC_NUM_LOCAL_GROUPS_KEY);
+    this.numLocalGroups = value == null
+        ? LRCRawEncoder.DEFAULT_NUM_LOCAL_GROUPS : Integer.parseInt(value);
+  }
+
+  public int getNumLocalGroups() {
+    return numLocalGroups;
+  }
+
+  @Override
+  public ErasureEncoder createEncoder() {
+    return new LRCErasureEncoder(getCoderOptions(), numLocalGroups);
+  }
+
+  @Override
+  public ErasureDecoder createDecoder() {
+    return new LRCErasureDecoder(getCoderOptions(), numLocalGroups);
+  }
+}
@@ -23,6 +23,7 @@
 import org.smartdata.erasurecode.coder.util.HHUtil;
 import org.smartdata.erasurecode.rawcoder.RawErasureDecoder;
 import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 
@@ -228,16 +229,14 @@ private void doDecodeByPiggyBack(ByteBuffer[] inputs,
 
     // recover first sub-stripe data by XOR piggyback
     int bufSize = piggyBack.remaining();
-    for (int i = piggyBack.position();
-         i < piggyBack.position() + bufSize; i++) {
-      for (int j = startIndex; j < endIndex; j++) {
-        if (inputs[j] != null) {
-          piggyBack.put(i, (byte)
-                  (piggyBack.get(i) ^ inputs[j].get(inputs[j].position() + i)));
-        }
+    int pos = piggyBack.position();
+    for (int j = startIndex; j < endIndex; j++) {
+      if (inputs[j] != null) {
+        XORUtil.xor(inputs[j], inputs[j].position() + pos,
+            piggyBack, pos, bufSize);
       }
-      outputs.put(outputs.position() + i, piggyBack.get(i));
     }
+    XORUtil.copy(piggyBack, pos, outputs, outputs.position() + pos, bufSize);
   }
 
   private void doDecodeByPiggyBack(byte[][] inputs, int[] inputOffsets,
@@ -249,14 +248,12 @@ private void doDecodeByPiggyBack(byte[][] inputs, int[] inputOffsets,
     final int endIndex = piggyBackIndex[thisPiggyBackSetIdx];
 
     // recover first sub-stripe data by XOR piggyback
-    for (int i = 0; i < bufSize; i++) {
-      for (int j = startIndex; j < endIndex; j++) {
-        if (inputs[j] != null) {
-          piggyBack[i] = (byte) (piggyBack[i] ^ inputs[j][i + inputOffsets[j]]);
-        }
+    for (int j = startIndex; j < endIndex; j++) {
+      if (inputs[j] != null) {
+        XORUtil.xor(inputs[j], inputOffsets[j], piggyBack, 0, bufSize);
       }
-      outputs[i + outOffset] = piggyBack[i];
     }
+    System.arraycopy(piggyBack, 0, outputs, outOffset, bufSize);
   }
 
   private void doDecodeMultiAndParity(ByteBuffer[][] inputs,
@@ -311,13 +308,9 @@ private void doDecodeMultiAndParity(ByteBuffer[][] inputs,
     for (int j = numDataUnits + 1; j < numTotalUnits; ++j) {
       if (parityToFixFlag[j] == 0 && inputs[1][j] != null) {
         // f(b) + f(a1,a2,a3....)
-        for (int k = inputs[1][j].position(),
-             m = piggyBack[j - numDataUnits - 1].position();
-             k < inputs[1][j].limit(); ++k, ++m) {
-          inputs[1][j].put(k, (byte)
-                  (inputs[1][j].get(k) ^
-                          piggyBack[j - numDataUnits - 1].get(m)));
-        }
+        ByteBuffer pb = piggyBack[j - numDataUnits - 1];
+        XORUtil.xor(pb, pb.position(), inputs[1][j],
+            inputs[1][j].position(), inputs[1][j].remaining());
       }
     }
 
@@ -329,12 +322,8 @@ private void doDecodeMultiAndParity(ByteBuffer[][] inputs,
       if (erasedLocationToFix[j] < numTotalUnits
               && erasedLocationToFix[j] > numDataUnits) {
         int parityIndex = erasedLocationToFix[j] - numDataUnits - 1;
-        for (int k = outputs[1][j].position(),
-             m = piggyBack[parityIndex].position();
-             k < outputs[1][j].limit(); ++k, ++m) {
-          outputs[1][j].put(k, (byte)
-                  (outputs[1][j].get(k) ^ piggyBack[parityIndex].get(m)));
-        }
+        XORUtil.xor(piggyBack[parityIndex], piggyBack[parityIndex].position(),
+            outputs[1][j], outputs[1][j].position(), outputs[1][j].remaining());
       }
     }
 
@@ -22,6 +22,7 @@
 import org.smartdata.erasurecode.ECChunk;
 import org.smartdata.erasurecode.coder.util.HHUtil;
 import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 
@@ -109,37 +110,17 @@ private void doEncode(ByteBuffer[][] inputs, ByteBuffer[][] outputs) {
 
     // Step2: Adding piggybacks to the parities
     // Only second sub-packet is added with a piggyback.
-    encodeWithPiggyBacks(piggyBacks, outputs, numParityUnits,
-            inputs[0][0].isDirect());
+    encodeWithPiggyBacks(piggyBacks, outputs, numParityUnits);
   }
 
   private void encodeWithPiggyBacks(ByteBuffer[] piggyBacks,
                                     ByteBuffer[][] outputs,
-                                    int numParityUnits,
-                                    boolean bIsDirect) {
-    if (!bIsDirect) {
-      for (int i = 0; i < numParityUnits - 1; i++) {
-        int parityIndex = i + 1;
-        int bufSize = piggyBacks[i].remaining();
-        byte[] newOut = outputs[1][parityIndex].array();
-        int offset = outputs[1][parityIndex].arrayOffset()
-                + outputs[1][parityIndex].position();
-
-        for (int k = offset, j = 0; j < bufSize; k++, j++) {
-          newOut[k] = (byte) (newOut[k] ^ piggyBacks[i].get(j));
-        }
-      }
-      return;
-    }
-
+                                    int numParityUnits) {
     for (int i = 0; i < numParityUnits - 1; i++) {
       int parityIndex = i + 1;
-      for (int k = piggyBacks[i].position(),
-           m = outputs[1][parityIndex].position();
-           k < piggyBacks[i].limit(); k++, m++) {
-        outputs[1][parityIndex].put(m,
-                (byte) (outputs[1][parityIndex].get(m) ^ piggyBacks[i].get(k)));
-      }
+      XORUtil.xor(piggyBacks[i], piggyBacks[i].position(),
+          outputs[1][parityIndex], outputs[1][parityIndex].position(),
+          piggyBacks[i].remaining());
     }
   }
 
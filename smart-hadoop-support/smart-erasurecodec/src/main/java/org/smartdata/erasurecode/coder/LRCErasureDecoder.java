@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.coder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.*;
+import org.smartdata.erasurecode.rawcoder.LRCRawDecoder;
+import org.smartdata.erasurecode.rawcoder.RawErasureDecoder;
+
+/**
+ * Locally repairable erasure decoder that decodes a block group.
+ *
+ * It implements {@link ErasureCoder}.
+ */
+@InterfaceAudience.Private
+public class LRCErasureDecoder extends ErasureDecoder {
+  private final int numLocalGroups;
+  private RawErasureDecoder rawDecoder;
+
+  public LRCErasureDecoder(ErasureCoderOptions options, int numLocalGroups) {
+    super(options);
+    this.numLocalGroups = numLocalGroups;
+  }
+
+  @Override
+  protected ErasureCodingStep prepareDecodingStep(
+      final ECBlockGroup blockGroup) {
+    ECBlock[] inputBlocks = getInputBlocks(blockGroup);
+    ECBlock[] outputBlocks = getOutputBlocks(blockGroup);
+
+    RawErasureDecoder rawDecoder = checkCreateLRCRawDecoder();
+    return new ErasureDecodingStep(inputBlocks,
+        getErasedIndexes(inputBlocks), outputBlocks, rawDecoder);
+  }
+
+  private RawErasureDecoder checkCreateLRCRawDecoder() {
+    if (rawDecoder == null) {
+      rawDecoder = new LRCRawDecoder(getOptions(), numLocalGroups);
+    }
+    return rawDecoder;
+  }
+
+  @Override
+  public void release() {
+    if (rawDecoder != null) {
+      rawDecoder.release();
+    }
+  }
+}
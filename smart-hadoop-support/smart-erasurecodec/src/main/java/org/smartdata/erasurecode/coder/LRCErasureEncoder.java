@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.coder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.*;
+import org.smartdata.erasurecode.rawcoder.LRCRawEncoder;
+import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
+
+/**
+ * Locally repairable erasure encoder that encodes a block group.
+ *
+ * It implements {@link ErasureCoder}.
+ */
+@InterfaceAudience.Private
+public class LRCErasureEncoder extends ErasureEncoder {
+  private final int numLocalGroups;
+  private RawErasureEncoder rawEncoder;
+
+  public LRCErasureEncoder(ErasureCoderOptions options, int numLocalGroups) {
+    super(options);
+    this.numLocalGroups = numLocalGroups;
+  }
+
+  @Override
+  protected ErasureCodingStep prepareEncodingStep(
+      final ECBlockGroup blockGroup) {
+    RawErasureEncoder rawEncoder = checkCreateLRCRawEncoder();
+
+    ECBlock[] inputBlocks = getInputBlocks(blockGroup);
+
+    return new ErasureEncodingStep(inputBlocks,
+        getOutputBlocks(blockGroup), rawEncoder);
+  }
+
+  private RawErasureEncoder checkCreateLRCRawEncoder() {
+    if (rawEncoder == null) {
+      // The number of local groups isn't in the coder options, so the raw
+      // coder is created directly instead of by the configured factory.
+      rawEncoder = new LRCRawEncoder(getOptions(), numLocalGroups);
+    }
+    return rawEncoder;
+  }
+
+  @Override
+  public void release() {
+    if (rawEncoder != null) {
+      rawEncoder.release();
+    }
+  }
+
+  @Override
+  public boolean preferDirectBuffer() {
+    return false;
+  }
+}
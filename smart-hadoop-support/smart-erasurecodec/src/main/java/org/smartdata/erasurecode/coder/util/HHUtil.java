@@ -20,7 +20,7 @@
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
-import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 
@@ -119,20 +119,9 @@ public static ByteBuffer[] getPiggyBacksFromInput(ByteBuffer[] inputs,
   }
 
   private static ByteBuffer cloneBufferData(ByteBuffer srcBuffer) {
-    ByteBuffer destBuffer;
-    byte[] bytesArr = new byte[srcBuffer.remaining()];
-
-    srcBuffer.mark();
-    srcBuffer.get(bytesArr);
-    srcBuffer.reset();
-
-    if (!srcBuffer.isDirect()) {
-      destBuffer = ByteBuffer.wrap(bytesArr);
-    } else {
-      destBuffer = ByteBuffer.allocateDirect(srcBuffer.remaining());
-      destBuffer.put(bytesArr);
-      destBuffer.flip();
-    }
+    int len = srcBuffer.remaining();
+    ByteBuffer destBuffer = allocateByteBuffer(srcBuffer.isDirect(), len);
+    XORUtil.copy(srcBuffer, srcBuffer.position(), destBuffer, 0, len);
 
     return destBuffer;
   }
@@ -164,36 +153,22 @@ public static ByteBuffer getPiggyBackForDecode(ByteBuffer[][] inputs,
     // only ) parity value from the actually read parity value
     if (pbParityIndex < numParityUnits) {
       // not the last piggybackSet
-      int inputIdx = numDataUnits + pbParityIndex;
-      int inputPos = inputs[1][inputIdx].position();
-      int outputPos = outputs[1][pbParityIndex].position();
-
-      for (int m = 0, k = inputPos, n = outputPos; m < bufSize; k++, m++, n++) {
-        int valueWithPb = 0xFF & inputs[1][inputIdx].get(k);
-        int valueWithoutPb = 0xFF & outputs[1][pbParityIndex].get(n);
-        piggybacks.put(m, (byte) RSUtil.GF.add(valueWithPb, valueWithoutPb));
-      }
+      // addition in GF(2^8) is XOR
+      ByteBuffer valueWithPb = inputs[1][numDataUnits + pbParityIndex];
+      ByteBuffer valueWithoutPb = outputs[1][pbParityIndex];
+      XORUtil.copy(valueWithPb, valueWithPb.position(), piggybacks, 0, bufSize);
+      XORUtil.xor(valueWithoutPb, valueWithoutPb.position(),
+          piggybacks, 0, bufSize);
     } else {
       // last piggybackSet
-      int sum = 0;
-      for (int k = 0; k < bufSize; k++) {
-        sum = 0;
-        for (int i = 1; i < numParityUnits; i++) {
-          int inIdx = numDataUnits + i;
-          int inPos = inputs[1][numDataUnits + i].position();
-          int outPos = outputs[1][i].position();
-
-          sum = RSUtil.GF.add(sum, (0xFF & inputs[1][inIdx].get(inPos + k)));
-          sum = RSUtil.GF.add(sum, (0xFF & outputs[1][i].get(outPos + k)));
-        }
-
-        sum = RSUtil.GF.add(sum,
-                (0xFF & inputs[0][numDataUnits + pbIndex].get(
-                        inputs[0][numDataUnits + pbIndex].position() + k)));
-
-        piggybacks.put(k, (byte) sum);
+      ByteBuffer firstParity = inputs[0][numDataUnits + pbIndex];
+      XORUtil.copy(firstParity, firstParity.position(), piggybacks, 0, bufSize);
+      for (int i = 1; i < numParityUnits; i++) {
+        ByteBuffer input = inputs[1][numDataUnits + i];
+        XORUtil.xor(input, input.position(), piggybacks, 0, bufSize);
+        XORUtil.xor(outputs[1][i], outputs[1][i].position(),
+            piggybacks, 0, bufSize);
       }
-
     }
 
     return piggybacks;
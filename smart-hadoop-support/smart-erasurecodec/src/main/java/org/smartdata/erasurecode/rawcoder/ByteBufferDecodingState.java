@@ -115,7 +115,7 @@ void checkInputBuffers(ByteBuffer[] buffers) {
       validInputs++;
     }
 
-    if (validInputs < decoder.getNumDataUnits()) {
+    if (validInputs < decoder.getMinValidInputs()) {
       throw new HadoopIllegalArgumentException(
           "No enough valid inputs are provided, not recoverable");
     }
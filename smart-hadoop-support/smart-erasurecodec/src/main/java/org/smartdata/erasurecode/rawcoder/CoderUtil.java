@@ -20,6 +20,7 @@
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.smartdata.erasurecode.ECChunk;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -61,9 +62,7 @@ static byte[] getEmptyChunk(int leastLength) {
    *         are not changed after the call
    */
   static ByteBuffer resetBuffer(ByteBuffer buffer, int len) {
-    int pos = buffer.position();
-    buffer.put(getEmptyChunk(len), 0, len);
-    buffer.position(pos);
+    XORUtil.zero(buffer, buffer.position(), len);
 
     return buffer;
   }
@@ -75,8 +74,7 @@ static ByteBuffer resetBuffer(ByteBuffer buffer, int len) {
    * @return the buffer itself
    */
   static byte[] resetBuffer(byte[] buffer, int offset, int len) {
-    byte[] empty = getEmptyChunk(len);
-    System.arraycopy(empty, 0, buffer, offset, len);
+    Arrays.fill(buffer, offset, offset + len, (byte) 0);
 
     return buffer;
   }
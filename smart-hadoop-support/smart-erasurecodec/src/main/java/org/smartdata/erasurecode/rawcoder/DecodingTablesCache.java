@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe LRU cache of decoding tables shared by decoder
+ * instances, keyed by the coding schema and the erasure pattern, i.e. the
+ * erased indexes and the valid indexes. Reconstructing many stripes usually
+ * involves only a few erasure patterns (e.g. the blocks of one lost
+ * datanode), so the tables of a pattern are generated once and reused, even
+ * when decoders are switching between patterns.
+ *
+ * @param <T> the tables, which must not be modified once cached
+ */
+@InterfaceAudience.Private
+class DecodingTablesCache<T> {
+  static final int DEFAULT_CAPACITY = 64;
+
+  private final Map<Key, T> cache;
+  private long hits;
+  private long misses;
+
+  DecodingTablesCache(final int capacity) {
+    this.cache = new LinkedHashMap<Key, T>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, T> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @param schema parameters of the code the tables are generated for
+   * @return the cached tables of the given erasure pattern, or null
+   */
+  synchronized T get(int[] schema, int[] erasedIndexes, int[] validIndexes) {
+    T tables = cache.get(new Key(schema, erasedIndexes, validIndexes));
+    if (tables != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return tables;
+  }
+
+  synchronized void put(int[] schema, int[] erasedIndexes, int[] validIndexes,
+      T tables) {
+    cache.put(new Key(schema, erasedIndexes, validIndexes), tables);
+  }
+
+  synchronized int size() {
+    return cache.size();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  synchronized void clear() {
+    cache.clear();
+    hits = 0;
+    misses = 0;
+  }
+
+  private static final class Key {
+    private final int[] schema;
+    private final int[] erasedIndexes;
+    private final int[] validIndexes;
+
+    Key(int[] schema, int[] erasedIndexes, int[] validIndexes) {
+      this.schema = schema;
+      this.erasedIndexes = erasedIndexes;
+      this.validIndexes = validIndexes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return Arrays.equals(schema, key.schema)
+          && Arrays.equals(erasedIndexes, key.erasedIndexes)
+          && Arrays.equals(validIndexes, key.validIndexes);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Arrays.hashCode(schema);
+      result = 31 * result + Arrays.hashCode(erasedIndexes);
+      result = 31 * result + Arrays.hashCode(validIndexes);
+      return result;
+    }
+  }
+}
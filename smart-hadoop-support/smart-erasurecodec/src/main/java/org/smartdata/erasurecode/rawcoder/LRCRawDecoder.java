@@ -0,0 +1,323 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.GF256;
+import org.smartdata.erasurecode.rawcoder.util.LRCUtil;
+import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A raw erasure decoder of the locally repairable code LRC(k, l, r), see
+ * {@link LRCUtil} for the layout.
+ *
+ * An erased data unit or local parity whose local group is otherwise
+ * available is repaired by XOR-ing the rest of the group, so the caller
+ * only needs to read those units, see {@link LRCUtil#getRepairSources}.
+ * Other erasures are decoded from k linearly independent available units,
+ * preferring data units, then local parities, then global parities.
+ */
+@InterfaceAudience.Private
+public class LRCRawDecoder extends RawErasureDecoder {
+  // Decoding tables shared by all LRC decoders, see DecodingTablesCache.
+  static final DecodingTablesCache<DecodingTables> TABLES_CACHE =
+      new DecodingTablesCache<DecodingTables>(
+          DecodingTablesCache.DEFAULT_CAPACITY);
+
+  private final int numLocalGroups;
+  private final int groupSize;
+  private final byte[] generatorMatrix;
+
+  /**
+   * Tables of the last erasure pattern decoded from k units, may change
+   * during decode calls. Other patterns are looked up in TABLES_CACHE.
+   */
+  private volatile DecodingTables decodingTables;
+
+  public LRCRawDecoder(ErasureCoderOptions coderOptions) {
+    this(coderOptions, LRCRawEncoder.DEFAULT_NUM_LOCAL_GROUPS);
+  }
+
+  public LRCRawDecoder(ErasureCoderOptions coderOptions, int numLocalGroups) {
+    super(coderOptions);
+    int numGlobalParityUnits = getNumParityUnits() - numLocalGroups;
+    LRCUtil.checkLayout(getNumDataUnits(), numLocalGroups,
+        numGlobalParityUnits);
+    this.numLocalGroups = numLocalGroups;
+    this.groupSize = getNumDataUnits() / numLocalGroups;
+    this.generatorMatrix = LRCUtil.genGeneratorMatrix(getNumDataUnits(),
+        numLocalGroups, numGlobalParityUnits);
+  }
+
+  public int getNumLocalGroups() {
+    return numLocalGroups;
+  }
+
+  /**
+   * A local repair reads groupSize units only.
+   */
+  @Override
+  public int getMinValidInputs() {
+    return groupSize;
+  }
+
+  @Override
+  protected void doDecode(ByteBufferDecodingState decodingState) {
+    ByteBuffer[] inputs = decodingState.inputs;
+    int[] erasedIndexes = decodingState.erasedIndexes;
+    int dataLen = decodingState.decodeLength;
+
+    int[] remaining = new int[erasedIndexes.length];
+    int numRemaining = 0;
+    for (int i = 0; i < erasedIndexes.length; i++) {
+      int[] group = getLocalGroupIfAvailable(inputs, erasedIndexes[i]);
+      if (group == null) {
+        remaining[numRemaining++] = i;
+        continue;
+      }
+      ByteBuffer output = decodingState.outputs[i];
+      boolean first = true;
+      for (int unit : group) {
+        if (unit == erasedIndexes[i]) {
+          continue;
+        }
+        if (first) {
+          XORUtil.copy(inputs[unit], inputs[unit].position(),
+              output, output.position(), dataLen);
+          first = false;
+        } else {
+          XORUtil.xor(inputs[unit], inputs[unit].position(),
+              output, output.position(), dataLen);
+        }
+      }
+    }
+    if (numRemaining == 0) {
+      return;
+    }
+
+    int[] globalErasedIndexes = new int[numRemaining];
+    ByteBuffer[] outputs = new ByteBuffer[numRemaining];
+    for (int i = 0; i < numRemaining; i++) {
+      globalErasedIndexes[i] = erasedIndexes[remaining[i]];
+      outputs[i] = decodingState.outputs[remaining[i]];
+    }
+    DecodingTables tables = prepareDecoding(inputs, erasedIndexes,
+        globalErasedIndexes);
+    ByteBuffer[] realInputs = new ByteBuffer[getNumDataUnits()];
+    for (int i = 0; i < realInputs.length; i++) {
+      realInputs[i] = inputs[tables.selectedIndexes[i]];
+    }
+    CoderUtil.resetOutputBuffers(outputs, dataLen);
+    RSUtil.encodeData(tables.gfTables, realInputs, outputs);
+  }
+
+  @Override
+  protected void doDecode(ByteArrayDecodingState decodingState) {
+    byte[][] inputs = decodingState.inputs;
+    int[] inputOffsets = decodingState.inputOffsets;
+    int[] erasedIndexes = decodingState.erasedIndexes;
+    int dataLen = decodingState.decodeLength;
+
+    int[] remaining = new int[erasedIndexes.length];
+    int numRemaining = 0;
+    for (int i = 0; i < erasedIndexes.length; i++) {
+      int[] group = getLocalGroupIfAvailable(inputs, erasedIndexes[i]);
+      if (group == null) {
+        remaining[numRemaining++] = i;
+        continue;
+      }
+      byte[] output = decodingState.outputs[i];
+      int outputOffset = decodingState.outputOffsets[i];
+      boolean first = true;
+      for (int unit : group) {
+        if (unit == erasedIndexes[i]) {
+          continue;
+        }
+        if (first) {
+          System.arraycopy(inputs[unit], inputOffsets[unit],
+              output, outputOffset, dataLen);
+          first = false;
+        } else {
+          XORUtil.xor(inputs[unit], inputOffsets[unit],
+              output, outputOffset, dataLen);
+        }
+      }
+    }
+    if (numRemaining == 0) {
+      return;
+    }
+
+    int[] globalErasedIndexes = new int[numRemaining];
+    byte[][] outputs = new byte[numRemaining][];
+    int[] outputOffsets = new int[numRemaining];
+    for (int i = 0; i < numRemaining; i++) {
+      globalErasedIndexes[i] = erasedIndexes[remaining[i]];
+      outputs[i] = decodingState.outputs[remaining[i]];
+      outputOffsets[i] = decodingState.outputOffsets[remaining[i]];
+    }
+    DecodingTables tables = prepareDecoding(inputs, erasedIndexes,
+        globalErasedIndexes);
+    byte[][] realInputs = new byte[getNumDataUnits()][];
+    int[] realInputOffsets = new int[getNumDataUnits()];
+    for (int i = 0; i < realInputs.length; i++) {
+      realInputs[i] = inputs[tables.selectedIndexes[i]];
+      realInputOffsets[i] = inputOffsets[tables.selectedIndexes[i]];
+    }
+    CoderUtil.resetOutputBuffers(outputs, outputOffsets, dataLen);
+    RSUtil.encodeData(tables.gfTables, dataLen, realInputs, realInputOffsets,
+        outputs, outputOffsets);
+  }
+
+  /**
+   * @return the units of the local group of the erased unit, if all the
+   *         others are available, otherwise null
+   */
+  private <T> int[] getLocalGroupIfAvailable(T[] inputs, int erasedIndex) {
+    int group = LRCUtil.getLocalGroup(erasedIndex, getNumDataUnits(),
+        numLocalGroups);
+    if (group < 0) {
+      return null;
+    }
+    int[] units = LRCUtil.getLocalGroupUnits(group, getNumDataUnits(),
+        numLocalGroups);
+    for (int unit : units) {
+      if (unit != erasedIndex && inputs[unit] == null) {
+        return null;
+      }
+    }
+    return units;
+  }
+
+  /**
+   * Get the decoding tables of the units to decode from k units, from the
+   * last decode call, the shared cache or by generating them.
+   */
+  private <T> DecodingTables prepareDecoding(T[] inputs, int[] erasedIndexes,
+      int[] globalErasedIndexes) {
+    int[] validIndexes = getValidIndexes(inputs, erasedIndexes);
+    DecodingTables tables = this.decodingTables;
+    if (tables != null && tables.matches(globalErasedIndexes, validIndexes)) {
+      return tables;
+    }
+
+    int[] schema = new int[]{getNumDataUnits(), getNumParityUnits(),
+        numLocalGroups};
+    tables = TABLES_CACHE.get(schema, globalErasedIndexes, validIndexes);
+    if (tables == null) {
+      tables = generateTables(erasedIndexes, globalErasedIndexes.clone(),
+          validIndexes);
+      TABLES_CACHE.put(schema, tables.erasedIndexes, tables.validIndexes,
+          tables);
+    }
+    this.decodingTables = tables;
+    return tables;
+  }
+
+  private DecodingTables generateTables(int[] erasedIndexes,
+      int[] globalErasedIndexes, int[] validIndexes) {
+    int k = getNumDataUnits();
+    int[] selectedIndexes = LRCUtil.selectIndependentRows(generatorMatrix, k,
+        validIndexes);
+    if (selectedIndexes == null) {
+      throw new HadoopIllegalArgumentException(
+          "Erased units " + Arrays.toString(erasedIndexes)
+              + " are not recoverable from units "
+              + Arrays.toString(validIndexes));
+    }
+
+    byte[] tmpMatrix = new byte[k * k];
+    byte[] invertMatrix = new byte[k * k];
+    for (int i = 0; i < k; i++) {
+      System.arraycopy(generatorMatrix, selectedIndexes[i] * k,
+          tmpMatrix, i * k, k);
+    }
+    GF256.gfInvertMatrix(tmpMatrix, invertMatrix, k);
+
+    // erased unit = its generator row * invertMatrix * selected units
+    byte[] decodeMatrix = new byte[globalErasedIndexes.length * k];
+    for (int p = 0; p < globalErasedIndexes.length; p++) {
+      int row = globalErasedIndexes[p] * k;
+      for (int i = 0; i < k; i++) {
+        byte s = 0;
+        for (int j = 0; j < k; j++) {
+          s ^= GF256.gfMul(generatorMatrix[row + j], invertMatrix[j * k + i]);
+        }
+        decodeMatrix[p * k + i] = s;
+      }
+    }
+    byte[] gfTables = new byte[globalErasedIndexes.length * k * 32];
+    RSUtil.initTables(k, globalErasedIndexes.length, decodeMatrix, 0,
+        gfTables);
+
+    return new DecodingTables(globalErasedIndexes, validIndexes,
+        selectedIndexes, gfTables);
+  }
+
+  /**
+   * @return indexes of the available units that are not to be decoded
+   */
+  private static <T> int[] getValidIndexes(T[] inputs, int[] erasedIndexes) {
+    int[] validIndexes = new int[inputs.length];
+    int idx = 0;
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] != null && !contains(erasedIndexes, i)) {
+        validIndexes[idx++] = i;
+      }
+    }
+    return Arrays.copyOf(validIndexes, idx);
+  }
+
+  private static boolean contains(int[] values, int value) {
+    for (int v : values) {
+      if (v == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tables of one erasure pattern, never modified after creation so they can
+   * be shared by decoders in different threads.
+   */
+  static final class DecodingTables {
+    private final int[] erasedIndexes;
+    private final int[] validIndexes;
+    private final int[] selectedIndexes;
+    private final byte[] gfTables;
+
+    DecodingTables(int[] erasedIndexes, int[] validIndexes,
+                   int[] selectedIndexes, byte[] gfTables) {
+      this.erasedIndexes = erasedIndexes;
+      this.validIndexes = validIndexes;
+      this.selectedIndexes = selectedIndexes;
+      this.gfTables = gfTables;
+    }
+
+    boolean matches(int[] erased, int[] valid) {
+      return Arrays.equals(erasedIndexes, erased)
+          && Arrays.equals(validIndexes, valid);
+    }
+  }
+}
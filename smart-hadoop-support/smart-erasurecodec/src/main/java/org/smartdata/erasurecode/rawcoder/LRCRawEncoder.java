@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.DumpUtil;
+import org.smartdata.erasurecode.rawcoder.util.LRCUtil;
+import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A raw erasure encoder of the locally repairable code LRC(k, l, r), see
+ * {@link LRCUtil} for the layout. numParityUnits of the coder options is
+ * l + r; the outputs are the l local parities then the r global parities.
+ */
+@InterfaceAudience.Private
+public class LRCRawEncoder extends RawErasureEncoder {
+  public static final int DEFAULT_NUM_LOCAL_GROUPS = 2;
+
+  private final int numLocalGroups;
+  private final int groupSize;
+  // tables of the global parity rows of the generator matrix
+  private final byte[] gfTables;
+
+  public LRCRawEncoder(ErasureCoderOptions coderOptions) {
+    this(coderOptions, DEFAULT_NUM_LOCAL_GROUPS);
+  }
+
+  public LRCRawEncoder(ErasureCoderOptions coderOptions, int numLocalGroups) {
+    super(coderOptions);
+    int numGlobalParityUnits = getNumParityUnits() - numLocalGroups;
+    LRCUtil.checkLayout(getNumDataUnits(), numLocalGroups,
+        numGlobalParityUnits);
+    this.numLocalGroups = numLocalGroups;
+    this.groupSize = getNumDataUnits() / numLocalGroups;
+
+    byte[] generatorMatrix = LRCUtil.genGeneratorMatrix(getNumDataUnits(),
+        numLocalGroups, numGlobalParityUnits);
+    if (allowVerboseDump()) {
+      DumpUtil.dumpMatrix(generatorMatrix, getNumDataUnits(),
+          getNumAllUnits());
+    }
+    gfTables = new byte[numGlobalParityUnits * getNumDataUnits() * 32];
+    RSUtil.initTables(getNumDataUnits(), numGlobalParityUnits,
+        generatorMatrix, (getNumDataUnits() + numLocalGroups)
+            * getNumDataUnits(), gfTables);
+  }
+
+  public int getNumLocalGroups() {
+    return numLocalGroups;
+  }
+
+  @Override
+  protected void doEncode(ByteBufferEncodingState encodingState) {
+    ByteBuffer[] inputs = encodingState.inputs;
+    ByteBuffer[] outputs = encodingState.outputs;
+    int dataLen = encodingState.encodeLength;
+
+    for (int g = 0; g < numLocalGroups; g++) {
+      ByteBuffer output = outputs[g];
+      int first = g * groupSize;
+      XORUtil.copy(inputs[first], inputs[first].position(),
+          output, output.position(), dataLen);
+      for (int i = first + 1; i < first + groupSize; i++) {
+        XORUtil.xor(inputs[i], inputs[i].position(),
+            output, output.position(), dataLen);
+      }
+    }
+
+    ByteBuffer[] globalOutputs =
+        new ByteBuffer[outputs.length - numLocalGroups];
+    System.arraycopy(outputs, numLocalGroups, globalOutputs, 0,
+        globalOutputs.length);
+    CoderUtil.resetOutputBuffers(globalOutputs, dataLen);
+    RSUtil.encodeData(gfTables, inputs, globalOutputs);
+  }
+
+  @Override
+  protected void doEncode(ByteArrayEncodingState encodingState) {
+    byte[][] inputs = encodingState.inputs;
+    int[] inputOffsets = encodingState.inputOffsets;
+    byte[][] outputs = encodingState.outputs;
+    int[] outputOffsets = encodingState.outputOffsets;
+    int dataLen = encodingState.encodeLength;
+
+    for (int g = 0; g < numLocalGroups; g++) {
+      int first = g * groupSize;
+      System.arraycopy(inputs[first], inputOffsets[first],
+          outputs[g], outputOffsets[g], dataLen);
+      for (int i = first + 1; i < first + groupSize; i++) {
+        XORUtil.xor(inputs[i], inputOffsets[i],
+            outputs[g], outputOffsets[g], dataLen);
+      }
+    }
+
+    int numGlobalParityUnits = outputs.length - numLocalGroups;
+    byte[][] globalOutputs = new byte[numGlobalParityUnits][];
+    int[] globalOutputOffsets = new int[numGlobalParityUnits];
+    System.arraycopy(outputs, numLocalGroups, globalOutputs, 0,
+        numGlobalParityUnits);
+    System.arraycopy(outputOffsets, numLocalGroups, globalOutputOffsets, 0,
+        numGlobalParityUnits);
+    CoderUtil.resetOutputBuffers(globalOutputs, globalOutputOffsets, dataLen);
+    RSUtil.encodeData(gfTables, dataLen, inputs, inputOffsets,
+        globalOutputs, globalOutputOffsets);
+  }
+}
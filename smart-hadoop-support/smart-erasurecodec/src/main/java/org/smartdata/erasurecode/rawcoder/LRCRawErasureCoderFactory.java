@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+
+/**
+ * A raw coder factory for the raw LRC coder. The number of local groups
+ * isn't part of the coder options, it's given to the factory and defaults
+ * to {@link LRCRawEncoder#DEFAULT_NUM_LOCAL_GROUPS}.
+ */
+@InterfaceAudience.Private
+public class LRCRawErasureCoderFactory implements RawErasureCoderFactory {
+  private final int numLocalGroups;
+
+  public LRCRawErasureCoderFactory() {
+    this(LRCRawEncoder.DEFAULT_NUM_LOCAL_GROUPS);
+  }
+
+  public LRCRawErasureCoderFactory(int numLocalGroups) {
+    this.numLocalGroups = numLocalGroups;
+  }
+
+  @Override
+  public RawErasureEncoder createEncoder(ErasureCoderOptions coderOptions) {
+    return new LRCRawEncoder(coderOptions, numLocalGroups);
+  }
+
+  @Override
+  public RawErasureDecoder createDecoder(ErasureCoderOptions coderOptions) {
+    return new LRCRawDecoder(coderOptions, numLocalGroups);
+  }
+}
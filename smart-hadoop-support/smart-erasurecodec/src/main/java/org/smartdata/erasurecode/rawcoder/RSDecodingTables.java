@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+
+import java.util.Arrays;
+
+/**
+ * Decode matrix and gf tables of a RS schema for one erasure pattern, i.e. one
+ * combination of erased indexes and valid indexes. Instances are not
+ * modified after creation so they can be shared by decoders in different
+ * threads, except that the wide tables are derived on first use.
+ */
+@InterfaceAudience.Private
+final class RSDecodingTables {
+  private final int numDataUnits;
+  private final int numParityUnits;
+  private final int[] erasedIndexes;
+  private final int[] validIndexes;
+  // rows of the decode matrix for the erased units
+  private final byte[] decodeMatrix;
+  // Array of input tables generated from decodeMatrix, 32*k*rows bytes
+  private final byte[] gfTables;
+  // Wide tables for RSRawDecoderWide, derived from decodeMatrix on first use
+  private volatile int[][] wideTables;
+
+  RSDecodingTables(int numDataUnits, int numParityUnits,
+      int[] erasedIndexes, int[] validIndexes, byte[] decodeMatrix,
+      byte[] gfTables) {
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+    this.erasedIndexes = erasedIndexes;
+    this.validIndexes = validIndexes;
+    this.decodeMatrix = decodeMatrix;
+    this.gfTables = gfTables;
+  }
+
+  boolean matches(int[] erasedIndexes, int[] validIndexes) {
+    return Arrays.equals(this.erasedIndexes, erasedIndexes)
+        && Arrays.equals(this.validIndexes, validIndexes);
+  }
+
+  int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  int[] getErasedIndexes() {
+    return erasedIndexes;
+  }
+
+  int[] getValidIndexes() {
+    return validIndexes;
+  }
+
+  byte[] getDecodeMatrix() {
+    return decodeMatrix;
+  }
+
+  byte[] getGfTables() {
+    return gfTables;
+  }
+
+  int[][] getWideTables() {
+    int[][] tables = wideTables;
+    if (tables == null) {
+      // Threads racing here derive equal tables, any of them can be kept
+      tables = RSUtil.initWideTables(numDataUnits, erasedIndexes.length,
+          decodeMatrix, 0);
+      wideTables = tables;
+    }
+    return tables;
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The {@link DecodingTablesCache} of {@link RSDecodingTables} shared by RS
+ * decoder instances, so the matrix inversion and table generation for an
+ * erasure pattern is done once per schema.
+ */
+@InterfaceAudience.Private
+final class RSDecodingTablesCache extends DecodingTablesCache<RSDecodingTables> {
+  RSDecodingTablesCache(int capacity) {
+    super(capacity);
+  }
+
+  /**
+   * @return the cached tables of the given erasure pattern, or null
+   */
+  RSDecodingTables get(int numDataUnits, int numParityUnits,
+      int[] erasedIndexes, int[] validIndexes) {
+    return get(new int[]{numDataUnits, numParityUnits}, erasedIndexes,
+        validIndexes);
+  }
+
+  void put(RSDecodingTables tables) {
+    put(new int[]{tables.getNumDataUnits(), tables.getNumParityUnits()},
+        tables.getErasedIndexes(), tables.getValidIndexes(), tables);
+  }
+}
@@ -35,24 +35,18 @@
  */
 @InterfaceAudience.Private
 public class RSRawDecoder extends RawErasureDecoder {
+  // Decoding tables shared by all RS decoders, see RSDecodingTablesCache.
+  static final RSDecodingTablesCache TABLES_CACHE =
+      new RSDecodingTablesCache(RSDecodingTablesCache.DEFAULT_CAPACITY);
+
   //relevant to schema and won't change during decode calls
   private byte[] encodeMatrix;
 
   /**
-   * Below are relevant to schema and erased indexes, thus may change during
-   * decode calls.
-   */
-  private byte[] decodeMatrix;
-  private byte[] invertMatrix;
-  /**
-   * Array of input tables generated from coding coefficients previously.
-   * Must be of size 32*k*rows
+   * Tables of the last erasure pattern, may change during decode calls.
+   * Replaced as a whole so concurrent decode calls see consistent tables.
    */
-  private byte[] gfTables;
-  private int[] cachedErasedIndexes;
-  private int[] validIndexes;
-  private int numErasedDataUnits;
-  private boolean[] erasureFlags;
+  private volatile RSDecodingTables decodingTables;
 
   public RSRawDecoder(ErasureCoderOptions coderOptions) {
     super(coderOptions);
@@ -74,13 +68,15 @@ public RSRawDecoder(ErasureCoderOptions coderOptions) {
   protected void doDecode(ByteBufferDecodingState decodingState) {
     CoderUtil.resetOutputBuffers(decodingState.outputs,
         decodingState.decodeLength);
-    prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+    RSDecodingTables tables =
+        prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
 
+    int[] validIndexes = tables.getValidIndexes();
     ByteBuffer[] realInputs = new ByteBuffer[getNumDataUnits()];
     for (int i = 0; i < getNumDataUnits(); i++) {
       realInputs[i] = decodingState.inputs[validIndexes[i]];
     }
-    RSUtil.encodeData(gfTables, realInputs, decodingState.outputs);
+    RSUtil.encodeData(tables.getGfTables(), realInputs, decodingState.outputs);
   }
 
   @Override
@@ -88,62 +84,73 @@ protected void doDecode(ByteArrayDecodingState decodingState) {
     int dataLen = decodingState.decodeLength;
     CoderUtil.resetOutputBuffers(decodingState.outputs,
         decodingState.outputOffsets, dataLen);
-    prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+    RSDecodingTables tables =
+        prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
 
+    int[] validIndexes = tables.getValidIndexes();
     byte[][] realInputs = new byte[getNumDataUnits()][];
     int[] realInputOffsets = new int[getNumDataUnits()];
     for (int i = 0; i < getNumDataUnits(); i++) {
       realInputs[i] = decodingState.inputs[validIndexes[i]];
       realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
     }
-    RSUtil.encodeData(gfTables, dataLen, realInputs, realInputOffsets,
-        decodingState.outputs, decodingState.outputOffsets);
+    RSUtil.encodeData(tables.getGfTables(), dataLen, realInputs,
+        realInputOffsets, decodingState.outputs, decodingState.outputOffsets);
   }
 
-  private <T> void prepareDecoding(T[] inputs, int[] erasedIndexes) {
-    int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
-    if (Arrays.equals(this.cachedErasedIndexes, erasedIndexes) &&
-        Arrays.equals(this.validIndexes, tmpValidIndexes)) {
-      return; // Optimization. Nothing to do
+  /**
+   * Get the decoding tables for the erasure pattern of the inputs, from the
+   * last decode call, the shared cache or by generating them.
+   */
+  <T> RSDecodingTables prepareDecoding(T[] inputs, int[] erasedIndexes) {
+    int[] validIndexes = CoderUtil.getValidIndexes(inputs);
+    RSDecodingTables tables = this.decodingTables;
+    if (tables != null && tables.matches(erasedIndexes, validIndexes)) {
+      return tables; // Optimization. Nothing to do
     }
-    this.cachedErasedIndexes =
-            Arrays.copyOf(erasedIndexes, erasedIndexes.length);
-    this.validIndexes =
-            Arrays.copyOf(tmpValidIndexes, tmpValidIndexes.length);
 
-    processErasures(erasedIndexes);
+    tables = TABLES_CACHE.get(getNumDataUnits(), getNumParityUnits(),
+        erasedIndexes, validIndexes);
+    if (tables == null) {
+      tables = processErasures(
+          Arrays.copyOf(erasedIndexes, erasedIndexes.length), validIndexes);
+      TABLES_CACHE.put(tables);
+    }
+    this.decodingTables = tables;
+    return tables;
   }
 
-  private void processErasures(int[] erasedIndexes) {
-    this.decodeMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
-    this.invertMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
-    this.gfTables = new byte[getNumAllUnits() * getNumDataUnits() * 32];
-
-    this.erasureFlags = new boolean[getNumAllUnits()];
-    this.numErasedDataUnits = 0;
+  private RSDecodingTables processErasures(int[] erasedIndexes,
+      int[] validIndexes) {
+    byte[] decodeMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
+    byte[] gfTables = new byte[getNumAllUnits() * getNumDataUnits() * 32];
 
+    int numErasedDataUnits = 0;
     for (int i = 0; i < erasedIndexes.length; i++) {
-      int index = erasedIndexes[i];
-      erasureFlags[index] = true;
-      if (index < getNumDataUnits()) {
+      if (erasedIndexes[i] < getNumDataUnits()) {
         numErasedDataUnits++;
       }
     }
 
-    generateDecodeMatrix(erasedIndexes);
+    generateDecodeMatrix(erasedIndexes, validIndexes, numErasedDataUnits,
+        decodeMatrix);
 
     RSUtil.initTables(getNumDataUnits(), erasedIndexes.length,
         decodeMatrix, 0, gfTables);
     if (allowVerboseDump()) {
       System.out.println(DumpUtil.bytesToHex(gfTables, -1));
     }
+    return new RSDecodingTables(getNumDataUnits(), getNumParityUnits(),
+        erasedIndexes, validIndexes, decodeMatrix, gfTables);
   }
 
   // Generate decode matrix from encode matrix
-  private void generateDecodeMatrix(int[] erasedIndexes) {
+  private void generateDecodeMatrix(int[] erasedIndexes, int[] validIndexes,
+      int numErasedDataUnits, byte[] decodeMatrix) {
     int i, j, r, p;
     byte s;
     byte[] tmpMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
+    byte[] invertMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
 
     // Construct matrix tmpMatrix by removing error rows
     for (i = 0; i < getNumDataUnits(); i++) {
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A raw erasure decoder in RS code scheme in pure Java, the decoding
+ * counterpart of {@link RSRawEncoderWide}. The decode matrix is computed and
+ * cached the same way as in {@link RSRawDecoder}, and the wide tables are
+ * kept with it in the shared cache entry of the erasure pattern. Only the
+ * kernel that applies them differs.
+ */
+@InterfaceAudience.Private
+public class RSRawDecoderWide extends RSRawDecoder {
+  public RSRawDecoderWide(ErasureCoderOptions coderOptions) {
+    super(coderOptions);
+  }
+
+  @Override
+  protected void doDecode(ByteBufferDecodingState decodingState) {
+    RSDecodingTables tables =
+        prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+
+    int[] validIndexes = tables.getValidIndexes();
+    ByteBuffer[] realInputs = new ByteBuffer[getNumDataUnits()];
+    for (int i = 0; i < getNumDataUnits(); i++) {
+      realInputs[i] = decodingState.inputs[validIndexes[i]];
+    }
+    RSUtil.encodeDataWide(tables.getWideTables(), realInputs,
+        decodingState.outputs);
+  }
+
+  @Override
+  protected void doDecode(ByteArrayDecodingState decodingState) {
+    RSDecodingTables tables =
+        prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+
+    int[] validIndexes = tables.getValidIndexes();
+    byte[][] realInputs = new byte[getNumDataUnits()][];
+    int[] realInputOffsets = new int[getNumDataUnits()];
+    for (int i = 0; i < getNumDataUnits(); i++) {
+      realInputs[i] = decodingState.inputs[validIndexes[i]];
+      realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
+    }
+    RSUtil.encodeDataWide(tables.getWideTables(), decodingState.decodeLength,
+        realInputs, realInputOffsets, decodingState.outputs,
+        decodingState.outputOffsets);
+  }
+}
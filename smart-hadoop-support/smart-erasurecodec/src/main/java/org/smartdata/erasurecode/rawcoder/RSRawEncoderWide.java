@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.DumpUtil;
+import org.smartdata.erasurecode.rawcoder.util.RSUtil;
+
+/**
+ * A raw erasure encoder in RS code scheme in pure Java, compatible with
+ * {@link RSRawEncoder} and the native/ISA-L coder. It uses wide tables that
+ * pack the products for up to {@link RSUtil#WIDE_GROUP_SIZE} outputs in one
+ * entry, so every input byte is looked up once per group of outputs instead of
+ * once per output, and outputs are written only once.
+ */
+@InterfaceAudience.Private
+public class RSRawEncoderWide extends RawErasureEncoder {
+  // relevant to schema and won't change during encode calls.
+  private byte[] encodeMatrix;
+  private int[][] wideTables;
+
+  public RSRawEncoderWide(ErasureCoderOptions coderOptions) {
+    super(coderOptions);
+
+    if (getNumAllUnits() >= RSUtil.GF.getFieldSize()) {
+      throw new HadoopIllegalArgumentException(
+          "Invalid numDataUnits and numParityUnits");
+    }
+
+    encodeMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
+    RSUtil.genCauchyMatrix(encodeMatrix, getNumAllUnits(), getNumDataUnits());
+    if (allowVerboseDump()) {
+      DumpUtil.dumpMatrix(encodeMatrix, getNumDataUnits(), getNumAllUnits());
+    }
+    wideTables = RSUtil.initWideTables(getNumDataUnits(), getNumParityUnits(),
+        encodeMatrix, getNumDataUnits() * getNumDataUnits());
+  }
+
+  @Override
+  protected void doEncode(ByteBufferEncodingState encodingState) {
+    RSUtil.encodeDataWide(wideTables, encodingState.inputs,
+        encodingState.outputs);
+  }
+
+  @Override
+  protected void doEncode(ByteArrayEncodingState encodingState) {
+    RSUtil.encodeDataWide(wideTables, encodingState.encodeLength,
+        encodingState.inputs, encodingState.inputOffsets,
+        encodingState.outputs, encodingState.outputOffsets);
+  }
+}
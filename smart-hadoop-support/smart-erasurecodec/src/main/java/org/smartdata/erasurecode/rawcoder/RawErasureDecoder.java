@@ -175,6 +175,16 @@ protected int getNumAllUnits() {
     return coderOptions.getNumAllUnits();
   }
 
+  /**
+   * Get the least number of valid inputs a decode call may be given. It's
+   * numDataUnits by default; decoders that can repair from a subset of the
+   * units, like the LRC one, lower it and check the inputs themselves.
+   * @return the least number of valid inputs
+   */
+  public int getMinValidInputs() {
+    return getNumDataUnits();
+  }
+
   /**
    * Tell if direct buffer is preferred or not. It's for callers to
    * decide how to allocate coding chunk buffers, using DirectByteBuffer or
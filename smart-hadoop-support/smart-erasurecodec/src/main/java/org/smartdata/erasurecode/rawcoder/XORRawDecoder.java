@@ -19,6 +19,7 @@
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 
@@ -38,49 +39,53 @@ public XORRawDecoder(ErasureCoderOptions coderOptions) {
 
   @Override
   protected void doDecode(ByteBufferDecodingState decodingState) {
-    CoderUtil.resetOutputBuffers(decodingState.outputs,
-        decodingState.decodeLength);
+    int dataLen = decodingState.decodeLength;
     ByteBuffer output = decodingState.outputs[0];
-
     int erasedIdx = decodingState.erasedIndexes[0];
 
-    // Process the inputs.
-    int iIdx, oIdx;
+    // Copy the first valid input, then XOR with the others, skipping the
+    // erased location.
+    boolean first = true;
     for (int i = 0; i < decodingState.inputs.length; i++) {
-      // Skip the erased location.
-      if (i == erasedIdx) {
+      ByteBuffer input = decodingState.inputs[i];
+      if (i == erasedIdx || input == null) {
         continue;
       }
 
-      for (iIdx = decodingState.inputs[i].position(), oIdx = output.position();
-           iIdx < decodingState.inputs[i].limit();
-           iIdx++, oIdx++) {
-        output.put(oIdx, (byte) (output.get(oIdx) ^
-            decodingState.inputs[i].get(iIdx)));
+      if (first) {
+        XORUtil.copy(input, input.position(), output, output.position(),
+            dataLen);
+        first = false;
+      } else {
+        XORUtil.xor(input, input.position(), output, output.position(),
+            dataLen);
       }
     }
   }
 
   @Override
   protected void doDecode(ByteArrayDecodingState decodingState) {
-    byte[] output = decodingState.outputs[0];
     int dataLen = decodingState.decodeLength;
-    CoderUtil.resetOutputBuffers(decodingState.outputs,
-        decodingState.outputOffsets, dataLen);
+    byte[] output = decodingState.outputs[0];
+    int outputOffset = decodingState.outputOffsets[0];
     int erasedIdx = decodingState.erasedIndexes[0];
 
-    // Process the inputs.
-    int iIdx, oIdx;
+    // Copy the first valid input, then XOR with the others, skipping the
+    // erased location.
+    boolean first = true;
     for (int i = 0; i < decodingState.inputs.length; i++) {
-      // Skip the erased location.
-      if (i == erasedIdx) {
+      byte[] input = decodingState.inputs[i];
+      if (i == erasedIdx || input == null) {
         continue;
       }
 
-      for (iIdx = decodingState.inputOffsets[i],
-               oIdx = decodingState.outputOffsets[0];
-           iIdx < decodingState.inputOffsets[i] + dataLen; iIdx++, oIdx++) {
-        output[oIdx] ^= decodingState.inputs[i][iIdx];
+      if (first) {
+        System.arraycopy(input, decodingState.inputOffsets[i],
+            output, outputOffset, dataLen);
+        first = false;
+      } else {
+        XORUtil.xor(input, decodingState.inputOffsets[i],
+            output, outputOffset, dataLen);
       }
     }
   }
@@ -19,6 +19,7 @@
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
 
 import java.nio.ByteBuffer;
 
@@ -37,50 +38,30 @@ public XORRawEncoder(ErasureCoderOptions coderOptions) {
   }
 
   protected void doEncode(ByteBufferEncodingState encodingState) {
-    CoderUtil.resetOutputBuffers(encodingState.outputs,
-        encodingState.encodeLength);
+    int dataLen = encodingState.encodeLength;
     ByteBuffer output = encodingState.outputs[0];
 
-    // Get the first buffer's data.
-    int iIdx, oIdx;
-    for (iIdx = encodingState.inputs[0].position(), oIdx = output.position();
-         iIdx < encodingState.inputs[0].limit(); iIdx++, oIdx++) {
-      output.put(oIdx, encodingState.inputs[0].get(iIdx));
-    }
-
-    // XOR with everything else.
+    // Get the first buffer's data, then XOR with everything else.
+    XORUtil.copy(encodingState.inputs[0], encodingState.inputs[0].position(),
+        output, output.position(), dataLen);
     for (int i = 1; i < encodingState.inputs.length; i++) {
-      for (iIdx = encodingState.inputs[i].position(), oIdx = output.position();
-           iIdx < encodingState.inputs[i].limit();
-           iIdx++, oIdx++) {
-        output.put(oIdx, (byte) (output.get(oIdx) ^
-            encodingState.inputs[i].get(iIdx)));
-      }
+      XORUtil.xor(encodingState.inputs[i], encodingState.inputs[i].position(),
+          output, output.position(), dataLen);
     }
   }
 
   @Override
   protected void doEncode(ByteArrayEncodingState encodingState) {
     int dataLen = encodingState.encodeLength;
-    CoderUtil.resetOutputBuffers(encodingState.outputs,
-        encodingState.outputOffsets, dataLen);
     byte[] output = encodingState.outputs[0];
+    int outputOffset = encodingState.outputOffsets[0];
 
-    // Get the first buffer's data.
-    int iIdx, oIdx;
-    for (iIdx = encodingState.inputOffsets[0],
-             oIdx = encodingState.outputOffsets[0];
-         iIdx < encodingState.inputOffsets[0] + dataLen; iIdx++, oIdx++) {
-      output[oIdx] = encodingState.inputs[0][iIdx];
-    }
-
-    // XOR with everything else.
+    // Get the first buffer's data, then XOR with everything else.
+    System.arraycopy(encodingState.inputs[0], encodingState.inputOffsets[0],
+        output, outputOffset, dataLen);
     for (int i = 1; i < encodingState.inputs.length; i++) {
-      for (iIdx = encodingState.inputOffsets[i],
-               oIdx = encodingState.outputOffsets[0];
-           iIdx < encodingState.inputOffsets[i] + dataLen; iIdx++, oIdx++) {
-        output[oIdx] ^= encodingState.inputs[i][iIdx];
-      }
+      XORUtil.xor(encodingState.inputs[i], encodingState.inputOffsets[i],
+          output, outputOffset, dataLen);
     }
   }
 }
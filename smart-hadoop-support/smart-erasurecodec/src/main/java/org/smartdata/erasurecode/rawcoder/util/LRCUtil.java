@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder.util;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Utilities for the locally repairable code LRC(k, l, r). The k data units
+ * are split into l equal local groups, each protected by one local parity,
+ * the XOR of the group. r global parities are the Reed-Solomon (Cauchy)
+ * parities of all the data units. Units are laid out as the k data units,
+ * then the l local parities in group order, then the r global parities, so
+ * numParityUnits = l + r.
+ */
+@InterfaceAudience.Private
+public final class LRCUtil {
+
+  private LRCUtil() {
+  }
+
+  /**
+   * Check the layout is valid.
+   */
+  public static void checkLayout(int numDataUnits, int numLocalGroups,
+                                 int numGlobalParityUnits) {
+    if (numLocalGroups <= 0 || numGlobalParityUnits <= 0
+        || numDataUnits % numLocalGroups != 0) {
+      throw new HadoopIllegalArgumentException("Invalid LRC layout: "
+          + numDataUnits + " data units, " + numLocalGroups
+          + " local groups, " + numGlobalParityUnits + " global parities");
+    }
+    if (numDataUnits + numLocalGroups + numGlobalParityUnits
+        >= RSUtil.GF.getFieldSize()) {
+      throw new HadoopIllegalArgumentException(
+          "Too many units for LRC in GF(2^8)");
+    }
+  }
+
+  /**
+   * Generate the (k + l + r) x k generator matrix, row i giving the unit i
+   * as a linear combination of the data units.
+   */
+  public static byte[] genGeneratorMatrix(int numDataUnits,
+      int numLocalGroups, int numGlobalParityUnits) {
+    int k = numDataUnits;
+    int l = numLocalGroups;
+    int r = numGlobalParityUnits;
+    byte[] matrix = new byte[(k + l + r) * k];
+
+    byte[] cauchy = new byte[(k + r) * k];
+    RSUtil.genCauchyMatrix(cauchy, k + r, k);
+    // data units
+    System.arraycopy(cauchy, 0, matrix, 0, k * k);
+    // local parities, coefficient 1 for the units of the group
+    int groupSize = k / l;
+    for (int g = 0; g < l; g++) {
+      for (int j = g * groupSize; j < (g + 1) * groupSize; j++) {
+        matrix[(k + g) * k + j] = 1;
+      }
+    }
+    // global parities
+    System.arraycopy(cauchy, k * k, matrix, (k + l) * k, r * k);
+    return matrix;
+  }
+
+  /**
+   * @return the local group of the unit, or -1 for a global parity
+   */
+  public static int getLocalGroup(int unit, int numDataUnits,
+                                  int numLocalGroups) {
+    if (unit < numDataUnits) {
+      return unit / (numDataUnits / numLocalGroups);
+    }
+    if (unit < numDataUnits + numLocalGroups) {
+      return unit - numDataUnits;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the units of a local group, its data units then its parity
+   */
+  public static int[] getLocalGroupUnits(int group, int numDataUnits,
+                                         int numLocalGroups) {
+    int groupSize = numDataUnits / numLocalGroups;
+    int[] units = new int[groupSize + 1];
+    for (int i = 0; i < groupSize; i++) {
+      units[i] = group * groupSize + i;
+    }
+    units[groupSize] = numDataUnits + group;
+    return units;
+  }
+
+  /**
+   * Units to read for repairing a single lost unit: the rest of its local
+   * group for a data unit or local parity, all the data units for a global
+   * parity.
+   */
+  public static int[] getRepairSources(int erasedIndex, int numDataUnits,
+                                       int numLocalGroups) {
+    int group = getLocalGroup(erasedIndex, numDataUnits, numLocalGroups);
+    if (group < 0) {
+      int[] sources = new int[numDataUnits];
+      for (int i = 0; i < numDataUnits; i++) {
+        sources[i] = i;
+      }
+      return sources;
+    }
+
+    int[] units = getLocalGroupUnits(group, numDataUnits, numLocalGroups);
+    int[] sources = new int[units.length - 1];
+    int idx = 0;
+    for (int unit : units) {
+      if (unit != erasedIndex) {
+        sources[idx++] = unit;
+      }
+    }
+    return sources;
+  }
+
+  /**
+   * Select k linearly independent rows of the generator matrix from the
+   * candidate units, in the given order.
+   * @return the selected units, or null if the candidates don't span the
+   *         data units
+   */
+  public static int[] selectIndependentRows(byte[] generatorMatrix,
+      int numDataUnits, int[] candidates) {
+    int k = numDataUnits;
+    int[] selected = new int[k];
+    // reduced basis, row i has 1 at column pivots[i]
+    byte[][] basis = new byte[k][];
+    int[] pivots = new int[k];
+    int rank = 0;
+
+    for (int unit : candidates) {
+      if (rank == k) {
+        break;
+      }
+      byte[] row = new byte[k];
+      System.arraycopy(generatorMatrix, unit * k, row, 0, k);
+      for (int i = 0; i < rank; i++) {
+        byte c = row[pivots[i]];
+        if (c != 0) {
+          for (int j = 0; j < k; j++) {
+            row[j] ^= GF256.gfMul(c, basis[i][j]);
+          }
+        }
+      }
+
+      int pivot = 0;
+      while (pivot < k && row[pivot] == 0) {
+        pivot++;
+      }
+      if (pivot == k) {
+        continue; // dependent
+      }
+      byte inv = GF256.gfInv(row[pivot]);
+      for (int j = 0; j < k; j++) {
+        row[j] = GF256.gfMul(row[j], inv);
+      }
+      basis[rank] = row;
+      pivots[rank] = pivot;
+      selected[rank++] = unit;
+    }
+
+    return rank == k ? selected : null;
+  }
+}
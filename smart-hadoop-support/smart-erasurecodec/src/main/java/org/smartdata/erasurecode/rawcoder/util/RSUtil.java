@@ -35,6 +35,9 @@ private RSUtil(){}
   public static GaloisField GF = GaloisField.getInstance();
   public static final int PRIMITIVE_ROOT = 2;
 
+  // Number of output bytes packed into one entry of a wide table.
+  public static final int WIDE_GROUP_SIZE = 4;
+
   public static int[] getPrimitivePower(int numDataUnits, int numParityUnits) {
     int[] primitivePower = new int[numDataUnits + numParityUnits];
     // compute powers of the primitive root
@@ -184,4 +187,166 @@ public static void encodeData(byte[] gfTables, ByteBuffer[] inputs,
     }
   }
 
+  /**
+   * Generate the wide tables used by encodeDataWide. Output rows are split
+   * into groups of WIDE_GROUP_SIZE rows; for every group and input there is a
+   * 256-entry table whose entry x packs the products of x with the coding
+   * coefficients of all rows in the group, one byte per row. One lookup thus
+   * yields the contribution of an input byte to several outputs at once.
+   *
+   * @return tables indexed by group * k + input
+   */
+  public static int[][] initWideTables(int k, int rows, byte[] codingMatrix,
+      int matrixOffset) {
+    int numGroups = (rows + WIDE_GROUP_SIZE - 1) / WIDE_GROUP_SIZE;
+    int[][] tables = new int[numGroups * k][256];
+    byte[][] mulTab = GF256.gfMulTab();
+
+    for (int l = 0; l < rows; l++) {
+      int group = l / WIDE_GROUP_SIZE;
+      int shift = (l % WIDE_GROUP_SIZE) * 8;
+      for (int j = 0; j < k; j++) {
+        byte coefficient = codingMatrix[matrixOffset + l * k + j];
+        byte[] tableLine = mulTab[coefficient & 0xff];
+        int[] table = tables[group * k + j];
+        for (int x = 0; x < 256; x++) {
+          table[x] |= (tableLine[x] & 0xff) << shift;
+        }
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Same as encodeData, but driven by the tables from initWideTables. Instead
+   * of making a pass over every input for every output, each input byte is
+   * looked up once per group of outputs and the packed products are XOR-ed
+   * across inputs before being spread to the outputs. Outputs are fully
+   * overwritten, so they don't need to be reset beforehand.
+   */
+  public static void encodeDataWide(int[][] wideTables, int dataLen,
+      byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets) {
+    int numInputs = inputs.length;
+    int numOutputs = outputs.length;
+
+    for (int l = 0; l < numOutputs; l += WIDE_GROUP_SIZE) {
+      int tableOffset = (l / WIDE_GROUP_SIZE) * numInputs;
+      int groupSize = Math.min(WIDE_GROUP_SIZE, numOutputs - l);
+      switch (groupSize) {
+        case 4:
+          encodeGroup4(wideTables, tableOffset, dataLen, inputs, inputOffsets,
+              outputs, outputOffsets, l);
+          break;
+        case 3:
+          encodeGroup3(wideTables, tableOffset, dataLen, inputs, inputOffsets,
+              outputs, outputOffsets, l);
+          break;
+        case 2:
+          encodeGroup2(wideTables, tableOffset, dataLen, inputs, inputOffsets,
+              outputs, outputOffsets, l);
+          break;
+        default:
+          encodeGroup1(wideTables, tableOffset, dataLen, inputs, inputOffsets,
+              outputs, outputOffsets, l);
+      }
+    }
+  }
+
+  /**
+   * See above. Heap buffers are handled by the byte[] version, so this is
+   * mainly for direct buffers.
+   */
+  public static void encodeDataWide(int[][] wideTables, ByteBuffer[] inputs,
+      ByteBuffer[] outputs) {
+    int numInputs = inputs.length;
+    int numOutputs = outputs.length;
+    int dataLen = inputs[0].remaining();
+    int[] inputPositions = new int[numInputs];
+    for (int j = 0; j < numInputs; j++) {
+      inputPositions[j] = inputs[j].position();
+    }
+
+    for (int l = 0; l < numOutputs; l += WIDE_GROUP_SIZE) {
+      int tableOffset = (l / WIDE_GROUP_SIZE) * numInputs;
+      int groupSize = Math.min(WIDE_GROUP_SIZE, numOutputs - l);
+      for (int i = 0; i < dataLen; i++) {
+        int s = 0;
+        for (int j = 0; j < numInputs; j++) {
+          s ^= wideTables[tableOffset + j][
+              inputs[j].get(inputPositions[j] + i) & 0xff];
+        }
+        for (int g = 0; g < groupSize; g++) {
+          ByteBuffer output = outputs[l + g];
+          output.put(output.position() + i, (byte) (s >>> (g * 8)));
+        }
+      }
+    }
+  }
+
+  private static int lookupWide(int[][] wideTables, int tableOffset,
+      byte[][] inputs, int[] inputOffsets, int i) {
+    int s = 0;
+    for (int j = 0; j < inputs.length; j++) {
+      s ^= wideTables[tableOffset + j][inputs[j][inputOffsets[j] + i] & 0xff];
+    }
+    return s;
+  }
+
+  /**
+   * The group variants below only differ in how many outputs the packed
+   * products are spread to, which keeps the inner loops free of branches.
+   */
+  private static void encodeGroup4(int[][] wideTables, int tableOffset,
+      int dataLen, byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets, int l) {
+    byte[] out0 = outputs[l], out1 = outputs[l + 1];
+    byte[] out2 = outputs[l + 2], out3 = outputs[l + 3];
+    int pos0 = outputOffsets[l], pos1 = outputOffsets[l + 1];
+    int pos2 = outputOffsets[l + 2], pos3 = outputOffsets[l + 3];
+    for (int i = 0; i < dataLen; i++) {
+      int s = lookupWide(wideTables, tableOffset, inputs, inputOffsets, i);
+      out0[pos0 + i] = (byte) s;
+      out1[pos1 + i] = (byte) (s >>> 8);
+      out2[pos2 + i] = (byte) (s >>> 16);
+      out3[pos3 + i] = (byte) (s >>> 24);
+    }
+  }
+
+  private static void encodeGroup3(int[][] wideTables, int tableOffset,
+      int dataLen, byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets, int l) {
+    byte[] out0 = outputs[l], out1 = outputs[l + 1], out2 = outputs[l + 2];
+    int pos0 = outputOffsets[l], pos1 = outputOffsets[l + 1];
+    int pos2 = outputOffsets[l + 2];
+    for (int i = 0; i < dataLen; i++) {
+      int s = lookupWide(wideTables, tableOffset, inputs, inputOffsets, i);
+      out0[pos0 + i] = (byte) s;
+      out1[pos1 + i] = (byte) (s >>> 8);
+      out2[pos2 + i] = (byte) (s >>> 16);
+    }
+  }
+
+  private static void encodeGroup2(int[][] wideTables, int tableOffset,
+      int dataLen, byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets, int l) {
+    byte[] out0 = outputs[l], out1 = outputs[l + 1];
+    int pos0 = outputOffsets[l], pos1 = outputOffsets[l + 1];
+    for (int i = 0; i < dataLen; i++) {
+      int s = lookupWide(wideTables, tableOffset, inputs, inputOffsets, i);
+      out0[pos0 + i] = (byte) s;
+      out1[pos1 + i] = (byte) (s >>> 8);
+    }
+  }
+
+  private static void encodeGroup1(int[][] wideTables, int tableOffset,
+      int dataLen, byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets, int l) {
+    byte[] out0 = outputs[l];
+    int pos0 = outputOffsets[l];
+    for (int i = 0; i < dataLen; i++) {
+      out0[pos0 + i] =
+          (byte) lookupWide(wideTables, tableOffset, inputs, inputOffsets, i);
+    }
+  }
 }
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Utilities to XOR, copy and zero byte ranges, used by XOR based coders.
+ * Direct buffers are processed a long word at a time with getLong/putLong,
+ * which compile to plain loads and stores. Buffers backed by arrays are
+ * processed on the arrays in counted loops, which the JIT compiler turns
+ * into vector instructions, while a long view of a heap buffer assembles
+ * each word byte by byte. All methods take absolute positions, leave the
+ * positions of buffers unchanged and allocate nothing.
+ */
+@InterfaceAudience.Private
+public final class XORUtil {
+
+  private XORUtil() {}
+
+  /**
+   * dst[dstPos, dstPos + len) ^= src[srcPos, srcPos + len)
+   */
+  public static void xor(ByteBuffer src, int srcPos,
+                         ByteBuffer dst, int dstPos, int len) {
+    if (src.hasArray() && dst.hasArray()) {
+      xor(src.array(), src.arrayOffset() + srcPos,
+          dst.array(), dst.arrayOffset() + dstPos, len);
+      return;
+    }
+
+    int i = 0;
+    if (src.order() == dst.order()) {
+      for (; i <= len - 8; i += 8) {
+        dst.putLong(dstPos + i,
+            dst.getLong(dstPos + i) ^ src.getLong(srcPos + i));
+      }
+    } else {
+      for (; i <= len - 8; i += 8) {
+        dst.putLong(dstPos + i, dst.getLong(dstPos + i)
+            ^ Long.reverseBytes(src.getLong(srcPos + i)));
+      }
+    }
+    for (; i < len; i++) {
+      dst.put(dstPos + i, (byte) (dst.get(dstPos + i) ^ src.get(srcPos + i)));
+    }
+  }
+
+  /**
+   * dst[dstOff, dstOff + len) ^= src[srcOff, srcOff + len)
+   */
+  public static void xor(byte[] src, int srcOff,
+                         byte[] dst, int dstOff, int len) {
+    for (int i = 0; i < len; i++) {
+      dst[dstOff + i] ^= src[srcOff + i];
+    }
+  }
+
+  /**
+   * dst[dstPos, dstPos + len) = src[srcPos, srcPos + len)
+   */
+  public static void copy(ByteBuffer src, int srcPos,
+                          ByteBuffer dst, int dstPos, int len) {
+    if (src.hasArray() && dst.hasArray()) {
+      System.arraycopy(src.array(), src.arrayOffset() + srcPos,
+          dst.array(), dst.arrayOffset() + dstPos, len);
+      return;
+    }
+
+    int i = 0;
+    if (src.order() == dst.order()) {
+      for (; i <= len - 8; i += 8) {
+        dst.putLong(dstPos + i, src.getLong(srcPos + i));
+      }
+    } else {
+      for (; i <= len - 8; i += 8) {
+        dst.putLong(dstPos + i, Long.reverseBytes(src.getLong(srcPos + i)));
+      }
+    }
+    for (; i < len; i++) {
+      dst.put(dstPos + i, src.get(srcPos + i));
+    }
+  }
+
+  /**
+   * buffer[pos, pos + len) = 0
+   */
+  public static void zero(ByteBuffer buffer, int pos, int len) {
+    if (buffer.hasArray()) {
+      int offset = buffer.arrayOffset() + pos;
+      Arrays.fill(buffer.array(), offset, offset + len, (byte) 0);
+      return;
+    }
+
+    int i = 0;
+    for (; i <= len - 8; i += 8) {
+      buffer.putLong(pos + i, 0L);
+    }
+    for (; i < len; i++) {
+      buffer.put(pos + i, (byte) 0);
+    }
+  }
+}
@@ -61,6 +61,19 @@ public void testRSDefaultRawCoder() {
     Assert.assertTrue(decoder instanceof RSRawDecoderLegacy);
   }
 
+  @Test
+  public void testLRCRawCoder() {
+    ErasureCoderOptions coderOptions = new ErasureCoderOptions(6, 4);
+    RawErasureEncoder encoder = CodecUtil.createRawEncoder(
+        conf, ErasureCodeConstants.LRC_CODEC_NAME, coderOptions);
+    Assert.assertTrue(encoder instanceof LRCRawEncoder);
+    Assert.assertEquals(LRCRawEncoder.DEFAULT_NUM_LOCAL_GROUPS,
+        ((LRCRawEncoder) encoder).getNumLocalGroups());
+    RawErasureDecoder decoder = CodecUtil.createRawDecoder(
+        conf, ErasureCodeConstants.LRC_CODEC_NAME, coderOptions);
+    Assert.assertTrue(decoder instanceof LRCRawDecoder);
+  }
+
   @Test
   public void testDedicatedRawCoderKey() {
     ErasureCoderOptions coderOptions = new ErasureCoderOptions(
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.smartdata.erasurecode.rawcoder.DummyRawEncoder;
+import org.smartdata.erasurecode.rawcoder.DummyRawErasureCoderFactory;
+import org.smartdata.erasurecode.rawcoder.RSRawErasureCoderFactory;
+import org.smartdata.erasurecode.rawcoder.RawErasureEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestErasureCodingService {
+  private static final int NUM_DATA_UNITS = 6;
+  private static final int NUM_PARITY_UNITS = 3;
+  private static final int CELL_SIZE = 4096;
+
+  @Rule
+  public Timeout globalTimeout = new Timeout(300000);
+
+  private final ErasureCoderOptions options =
+      new ErasureCoderOptions(NUM_DATA_UNITS, NUM_PARITY_UNITS);
+
+  @Test
+  public void testEncodeBatch() throws Exception {
+    RSRawErasureCoderFactory factory = new RSRawErasureCoderFactory();
+    RawErasureEncoder encoder = factory.createEncoder(options);
+    ErasureCodingService service =
+        new ErasureCodingService(factory, options, 4, 8, CELL_SIZE);
+    ECBufferPool pool = service.getBufferPool();
+    try {
+      int numStripes = 20;
+      List<ByteBuffer[]> inputs = new ArrayList<ByteBuffer[]>();
+      List<ByteBuffer[]> outputs = new ArrayList<ByteBuffer[]>();
+      List<ByteBuffer[]> expected = new ArrayList<ByteBuffer[]>();
+      for (int i = 0; i < numStripes; i++) {
+        ByteBuffer[] data = randomBuffers(NUM_DATA_UNITS, CELL_SIZE);
+        inputs.add(duplicate(data));
+        outputs.add(pool.get(NUM_PARITY_UNITS));
+        ByteBuffer[] parities = allocate(NUM_PARITY_UNITS, CELL_SIZE);
+        encoder.encode(duplicate(data), parities);
+        expected.add(parities);
+      }
+
+      List<Future<ByteBuffer[]>> futures = service.encode(inputs, outputs);
+      Assert.assertEquals(numStripes, futures.size());
+      for (int i = 0; i < numStripes; i++) {
+        ByteBuffer[] parities = futures.get(i).get();
+        Assert.assertArrayEquals(expected.get(i), parities);
+        pool.put(parities);
+      }
+      Assert.assertTrue(pool.getNumPooled() > 0);
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testEncodeRange() throws Exception {
+    RSRawErasureCoderFactory factory = new RSRawErasureCoderFactory();
+    RawErasureEncoder encoder = factory.createEncoder(options);
+    ErasureCodingService service =
+        new ErasureCodingService(factory, options, 3, 3, CELL_SIZE);
+    try {
+      // 2.5 cells per unit
+      int length = CELL_SIZE * 5 / 2;
+      ByteBuffer[] data = randomBuffers(NUM_DATA_UNITS, length);
+      ByteBuffer[] parities = allocate(NUM_PARITY_UNITS, length);
+      List<Future<ByteBuffer[]>> futures =
+          service.encode(data, parities, CELL_SIZE);
+      Assert.assertEquals(3, futures.size());
+      for (Future<ByteBuffer[]> future : futures) {
+        future.get();
+      }
+      for (ByteBuffer buffer : data) {
+        Assert.assertEquals(0, buffer.position());
+      }
+
+      ByteBuffer[] expected = allocate(NUM_PARITY_UNITS, length);
+      encoder.encode(duplicate(data), expected);
+      Assert.assertArrayEquals(expected, parities);
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    DummyRawErasureCoderFactory factory = new DummyRawErasureCoderFactory() {
+      @Override
+      public RawErasureEncoder createEncoder(ErasureCoderOptions options) {
+        return new DummyRawEncoder(options) {
+          @Override
+          public void encode(ByteBuffer[] inputs, ByteBuffer[] outputs) {
+            try {
+              latch.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            super.encode(inputs, outputs);
+          }
+        };
+      }
+    };
+    final ErasureCodingService service =
+        new ErasureCodingService(factory, options, 1, 2, CELL_SIZE);
+    try {
+      service.encode(allocate(NUM_DATA_UNITS, 16),
+          allocate(NUM_PARITY_UNITS, 16));
+      service.encode(allocate(NUM_DATA_UNITS, 16),
+          allocate(NUM_PARITY_UNITS, 16));
+
+      final AtomicBoolean submitted = new AtomicBoolean(false);
+      Thread producer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            service.encode(allocate(NUM_DATA_UNITS, 16),
+                allocate(NUM_PARITY_UNITS, 16));
+            submitted.set(true);
+          } catch (InterruptedException e) {
+            // Test fails on the assertion below
+          }
+        }
+      };
+      producer.start();
+      Thread.sleep(500);
+      Assert.assertFalse(submitted.get());
+
+      latch.countDown();
+      producer.join();
+      Assert.assertTrue(submitted.get());
+    } finally {
+      latch.countDown();
+      service.close();
+    }
+  }
+
+  @Test
+  public void testBufferPool() {
+    ECBufferPool pool = new ECBufferPool(1000, 64, true, 2);
+    ByteBuffer[] buffers = pool.get(3);
+    for (ByteBuffer buffer : buffers) {
+      Assert.assertTrue(buffer.isDirect());
+      Assert.assertEquals(0, buffer.position());
+      Assert.assertEquals(1000, buffer.remaining());
+      long address = ECBufferPool.getAddress(buffer);
+      if (address >= 0) {
+        Assert.assertEquals(0, address % 64);
+      }
+    }
+    Assert.assertEquals(3, pool.getNumAllocated());
+
+    pool.put(buffers);
+    // Capped by maxPooled
+    Assert.assertEquals(2, pool.getNumPooled());
+    // Foreign buffers are ignored
+    pool.put(ByteBuffer.allocate(1000));
+    Assert.assertEquals(2, pool.getNumPooled());
+
+    ByteBuffer buffer = pool.get();
+    Assert.assertEquals(1000, buffer.remaining());
+    Assert.assertEquals(1, pool.getNumPooled());
+    Assert.assertEquals(3, pool.getNumAllocated());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEncodeAfterClose() throws Exception {
+    ErasureCodingService service = new ErasureCodingService(
+        new RSRawErasureCoderFactory(), options, 1, 1, CELL_SIZE);
+    service.close();
+    service.encode(allocate(NUM_DATA_UNITS, 16),
+        allocate(NUM_PARITY_UNITS, 16));
+  }
+
+  private static ByteBuffer[] allocate(int num, int size) {
+    ByteBuffer[] buffers = new ByteBuffer[num];
+    for (int i = 0; i < num; i++) {
+      buffers[i] = ByteBuffer.allocate(size);
+    }
+    return buffers;
+  }
+
+  private static ByteBuffer[] randomBuffers(int num, int size) {
+    Random random = new Random();
+    ByteBuffer[] buffers = allocate(num, size);
+    for (ByteBuffer buffer : buffers) {
+      random.nextBytes(buffer.array());
+    }
+    return buffers;
+  }
+
+  private static ByteBuffer[] duplicate(ByteBuffer[] buffers) {
+    ByteBuffer[] result = new ByteBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      result[i] = buffers[i].duplicate();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.codec;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import org.smartdata.erasurecode.CodecUtil;
+import org.smartdata.erasurecode.ECSchema;
+import org.smartdata.erasurecode.ErasureCodeConstants;
+import org.smartdata.erasurecode.ErasureCodecOptions;
+import org.smartdata.erasurecode.coder.ErasureCoder;
+import org.smartdata.erasurecode.coder.LRCErasureEncoder;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLRCErasureCodec {
+
+  @Test
+  public void testGoodCodec() {
+    ErasureCodecOptions options =
+        new ErasureCodecOptions(ErasureCodeConstants.LRC_12_2_2_SCHEMA);
+    ErasureCoder encoder = CodecUtil.createEncoder(new Configuration(),
+        options);
+    assertTrue(encoder instanceof LRCErasureEncoder);
+    assertEquals(12, encoder.getNumDataUnits());
+    assertEquals(4, encoder.getNumParityUnits());
+
+    ErasureCoder decoder = CodecUtil.createDecoder(new Configuration(),
+        options);
+    assertEquals(12, decoder.getNumDataUnits());
+    assertEquals(4, decoder.getNumParityUnits());
+  }
+
+  @Test
+  public void testLocalGroupsOption() {
+    ECSchema schema = new ECSchema(ErasureCodeConstants.LRC_CODEC_NAME, 12, 5,
+        Collections.singletonMap(
+            ErasureCodeConstants.LRC_NUM_LOCAL_GROUPS_KEY, "3"));
+    LRCErasureCodec codec = new LRCErasureCodec(new Configuration(),
+        new ErasureCodecOptions(schema));
+    assertEquals(3, codec.getNumLocalGroups());
+
+    codec = new LRCErasureCodec(new Configuration(),
+        new ErasureCodecOptions(new ECSchema("lrc", 6, 4)));
+    assertEquals(2, codec.getNumLocalGroups());
+  }
+}
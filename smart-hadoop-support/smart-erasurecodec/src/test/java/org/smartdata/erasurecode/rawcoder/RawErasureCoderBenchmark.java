@@ -20,7 +20,10 @@
 import com.google.common.base.Preconditions;
 import org.smartdata.erasurecode.rawcoder.*;
 import org.apache.hadoop.util.StopWatch;
+import org.smartdata.erasurecode.ECBufferPool;
 import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.ErasureCodingService;
+import org.smartdata.erasurecode.rawcoder.util.LRCUtil;
 
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
@@ -33,7 +36,12 @@
  * and measures the total throughput. It only focuses on performance and doesn't
  * validate correctness of the encoded/decoded results.
  * User can specify the data size each thread processes, as well as the chunk
- * size to use for the coder.
+ * size to use for the coder. Decoding can either use a fixed erasure pattern or
+ * switch between several patterns from stripe to stripe (mixed-decode).
+ * With service-encode, a single producer feeds the stripes to an
+ * {@link ErasureCodingService} of numThreads workers instead. With repair,
+ * a single thread recovers one lost unit per stripe, reading only the units
+ * the coder needs, and reports the read amplification.
  * Different coders are supported. User can specify the coder by a coder index.
  * The coder is shared among all the threads.
  */
@@ -54,18 +62,30 @@ private RawErasureCoderBenchmark() {
           Arrays.asList(new DummyRawErasureCoderFactory(),
               new RSRawErasureCoderFactoryLegacy(),
               new RSRawErasureCoderFactory(),
-              new NativeRSRawErasureCoderFactory()));
+              new NativeRSRawErasureCoderFactory(),
+              new RSRawErasureCoderFactoryWide(),
+              new XORRawErasureCoderFactory(),
+              new LRCRawErasureCoderFactory()));
 
   enum CODER {
     DUMMY_CODER("Dummy coder"),
     LEGACY_RS_CODER("Legacy Reed-Solomon Java coder"),
     RS_CODER("Reed-Solomon Java coder"),
-    ISAL_CODER("ISA-L coder");
+    ISAL_CODER("ISA-L coder"),
+    RS_WIDE_CODER("Wide-table Reed-Solomon Java coder"),
+    XOR_CODER("XOR Java coder", 1),
+    LRC_CODER("LRC Java coder", 4);
 
     private final String name;
+    private final int numParityUnits;
 
     CODER(String name) {
+      this(name, 3);
+    }
+
+    CODER(String name, int numParityUnits) {
       this.name = name;
+      this.numParityUnits = numParityUnits;
     }
 
     @Override
@@ -92,8 +112,10 @@ private static void usage(String message) {
       System.out.println(message);
     }
     System.out.println(
-        "Usage: RawErasureCoderBenchmark <encode/decode> <coderIndex> " +
-            "[numThreads] [dataSize-in-MB] [chunkSize-in-KB]");
+        "Usage: RawErasureCoderBenchmark " +
+            "<encode/decode/mixed-decode/service-encode/repair> " +
+            "<coderIndex> " +
+            "[numThreads] [dataSize-in-MB] [chunkSize-in-KB] [direct/heap]");
     printAvailableCoders();
     System.exit(1);
   }
@@ -105,11 +127,15 @@ public static void main(String[] args) throws Exception {
     int dataSizeMB = 10240;
     int chunkSizeKB = 1024;
     int numThreads = 1;
+    Boolean useDirectBuffer = null;
 
     if (args.length > 1) {
       opType = args[0];
-      if (!"encode".equals(opType) && !"decode".equals(opType)) {
-        usage("Invalid type: should be either 'encode' or 'decode'");
+      if (!"encode".equals(opType) && !"decode".equals(opType) &&
+          !"mixed-decode".equals(opType) &&
+          !"service-encode".equals(opType) && !"repair".equals(opType)) {
+        usage("Invalid type: should be either 'encode', 'decode', " +
+            "'mixed-decode', 'service-encode' or 'repair'");
       }
 
       try {
@@ -161,14 +187,22 @@ public static void main(String[] args) throws Exception {
       }
     }
 
+    if (args.length > 5) {
+      if (!"direct".equals(args[5]) && !"heap".equals(args[5])) {
+        usage("Invalid buffer type: should be either 'direct' or 'heap'");
+      }
+      useDirectBuffer = "direct".equals(args[5]);
+    }
+
     performBench(opType, CODER.values()[coderIndex],
-        numThreads, dataSizeMB, chunkSizeKB);
+        numThreads, dataSizeMB, chunkSizeKB, useDirectBuffer);
   }
 
   /**
    * Performs benchmark.
    *
-   * @param opType      The operation to perform. Can be encode or decode
+   * @param opType      The operation to perform. Can be encode, decode,
+   *                    mixed-decode, service-encode or repair
    * @param coder       The coder to use
    * @param numThreads  Number of threads to launch concurrently
    * @param dataSizeMB  Total test data size in MB
@@ -176,29 +210,53 @@ public static void main(String[] args) throws Exception {
    */
   public static void performBench(String opType, CODER coder,
       int numThreads, int dataSizeMB, int chunkSizeKB) throws Exception {
-    BenchData.configure(dataSizeMB, chunkSizeKB);
+    performBench(opType, coder, numThreads, dataSizeMB, chunkSizeKB, null);
+  }
+
+  /**
+   * Performs benchmark.
+   *
+   * @param useDirectBuffer whether to code direct buffers, or null to use the
+   *                        type preferred by the coder
+   */
+  public static void performBench(String opType, CODER coder,
+      int numThreads, int dataSizeMB, int chunkSizeKB,
+      Boolean useDirectBuffer) throws Exception {
+    BenchData.configure(dataSizeMB, chunkSizeKB, coder);
+    if (opType.equals("service-encode")) {
+      performServiceBench(coder, numThreads, useDirectBuffer);
+      return;
+    }
+    if (opType.equals("repair")) {
+      performRepairBench(coder, useDirectBuffer);
+      return;
+    }
 
     RawErasureEncoder encoder = null;
     RawErasureDecoder decoder = null;
     ByteBuffer testData;
     boolean isEncode = opType.equals("encode");
+    boolean isMixed = opType.equals("mixed-decode");
 
     if (isEncode) {
       encoder = getRawEncoder(coder.ordinal());
-      testData = genTestData(encoder.preferDirectBuffer(),
-          BenchData.bufferSizeKB);
+      if (useDirectBuffer == null) {
+        useDirectBuffer = encoder.preferDirectBuffer();
+      }
     } else {
       decoder = getRawDecoder(coder.ordinal());
-      testData = genTestData(decoder.preferDirectBuffer(),
-          BenchData.bufferSizeKB);
+      if (useDirectBuffer == null) {
+        useDirectBuffer = decoder.preferDirectBuffer();
+      }
     }
+    testData = genTestData(useDirectBuffer, BenchData.bufferSizeKB);
 
     ExecutorService executor = Executors.newFixedThreadPool(numThreads);
     List<Future<Long>> futures = new ArrayList<>(numThreads);
     StopWatch sw = new StopWatch().start();
     for (int i = 0; i < numThreads; i++) {
-      futures.add(executor.submit(new BenchmarkCallable(isEncode,
-          encoder, decoder, testData.duplicate())));
+      futures.add(executor.submit(new BenchmarkCallable(isEncode, isMixed,
+          encoder, decoder, testData.duplicate(), useDirectBuffer)));
     }
     List<Long> durations = new ArrayList<>(numThreads);
     try {
@@ -210,7 +268,8 @@ public static void performBench(String opType, CODER coder,
       DecimalFormat df = new DecimalFormat("#.##");
       System.out.println(coder + " " + opType + " " +
           df.format(totalDataSize) + "MB data, with chunk size " +
-          BenchData.chunkSize / 1024 + "KB");
+          BenchData.chunkSize / 1024 + "KB in " +
+          (useDirectBuffer ? "direct" : "heap") + " buffers");
       System.out.println("Total time: " + df.format(duration / 1000.0) + " s.");
       System.out.println("Total throughput: " + df.format(
           totalDataSize / duration * 1000.0) + " MB/s");
@@ -224,27 +283,162 @@ public static void performBench(String opType, CODER coder,
     }
   }
 
+  /**
+   * Encodes numThreads times the data size through an erasure coding
+   * service, so the total data matches that of the encode operation.
+   */
+  private static void performServiceBench(CODER coder, int numThreads,
+      Boolean useDirectBuffer) throws Exception {
+    int maxPending = numThreads * 4;
+    ErasureCodingService service = new ErasureCodingService(
+        CODER_MAKERS.get(coder.ordinal()), BenchData.options, numThreads,
+        maxPending, BenchData.chunkSize);
+    ECBufferPool pool = service.getBufferPool();
+    if (useDirectBuffer == null) {
+      useDirectBuffer = pool.isDirect();
+    }
+    Preconditions.checkArgument(useDirectBuffer == pool.isDirect(),
+        "The coder prefers " + (pool.isDirect() ? "direct" : "heap") +
+            " buffers");
+    ByteBuffer testData = genTestData(useDirectBuffer, BenchData.bufferSizeKB);
+
+    long rounds = BenchData.totalDataSizeKB / BenchData.bufferSizeKB
+        * numThreads;
+    Deque<Future<ByteBuffer[]>> pending = new ArrayDeque<>();
+    StopWatch sw = new StopWatch().start();
+    try {
+      for (long i = 0; i < rounds; i++) {
+        while (testData.remaining() > 0) {
+          ByteBuffer[] inputs = new ByteBuffer[BenchData.NUM_DATA_UNITS];
+          for (int j = 0; j < inputs.length; j++) {
+            inputs[j] = testData.duplicate();
+            inputs[j].limit(testData.position() + BenchData.chunkSize);
+            inputs[j] = inputs[j].slice();
+            testData.position(testData.position() + BenchData.chunkSize);
+          }
+          pending.add(service.encode(inputs,
+              pool.get(BenchData.numParityUnits)));
+          if (pending.size() > maxPending) {
+            pool.put(pending.poll().get());
+          }
+        }
+        testData.clear();
+      }
+      while (!pending.isEmpty()) {
+        pool.put(pending.poll().get());
+      }
+    } finally {
+      service.close();
+    }
+
+    long duration = sw.now(TimeUnit.MILLISECONDS);
+    double totalDataSize = BenchData.totalDataSizeKB * numThreads / 1024.0;
+    DecimalFormat df = new DecimalFormat("#.##");
+    System.out.println(coder + " service-encode " +
+        df.format(totalDataSize) + "MB data, with chunk size " +
+        BenchData.chunkSize / 1024 + "KB in " +
+        (useDirectBuffer ? "direct" : "heap") + " buffers, " +
+        numThreads + " workers");
+    System.out.println("Total time: " + df.format(duration / 1000.0) + " s.");
+    System.out.println("Total throughput: " + df.format(
+        totalDataSize / duration * 1000.0) + " MB/s");
+    System.out.println("Buffers allocated by the pool: " +
+        pool.getNumAllocated());
+  }
+
+  /**
+   * Recovers one unit per stripe, the lost unit rotating over all the units.
+   * Results aren't validated, so data chunks also stand in for the parities.
+   */
+  private static void performRepairBench(CODER coder,
+      Boolean useDirectBuffer) throws Exception {
+    RawErasureDecoder decoder = getRawDecoder(coder.ordinal());
+    if (useDirectBuffer == null) {
+      useDirectBuffer = decoder.preferDirectBuffer();
+    }
+    ByteBuffer testData = genTestData(useDirectBuffer, BenchData.bufferSizeKB);
+    ByteBuffer[] outputs = getBufferForInit(1, BenchData.chunkSize,
+        useDirectBuffer);
+
+    long rounds = BenchData.totalDataSizeKB / BenchData.bufferSizeKB;
+    long numRepaired = 0;
+    long numRead = 0;
+    StopWatch sw = new StopWatch().start();
+    for (long i = 0; i < rounds; i++) {
+      while (testData.remaining() > 0) {
+        int erased = (int) (numRepaired % BenchData.numAllUnits);
+        int[] sources = getRepairSources(coder, erased);
+        ByteBuffer[] inputs = new ByteBuffer[BenchData.numAllUnits];
+        for (int source : sources) {
+          inputs[source] = testData.duplicate();
+          int pos = testData.position()
+              + (source % BenchData.NUM_DATA_UNITS) * BenchData.chunkSize;
+          inputs[source].position(pos);
+          inputs[source].limit(pos + BenchData.chunkSize);
+        }
+        testData.position(testData.position()
+            + BenchData.NUM_DATA_UNITS * BenchData.chunkSize);
+
+        outputs[0].clear();
+        decoder.decode(inputs, new int[] {erased}, outputs);
+        numRepaired++;
+        numRead += sources.length;
+      }
+      testData.clear();
+    }
+
+    long duration = sw.now(TimeUnit.MILLISECONDS);
+    double repairedSize = numRepaired * BenchData.chunkSize / 1024.0 / 1024.0;
+    DecimalFormat df = new DecimalFormat("#.##");
+    System.out.println(coder + " repair " + df.format(repairedSize) +
+        "MB data, with chunk size " + BenchData.chunkSize / 1024 + "KB in " +
+        (useDirectBuffer ? "direct" : "heap") + " buffers");
+    System.out.println("Total time: " + df.format(duration / 1000.0) + " s.");
+    System.out.println("Total throughput: " + df.format(
+        repairedSize / duration * 1000.0) + " MB/s");
+    System.out.println("Units read per repaired unit: " +
+        df.format((double) numRead / numRepaired));
+  }
+
+  /**
+   * The units to read for recovering a single unit: the rest of the local
+   * group for LRC, any numDataUnits units otherwise.
+   */
+  private static int[] getRepairSources(CODER coder, int erased) {
+    if (coder == CODER.LRC_CODER) {
+      return LRCUtil.getRepairSources(erased, BenchData.NUM_DATA_UNITS,
+          LRCRawEncoder.DEFAULT_NUM_LOCAL_GROUPS);
+    }
+    int[] sources = new int[BenchData.NUM_DATA_UNITS];
+    for (int i = 0, unit = 0; i < sources.length; unit++) {
+      if (unit != erased) {
+        sources[i++] = unit;
+      }
+    }
+    return sources;
+  }
+
   private static RawErasureEncoder getRawEncoder(int index) {
     RawErasureEncoder encoder =
-        CODER_MAKERS.get(index).createEncoder(BenchData.OPTIONS);
+        CODER_MAKERS.get(index).createEncoder(BenchData.options);
     final boolean isDirect = encoder.preferDirectBuffer();
     encoder.encode(
         getBufferForInit(BenchData.NUM_DATA_UNITS, 1, isDirect),
-        getBufferForInit(BenchData.NUM_PARITY_UNITS, 1, isDirect));
+        getBufferForInit(BenchData.numParityUnits, 1, isDirect));
     return encoder;
   }
 
   private static RawErasureDecoder getRawDecoder(int index) {
     RawErasureDecoder decoder =
-        CODER_MAKERS.get(index).createDecoder(BenchData.OPTIONS);
+        CODER_MAKERS.get(index).createDecoder(BenchData.options);
     final boolean isDirect = decoder.preferDirectBuffer();
     ByteBuffer[] inputs = getBufferForInit(
-        BenchData.NUM_ALL_UNITS, 1, isDirect);
-    for (int erasedIndex : BenchData.ERASED_INDEXES) {
+        BenchData.numAllUnits, 1, isDirect);
+    for (int erasedIndex : BenchData.erasedIndexes) {
       inputs[erasedIndex] = null;
     }
-    decoder.decode(inputs, BenchData.ERASED_INDEXES,
-        getBufferForInit(BenchData.ERASED_INDEXES.length, 1, isDirect));
+    decoder.decode(inputs, BenchData.erasedIndexes,
+        getBufferForInit(BenchData.erasedIndexes.length, 1, isDirect));
     return decoder;
   }
 
@@ -291,21 +485,36 @@ private static ByteBuffer genTestData(boolean useDirectBuffer, int sizeKB) {
   }
 
   private static class BenchData {
-    public static final ErasureCoderOptions OPTIONS =
-        new ErasureCoderOptions(6, 3);
-    public static final int NUM_DATA_UNITS = OPTIONS.getNumDataUnits();
-    public static final int NUM_PARITY_UNITS = OPTIONS.getNumParityUnits();
-    public static final int NUM_ALL_UNITS = OPTIONS.getNumAllUnits();
+    public static final int NUM_DATA_UNITS = 6;
+    private static ErasureCoderOptions options;
+    private static int numParityUnits;
+    private static int numAllUnits;
     private static int chunkSize;
     private static long totalDataSizeKB;
     private static int bufferSizeKB;
 
-    private static final int[] ERASED_INDEXES = new int[]{6, 7, 8};
+    private static int[] erasedIndexes;
+    // erasure patterns used in turn by mixed-decode
+    private static int[][] mixedErasedIndexes;
     private final ByteBuffer[] inputs = new ByteBuffer[NUM_DATA_UNITS];
-    private ByteBuffer[] outputs = new ByteBuffer[NUM_PARITY_UNITS];
-    private ByteBuffer[] decodeInputs = new ByteBuffer[NUM_ALL_UNITS];
-
-    public static void configure(int dataSizeMB, int chunkSizeKB) {
+    private ByteBuffer[] outputs = new ByteBuffer[numParityUnits];
+    // the first outputs, one per erased unit
+    private final ByteBuffer[] decodeOutputs;
+    private ByteBuffer[] decodeInputs = new ByteBuffer[numAllUnits];
+
+    public static void configure(int dataSizeMB, int chunkSizeKB,
+        CODER coder) {
+      options = new ErasureCoderOptions(NUM_DATA_UNITS, coder.numParityUnits);
+      numParityUnits = options.getNumParityUnits();
+      numAllUnits = options.getNumAllUnits();
+      if (numParityUnits == 1) {
+        erasedIndexes = new int[]{6};
+        mixedErasedIndexes = new int[][]{{0}, {3}, {6}, {2}, {5}, {1}};
+      } else {
+        erasedIndexes = new int[]{6, 7, 8};
+        mixedErasedIndexes = new int[][]{
+            {0, 1, 2}, {3, 4, 5}, {0, 6, 7}, {2, 5, 8}, {1, 3, 7}, {6, 7, 8}};
+      }
       chunkSize = chunkSizeKB * 1024;
       // buffer size needs to be a multiple of (numDataUnits * chunkSize)
       int round = (int) Math.round(
@@ -327,48 +536,70 @@ public BenchData(boolean useDirectBuffer) {
         outputs[i] = useDirectBuffer ? ByteBuffer.allocateDirect(chunkSize) :
             ByteBuffer.allocate(chunkSize);
       }
+      decodeOutputs = Arrays.copyOf(outputs, erasedIndexes.length);
     }
 
     public void prepareDecInput() {
       System.arraycopy(inputs, 0, decodeInputs, 0, NUM_DATA_UNITS);
     }
 
+    /**
+     * Results aren't validated, so data chunks also stand in for the parity
+     * units that are available.
+     */
+    public void prepareMixedDecInput(int[] erasedIndexes) {
+      for (int i = 0; i < numAllUnits; i++) {
+        decodeInputs[i] = inputs[i % NUM_DATA_UNITS].duplicate();
+      }
+      for (int erasedIndex : erasedIndexes) {
+        decodeInputs[erasedIndex] = null;
+      }
+    }
+
     public void encode(RawErasureEncoder encoder) {
       encoder.encode(inputs, outputs);
     }
 
     public void decode(RawErasureDecoder decoder) {
-      decoder.decode(decodeInputs, ERASED_INDEXES, outputs);
+      decoder.decode(decodeInputs, erasedIndexes, decodeOutputs);
+    }
+
+    public void decode(RawErasureDecoder decoder, int[] erasedIndexes) {
+      decoder.decode(decodeInputs, erasedIndexes, decodeOutputs);
     }
   }
 
   private static class BenchmarkCallable implements Callable<Long> {
     private final boolean isEncode;
+    private final boolean isMixed;
     private final RawErasureEncoder encoder;
     private final RawErasureDecoder decoder;
     private final BenchData benchData;
     private final ByteBuffer testData;
 
-    public BenchmarkCallable(boolean isEncode, RawErasureEncoder encoder,
-                             RawErasureDecoder decoder, ByteBuffer testData) {
+    public BenchmarkCallable(boolean isEncode, boolean isMixed,
+                             RawErasureEncoder encoder,
+                             RawErasureDecoder decoder, ByteBuffer testData,
+                             boolean useDirectBuffer) {
       if (isEncode) {
         Preconditions.checkArgument(encoder != null);
         this.encoder = encoder;
         this.decoder = null;
-        benchData = new BenchData(encoder.preferDirectBuffer());
       } else {
         Preconditions.checkArgument(decoder != null);
         this.decoder = decoder;
         this.encoder = null;
-        benchData = new BenchData(decoder.preferDirectBuffer());
       }
+      benchData = new BenchData(useDirectBuffer);
       this.isEncode = isEncode;
+      this.isMixed = isMixed;
       this.testData = testData;
     }
 
     @Override
     public Long call() throws Exception {
       long rounds = BenchData.totalDataSizeKB / BenchData.bufferSizeKB;
+      int stripe = 0;
 
       StopWatch sw = new StopWatch().start();
       for (long i = 0; i < rounds; i++) {
@@ -387,6 +618,11 @@ public Long call() throws Exception {
 
           if (isEncode) {
             benchData.encode(encoder);
+          } else if (isMixed) {
+            int[] erasedIndexes = BenchData.mixedErasedIndexes[
+                stripe++ % BenchData.mixedErasedIndexes.length];
+            benchData.prepareMixedDecInput(erasedIndexes);
+            benchData.decode(decoder, erasedIndexes);
           } else {
             benchData.prepareDecInput();
             benchData.decode(decoder);
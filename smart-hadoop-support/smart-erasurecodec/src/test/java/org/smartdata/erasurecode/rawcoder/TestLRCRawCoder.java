@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.erasurecode.ECChunk;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+import org.smartdata.erasurecode.rawcoder.util.LRCUtil;
+
+import java.util.Random;
+
+/**
+ * Test the raw LRC coder, with the default 2 local groups, so 6x4 is
+ * LRC(6, 2, 2) and 12x4 is LRC(12, 2, 2).
+ */
+public class TestLRCRawCoder extends TestRawCoderBase {
+  private static final int CELL_SIZE = 1024;
+  private final Random random = new Random();
+
+  @Before
+  public void setup() {
+    this.encoderClass = LRCRawEncoder.class;
+    this.decoderClass = LRCRawDecoder.class;
+    setAllowDump(false);
+  }
+
+  /**
+   * Unlike RS, not any k units of LRC span the data, e.g. a local group
+   * missing two data units and its parity. Keep all the available units.
+   */
+  @Override
+  protected void ensureOnlyLeastRequiredChunks(ECChunk[] inputChunks) {
+  }
+
+  @Test
+  public void testCoding_6x4_erasing_d0() {
+    prepare(null, 6, 4, new int[]{0}, new int[0]);
+    testCodingDoMixAndTwice();
+  }
+
+  @Test
+  public void testCoding_6x4_erasing_d0_d1() {
+    prepare(null, 6, 4, new int[]{0, 1}, new int[0]);
+    testCodingDoMixAndTwice();
+  }
+
+  @Test
+  public void testCoding_6x4_erasing_d0_d3_p3() {
+    prepare(null, 6, 4, new int[]{0, 3}, new int[]{3});
+    testCodingDoMixAndTwice();
+  }
+
+  @Test
+  public void testCoding_6x4_erasing_all_p() {
+    prepare(null, 6, 4, new int[0], new int[]{0, 1, 2, 3});
+    testCodingDoMixAndTwice();
+  }
+
+  @Test
+  public void testCoding_12x4_erasing_d2_p0_p2() {
+    prepare(null, 12, 4, new int[]{2}, new int[]{0, 2});
+    testCodingDoMixAndTwice();
+  }
+
+  @Test
+  public void testCodingNegative_6x4_erasing_too_many() {
+    prepare(null, 6, 4, new int[]{0, 1, 2}, new int[]{0, 2});
+    testCodingWithErasingTooMany();
+  }
+
+  @Test
+  public void testLocalRepair() {
+    ErasureCoderOptions options = new ErasureCoderOptions(6, 4);
+    byte[][] units = encode(options);
+    LRCRawDecoder decoder = new LRCRawDecoder(options);
+    for (int erased = 0; erased < 8; erased++) {
+      // only the rest of the local group is given
+      byte[][] inputs = new byte[10][];
+      int[] sources = LRCUtil.getRepairSources(erased, 6, 2);
+      Assert.assertEquals(3, sources.length);
+      for (int source : sources) {
+        inputs[source] = units[source];
+      }
+      byte[][] outputs = new byte[][] {new byte[CELL_SIZE]};
+      decoder.decode(inputs, new int[] {erased}, outputs);
+      Assert.assertArrayEquals(units[erased], outputs[0]);
+    }
+  }
+
+  /**
+   * All the patterns of up to r + 1 lost units are recoverable.
+   */
+  @Test
+  public void testRecoverability() {
+    ErasureCoderOptions options = new ErasureCoderOptions(6, 4);
+    byte[][] units = encode(options);
+    LRCRawDecoder decoder = new LRCRawDecoder(options);
+    int n = options.getNumAllUnits();
+    for (int mask = 1; mask < (1 << n); mask++) {
+      int numErased = Integer.bitCount(mask);
+      if (numErased > 3) {
+        continue;
+      }
+      byte[][] inputs = new byte[n][];
+      int[] erasedIndexes = new int[numErased];
+      int idx = 0;
+      for (int i = 0; i < n; i++) {
+        if ((mask & (1 << i)) != 0) {
+          erasedIndexes[idx++] = i;
+        } else {
+          inputs[i] = units[i];
+        }
+      }
+      byte[][] outputs = new byte[numErased][CELL_SIZE];
+      decoder.decode(inputs, erasedIndexes, outputs);
+      for (int i = 0; i < numErased; i++) {
+        Assert.assertArrayEquals(units[erasedIndexes[i]], outputs[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testSharedDecodingTables() {
+    ErasureCoderOptions options = new ErasureCoderOptions(6, 4);
+    byte[][] units = encode(options);
+    LRCRawDecoder[] decoders = new LRCRawDecoder[] {
+        new LRCRawDecoder(options), new LRCRawDecoder(options)};
+    // two units of a local group can't be repaired locally
+    int[][] patterns = new int[][]{{0, 1}, {3, 4}};
+    // the cache is shared, drop what other tests left in it
+    LRCRawDecoder.TABLES_CACHE.clear();
+    for (int round = 0; round < 2; round++) {
+      for (int[] erasedIndexes : patterns) {
+        for (LRCRawDecoder decoder : decoders) {
+          byte[][] inputs = units.clone();
+          byte[][] outputs = new byte[erasedIndexes.length][CELL_SIZE];
+          for (int erasedIndex : erasedIndexes) {
+            inputs[erasedIndex] = null;
+          }
+          decoder.decode(inputs, erasedIndexes, outputs);
+          for (int i = 0; i < erasedIndexes.length; i++) {
+            Assert.assertArrayEquals(units[erasedIndexes[i]], outputs[i]);
+          }
+        }
+      }
+    }
+    // Only the first decode of a pattern generates the tables
+    Assert.assertEquals(2, LRCRawDecoder.TABLES_CACHE.getMisses());
+    Assert.assertEquals(2 * 2 * 2 - 2, LRCRawDecoder.TABLES_CACHE.getHits());
+  }
+
+  private byte[][] encode(ErasureCoderOptions options) {
+    byte[][] units = new byte[options.getNumAllUnits()][CELL_SIZE];
+    byte[][] data = new byte[options.getNumDataUnits()][];
+    byte[][] parities = new byte[options.getNumParityUnits()][];
+    for (int i = 0; i < units.length; i++) {
+      if (i < data.length) {
+        random.nextBytes(units[i]);
+        data[i] = units[i];
+      } else {
+        parities[i - data.length] = units[i];
+      }
+    }
+    new LRCRawEncoder(options).encode(data, parities);
+    return units;
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.junit.Test;
+import org.smartdata.erasurecode.ErasureCoderOptions;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test of the decoding tables cache shared by RS decoders.
+ */
+public class TestRSDecodingTablesCache {
+  private final int numDataUnits = 6;
+  private final int numParityUnits = 3;
+  private final int chunkSize = 1024;
+
+  @Test
+  public void testEviction() {
+    RSDecodingTablesCache cache = new RSDecodingTablesCache(2);
+    RSDecodingTables tables0 = newTables(new int[]{0}, new int[]{1, 2});
+    RSDecodingTables tables1 = newTables(new int[]{1}, new int[]{0, 2});
+    RSDecodingTables tables2 = newTables(new int[]{2}, new int[]{0, 1});
+    cache.put(tables0);
+    cache.put(tables1);
+    // tables0 becomes the most recently used one
+    assertSame(tables0, cache.get(numDataUnits, numParityUnits,
+        new int[]{0}, new int[]{1, 2}));
+    cache.put(tables2);
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get(numDataUnits, numParityUnits,
+        new int[]{1}, new int[]{0, 2}));
+    assertNotNull(cache.get(numDataUnits, numParityUnits,
+        new int[]{0}, new int[]{1, 2}));
+    assertNotNull(cache.get(numDataUnits, numParityUnits,
+        new int[]{2}, new int[]{0, 1}));
+    // same indexes but a different schema
+    assertNull(cache.get(numDataUnits, numParityUnits + 1,
+        new int[]{2}, new int[]{0, 1}));
+  }
+
+  @Test
+  public void testMixedErasurePatterns() {
+    ErasureCoderOptions options =
+        new ErasureCoderOptions(numDataUnits, numParityUnits);
+    RawErasureEncoder encoder = new RSRawEncoder(options);
+    RawErasureDecoder[] decoders = new RawErasureDecoder[] {
+        new RSRawDecoder(options), new RSRawDecoderWide(options)};
+
+    byte[][] units = new byte[numDataUnits + numParityUnits][chunkSize];
+    Random random = new Random();
+    for (int i = 0; i < numDataUnits; i++) {
+      random.nextBytes(units[i]);
+    }
+    byte[][] dataUnits = new byte[numDataUnits][];
+    byte[][] parityUnits = new byte[numParityUnits][];
+    System.arraycopy(units, 0, dataUnits, 0, numDataUnits);
+    System.arraycopy(units, numDataUnits, parityUnits, 0, numParityUnits);
+    encoder.encode(dataUnits, parityUnits);
+
+    int[][] patterns = new int[][]{{0, 1}, {2, 7}, {5, 6, 8}, {0, 1}};
+    // the cache is shared, drop what other tests left in it
+    RSRawDecoder.TABLES_CACHE.clear();
+    for (int round = 0; round < 2; round++) {
+      for (int[] erasedIndexes : patterns) {
+        for (RawErasureDecoder decoder : decoders) {
+          byte[][] inputs = units.clone();
+          byte[][] outputs = new byte[erasedIndexes.length][chunkSize];
+          for (int erasedIndex : erasedIndexes) {
+            inputs[erasedIndex] = null;
+          }
+          decoder.decode(inputs, erasedIndexes, outputs);
+          for (int i = 0; i < erasedIndexes.length; i++) {
+            assertArrayEquals(units[erasedIndexes[i]], outputs[i]);
+          }
+        }
+      }
+    }
+    // Only the first decode of a pattern generates the tables, the other
+    // decoder and the second round find them in the cache. The second round
+    // starts with the pattern each decoder used last, which needs no lookup.
+    assertEquals(3, RSRawDecoder.TABLES_CACHE.getMisses());
+    assertEquals(4 * 2 * 2 - 3 - 2, RSRawDecoder.TABLES_CACHE.getHits());
+  }
+
+  @Test
+  public void testWideTablesShared() {
+    ErasureCoderOptions options =
+        new ErasureCoderOptions(numDataUnits, numParityUnits);
+    RSRawDecoderWide decoder0 = new RSRawDecoderWide(options);
+    RSRawDecoderWide decoder1 = new RSRawDecoderWide(options);
+    byte[][] inputs = new byte[numDataUnits + numParityUnits][chunkSize];
+    int[] erasedIndexes = new int[]{1, 4};
+    for (int erasedIndex : erasedIndexes) {
+      inputs[erasedIndex] = null;
+    }
+
+    RSDecodingTables tables0 = decoder0.prepareDecoding(inputs, erasedIndexes);
+    RSDecodingTables tables1 = decoder1.prepareDecoding(inputs, erasedIndexes);
+    assertSame(tables0, tables1);
+    // derived once and kept with the shared tables
+    assertSame(tables0.getWideTables(), tables1.getWideTables());
+  }
+
+  private RSDecodingTables newTables(int[] erasedIndexes,
+      int[] validIndexes) {
+    return new RSDecodingTables(numDataUnits, numParityUnits, erasedIndexes,
+        validIndexes, new byte[0], new byte[0]);
+  }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.erasurecode.rawcoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the wide-table raw Reed-solomon coder implemented in Java.
+ */
+public class TestRSRawCoderWide extends TestRSRawCoderBase {
+
+  @Before
+  public void setup() {
+    this.encoderClass = RSRawEncoderWide.class;
+    this.decoderClass = RSRawDecoderWide.class;
+    setAllowDump(false);
+  }
+
+  @Test
+  public void testCoding_10x6_erasing_d0_d3_p1_p4_p5() {
+    // parity and erased units span more than one group of the wide tables
+    prepare(null, 10, 6, new int[] {0, 3}, new int[] {1, 4, 5});
+    testCodingDoMixAndTwice();
+  }
+}
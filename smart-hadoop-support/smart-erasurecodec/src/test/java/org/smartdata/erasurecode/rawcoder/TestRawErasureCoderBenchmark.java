@@ -53,6 +53,35 @@ public void testRSCoder() throws Exception {
         RawErasureCoderBenchmark.CODER.RS_CODER, 4, 135, 20);
   }
 
+  @Test
+  public void testRSWideCoder() throws Exception {
+    // Wide-table RS Java coder
+    RawErasureCoderBenchmark.performBench("encode",
+        RawErasureCoderBenchmark.CODER.RS_WIDE_CODER, 3, 200, 200);
+    RawErasureCoderBenchmark.performBench("decode",
+        RawErasureCoderBenchmark.CODER.RS_WIDE_CODER, 4, 135, 20);
+  }
+
+  @Test
+  public void testMixedDecode() throws Exception {
+    // Decode with erasure patterns changing from stripe to stripe
+    RawErasureCoderBenchmark.performBench("mixed-decode",
+        RawErasureCoderBenchmark.CODER.RS_CODER, 4, 135, 20);
+    RawErasureCoderBenchmark.performBench("mixed-decode",
+        RawErasureCoderBenchmark.CODER.RS_WIDE_CODER, 4, 135, 20);
+  }
+
+  @Test
+  public void testXORCoder() throws Exception {
+    // XOR Java coder, on both types of buffers
+    RawErasureCoderBenchmark.performBench("encode",
+        RawErasureCoderBenchmark.CODER.XOR_CODER, 3, 200, 200, true);
+    RawErasureCoderBenchmark.performBench("decode",
+        RawErasureCoderBenchmark.CODER.XOR_CODER, 4, 135, 20, false);
+    RawErasureCoderBenchmark.performBench("mixed-decode",
+        RawErasureCoderBenchmark.CODER.XOR_CODER, 4, 135, 20, true);
+  }
+
   @Test
   public void testISALCoder() throws Exception {
     Assume.assumeTrue(ErasureCodeNative.isNativeCodeLoaded());
@@ -62,4 +91,26 @@ public void testISALCoder() throws Exception {
     RawErasureCoderBenchmark.performBench("decode",
         RawErasureCoderBenchmark.CODER.ISAL_CODER, 6, 200, 128);
   }
+
+  @Test
+  public void testServiceEncode() throws Exception {
+    // Stripes fed to the erasure coding service
+    RawErasureCoderBenchmark.performBench("service-encode",
+        RawErasureCoderBenchmark.CODER.RS_CODER, 3, 200, 200);
+    RawErasureCoderBenchmark.performBench("service-encode",
+        RawErasureCoderBenchmark.CODER.XOR_CODER, 2, 135, 20, false);
+  }
+
+  @Test
+  public void testLRCCoder() throws Exception {
+    // LRC Java coder, and single unit repair compared with RS
+    RawErasureCoderBenchmark.performBench("encode",
+        RawErasureCoderBenchmark.CODER.LRC_CODER, 3, 200, 200);
+    RawErasureCoderBenchmark.performBench("decode",
+        RawErasureCoderBenchmark.CODER.LRC_CODER, 4, 135, 20);
+    RawErasureCoderBenchmark.performBench("repair",
+        RawErasureCoderBenchmark.CODER.LRC_CODER, 1, 135, 20);
+    RawErasureCoderBenchmark.performBench("repair",
+        RawErasureCoderBenchmark.CODER.RS_CODER, 1, 135, 20);
+  }
 }
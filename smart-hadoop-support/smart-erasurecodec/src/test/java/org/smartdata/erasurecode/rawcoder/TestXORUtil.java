@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.smartdata.erasurecode.rawcoder;
+
+import org.junit.Test;
+import org.smartdata.erasurecode.rawcoder.util.XORUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test of the XOR utility, on heap, direct and mixed buffers at unaligned
+ * positions.
+ */
+public class TestXORUtil {
+  private final int len = 1027;
+  private final Random rand = new Random();
+
+  @Test
+  public void testXor() {
+    for (boolean srcDirect : new boolean[] {false, true}) {
+      for (boolean dstDirect : new boolean[] {false, true}) {
+        byte[] src = randomBytes(len + 3);
+        byte[] dst = randomBytes(len + 5);
+        ByteBuffer srcBuffer = toBuffer(src, srcDirect, ByteOrder.BIG_ENDIAN);
+        ByteBuffer dstBuffer = toBuffer(dst, dstDirect,
+            dstDirect ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        XORUtil.xor(srcBuffer, 3, dstBuffer, 5, len);
+        for (int i = 0; i < len; i++) {
+          assertEquals((byte) (src[3 + i] ^ dst[5 + i]), dstBuffer.get(5 + i));
+        }
+        for (int i = 0; i < 5; i++) {
+          assertEquals(dst[i], dstBuffer.get(i));
+        }
+        assertEquals(0, srcBuffer.position());
+        assertEquals(0, dstBuffer.position());
+      }
+    }
+  }
+
+  @Test
+  public void testXorBytes() {
+    byte[] src = randomBytes(len + 1);
+    byte[] dst = randomBytes(len);
+    byte[] expected = dst.clone();
+    for (int i = 0; i < len; i++) {
+      expected[i] ^= src[i + 1];
+    }
+
+    XORUtil.xor(src, 1, dst, 0, len);
+    for (int i = 0; i < len; i++) {
+      assertEquals(expected[i], dst[i]);
+    }
+  }
+
+  @Test
+  public void testCopyAndZero() {
+    for (boolean direct : new boolean[] {false, true}) {
+      byte[] src = randomBytes(len + 7);
+      ByteBuffer srcBuffer = toBuffer(src, !direct, ByteOrder.BIG_ENDIAN);
+      ByteBuffer dstBuffer = toBuffer(new byte[len + 1], direct,
+          ByteOrder.LITTLE_ENDIAN);
+
+      XORUtil.copy(srcBuffer, 7, dstBuffer, 1, len);
+      for (int i = 0; i < len; i++) {
+        assertEquals(src[7 + i], dstBuffer.get(1 + i));
+      }
+
+      XORUtil.zero(dstBuffer, 1, len - 1);
+      for (int i = 1; i < len; i++) {
+        assertEquals(0, dstBuffer.get(i));
+      }
+      assertEquals(src[7 + len - 1], dstBuffer.get(len));
+    }
+  }
+
+  private byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    rand.nextBytes(bytes);
+    return bytes;
+  }
+
+  private ByteBuffer toBuffer(byte[] bytes, boolean direct, ByteOrder order) {
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length)
+        : ByteBuffer.allocate(bytes.length);
+    buffer.order(order);
+    buffer.put(bytes);
+    buffer.flip();
+    return buffer;
+  }
+}
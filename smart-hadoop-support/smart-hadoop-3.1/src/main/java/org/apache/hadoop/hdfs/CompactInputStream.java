@@ -17,9 +17,16 @@
  */
 package org.apache.hadoop.hdfs;
 
+import org.apache.hadoop.fs.ByteBufferUtil;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FileEncryptionInfo;
 import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.io.ByteBufferPool;
+import org.smartdata.hdfs.ContainerHandleCache;
+import org.smartdata.hdfs.ContainerIndex;
 import org.smartdata.model.CompactFileState;
 import org.smartdata.model.FileContainerInfo;
 import org.smartdata.model.FileState;
@@ -29,41 +36,128 @@
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
 
+/**
+ * Logical view of a small file stored in a container file.
+ *
+ * <p>All positions seen by callers are logical, i.e. relative to the start
+ * of the small file. Physical I/O goes through a container handle from the
+ * per-JVM {@link ContainerHandleCache}, so streams of sibling small files
+ * share the located blocks and the open block reader of their container.
+ *
+ * <p>If the container has an index footer and its verification is enabled,
+ * the location of the small file is checked against it on open, and its
+ * CRC32 is checked once the whole file has been read sequentially.
+ */
 public class CompactInputStream extends SmartInputStream {
-  private FileContainerInfo fileContainerInfo;
+  private final FileContainerInfo fileContainerInfo;
+  private final long offset;
+  private final long length;
+  private final ContainerHandleCache cache;
+  // Shared physical stream over the container file
+  private final ContainerHandleCache.Handle handle;
+  private final String smallFile;
+  private final ContainerIndex.Entry indexEntry;
+  // Checksum of the bytes read sequentially from the start, if verified
+  private CRC32 crc;
+  private long crcPos = 0;
+  private final Map<ByteBuffer, ByteBufferPool> extendedReadBuffers =
+      new IdentityHashMap<>();
+  private long pos = 0;
   private boolean closed = false;
-  private static final String INHERITED_CLASS = "org.apache.hadoop.hdfs.DFSInputStream";
 
   CompactInputStream(DFSClient dfsClient, boolean verifyChecksum,
                      FileState fileState) throws IOException {
+    this(dfsClient, verifyChecksum, fileState,
+        ContainerHandleCache.get(dfsClient.getConfiguration()));
+  }
+
+  private CompactInputStream(DFSClient dfsClient, boolean verifyChecksum,
+      FileState fileState, ContainerHandleCache cache) throws IOException {
+    this(dfsClient, verifyChecksum, fileState, cache, acquireHandle(cache,
+        dfsClient, verifyChecksum,
+        ((CompactFileState) fileState).getFileContainerInfo()));
+  }
+
+  private CompactInputStream(DFSClient dfsClient, boolean verifyChecksum,
+      FileState fileState, ContainerHandleCache cache,
+      ContainerHandleCache.Handle handle) throws IOException {
+    // Located blocks are taken from the shared container handle
     super(dfsClient,
           ((CompactFileState) fileState).getFileContainerInfo().getContainerFilePath(),
           verifyChecksum,
-          fileState);
+          fileState,
+          handle.getStream().locatedBlocks);
     this.fileContainerInfo = ((CompactFileState) fileState).getFileContainerInfo();
-    super.seek(fileContainerInfo.getOffset());
+    this.offset = fileContainerInfo.getOffset();
+    this.length = fileContainerInfo.getLength();
+    this.cache = cache;
+    this.handle = handle;
+    this.smallFile = fileState.getPath();
+    this.indexEntry = checkIndex();
+    this.crc = indexEntry != null ? new CRC32() : null;
+  }
+
+  static ContainerHandleCache.Handle acquireHandle(ContainerHandleCache cache,
+      final DFSClient dfsClient, final boolean verifyChecksum,
+      FileContainerInfo info) throws IOException {
+    final String containerFile = info.getContainerFilePath();
+    return cache.acquire(dfsClient, containerFile,
+        info.getOffset() + info.getLength(), new ContainerHandleCache.Opener() {
+          @Override
+          public DFSInputStream open() throws IOException {
+            return new DFSInputStream(dfsClient, containerFile, verifyChecksum,
+                dfsClient.getLocatedBlocks(containerFile, 0));
+          }
+        });
+  }
+
+  private ContainerIndex.Entry checkIndex() throws IOException {
+    try {
+      return handle.checkIndex(smallFile, offset, length);
+    } catch (IOException e) {
+      cache.release(handle);
+      throw e;
+    }
+  }
+
+  /**
+   * Verify the checksum of the container index once the small file has been
+   * read sequentially to its end. Any other access pattern skips the check.
+   */
+  private void updateChecksum(byte[] buf, int off, int n) throws IOException {
+    if (crc == null) {
+      return;
+    }
+    if (crcPos != pos) {
+      crc = null;
+      return;
+    }
+    crc.update(buf, off, n);
+    crcPos += n;
+    if (crcPos == length && crc.getValue() != indexEntry.getChecksum()) {
+      crc = null;
+      throw new ChecksumException("Checksum mismatch of " + smallFile
+          + " in container " + fileContainerInfo.getContainerFilePath(), pos);
+    }
   }
 
   @Override
   public long getFileLength() {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return fileContainerInfo.getLength() + fileContainerInfo.getOffset();
-    } else {
-      return fileContainerInfo.getLength();
-    }
+    return length;
   }
 
   @Override
   public List<LocatedBlock> getAllBlocks() throws IOException {
-    List<LocatedBlock> blocks = super.getAllBlocks();
+    List<LocatedBlock> blocks = handle.getStream().getAllBlocks();
     List<LocatedBlock> ret = new ArrayList<>(16);
-    long off = fileContainerInfo.getOffset();
-    long len = fileContainerInfo.getLength();
     for (LocatedBlock b : blocks) {
-      if (off > b.getStartOffset() + b.getBlockSize() || off + len < b.getStartOffset()) {
+      if (offset > b.getStartOffset() + b.getBlockSize()
+          || offset + length < b.getStartOffset()) {
         continue;
       }
       ret.add(b);
@@ -71,104 +165,187 @@ public List<LocatedBlock> getAllBlocks() throws IOException {
     return ret;
   }
 
+  @Override
+  public FileEncryptionInfo getFileEncryptionInfo() {
+    return handle.getStream().getFileEncryptionInfo();
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    byte[] oneByteBuf = new byte[1];
+    int ret = read(oneByteBuf, 0, 1);
+    return (ret <= 0) ? -1 : (oneByteBuf[0] & 0xff);
+  }
+
   @Override
   public synchronized int read(final byte[] buf, int off, int len) throws IOException {
-    int realLen = (int) Math.min(len, fileContainerInfo.getLength() - getPos());
-    if (realLen == 0) {
+    checkOpen();
+    if (len == 0) {
+      return 0;
+    }
+    int realLen = (int) Math.min(len, length - pos);
+    if (realLen <= 0) {
       return -1;
-    } else {
-      return super.read(buf, off, realLen);
     }
+    int n = handle.read(offset + pos, buf, off, realLen);
+    if (n > 0) {
+      updateChecksum(buf, off, n);
+      pos += n;
+    }
+    return n;
   }
 
   @Override
   public synchronized int read(final ByteBuffer buf) throws IOException {
-    int realLen = (int) Math.min(buf.remaining(), fileContainerInfo.getLength() - getPos());
-    if (realLen == 0) {
-      return -1;
-    } else {
-      buf.limit(realLen + buf.position());
-      return super.read(buf);
+    checkOpen();
+    int realLen = (int) Math.min(buf.remaining(), length - pos);
+    if (realLen <= 0) {
+      return buf.remaining() == 0 ? 0 : -1;
     }
+    if (buf.hasArray()) {
+      int n = read(buf.array(), buf.arrayOffset() + buf.position(), realLen);
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    // Direct buffers are filled without a copy, so they skip the checksum
+    crc = null;
+    int n = handle.read(offset + pos, buf, realLen);
+    if (n > 0) {
+      pos += n;
+    }
+    return n;
   }
 
   @Override
-  public int read(long position, byte[] buffer, int offset, int length) throws IOException {
-    long realPos = position + fileContainerInfo.getOffset();
-    int realLen = (int) Math.min(length, fileContainerInfo.getLength() - position);
-    if (realLen == 0) {
+  public int read(long position, byte[] buffer, int off, int len) throws IOException {
+    checkOpen();
+    if (position < 0 || position >= length) {
       return -1;
-    } else {
-      return super.read(realPos, buffer, offset, realLen);
     }
+    int realLen = (int) Math.min(len, length - position);
+    return handle.pread(offset + position, buffer, off, realLen);
   }
 
   @Override
-  public synchronized long getPos() {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return super.getPos();
-    } else {
-      return super.getPos() - fileContainerInfo.getOffset();
+  public synchronized long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
     }
+    long target = Math.min(length, pos + n);
+    long skipped = target - pos;
+    seek(target);
+    return skipped;
+  }
+
+  @Override
+  public synchronized long getPos() {
+    return pos;
   }
 
   @Override
   public synchronized int available() throws IOException {
-    if (closed) {
-      throw new IOException("Stream closed.");
-    }
-    final long remaining = getFileLength() - getPos();
+    checkOpen();
+    final long remaining = length - pos;
     return remaining <= Integer.MAX_VALUE ? (int) remaining : Integer.MAX_VALUE;
   }
 
   @Override
   public synchronized void seek(long targetPos) throws IOException {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      super.seek(targetPos);
-    } else {
-      if (targetPos > fileContainerInfo.getLength()) {
-        throw new EOFException("Cannot seek after EOF");
-      }
-      if (targetPos < 0) {
-        throw new EOFException("Cannot seek to negative offset");
-      }
-      super.seek(fileContainerInfo.getOffset() + targetPos);
+    if (targetPos > length) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
     }
+    checkOpen();
+    pos = targetPos;
   }
 
   @Override
   public synchronized boolean seekToNewSource(long targetPos) throws IOException {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return super.seekToNewSource(targetPos);
-    } else {
-      if (targetPos < 0) {
-        throw new EOFException("Cannot seek after EOF");
-      } else {
-        return super.seekToNewSource(fileContainerInfo.getOffset() + targetPos);
-      }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek after EOF");
     }
+    // Datanode selection belongs to the shared container stream
+    return false;
   }
 
   @Override
   public synchronized void setReadahead(Long readahead) throws IOException {
-    long realReadAhead = Math.min(readahead, fileContainerInfo.getLength() - getPos());
-    super.setReadahead(realReadAhead);
+    // The shared container stream keeps its own read-ahead
+  }
+
+  @Override
+  public synchronized void setDropBehind(Boolean dropBehind) throws IOException {
+    // The shared container stream keeps its own cache policy
   }
 
   @Override
   public synchronized ByteBuffer read(ByteBufferPool bufferPool,
                                       int maxLength, EnumSet<ReadOption> opts)
       throws IOException, UnsupportedOperationException {
-    int realMaxLen = (int) Math.min(maxLength, fileContainerInfo.getLength() - getPos());
-    return super.read(bufferPool, realMaxLen, opts);
+    // Zero-copy reads would bypass the logical view, copy into pooled buffers
+    ByteBuffer buffer = ByteBufferUtil.fallbackRead(this, bufferPool,
+        (int) Math.min(maxLength, length - pos));
+    if (buffer != null) {
+      extendedReadBuffers.put(buffer, bufferPool);
+    }
+    return buffer;
+  }
+
+  @Override
+  public synchronized void releaseBuffer(ByteBuffer buffer) {
+    ByteBufferPool bufferPool = extendedReadBuffers.remove(buffer);
+    if (bufferPool == null) {
+      throw new IllegalArgumentException("Tried to release a buffer that was "
+          + "not created by this stream, " + buffer);
+    }
+    bufferPool.putBuffer(buffer);
+  }
+
+  @Override
+  public synchronized DatanodeInfo getCurrentDatanode() {
+    return handle.getStream().getCurrentDatanode();
+  }
+
+  @Override
+  public synchronized ExtendedBlock getCurrentBlock() {
+    return handle.getStream().getCurrentBlock();
+  }
+
+  @Override
+  public ReadStatistics getReadStatistics() {
+    return handle.getStream().getReadStatistics();
+  }
+
+  @Override
+  public void clearReadStatistics() {
+    handle.getStream().clearReadStatistics();
+  }
+
+  @Override
+  public synchronized void unbuffer() {
+    // Buffers of the shared container stream are released with its handle
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed.");
+    }
   }
 
   @Override
   public synchronized void close() throws IOException {
-    super.close();
-    this.closed = true;
+    if (closed) {
+      return;
+    }
+    try {
+      cache.release(handle);
+    } finally {
+      super.close();
+      this.closed = true;
+    }
   }
 }
@@ -125,6 +125,7 @@ protected void execute() throws Exception {
         // append the file to acquire the lock to avoid modifying, real appending wouldn't occur.
         outputStream =
             dfsClient.append(srcPath, bufferSize, EnumSet.of(CreateFlag.APPEND), null, null);
+        srcLocked = true;
       }
       convert(conf, ecPolicyName);
       /**
@@ -18,21 +18,39 @@
 package org.smartdata.hdfs.action;
 
 import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.DFSOutputStream;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicyInfo;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.SystemErasureCodingPolicies;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.action.ActionException;
+import org.smartdata.action.BufferPool;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.ECCheckpointUtil;
+import org.smartdata.hdfs.ECCheckpointUtil.Fingerprint;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An abstract base class for ErasureCodingAction & UnErasureCodingAction.
@@ -50,41 +68,126 @@ abstract public class ErasureCodingBase extends HdfsAction {
   public static final String REPLICATION_POLICY_NAME =
       SystemErasureCodingPolicies.getReplicationPolicy().getName();
 
+  // Set if the source is locked by a lease of this action, which changes
+  // its modification time
+  protected boolean srcLocked;
+  private boolean pipelined;
+  private int numBuffers;
+  private int checkpointBlocks;
+  private long fileLength;
+  private long bytesConverted;
+  // Attributes of ecTmpPath, or of its first part, restored in parallel with
+  // a pipelined conversion
+  private Future<Void> attributesRestored;
+
+  @Override
+  public void init(Map<String, String> args) {
+    super.init(args);
+    SmartConf conf = getContext().getConf();
+    this.pipelined = conf.getBoolean(SmartConfKeys.SMART_ACTION_EC_PIPELINED_KEY,
+        SmartConfKeys.SMART_ACTION_EC_PIPELINED_DEFAULT);
+    this.numBuffers = Math.max(2, conf.getInt(SmartConfKeys.SMART_ACTION_EC_BUFFERS_KEY,
+        SmartConfKeys.SMART_ACTION_EC_BUFFERS_DEFAULT));
+    this.checkpointBlocks = conf.getInt(SmartConfKeys.SMART_ACTION_EC_CHECKPOINT_BLOCKS_KEY,
+        SmartConfKeys.SMART_ACTION_EC_CHECKPOINT_BLOCKS_DEFAULT);
+  }
+
   protected void convert(SmartConf conf, String ecPolicyName) throws ActionException {
     DFSInputStream in = null;
     DFSOutputStream out = null;
+    ExecutorService executor = null;
+    ArrayBlockingQueue<Chunk> buffers = null;
     try {
       long blockSize = conf.getLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
           DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
       in = dfsClient.open(srcPath, bufferSize, true);
-      HdfsFileStatus fileStatus = dfsClient.getFileInfo(srcPath);
-      short replication = (short) conf.getInt(DFSConfigKeys.DFS_REPLICATION_KEY, DFSConfigKeys.DFS_REPLICATION_DEFAULT);
-      // use the same FsPermission as srcPath
-      FsPermission permission = fileStatus.getPermission();
-      out = dfsClient.create(ecTmpPath, permission, EnumSet.of(CreateFlag.CREATE), true,
-          replication, blockSize, null, bufferSize, null, null, ecPolicyName);
-      // Keep storage policy according with original file except UNDEF storage policy
-      String storagePolicyName = dfsClient.getStoragePolicy(srcPath).getName();
-      if (!storagePolicyName.equals("UNDEF")) {
-        dfsClient.setStoragePolicy(ecTmpPath, storagePolicyName);
+      final HdfsFileStatus fileStatus = dfsClient.getFileInfo(srcPath);
+      fileLength = fileStatus.getLen();
+      long partSize = getPartSize(ecPolicyName, blockSize);
+      int numParts = partSize > 0 && fileLength > partSize
+          ? (int) ((fileLength + partSize - 1) / partSize) : 1;
+      if (pipelined) {
+        executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ec-convert-" + srcPath);
+            t.setDaemon(true);
+            return t;
+          }
+        });
+        buffers = new ArrayBlockingQueue<>(numBuffers);
+        for (int i = 0; i < numBuffers; i++) {
+          buffers.add(new Chunk(leaseBuffer(bufferSize)));
+        }
       }
-      long bytesRemaining = fileStatus.getLen();
-      byte[] buf = new byte[bufferSize];
-      while (bytesRemaining > 0L) {
-        int bytesToRead =
-            (int) (bytesRemaining < (long) buf.length ? bytesRemaining :
-                (long) buf.length);
-        int bytesRead = in.read(buf, 0, bytesToRead);
-        if (bytesRead == -1) {
-          break;
+      long startTime = System.currentTimeMillis();
+      long offset = 0L;
+      if (numParts == 1) {
+        out = create(fileStatus, ecTmpPath, ecPolicyName, blockSize);
+        restoreAttributesInParallel(executor, fileStatus, ecTmpPath);
+        copy(executor, buffers, in, out, fileLength);
+        out.close();
+        out = null;
+      } else {
+        // Write the temp file in parts, which are committed one by one and
+        // concatenated at last, as a striped file can not be appended to.
+        Fingerprint fingerprint = new Fingerprint(fileStatus.getFileId(), fileLength,
+            fileStatus.getModificationTime(), ecPolicyName, partSize);
+        int committed = Math.min(numParts, ECCheckpointUtil.getCommittedParts(
+            dfsClient, ecTmpPath, fingerprint, !srcLocked));
+        ECCheckpointUtil.deleteParts(dfsClient, ecTmpPath, committed);
+        offset = committed * partSize;
+        bytesConverted = offset;
+        String head = ECCheckpointUtil.getPartPath(ecTmpPath, 0);
+        if (committed > 0) {
+          appendLog(String.format("Resuming the conversion of %s at offset %d",
+              srcPath, offset));
+          in.seek(offset);
+          restoreAttributesInParallel(executor, fileStatus, head);
         }
-        out.write(buf, 0, bytesRead);
-        bytesRemaining -= (long) bytesRead;
-        this.progress = (float) (fileStatus.getLen() - bytesRemaining) / fileStatus.getLen();
+        for (int i = committed; i < numParts; i++) {
+          String part = ECCheckpointUtil.getPartPath(ecTmpPath, i);
+          out = create(fileStatus, part, ecPolicyName, blockSize);
+          if (i == 0) {
+            restoreAttributesInParallel(executor, fileStatus, head);
+          }
+          copy(executor, buffers, in, out, Math.min(partSize, fileLength - i * partSize));
+          out.close();
+          out = null;
+          ECCheckpointUtil.commitPart(dfsClient, part, fingerprint);
+        }
+        if (attributesRestored != null) {
+          // The head is renamed below, so its attributes should be restored before
+          waitFor(attributesRestored);
+        }
+        dfsClient.rename(head, ecTmpPath, Options.Rename.OVERWRITE);
+        String[] tails = new String[numParts - 1];
+        for (int i = 1; i < numParts; i++) {
+          tails[i - 1] = ECCheckpointUtil.getPartPath(ecTmpPath, i);
+        }
+        dfsClient.concat(ecTmpPath, tails);
+        dfsClient.removeXAttr(ecTmpPath, ECCheckpointUtil.FINGERPRINT_XATTR_NAME);
       }
+      reportThroughput(fileLength - offset, System.currentTimeMillis() - startTime);
     } catch (Exception ex) {
+      if (attributesRestored != null) {
+        attributesRestored.cancel(true);
+        attributesRestored = null;
+      }
       throw new ActionException(ex);
     } finally {
+      if (executor != null) {
+        // The attribute restoration is waited for in setAttributes
+        executor.shutdown();
+      }
+      if (buffers != null) {
+        // Only the idle buffers are released, one still taken by a failed
+        // reader is dropped from the pool when the action finishes
+        Chunk chunk;
+        while ((chunk = buffers.poll()) != null) {
+          chunk.lease.close();
+        }
+      }
       try {
         if (in != null) {
           in.close();
@@ -98,13 +201,185 @@ protected void convert(SmartConf conf, String ecPolicyName) throws ActionExcepti
     }
   }
 
+  /**
+   * Get the size of the parts of the temp file, which are aligned with the
+   * blocks (block groups for an EC policy) of the target file.
+   *
+   * @return the size, or 0 if checkpointing is disabled
+   */
+  private long getPartSize(String ecPolicyName, long blockSize) throws IOException {
+    if (checkpointBlocks <= 0) {
+      return 0L;
+    }
+    long blockGroupSize = blockSize;
+    if (!ecPolicyName.equals(REPLICATION_POLICY_NAME)) {
+      for (ErasureCodingPolicyInfo info : dfsClient.getErasureCodingPolicies()) {
+        if (info.getPolicy().getName().equals(ecPolicyName)) {
+          blockGroupSize = blockSize * info.getPolicy().getNumDataUnits();
+        }
+      }
+    }
+    return blockGroupSize * checkpointBlocks;
+  }
+
+  private DFSOutputStream create(HdfsFileStatus fileStatus, String path,
+      String ecPolicyName, long blockSize) throws IOException {
+    short replication = (short) getContext().getConf().getInt(
+        DFSConfigKeys.DFS_REPLICATION_KEY, DFSConfigKeys.DFS_REPLICATION_DEFAULT);
+    // use the same FsPermission as srcPath
+    FsPermission permission = fileStatus.getPermission();
+    DFSOutputStream out = dfsClient.create(path, permission, EnumSet.of(CreateFlag.CREATE),
+        true, replication, blockSize, null, bufferSize, null, null, ecPolicyName);
+    // Keep storage policy according with original file except UNDEF storage policy
+    String storagePolicyName = dfsClient.getStoragePolicy(srcPath).getName();
+    if (!storagePolicyName.equals("UNDEF")) {
+      dfsClient.setStoragePolicy(path, storagePolicyName);
+    }
+    return out;
+  }
+
+  private void restoreAttributesInParallel(ExecutorService executor,
+      final HdfsFileStatus fileStatus, final String dest) {
+    if (executor == null) {
+      return;
+    }
+    attributesRestored = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        restoreAttributes(srcPath, fileStatus, dest);
+        return null;
+      }
+    });
+  }
+
+  private void copy(ExecutorService executor, BlockingQueue<Chunk> buffers,
+      InputStream in, OutputStream out, long length) throws Exception {
+    if (executor != null) {
+      pipelinedCopy(executor, buffers, in, out, length);
+    } else {
+      copy(in, out, length);
+    }
+  }
+
+  private void copy(InputStream in, OutputStream out, long length) throws IOException {
+    long bytesRemaining = length;
+    try (BufferPool.Lease buffer = leaseBuffer(bufferSize)) {
+      byte[] buf = buffer.array();
+      while (bytesRemaining > 0L) {
+        int bytesToRead =
+            (int) (bytesRemaining < (long) bufferSize ? bytesRemaining :
+                (long) bufferSize);
+        int bytesRead = in.read(buf, 0, bytesToRead);
+        if (bytesRead == -1) {
+          break;
+        }
+        out.write(buf, 0, bytesRead);
+        bytesRemaining -= (long) bytesRead;
+        updateProgress(bytesRead);
+      }
+    }
+  }
+
+  /**
+   * Copy with a reader thread filling a fixed pool of buffers ahead of the
+   * writer, so that reading the source overlaps with the encoding and
+   * writing done by the output stream.
+   */
+  private void pipelinedCopy(ExecutorService executor, final BlockingQueue<Chunk> free,
+      final InputStream in, OutputStream out, final long length) throws Exception {
+    final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(numBuffers);
+    final long offset = bytesConverted;
+    Future<Void> reader = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        long bytesRemaining = length;
+        while (bytesRemaining > 0L) {
+          Chunk chunk = free.take();
+          int toRead = (int) Math.min(bytesRemaining, bufferSize);
+          chunk.length = 0;
+          while (chunk.length < toRead) {
+            int n = in.read(chunk.buf, chunk.length, toRead - chunk.length);
+            if (n == -1) {
+              throw new EOFException("Unexpected EOF of " + srcPath + " at "
+                  + (offset + length - bytesRemaining + chunk.length));
+            }
+            chunk.length += n;
+          }
+          filled.put(chunk);
+          bytesRemaining -= toRead;
+        }
+        return null;
+      }
+    });
+    try {
+      long bytesWritten = 0L;
+      while (bytesWritten < length) {
+        Chunk chunk = filled.poll(100, TimeUnit.MILLISECONDS);
+        if (chunk == null) {
+          if (reader.isDone()) {
+            // Throw the failure of the reader, if any
+            waitFor(reader);
+          }
+          continue;
+        }
+        out.write(chunk.buf, 0, chunk.length);
+        bytesWritten += chunk.length;
+        free.put(chunk);
+        updateProgress(chunk.length);
+      }
+      waitFor(reader);
+    } finally {
+      reader.cancel(true);
+    }
+  }
+
+  private void updateProgress(long bytes) {
+    bytesConverted += bytes;
+    this.progress = (float) bytesConverted / fileLength;
+  }
+
+  private static void waitFor(Future<Void> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  private void reportThroughput(long length, long elapsedMs) {
+    double mbPerSec = length / 1048576.0 / Math.max(elapsedMs, 1) * 1000;
+    String result = String.format("Converted %d bytes in %d ms, throughput %.2f MB/s (%s)",
+        length, elapsedMs, mbPerSec, pipelined ? "pipelined" : "sequential");
+    appendLog(result);
+    appendResult(result);
+  }
+
   // set attributes for dest to keep them consistent with their counterpart of src
   protected void setAttributes(String src, HdfsFileStatus fileStatus, String dest)
       throws IOException {
+    if (attributesRestored != null) {
+      try {
+        waitFor(attributesRestored);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      } finally {
+        attributesRestored = null;
+      }
+    } else {
+      restoreAttributes(src, fileStatus, dest);
+    }
+    // Closing dest changes its modification time, so times are set at last
+    dfsClient.setTimes(dest, fileStatus.getModificationTime(), fileStatus.getAccessTime());
+  }
+
+  private void restoreAttributes(String src, HdfsFileStatus fileStatus, String dest)
+      throws IOException {
     dfsClient.setOwner(dest, fileStatus.getOwner(), fileStatus.getGroup());
     dfsClient.setPermission(dest, fileStatus.getPermission());
     dfsClient.setStoragePolicy(dest, dfsClient.getStoragePolicy(src).getName());
-    dfsClient.setTimes(dest, fileStatus.getModificationTime(), fileStatus.getAccessTime());
     boolean aclsEnabled = getContext().getConf().getBoolean(
         DFSConfigKeys.DFS_NAMENODE_ACLS_ENABLED_KEY,
         DFSConfigKeys.DFS_NAMENODE_ACLS_ENABLED_DEFAULT);
@@ -117,4 +392,15 @@ protected void setAttributes(String src, HdfsFileStatus fileStatus, String dest)
           EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
     }
   }
-}
\ No newline at end of file
+
+  private static class Chunk {
+    private final BufferPool.Lease lease;
+    private final byte[] buf;
+    private int length;
+
+    Chunk(BufferPool.Lease lease) {
+      this.lease = lease;
+      this.buf = lease.array();
+    }
+  }
+}
@@ -17,14 +17,27 @@
  */
 package org.smartdata.hdfs.action;
 
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import static org.junit.Assert.*;
 
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSOutputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.junit.Test;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.ECCheckpointUtil;
+import org.smartdata.hdfs.ECCheckpointUtil.Fingerprint;
+import org.smartdata.model.ECCheckpoint;
 
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 public class TestErasureCodingAction extends TestErasureCodingMiniCluster {
 
@@ -86,4 +99,142 @@ public void testEcActionForDir() throws Exception {
     // The newly created file should has the same EC policy as parent directory.
     assertEquals(dfsClient.getErasureCodingPolicy(srcFilePath), ecPolicy);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testPipelinedConversion() throws Exception {
+    String srcPath = "/ec/pipelined_file";
+    byte[] data = new byte[5 * 1024 * 1024 + 123];
+    new Random(data.length).nextBytes(data);
+    FSDataOutputStream out = dfs.create(new Path(srcPath));
+    out.write(data);
+    out.close();
+    dfsClient.setXAttr(srcPath, "user.test", "value".getBytes(),
+        EnumSet.of(XAttrSetFlag.CREATE));
+    HdfsFileStatus srcFileStatus = dfsClient.getFileInfo(srcPath);
+
+    ErasureCodingAction ecAction = new ErasureCodingAction();
+    ecAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, srcPath);
+    args.put(ErasureCodingBase.EC_TMP, "/ssm/ec_tmp/pipelined_file");
+    args.put(ErasureCodingAction.EC_POLICY_NAME, ecPolicy.getName());
+    // Smaller than the file to go through the buffer pool many times
+    args.put(ErasureCodingBase.BUF_SIZE, "256KB");
+    ecAction.init(args);
+    ecAction.run();
+    assertTrue(ecAction.getExpectedAfterRun());
+    assertTrue(ecAction.getActionStatus().getResult().contains("(pipelined)"));
+    assertTrue(ecAction.getActionStatus().getResult().contains("MB/s"));
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(srcPath);
+    assertEquals(ecPolicy, fileStatus.getErasureCodingPolicy());
+    assertEquals(srcFileStatus.getModificationTime(), fileStatus.getModificationTime());
+    assertArrayEquals("value".getBytes(), dfsClient.getXAttr(srcPath, "user.test"));
+    assertArrayEquals(data, readFile(srcPath, data.length));
+
+    // Convert back with one thread
+    smartContext.getConf().setBoolean(SmartConfKeys.SMART_ACTION_EC_PIPELINED_KEY, false);
+    UnErasureCodingAction unecAction = new UnErasureCodingAction();
+    unecAction.setContext(smartContext);
+    args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, srcPath);
+    args.put(ErasureCodingBase.EC_TMP, "/ssm/ec_tmp/unec_file");
+    unecAction.init(args);
+    unecAction.run();
+    assertTrue(unecAction.getExpectedAfterRun());
+    assertTrue(unecAction.getActionStatus().getResult().contains("(sequential)"));
+    assertNull(dfsClient.getFileInfo(srcPath).getErasureCodingPolicy());
+    assertArrayEquals("value".getBytes(), dfsClient.getXAttr(srcPath, "user.test"));
+    assertArrayEquals(data, readFile(srcPath, data.length));
+  }
+
+  @Test
+  public void testResumeConversion() throws Exception {
+    long blockSize = 1024 * 1024;
+    smartContext.getConf().setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    String srcPath = "/ec/resumed_file";
+    byte[] data = new byte[5 * 1024 * 1024 + 123];
+    new Random(data.length).nextBytes(data);
+    FSDataOutputStream out = dfs.create(new Path(srcPath));
+    out.write(data);
+    out.close();
+    HdfsFileStatus srcFileStatus = dfsClient.getFileInfo(srcPath);
+
+    // Leave a committed part and an uncommitted one as a failed attempt does
+    String ecTmpPath = "/ssm/ec_tmp/resumed_file";
+    long partSize = blockSize * ecPolicy.getNumDataUnits();
+    writePart(ECCheckpointUtil.getPartPath(ecTmpPath, 0), data, 0, partSize,
+        ecPolicy.getName(), blockSize);
+    ECCheckpointUtil.commitPart(dfsClient, ECCheckpointUtil.getPartPath(ecTmpPath, 0),
+        new Fingerprint(srcFileStatus.getFileId(), data.length,
+            srcFileStatus.getModificationTime(), ecPolicy.getName(), partSize));
+    writePart(ECCheckpointUtil.getPartPath(ecTmpPath, 1), data, partSize, 1000,
+        ecPolicy.getName(), blockSize);
+    ECCheckpoint checkpoint = ECCheckpointUtil.getCheckpoint(dfsClient, srcPath, ecTmpPath);
+    assertEquals(partSize, checkpoint.getCommitted());
+    assertEquals(data.length, checkpoint.getSrcLength());
+    assertEquals(srcFileStatus.getModificationTime(), checkpoint.getSrcMtime());
+
+    ErasureCodingAction ecAction = new ErasureCodingAction();
+    ecAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, srcPath);
+    args.put(ErasureCodingBase.EC_TMP, ecTmpPath);
+    args.put(ErasureCodingAction.EC_POLICY_NAME, ecPolicy.getName());
+    ecAction.init(args);
+    ecAction.run();
+    assertTrue(ecAction.getExpectedAfterRun());
+    assertTrue(ecAction.getActionStatus().getLog().contains("at offset " + partSize));
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(srcPath);
+    assertEquals(ecPolicy, fileStatus.getErasureCodingPolicy());
+    assertEquals(srcFileStatus.getModificationTime(), fileStatus.getModificationTime());
+    assertFalse(dfsClient.getXAttrs(srcPath).containsKey(
+        ECCheckpointUtil.FINGERPRINT_XATTR_NAME));
+    assertNull(dfsClient.getFileInfo(ECCheckpointUtil.getPartPath(ecTmpPath, 0)));
+    assertNull(dfsClient.getFileInfo(ECCheckpointUtil.getPartPath(ecTmpPath, 1)));
+    assertArrayEquals(data, readFile(srcPath, data.length));
+
+    // A part committed for another version of the file is not reused
+    String unecTmpPath = "/ssm/ec_tmp/unec_resumed_file";
+    writePart(ECCheckpointUtil.getPartPath(unecTmpPath, 0), data, 0, blockSize,
+        ErasureCodingBase.REPLICATION_POLICY_NAME, blockSize);
+    ECCheckpointUtil.commitPart(dfsClient, ECCheckpointUtil.getPartPath(unecTmpPath, 0),
+        new Fingerprint(fileStatus.getFileId(), data.length - 1,
+            fileStatus.getModificationTime(), ErasureCodingBase.REPLICATION_POLICY_NAME,
+            blockSize));
+    UnErasureCodingAction unecAction = new UnErasureCodingAction();
+    unecAction.setContext(smartContext);
+    args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, srcPath);
+    args.put(ErasureCodingBase.EC_TMP, unecTmpPath);
+    unecAction.init(args);
+    unecAction.run();
+    assertTrue(unecAction.getExpectedAfterRun());
+    assertFalse(unecAction.getActionStatus().getLog().contains("Resuming"));
+    assertNull(dfsClient.getFileInfo(srcPath).getErasureCodingPolicy());
+    assertArrayEquals(data, readFile(srcPath, data.length));
+  }
+
+  private void writePart(String path, byte[] data, long offset, long length,
+      String ecPolicyName, long blockSize) throws Exception {
+    DFSOutputStream out = dfsClient.create(path, FsPermission.getFileDefault(),
+        EnumSet.of(CreateFlag.CREATE), true, (short) 3, blockSize, null, 4096,
+        null, null, ecPolicyName);
+    try {
+      out.write(data, (int) offset, (int) length);
+    } finally {
+      out.close();
+    }
+  }
+
+  private byte[] readFile(String path, int length) throws Exception {
+    byte[] read = new byte[length];
+    FSDataInputStream in = dfs.open(new Path(path));
+    try {
+      in.readFully(0, read);
+      assertEquals(-1, in.read(length, new byte[1], 0, 1));
+    } finally {
+      in.close();
+    }
+    return read;
+  }
+}
@@ -22,8 +22,10 @@
 import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.SystemErasureCodingPolicies;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.smartdata.SmartContext;
+import org.smartdata.action.BufferPool;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.MiniClusterFactory;
@@ -38,10 +40,18 @@ public class TestErasureCodingMiniCluster {
   protected DistributedFileSystem dfs;
   protected DFSClient dfsClient;
   protected SmartContext smartContext;
+  protected BufferPool bufferPool;
 
   @Before
   public void init() throws Exception {
     SmartConf conf = new SmartConf();
+    // Check that actions close the buffers they lease, see shutdown()
+    bufferPool = new BufferPool(
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_DEFAULT,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_DEFAULT);
+    bufferPool.setTrackLeaks(true);
+    BufferPool.set(bufferPool);
     conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
     conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY,
         DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
@@ -68,8 +78,18 @@ public void createTestFile(String srcPath, long length) throws IOException {
 
   @After
   public void shutdown() throws IOException {
-    if (cluster != null) {
-      cluster.shutdown();
+    try {
+      if (bufferPool != null) {
+        BufferPool.set(null);
+        bufferPool.checkNoLeaks();
+        // Leases left open are dropped once their action finishes
+        Assert.assertEquals("Buffers leaked by actions",
+            0, bufferPool.getNumLeaked());
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
     }
   }
 }
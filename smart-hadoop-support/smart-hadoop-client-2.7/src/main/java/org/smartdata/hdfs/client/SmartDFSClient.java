@@ -42,7 +42,9 @@
 import org.smartdata.SmartConstants;
 import org.smartdata.client.SmartClient;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
+import org.smartdata.hdfs.ContainerHandleCache;
 import org.smartdata.metrics.FileAccessEvent;
+import org.smartdata.model.BlockECFileState;
 import org.smartdata.model.CompactFileState;
 import org.smartdata.model.CompressionFileState;
 import org.smartdata.model.FileState;
@@ -257,6 +259,10 @@ public DFSInputStream open(String src, int buffersize,
   public HdfsDataOutputStream append(final String src, final int buffersize,
       EnumSet<CreateFlag> flag, final Progressable progress,
       final FileSystem.Statistics statistics) throws IOException {
+    // Parity would no longer match, so the file is not touched at all
+    if (getFileState(src) instanceof BlockECFileState) {
+      throw new IOException(getExceptionMsg("Append", "Block Erasure Coded File"));
+    }
     HdfsDataOutputStream out = super.append(src, buffersize, flag, progress, statistics);
     if (out.getPos() == 0) {
       FileState fileState = getFileState(src);
@@ -279,6 +285,8 @@ public boolean truncate(String src, long newLength) throws IOException {
     FileState fileState = getFileState(src);
     if (fileState instanceof CompressionFileState) {
       throw new IOException(getExceptionMsg("Append", "Compressed File"));
+    } else if (fileState instanceof BlockECFileState) {
+      throw new IOException(getExceptionMsg("Truncate", "Block Erasure Coded File"));
     }
     return super.truncate(src, newLength);
   }
@@ -288,6 +296,10 @@ public HdfsDataOutputStream append(final String src, final int buffersize,
       EnumSet<CreateFlag> flag, final Progressable progress,
       final FileSystem.Statistics statistics,
       final InetSocketAddress[] favoredNodes) throws IOException {
+    // Parity would no longer match, so the file is not touched at all
+    if (getFileState(src) instanceof BlockECFileState) {
+      throw new IOException(getExceptionMsg("Append", "Block Erasure Coded File"));
+    }
     HdfsDataOutputStream out = super.append(
         src, buffersize, flag, progress, statistics, favoredNodes);
     if (out.getPos() == 0) {
@@ -632,6 +644,8 @@ public boolean isFileClosed(String src) throws IOException {
   @Override
   public synchronized void close() throws IOException {
     try {
+      // Shared container streams opened by this client
+      ContainerHandleCache.closeClient(this);
       super.close();
     } finally {
       try {
@@ -0,0 +1,520 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.smartdata.conf.SmartConfKeys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-JVM cache of open container files shared by the streams of their
+ * compacted small files. Clients configured alike share one cache.
+ *
+ * <p>A {@link Handle} owns one DFSInputStream over a container, so the
+ * block reader stays open while sibling small files are read back-to-back.
+ * On Hadoop 3.x the streams of small files are built from the located
+ * blocks of the handle; on Hadoop 2.x each of them still fetches the located
+ * blocks once when opened. Optionally, recently read ranges of containers
+ * are kept in a bounded {@link RangeCache}.
+ *
+ * <p>With {@link SmartConfKeys#SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY}
+ * set, the {@link ContainerIndex} footer of a container is loaded once per
+ * handle and used to check the location of small files read from it.
+ *
+ * <p>Handles unused for the configured idle time are closed, and the
+ * handles of a client are closed when the client is.
+ */
+public class ContainerHandleCache {
+  // Caches by their settings
+  private static final Map<String, ContainerHandleCache> instances = new HashMap<>();
+  private static ContainerHandleCache instance;
+
+  private final int maxHandles;
+  private final RangeCache rangeCache;
+  private final boolean verifyIndex;
+  private final long idleMs;
+  // Closes idle handles, started with the first shared handle
+  private ScheduledExecutorService expiryService;
+  // Handles by client and container path, in access order
+  private final LinkedHashMap<String, Handle> handles =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long handleHits = 0;
+  private long handleMisses = 0;
+  private long rangeHits = 0;
+  private long rangeMisses = 0;
+  private long bytesSaved = 0;
+
+  /**
+   * Opens the physical stream over a container file.
+   */
+  public interface Opener {
+    DFSInputStream open() throws IOException;
+  }
+
+  public ContainerHandleCache(int maxHandles, int rangeSize, long capacityBytes) {
+    this(maxHandles, rangeSize, capacityBytes, false);
+  }
+
+  public ContainerHandleCache(int maxHandles, int rangeSize, long capacityBytes,
+      boolean verifyIndex) {
+    this(maxHandles, rangeSize, capacityBytes, verifyIndex, 0);
+  }
+
+  /**
+   * @param idleMs time after which unused handles are closed, 0 to keep
+   *               them until evicted
+   */
+  public ContainerHandleCache(int maxHandles, int rangeSize, long capacityBytes,
+      boolean verifyIndex, long idleMs) {
+    this.maxHandles = maxHandles;
+    this.rangeCache = capacityBytes >= rangeSize && rangeSize > 0
+        ? new RangeCache(rangeSize, capacityBytes) : null;
+    this.verifyIndex = verifyIndex;
+    this.idleMs = idleMs;
+  }
+
+  public static synchronized ContainerHandleCache get(Configuration conf) {
+    if (instance != null) {
+      return instance;
+    }
+    int maxHandles = conf.getInt(SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_HANDLES_KEY,
+        SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_HANDLES_DEFAULT);
+    int rangeSize = conf.getInt(SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_RANGE_SIZE_KEY,
+        SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_RANGE_SIZE_DEFAULT);
+    long capacity = conf.getLong(SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_CAPACITY_KEY,
+        SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_CAPACITY_DEFAULT);
+    boolean verifyIndex = conf.getBoolean(
+        SmartConfKeys.SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY,
+        SmartConfKeys.SMART_COMPACT_CONTAINER_INDEX_ENABLED_DEFAULT);
+    long idleMs = conf.getLong(SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_IDLE_MS_KEY,
+        SmartConfKeys.SMART_CLIENT_CONTAINER_CACHE_IDLE_MS_DEFAULT);
+    String key = maxHandles + "/" + rangeSize + "/" + capacity + "/"
+        + verifyIndex + "/" + idleMs;
+    ContainerHandleCache cache = instances.get(key);
+    if (cache == null) {
+      cache = new ContainerHandleCache(
+          maxHandles, rangeSize, capacity, verifyIndex, idleMs);
+      instances.put(key, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Use the given cache for all clients, or the configured ones if null.
+   */
+  @VisibleForTesting
+  public static synchronized void set(ContainerHandleCache cache) {
+    instance = cache;
+  }
+
+  /**
+   * Close the handles opened by the client. Handles still in use are
+   * closed once released.
+   */
+  public static void closeClient(DFSClient dfsClient) {
+    List<ContainerHandleCache> caches;
+    synchronized (ContainerHandleCache.class) {
+      caches = new ArrayList<>(instances.values());
+      if (instance != null) {
+        caches.add(instance);
+      }
+    }
+    String prefix = dfsClient.getClientName() + ":";
+    for (ContainerHandleCache cache : caches) {
+      cache.retireAll(prefix);
+    }
+  }
+
+  private synchronized void retireAll(String keyPrefix) {
+    Iterator<Handle> it = handles.values().iterator();
+    while (it.hasNext()) {
+      Handle handle = it.next();
+      if (handle.key.startsWith(keyPrefix)) {
+        it.remove();
+        retire(handle);
+      }
+    }
+  }
+
+  /**
+   * Close the handles which have not been used for the idle time.
+   */
+  @VisibleForTesting
+  synchronized void expireIdle(long now) {
+    Iterator<Handle> it = handles.values().iterator();
+    while (it.hasNext()) {
+      Handle handle = it.next();
+      if (handle.refs == 0 && now - handle.lastUsed >= idleMs) {
+        it.remove();
+        retire(handle);
+      }
+    }
+  }
+
+  // Should be called with the lock held
+  private void startExpiry() {
+    if (idleMs <= 0 || expiryService != null) {
+      return;
+    }
+    expiryService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ContainerHandleCache-expiry");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    expiryService.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        expireIdle(System.currentTimeMillis());
+      }
+    }, idleMs, idleMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get a handle of the container which covers at least minLength bytes.
+   * Each acquired handle must be released once.
+   */
+  public Handle acquire(DFSClient dfsClient, String containerFile,
+      long minLength, Opener opener) throws IOException {
+    String key = dfsClient.getClientName() + ":" + containerFile;
+    synchronized (this) {
+      Handle handle = handles.get(key);
+      if (handle != null && !handle.stale && handle.length >= minLength) {
+        handleHits++;
+        handle.refs++;
+        handle.lastUsed = System.currentTimeMillis();
+        return handle;
+      }
+      handleMisses++;
+    }
+    // Open outside the lock, a concurrent miss may open the container too
+    DFSInputStream in = opener.open();
+    Handle handle = new Handle(key, containerFile, in);
+    synchronized (this) {
+      handle.refs++;
+      if (maxHandles <= 0) {
+        // Not shared, closed on release
+        handle.stale = true;
+        return handle;
+      }
+      Handle old = handles.put(key, handle);
+      if (old != null) {
+        retire(old);
+      }
+      startExpiry();
+      Iterator<Handle> it = handles.values().iterator();
+      while (handles.size() > maxHandles && it.hasNext()) {
+        Handle eldest = it.next();
+        if (eldest.refs == 0) {
+          it.remove();
+          retire(eldest);
+        }
+      }
+    }
+    return handle;
+  }
+
+  public void release(Handle handle) {
+    boolean close;
+    synchronized (this) {
+      handle.refs--;
+      handle.lastUsed = System.currentTimeMillis();
+      close = handle.refs == 0 && handle.stale;
+    }
+    if (close) {
+      IOUtils.closeStream(handle.in);
+    }
+  }
+
+  // Should be called with the lock held
+  private void retire(Handle handle) {
+    handle.stale = true;
+    if (handle.refs == 0) {
+      IOUtils.closeStream(handle.in);
+    }
+  }
+
+  private synchronized void invalidate(Handle handle) {
+    if (handles.get(handle.key) == handle) {
+      handles.remove(handle.key);
+    }
+    handle.stale = true;
+    if (rangeCache != null) {
+      rangeCache.invalidate(handle.containerFile);
+    }
+  }
+
+  private synchronized void recordRange(boolean hit, int bytes) {
+    if (hit) {
+      rangeHits++;
+      bytesSaved += bytes;
+    } else {
+      rangeMisses++;
+    }
+  }
+
+  public synchronized int size() {
+    return handles.size();
+  }
+
+  public synchronized long getHandleHits() {
+    return handleHits;
+  }
+
+  public synchronized long getHandleMisses() {
+    return handleMisses;
+  }
+
+  public synchronized long getRangeHits() {
+    return rangeHits;
+  }
+
+  public synchronized long getRangeMisses() {
+    return rangeMisses;
+  }
+
+  public synchronized double getRangeHitRate() {
+    long total = rangeHits + rangeMisses;
+    return total == 0 ? 0 : (double) rangeHits / total;
+  }
+
+  /**
+   * @return bytes served from cached ranges instead of datanodes
+   */
+  public synchronized long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  /**
+   * An open container file shared by the streams of its small files.
+   */
+  public class Handle {
+    private final String key;
+    private final String containerFile;
+    private final DFSInputStream in;
+    private final long length;
+    // Guarded by the cache lock
+    private int refs = 0;
+    private boolean stale = false;
+    private long lastUsed = System.currentTimeMillis();
+    // Loaded on first use, null if the container has no footer
+    private ContainerIndex index;
+    private boolean indexLoaded = false;
+
+    private Handle(String key, String containerFile, DFSInputStream in) {
+      this.key = key;
+      this.containerFile = containerFile;
+      this.in = in;
+      this.length = in.getFileLength();
+    }
+
+    public DFSInputStream getStream() {
+      return in;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * Check the location of a small file against the container index, if
+     * enabled and present.
+     *
+     * @return the index entry of the small file, or null if not indexed
+     * @throws IOException if the index places the small file elsewhere
+     */
+    public ContainerIndex.Entry checkIndex(String path, long offset, long len)
+        throws IOException {
+      if (!verifyIndex) {
+        return null;
+      }
+      ContainerIndex.Entry entry;
+      synchronized (this) {
+        if (!indexLoaded) {
+          index = ContainerIndex.read(in);
+          indexLoaded = true;
+        }
+        entry = index == null ? null : index.get(path);
+      }
+      if (entry != null
+          && (entry.getOffset() != offset || entry.getLength() != len)) {
+        throw new IOException(String.format("Stale location of %s in %s: "
+            + "offset %d, length %d, but the container index has offset %d, "
+            + "length %d", path, containerFile, offset, len,
+            entry.getOffset(), entry.getLength()));
+      }
+      return entry;
+    }
+
+    /**
+     * Read from the container at the given physical position, sequential
+     * reads of sibling small files reuse the open block reader.
+     */
+    public int read(long position, byte[] buf, int off, int len)
+        throws IOException {
+      return read(position, buf, off, len, false);
+    }
+
+    /**
+     * Positional read which does not go through the shared block reader,
+     * like DFSInputStream it reads as much as possible up to len.
+     */
+    public int pread(long position, byte[] buf, int off, int len)
+        throws IOException {
+      int total = 0;
+      while (total < len) {
+        int n = read(position + total, buf, off + total, len - total, true);
+        if (n <= 0) {
+          break;
+        }
+        total += n;
+      }
+      return total == 0 && len > 0 ? -1 : total;
+    }
+
+    private int read(long position, byte[] buf, int off, int len,
+        boolean positional) throws IOException {
+      if (position >= length) {
+        return -1;
+      }
+      len = (int) Math.min(len, length - position);
+      if (len == 0) {
+        return 0;
+      }
+      try {
+        if (rangeCache == null) {
+          return positional
+              ? in.read(position, buf, off, len) : readStream(position, buf, off, len);
+        }
+        int rangeSize = rangeCache.getRangeSize();
+        long index = position / rangeSize;
+        int rangeOffset = (int) (position % rangeSize);
+        len = Math.min(len, rangeSize - rangeOffset);
+        RangeCache.RangeKey rangeKey =
+            new RangeCache.RangeKey(containerFile, length, index);
+        int n = rangeCache.read(rangeKey, rangeOffset, buf, off, len);
+        if (n > 0) {
+          recordRange(true, n);
+          return n;
+        }
+        recordRange(false, 0);
+        long start = index * rangeSize;
+        byte[] range = new byte[(int) Math.min(rangeSize, length - start)];
+        if (positional) {
+          in.readFully(start, range);
+        } else {
+          synchronized (this) {
+            in.seek(start);
+            IOUtils.readFully(in, range, 0, range.length);
+          }
+        }
+        rangeCache.put(rangeKey, range, 0, range.length);
+        System.arraycopy(range, rangeOffset, buf, off, len);
+        return len;
+      } catch (IOException e) {
+        // The container may have been removed or rewritten, reopen it next time
+        invalidate(this);
+        throw e;
+      }
+    }
+
+    /**
+     * Read from the container at the given physical position into buf,
+     * sequential reads of sibling small files reuse the open block reader.
+     */
+    public int read(long position, ByteBuffer buf, int len) throws IOException {
+      if (position >= length) {
+        return -1;
+      }
+      len = (int) Math.min(len, length - position);
+      if (len == 0) {
+        return 0;
+      }
+      try {
+        if (rangeCache == null) {
+          return readStream(position, buf, len);
+        }
+        int rangeSize = rangeCache.getRangeSize();
+        long index = position / rangeSize;
+        int rangeOffset = (int) (position % rangeSize);
+        len = Math.min(len, rangeSize - rangeOffset);
+        RangeCache.RangeKey rangeKey =
+            new RangeCache.RangeKey(containerFile, length, index);
+        int n = rangeCache.read(rangeKey, rangeOffset, buf, len);
+        if (n > 0) {
+          recordRange(true, n);
+          return n;
+        }
+        recordRange(false, 0);
+        long start = index * rangeSize;
+        byte[] range = new byte[(int) Math.min(rangeSize, length - start)];
+        synchronized (this) {
+          in.seek(start);
+          IOUtils.readFully(in, range, 0, range.length);
+        }
+        rangeCache.put(rangeKey, range, 0, range.length);
+        buf.put(range, rangeOffset, len);
+        return len;
+      } catch (IOException e) {
+        // The container may have been removed or rewritten, reopen it next time
+        invalidate(this);
+        throw e;
+      }
+    }
+
+    private synchronized int readStream(long position, ByteBuffer buf, int len)
+        throws IOException {
+      if (in.getPos() != position) {
+        in.seek(position);
+      }
+      int limit = buf.limit();
+      buf.limit(buf.position() + len);
+      try {
+        return in.read(buf);
+      } finally {
+        buf.limit(limit);
+      }
+    }
+
+    private synchronized int readStream(long position, byte[] buf, int off,
+        int len) throws IOException {
+      if (in.getPos() != position) {
+        in.seek(position);
+      }
+      return in.read(buf, off, len);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index footer of a container file, mapping each small file to its
+ * offset, length and CRC32 checksum inside the container.
+ *
+ * <p>Layout, appended after the small file data:
+ * <pre>
+ *   int    entry count
+ *   entry* (UTF path, long offset, long length, long checksum), sorted by path
+ *   long   offset of the footer
+ *   long   {@link #MAGIC}
+ * </pre>
+ * When more small files are appended to a container later, a new footer
+ * containing all the previous entries is written after them, and the
+ * previous footer is left in place as unreferenced bytes.
+ */
+public class ContainerIndex {
+  public static final long MAGIC = 0x53534d434f4e5431L; // "SSMCONT1"
+  private static final int TRAILER_LENGTH = 16;
+
+  private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+  public void add(String path, long offset, long length, long checksum) {
+    entries.put(path, new Entry(offset, length, checksum));
+  }
+
+  /**
+   * @return the entry of the small file, or null if it is not in this container
+   */
+  public Entry get(String path) {
+    return entries.get(path);
+  }
+
+  public Map<String, Entry> getEntries() {
+    return Collections.unmodifiableMap(entries);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Rebuild the compact file states of all the small files in the container.
+   */
+  public List<CompactFileState> toCompactFileStates(String containerFile) {
+    List<CompactFileState> states = new ArrayList<>(entries.size());
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      states.add(new CompactFileState(entry.getKey(), new FileContainerInfo(
+          containerFile, entry.getValue().offset, entry.getValue().length)));
+    }
+    return states;
+  }
+
+  /**
+   * Write the footer to the container stream.
+   *
+   * @param out the container output stream
+   * @param footerOffset the current length of the container
+   * @return number of bytes written
+   */
+  public int writeTo(OutputStream out, long footerOffset) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(bytes);
+    data.writeInt(entries.size());
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      data.writeUTF(entry.getKey());
+      data.writeLong(entry.getValue().offset);
+      data.writeLong(entry.getValue().length);
+      data.writeLong(entry.getValue().checksum);
+    }
+    data.writeLong(footerOffset);
+    data.writeLong(MAGIC);
+    data.flush();
+    bytes.writeTo(out);
+    return bytes.size();
+  }
+
+  /**
+   * Read the footer of a container file.
+   *
+   * @return the index, or null if the container has no footer
+   */
+  public static ContainerIndex read(DFSClient dfsClient, String containerFile)
+      throws IOException {
+    try (DFSInputStream in = dfsClient.open(containerFile)) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Read the footer with positional reads from an open container stream.
+   *
+   * @return the index, or null if the container has no footer
+   */
+  public static ContainerIndex read(DFSInputStream in) throws IOException {
+    long fileLength = in.getFileLength();
+    if (fileLength < TRAILER_LENGTH) {
+      return null;
+    }
+    byte[] trailer = new byte[TRAILER_LENGTH];
+    in.readFully(fileLength - TRAILER_LENGTH, trailer);
+    DataInputStream trailerIn =
+        new DataInputStream(new ByteArrayInputStream(trailer));
+    long footerOffset = trailerIn.readLong();
+    if (trailerIn.readLong() != MAGIC || footerOffset < 0
+        || footerOffset > fileLength - TRAILER_LENGTH) {
+      return null;
+    }
+    byte[] footer = new byte[(int) (fileLength - TRAILER_LENGTH - footerOffset)];
+    in.readFully(footerOffset, footer);
+    DataInputStream footerIn =
+        new DataInputStream(new ByteArrayInputStream(footer));
+    ContainerIndex index = new ContainerIndex();
+    int count = footerIn.readInt();
+    for (int i = 0; i < count; i++) {
+      String path = footerIn.readUTF();
+      index.add(path, footerIn.readLong(), footerIn.readLong(),
+          footerIn.readLong());
+    }
+    return index;
+  }
+
+  /**
+   * Location and checksum of a small file inside the container.
+   */
+  public static class Entry {
+    private final long offset;
+    private final long length;
+    private final long checksum;
+
+    public Entry(long offset, long length, long checksum) {
+      this.offset = offset;
+      this.length = length;
+      this.checksum = checksum;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getChecksum() {
+      return checksum;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.smartdata.model.ECCheckpoint;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Checkpoints of ec and unec conversions. The temp file of a large conversion
+ * is written as consecutive parts of a fixed, block aligned size, named by
+ * {@link #getPartPath(String, int)}. A part is stamped with a fingerprint of
+ * the source once it is closed, so that a later attempt can keep the stamped
+ * parts and resume the conversion at the end of them.
+ */
+public class ECCheckpointUtil {
+  public static final String PART_SUFFIX = ".part";
+  public static final String FINGERPRINT_XATTR_NAME = "user.ssmECCheckpoint";
+
+  public static String getPartPath(String tmpPath, int index) {
+    return tmpPath + PART_SUFFIX + index;
+  }
+
+  /**
+   * Stamp a closed part as committed.
+   */
+  public static void commitPart(DFSClient dfsClient, String partPath,
+      Fingerprint fingerprint) throws IOException {
+    dfsClient.setXAttr(partPath, FINGERPRINT_XATTR_NAME,
+        fingerprint.toString().getBytes(StandardCharsets.UTF_8),
+        EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+  }
+
+  /**
+   * @return the fingerprint a part is stamped with, or null if the part
+   *     does not exist or is not committed
+   */
+  public static Fingerprint getFingerprint(DFSClient dfsClient, String partPath)
+      throws IOException {
+    Map<String, byte[]> xAttrs;
+    try {
+      xAttrs = dfsClient.getXAttrs(partPath);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    byte[] value = xAttrs == null ? null : xAttrs.get(FINGERPRINT_XATTR_NAME);
+    return value == null
+        ? null : Fingerprint.parse(new String(value, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return the number of leading parts of tmpPath committed for the given
+   *     source and target
+   */
+  public static int getCommittedParts(DFSClient dfsClient, String tmpPath,
+      Fingerprint expected, boolean checkMtime) throws IOException {
+    int parts = 0;
+    while (true) {
+      Fingerprint fingerprint = getFingerprint(dfsClient, getPartPath(tmpPath, parts));
+      if (fingerprint == null || !fingerprint.matches(expected, checkMtime)) {
+        return parts;
+      }
+      parts++;
+    }
+  }
+
+  /**
+   * Get the checkpoint left in HDFS by a failed conversion of srcPath.
+   *
+   * @return the checkpoint, or null if no part is committed
+   */
+  public static ECCheckpoint getCheckpoint(DFSClient dfsClient, String srcPath,
+      String tmpPath) throws IOException {
+    Fingerprint first = getFingerprint(dfsClient, getPartPath(tmpPath, 0));
+    if (first == null) {
+      return null;
+    }
+    int parts = getCommittedParts(dfsClient, tmpPath, first, true);
+    return new ECCheckpoint(srcPath, tmpPath, parts * first.getPartSize(),
+        first.getLength(), first.getMtime(), System.currentTimeMillis());
+  }
+
+  /**
+   * Delete the parts of tmpPath starting from the given index.
+   */
+  public static void deleteParts(DFSClient dfsClient, String tmpPath, int fromIndex)
+      throws IOException {
+    // Parts are created in order, so the first missing one ends the parts
+    int index = fromIndex;
+    while (dfsClient.delete(getPartPath(tmpPath, index), false)) {
+      index++;
+    }
+  }
+
+  /**
+   * Identifies the source and the target layout of the committed parts.
+   * Conversions of the same source to the same target in parts of the same
+   * size can share the parts.
+   */
+  public static class Fingerprint {
+    private final long fileId;
+    private final long length;
+    private final long mtime;
+    private final String ecPolicyName;
+    private final long partSize;
+
+    public Fingerprint(long fileId, long length, long mtime,
+        String ecPolicyName, long partSize) {
+      this.fileId = fileId;
+      this.length = length;
+      this.mtime = mtime;
+      this.ecPolicyName = ecPolicyName;
+      this.partSize = partSize;
+    }
+
+    public long getFileId() {
+      return fileId;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getMtime() {
+      return mtime;
+    }
+
+    public String getEcPolicyName() {
+      return ecPolicyName;
+    }
+
+    public long getPartSize() {
+      return partSize;
+    }
+
+    /**
+     * @param checkMtime false if the modification time of the source may be
+     *     changed by the conversion itself, e.g., by the lease it takes
+     */
+    public boolean matches(Fingerprint other, boolean checkMtime) {
+      return fileId == other.fileId
+          && length == other.length
+          && (!checkMtime || mtime == other.mtime)
+          && partSize == other.partSize
+          && ecPolicyName.equals(other.ecPolicyName);
+    }
+
+    public static Fingerprint parse(String value) throws IOException {
+      String[] fields = value.split(":", 5);
+      if (fields.length != 5) {
+        throw new IOException("Invalid checkpoint fingerprint: " + value);
+      }
+      try {
+        return new Fingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+            Long.parseLong(fields[2]), fields[4], Long.parseLong(fields[3]));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid checkpoint fingerprint: " + value, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      // The policy name goes last as it is the only field not a number
+      return fileId + ":" + length + ":" + mtime + ":" + partSize + ":" + ecPolicyName;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of fixed-size file ranges kept in off-heap buffers.
+ * A single cache can be shared by all readers in a process, so hot ranges
+ * of a remote file survive across opens. Evicted buffers are recycled.
+ */
+public class RangeCache {
+  private final int rangeSize;
+  private final int maxRanges;
+  private final LinkedHashMap<RangeKey, ByteBuffer> ranges;
+  private final Deque<ByteBuffer> spares = new ArrayDeque<>();
+  private long hits = 0;
+  private long misses = 0;
+
+  public RangeCache(int rangeSize, long capacityBytes) {
+    if (rangeSize <= 0) {
+      throw new IllegalArgumentException("Invalid range size: " + rangeSize);
+    }
+    this.rangeSize = rangeSize;
+    this.maxRanges = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacityBytes / rangeSize));
+    this.ranges = new LinkedHashMap<RangeKey, ByteBuffer>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<RangeKey, ByteBuffer> eldest) {
+        if (size() > maxRanges) {
+          spares.push(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public int getRangeSize() {
+    return rangeSize;
+  }
+
+  /**
+   * Copy cached bytes of the given range into dst.
+   *
+   * @return number of bytes copied, or -1 if the range is not cached
+   */
+  public synchronized int read(RangeKey key, int rangeOffset, byte[] dst, int off, int len) {
+    ByteBuffer buffer = ranges.get(key);
+    if (buffer == null) {
+      misses++;
+      return -1;
+    }
+    hits++;
+    if (rangeOffset >= buffer.limit()) {
+      return 0;
+    }
+    int n = Math.min(len, buffer.limit() - rangeOffset);
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(rangeOffset);
+    dup.get(dst, off, n);
+    return n;
+  }
+
+  /**
+   * Copy cached bytes of the given range into dst, from its position.
+   *
+   * @return number of bytes copied, or -1 if the range is not cached
+   */
+  public synchronized int read(RangeKey key, int rangeOffset, ByteBuffer dst, int len) {
+    ByteBuffer buffer = ranges.get(key);
+    if (buffer == null) {
+      misses++;
+      return -1;
+    }
+    hits++;
+    if (rangeOffset >= buffer.limit()) {
+      return 0;
+    }
+    int n = Math.min(len, buffer.limit() - rangeOffset);
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(rangeOffset);
+    dup.limit(rangeOffset + n);
+    dst.put(dup);
+    return n;
+  }
+
+  public synchronized boolean contains(RangeKey key) {
+    return ranges.containsKey(key);
+  }
+
+  public synchronized void put(RangeKey key, byte[] src, int off, int len) {
+    if (len > rangeSize) {
+      throw new IllegalArgumentException("Range data exceeds range size: " + len);
+    }
+    ByteBuffer buffer = ranges.remove(key);
+    if (buffer == null) {
+      buffer = spares.isEmpty() ? ByteBuffer.allocateDirect(rangeSize) : spares.pop();
+    }
+    buffer.clear();
+    buffer.put(src, off, len);
+    buffer.flip();
+    ranges.put(key, buffer);
+  }
+
+  /**
+   * Drop all cached ranges of the given file.
+   */
+  public synchronized void invalidate(String file) {
+    Iterator<Map.Entry<RangeKey, ByteBuffer>> it = ranges.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<RangeKey, ByteBuffer> entry = it.next();
+      if (entry.getKey().file.equals(file)) {
+        spares.push(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return ranges.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Identifies one range of one version of a file.
+   */
+  public static class RangeKey {
+    private final String file;
+    private final long version;
+    private final long index;
+
+    public RangeKey(String file, long version, long index) {
+      this.file = file;
+      this.version = version;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RangeKey)) {
+        return false;
+      }
+      RangeKey other = (RangeKey) o;
+      return index == other.index && version == other.version && file.equals(other.file);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = file.hashCode();
+      result = 31 * result + (int) (version ^ (version >>> 32));
+      result = 31 * result + (int) (index ^ (index >>> 32));
+      return result;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Positional reader for a file on a remote (high latency) Hadoop FileSystem,
+ * such as S3. Reads are served in units of fixed-size ranges from a
+ * {@link RangeCache}; missing ranges are fetched with as few ranged reads as
+ * possible:
+ * <ul>
+ *   <li>small reads are rounded up to a whole range, so neighbouring small
+ *   reads hit the cache instead of issuing one request each;</li>
+ *   <li>contiguous missing ranges are coalesced into a single request;</li>
+ *   <li>on sequential access the read-ahead window doubles up to a limit,
+ *   and falls back to a single range on random access. Read-ahead ranges
+ *   are only fetched together with a range that is actually needed.</li>
+ * </ul>
+ */
+public class RemoteRangeReader implements Closeable {
+  private final FileSystem fs;
+  private final Path path;
+  private final String file;
+  private final long version;
+  private final long length;
+  private final RangeCache cache;
+  private final int rangeSize;
+  private final int maxReadAheadRanges;
+  private FSDataInputStream in;
+
+  private long nextExpectedRange = -1;
+  private int readAheadRanges = 1;
+  private long remoteReads = 0;
+  private long remoteBytes = 0;
+  private boolean closed = false;
+
+  public RemoteRangeReader(FileSystem fs, Path path, RangeCache cache,
+      long maxReadAheadBytes) throws IOException {
+    this(fs, fs.getFileStatus(path), cache, maxReadAheadBytes);
+  }
+
+  public RemoteRangeReader(FileSystem fs, FileStatus status, RangeCache cache,
+      long maxReadAheadBytes) {
+    this.fs = fs;
+    this.path = status.getPath();
+    this.file = path.toString();
+    this.version = status.getModificationTime();
+    this.length = status.getLen();
+    this.cache = cache;
+    this.rangeSize = cache.getRangeSize();
+    this.maxReadAheadRanges = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, maxReadAheadBytes / rangeSize));
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Read up to len bytes starting at position.
+   *
+   * @return number of bytes read, or -1 if position is at or beyond EOF
+   */
+  public synchronized int read(long position, byte[] b, int off, int len)
+      throws IOException {
+    if (closed) {
+      throw new IOException("Reader closed");
+    }
+    if (position < 0) {
+      throw new EOFException("Cannot read from negative offset");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+    len = (int) Math.min(len, length - position);
+    long first = position / rangeSize;
+    long last = (position + len - 1) / rangeSize;
+    fetchMissing(first, last);
+
+    int copied = 0;
+    while (copied < len) {
+      long pos = position + copied;
+      long index = pos / rangeSize;
+      int n = cache.read(new RangeCache.RangeKey(file, version, index),
+          (int) (pos - index * rangeSize), b, off + copied, len - copied);
+      if (n < 0) {
+        // Evicted by a concurrent reader sharing the cache
+        fetch(index, index);
+        continue;
+      }
+      if (n == 0) {
+        break;
+      }
+      copied += n;
+    }
+    return copied;
+  }
+
+  public synchronized long getRemoteReads() {
+    return remoteReads;
+  }
+
+  public synchronized long getRemoteBytes() {
+    return remoteBytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+  }
+
+  private void fetchMissing(long first, long last) throws IOException {
+    if (first == nextExpectedRange || first + 1 == nextExpectedRange) {
+      readAheadRanges = Math.min(readAheadRanges * 2, maxReadAheadRanges);
+    } else {
+      readAheadRanges = 1;
+    }
+    nextExpectedRange = last + 1;
+
+    boolean allCached = true;
+    for (long i = first; i <= last && allCached; i++) {
+      allCached = cache.contains(new RangeCache.RangeKey(file, version, i));
+    }
+    if (allCached) {
+      return;
+    }
+
+    // Only read ahead when a remote request has to be issued anyway
+    long lastRange = (length - 1) / rangeSize;
+    long end = Math.min(lastRange, Math.max(last, first + readAheadRanges - 1));
+    long runStart = -1;
+    for (long i = first; i <= end; i++) {
+      boolean missing = !cache.contains(new RangeCache.RangeKey(file, version, i));
+      if (missing && runStart < 0) {
+        runStart = i;
+      } else if (!missing && runStart >= 0) {
+        fetch(runStart, i - 1);
+        runStart = -1;
+      }
+    }
+    if (runStart >= 0) {
+      fetch(runStart, end);
+    }
+  }
+
+  private void fetch(long firstRange, long lastRange) throws IOException {
+    long start = firstRange * rangeSize;
+    long stop = Math.min(length, (lastRange + 1) * rangeSize);
+    byte[] data = new byte[(int) (stop - start)];
+    if (in == null) {
+      in = fs.open(path);
+    }
+    in.readFully(start, data, 0, data.length);
+    remoteReads++;
+    remoteBytes += data.length;
+    for (long i = firstRange; i <= lastRange; i++) {
+      int off = (int) ((i - firstRange) * rangeSize);
+      cache.put(new RangeCache.RangeKey(file, version, i), data, off,
+          Math.min(rangeSize, data.length - off));
+    }
+  }
+}
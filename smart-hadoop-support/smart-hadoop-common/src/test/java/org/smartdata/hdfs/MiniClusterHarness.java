@@ -24,8 +24,10 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.server.balancer.TestBalancer;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.smartdata.SmartContext;
+import org.smartdata.action.BufferPool;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
 
@@ -40,6 +42,7 @@ public abstract class MiniClusterHarness {
   protected DistributedFileSystem dfs;
   protected DFSClient dfsClient;
   protected SmartContext smartContext;
+  protected BufferPool bufferPool;
 
   static {
     TestBalancer.initTestSetup();
@@ -49,6 +52,13 @@ public abstract class MiniClusterHarness {
   public void init() throws Exception {
     SmartConf conf = new SmartConf();
     initConf(conf);
+    // Check that actions close the buffers they lease, see shutdown()
+    bufferPool = new BufferPool(
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_MAX_BUFFER_SIZE_DEFAULT,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_HEAP_CAPACITY_DEFAULT,
+        SmartConfKeys.SMART_ACTION_BUFFER_POOL_DIRECT_CAPACITY_DEFAULT);
+    bufferPool.setTrackLeaks(true);
+    BufferPool.set(bufferPool);
     cluster = createCluster(conf);
     // Add namenode URL to smartContext
     conf.set(SmartConfKeys.SMART_DFS_NAMENODE_RPCSERVER_KEY,
@@ -73,8 +83,18 @@ public MiniDFSCluster createCluster(Configuration conf)
 
   @After
   public void shutdown() throws IOException {
-    if (cluster != null) {
-      cluster.shutdown();
+    try {
+      if (bufferPool != null) {
+        BufferPool.set(null);
+        bufferPool.checkNoLeaks();
+        // Leases left open are dropped once their action finishes
+        Assert.assertEquals("Buffers leaked by actions",
+            0, bufferPool.getNumLeaked());
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
     }
   }
 }
@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A benchmark tool to compare the read latency of a file on a remote
+ * FileSystem, read directly or through {@link RemoteRangeReader}. The
+ * remote FileSystem is simulated by the local one with a fixed latency
+ * injected into every read request.
+ */
+public final class RemoteReadBenchmark {
+
+  private RemoteReadBenchmark() {
+    // prevent instantiation
+  }
+
+  enum PATTERN {
+    SEQUENTIAL("Sequential 64KB reads"),
+    RANDOM("Random 4KB reads"),
+    HOT("Random 4KB reads of a hot 1MB region");
+
+    private final String name;
+
+    PATTERN(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static void usage(String message) {
+    if (message != null) {
+      System.out.println(message);
+    }
+    System.out.println(
+        "Usage: RemoteReadBenchmark [latency-in-ms] [fileSize-in-MB] [numReads] "
+            + "[rangeSize-in-KB]");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int latencyMs = 20;
+    int fileSizeMB = 64;
+    int numReads = 500;
+    int rangeSizeKB = 1024;
+    try {
+      if (args.length > 0) {
+        latencyMs = Integer.parseInt(args[0]);
+      }
+      if (args.length > 1) {
+        fileSizeMB = Integer.parseInt(args[1]);
+      }
+      if (args.length > 2) {
+        numReads = Integer.parseInt(args[2]);
+      }
+      if (args.length > 3) {
+        rangeSizeKB = Integer.parseInt(args[3]);
+      }
+    } catch (NumberFormatException e) {
+      usage("Malformed number: " + e.getMessage());
+    }
+
+    FileSystem local = FileSystem.getLocal(new Configuration());
+    File dir = new File(System.getProperty("java.io.tmpdir"), "RemoteReadBenchmark");
+    Path path = new Path(dir.getAbsolutePath(), "file");
+    byte[] chunk = new byte[1024 * 1024];
+    new Random(0).nextBytes(chunk);
+    try (FSDataOutputStream out = local.create(path, true)) {
+      for (int i = 0; i < fileSizeMB; i++) {
+        out.write(chunk);
+      }
+    }
+    FileSystem remote = new LatencyFileSystem(local, latencyMs);
+    try {
+      for (PATTERN pattern : PATTERN.values()) {
+        performBench(remote, path, pattern, numReads, 0);
+        performBench(remote, path, pattern, numReads, rangeSizeKB * 1024);
+      }
+    } finally {
+      local.delete(path.getParent(), true);
+    }
+  }
+
+  /**
+   * Read the file with the given pattern, directly if rangeSize is 0.
+   *
+   * @return the latencies of the reads in microseconds, sorted
+   */
+  public static long[] performBench(FileSystem fs, Path path, PATTERN pattern,
+      int numReads, int rangeSize) throws IOException {
+    long length = fs.getFileStatus(path).getLen();
+    int readSize = pattern == PATTERN.SEQUENTIAL ? 64 * 1024 : 4 * 1024;
+    long span = pattern == PATTERN.HOT ? Math.min(length, 1024 * 1024) : length;
+    Random random = new Random(12345L);
+    byte[] buf = new byte[readSize];
+    long[] latencies = new long[numReads];
+    long remoteReads;
+
+    FSDataInputStream in = null;
+    RemoteRangeReader reader = null;
+    if (rangeSize > 0) {
+      // Large enough to hold the hot region, not the whole file
+      reader = new RemoteRangeReader(fs, path,
+          new RangeCache(rangeSize, Math.max(4L * rangeSize, 2 * 1024 * 1024)),
+          16L * rangeSize);
+    } else {
+      in = fs.open(path);
+    }
+    try {
+      long position = 0;
+      for (int i = 0; i < numReads; i++) {
+        if (pattern != PATTERN.SEQUENTIAL) {
+          position = (long) (random.nextDouble() * (span - readSize));
+        } else if (position + readSize > length) {
+          position = 0;
+        }
+        long start = System.nanoTime();
+        if (reader != null) {
+          int done = 0;
+          while (done < readSize) {
+            done += reader.read(position + done, buf, done, readSize - done);
+          }
+        } else {
+          in.readFully(position, buf, 0, readSize);
+        }
+        latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        position += readSize;
+      }
+    } finally {
+      if (reader != null) {
+        reader.close();
+      }
+      if (in != null) {
+        in.close();
+      }
+    }
+    remoteReads = reader != null ? reader.getRemoteReads() : numReads;
+
+    Arrays.sort(latencies);
+    long total = 0;
+    for (long latency : latencies) {
+      total += latency;
+    }
+    System.out.println(String.format(
+        "%-40s %-22s requests %5d, mean %8.2f ms, p50 %8.2f ms, p99 %8.2f ms",
+        pattern, rangeSize > 0 ? "range reader " + rangeSize / 1024 + "KB" : "direct",
+        remoteReads, total / 1000.0 / numReads,
+        latencies[numReads / 2] / 1000.0, latencies[numReads * 99 / 100] / 1000.0));
+    return latencies;
+  }
+
+  /**
+   * Delays every read request of the streams it opens.
+   */
+  static class LatencyFileSystem extends FilterFileSystem {
+    private final long latencyMs;
+
+    LatencyFileSystem(FileSystem fs, long latencyMs) {
+      super(fs);
+      this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+      return new FSDataInputStream(new LatencyInputStream(fs.open(f, bufferSize), latencyMs));
+    }
+  }
+
+  private static class LatencyInputStream extends FSInputStream {
+    private final FSDataInputStream in;
+    private final long latencyMs;
+
+    LatencyInputStream(FSDataInputStream in, long latencyMs) {
+      this.in = in;
+      this.latencyMs = latencyMs;
+    }
+
+    private void delay() throws IOException {
+      try {
+        Thread.sleep(latencyMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+      delay();
+      return in.read(position, buffer, offset, length);
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+      delay();
+      in.readFully(position, buffer, offset, length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      delay();
+      return in.read(b, off, len);
+    }
+
+    @Override
+    public int read() throws IOException {
+      delay();
+      return in.read();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      in.seek(pos);
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return in.getPos();
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) throws IOException {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
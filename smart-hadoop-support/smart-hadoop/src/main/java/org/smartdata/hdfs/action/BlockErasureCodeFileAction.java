@@ -17,16 +17,253 @@
  */
 package org.smartdata.hdfs.action;
 
+import com.google.gson.Gson;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.SmartConstants;
+import org.smartdata.action.ActionException;
+import org.smartdata.action.Utils;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.erasurecode.ECBlock;
+import org.smartdata.erasurecode.ECBlockGroup;
+import org.smartdata.erasurecode.ECChunk;
+import org.smartdata.erasurecode.ECSchema;
+import org.smartdata.erasurecode.ErasureCodeConstants;
+import org.smartdata.erasurecode.ErasureCodecOptions;
+import org.smartdata.erasurecode.codec.RSErasureCodec;
+import org.smartdata.erasurecode.coder.ErasureCoder;
+import org.smartdata.erasurecode.coder.ErasureCodingStep;
+import org.smartdata.hdfs.CompatibilityHelperLoader;
+import org.smartdata.model.BlockECFileState;
+import org.smartdata.utils.StringUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
 
 /**
  * An action to do block level erasure code a file, for both Hadoop 2.x and Hadoop 3.x.
+ *
+ * <p>Every numDataUnits consecutive blocks of the file form a group. The
+ * group is encoded cell by cell with Reed-Solomon into numParityUnits parity
+ * files, the parity of group g is stored at offset g * blockSize of each
+ * parity file. Units shorter than the block size are padded with zeros. After
+ * encoding, the replication of the file and its parity files is lowered, and
+ * lost blocks are reconstructed on read by BlockECInputStream.
  */
+@ActionSignature(
+    actionId = "blockec",
+    displayName = "blockec",
+    usage =
+        HdfsAction.FILE_PATH
+            + " $file "
+            + BlockErasureCodeFileAction.DATA_UNITS
+            + " $dataUnits "
+            + BlockErasureCodeFileAction.PARITY_UNITS
+            + " $parityUnits "
+            + BlockErasureCodeFileAction.CELL_SIZE
+            + " $cellSize "
+            + BlockErasureCodeFileAction.REPLICATION
+            + " $replication"
+)
 public class BlockErasureCodeFileAction extends HdfsAction {
   private static final Logger LOG = LoggerFactory.getLogger(BlockErasureCodeFileAction.class);
 
+  public static final String DATA_UNITS = "-dataUnits";
+  public static final String PARITY_UNITS = "-parityUnits";
+  public static final String CELL_SIZE = "-cellSize";
+  public static final String REPLICATION = "-replication";
+  // Assigned by BlockErasureCodeScheduler
+  public static final String PARITY_DIR = "-parityDir";
+
+  private String filePath;
+  private Configuration conf;
+  private int numDataUnits;
+  private int numParityUnits;
+  private int cellSize;
+  private short replication;
+  private String parityDir;
+  private float progress;
+
+  @Override
+  public void init(Map<String, String> args) {
+    super.init(args);
+    this.conf = getContext().getConf();
+    this.filePath = args.get(FILE_PATH);
+    this.numDataUnits = conf.getInt(SmartConfKeys.SMART_BLOCK_EC_DATA_UNITS_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_DATA_UNITS_DEFAULT);
+    this.numParityUnits = conf.getInt(SmartConfKeys.SMART_BLOCK_EC_PARITY_UNITS_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_PARITY_UNITS_DEFAULT);
+    this.cellSize = (int) conf.getLongBytes(SmartConfKeys.SMART_BLOCK_EC_CELL_SIZE_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_CELL_SIZE_DEFAULT);
+    this.replication = (short) conf.getInt(SmartConfKeys.SMART_BLOCK_EC_REPLICATION_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_REPLICATION_DEFAULT);
+    this.parityDir = conf.get(SmartConfKeys.SMART_BLOCK_EC_PARITY_DIR_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_PARITY_DIR_DEFAULT);
+    if (args.containsKey(DATA_UNITS)) {
+      this.numDataUnits = Integer.parseInt(args.get(DATA_UNITS));
+    }
+    if (args.containsKey(PARITY_UNITS)) {
+      this.numParityUnits = Integer.parseInt(args.get(PARITY_UNITS));
+    }
+    if (args.containsKey(CELL_SIZE)) {
+      this.cellSize = (int) StringUtil.parseToByte(args.get(CELL_SIZE));
+    }
+    if (args.containsKey(REPLICATION)) {
+      this.replication = Short.parseShort(args.get(REPLICATION));
+    }
+    if (args.containsKey(PARITY_DIR)) {
+      this.parityDir = args.get(PARITY_DIR);
+    }
+    this.progress = 0.0F;
+  }
+
   @Override
   protected void execute() throws Exception {
+    if (filePath == null) {
+      throw new IllegalArgumentException("File path is missing.");
+    }
+    if (numDataUnits <= 0 || numParityUnits <= 0 || cellSize <= 0 || replication <= 0) {
+      throw new IllegalArgumentException("Invalid erasure coding arguments: dataUnits="
+          + numDataUnits + ", parityUnits=" + numParityUnits + ", cellSize=" + cellSize
+          + ", replication=" + replication);
+    }
+    appendLog(
+        String.format("Block erasure code action started at %s for %s",
+            Utils.getFormatedCurrentTime(), filePath));
+
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(filePath);
+    if (fileStatus == null) {
+      throw new ActionException("Failed to execute block erasure code action: "
+          + "the given file doesn't exist!");
+    }
+    if (fileStatus.isDir()) {
+      appendLog("Block erasure code is not applicable to a directory.");
+      return;
+    }
+
+    long blockSize = fileStatus.getBlockSize();
+    if (cellSize > blockSize) {
+      cellSize = (int) blockSize;
+    }
+    String parityPath = new Path(parityDir, String.valueOf(fileStatus.getFileId())).toString();
+    BlockECFileState ecState = new BlockECFileState(filePath, parityPath,
+        ErasureCodeConstants.RS_DEFAULT_CODEC_NAME, numDataUnits, numParityUnits,
+        cellSize, blockSize, fileStatus.getLen(), fileStatus.getModificationTime());
+    appendLog("Erasure coding layout: " + ecState);
+
+    // Hold the lease of the file to avoid any modification during encoding
+    OutputStream appendOut = CompatibilityHelperLoader.getHelper().
+        getDFSClientAppend(dfsClient, filePath, cellSize);
+    try {
+      encode(ecState);
+    } finally {
+      try {
+        appendOut.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to release the lease of " + filePath, e);
+      }
+    }
+    // Releasing the lease updates the modification time, the one recorded
+    // is checked against the file before reconstructing any block
+    HdfsFileStatus encodedStatus = dfsClient.getFileInfo(filePath);
+    if (encodedStatus == null || encodedStatus.getLen() != ecState.getFileLength()) {
+      for (int i = 0; i < numParityUnits; i++) {
+        dfsClient.delete(ecState.getParityFilePath(i), false);
+      }
+      throw new ActionException("Failed to execute block erasure code action: "
+          + filePath + " is modified during encoding");
+    }
+    ecState.setModificationTime(encodedStatus.getModificationTime());
+    // SmartDFSClient gets the layout from xattr to reconstruct lost blocks
+    dfsClient.setXAttr(filePath, SmartConstants.SMART_FILE_STATE_XATTR_NAME,
+        SerializationUtils.serialize(ecState),
+        EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+    dfsClient.setReplication(filePath, replication);
+    progress = 1.0F;
+    appendLog("Replication of the file and its parity files: " + replication);
+    appendResult(new Gson().toJson(ecState));
+  }
+
+  private void encode(BlockECFileState ecState) throws IOException {
+    ErasureCoder encoder = new RSErasureCodec(conf, new ErasureCodecOptions(
+        new ECSchema(ecState.getCodecName(), numDataUnits, numParityUnits)))
+        .createEncoder();
+    encoder.setConf(conf);
+    ECBlock[] dataBlocks = new ECBlock[numDataUnits];
+    for (int i = 0; i < numDataUnits; i++) {
+      dataBlocks[i] = new ECBlock(false, false);
+    }
+    ECBlock[] parityBlocks = new ECBlock[numParityUnits];
+    for (int i = 0; i < numParityUnits; i++) {
+      parityBlocks[i] = new ECBlock(true, false);
+    }
+    ErasureCodingStep step = encoder.calculateCoding(
+        new ECBlockGroup(dataBlocks, parityBlocks));
+
+    byte[][] dataCells = new byte[numDataUnits][cellSize];
+    byte[][] parityCells = new byte[numParityUnits][cellSize];
+    long fileLength = ecState.getFileLength();
+    long blockSize = ecState.getBlockSize();
+    DFSInputStream in = dfsClient.open(filePath);
+    OutputStream[] parityOuts = new OutputStream[numParityUnits];
+    try {
+      for (int i = 0; i < numParityUnits; i++) {
+        parityOuts[i] = dfsClient.create(ecState.getParityFilePath(i), true,
+            replication, blockSize);
+      }
+      int numGroups = ecState.getNumGroups();
+      for (int group = 0; group < numGroups; group++) {
+        long groupStart = group * numDataUnits * blockSize;
+        // The first unit of a group is the longest one
+        long groupLength = Math.min(blockSize, fileLength - groupStart);
+        for (long cell = 0; cell < groupLength; cell += cellSize) {
+          int cellLength = (int) Math.min(cellSize, groupLength - cell);
+          ECChunk[] inputs = new ECChunk[numDataUnits];
+          for (int unit = 0; unit < numDataUnits; unit++) {
+            long unitStart = groupStart + unit * blockSize;
+            long unitLength = Math.max(0, Math.min(blockSize, fileLength - unitStart));
+            int toRead = (int) Math.max(0, Math.min(cellLength, unitLength - cell));
+            if (toRead > 0) {
+              in.readFully(unitStart + cell, dataCells[unit], 0, toRead);
+            }
+            Arrays.fill(dataCells[unit], toRead, cellLength, (byte) 0);
+            inputs[unit] = new ECChunk(dataCells[unit], 0, cellLength);
+          }
+          ECChunk[] outputs = new ECChunk[numParityUnits];
+          for (int i = 0; i < numParityUnits; i++) {
+            outputs[i] = new ECChunk(parityCells[i], 0, cellLength);
+          }
+          step.performCoding(inputs, outputs);
+          for (int i = 0; i < numParityUnits; i++) {
+            parityOuts[i].write(parityCells[i], 0, cellLength);
+          }
+        }
+        progress = (float) (group + 1) / numGroups;
+      }
+    } finally {
+      step.finish();
+      encoder.release();
+      in.close();
+      for (OutputStream out : parityOuts) {
+        if (out != null) {
+          out.close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public float getProgress() {
+    return progress;
   }
 }
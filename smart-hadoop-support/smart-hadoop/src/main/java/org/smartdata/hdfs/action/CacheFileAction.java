@@ -45,6 +45,8 @@
 )
 public class CacheFileAction extends HdfsAction {
   public static final String REPLICA = "-replica";
+  // Result of an action adding the cache directive, followed by its id
+  public static final String DIRECTIVE_ADDED = "CacheDirectiveId=";
   private String fileName;
   private LinkedBlockingQueue<String> actionEvents;
   private ActionType actionType;
@@ -92,7 +94,8 @@ private void executeCacheAction(String fileName) throws Exception {
     this.appendLog(
         String.format(
             "Action starts at %s : cache -> %s", Utils.getFormatedCurrentTime(), fileName));
-    addDirective(fileName);
+    long id = addDirective(fileName);
+    appendResult(DIRECTIVE_ADDED + id);
   }
 
   public boolean isCached(String fileName) throws Exception {
@@ -103,13 +106,13 @@ public boolean isCached(String fileName) throws Exception {
     return directiveEntries.hasNext();
   }
 
-  private void addDirective(String fileName) throws Exception {
+  private long addDirective(String fileName) throws Exception {
     CacheDirectiveInfo.Builder filterBuilder = new CacheDirectiveInfo.Builder();
     filterBuilder.setPath(new Path(fileName))
         .setPool(CacheScheduler.SSM_POOL)
         .setReplication(replication);
     CacheDirectiveInfo filter = filterBuilder.build();
     EnumSet<CacheFlag> flags = EnumSet.noneOf(CacheFlag.class);
-    dfsClient.addCacheDirective(filter, flags);
+    return dfsClient.addCacheDirective(filter, flags);
   }
 }
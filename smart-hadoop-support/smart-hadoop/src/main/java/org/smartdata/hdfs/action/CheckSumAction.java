@@ -17,35 +17,107 @@
  */
 package org.smartdata.hdfs.action;
 
+import com.google.gson.Gson;
 import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Sender;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.NetUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.action.annotation.ActionSignature;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.hdfs.CompatibilityHelperLoader;
 import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.FileBlockChecksum;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * An action to get the checksum of a file, or of every file under a
+ * directory given as "dir*".
+ *
+ * <p>Files are checksummed by up to {@link #THREADS} workers, a page of the
+ * directory listing at a time. With {@link #BLOCK_CHECKSUM}, the checksum
+ * of every block is also fetched and written to {@link #CHECKSUM_FILE} as
+ * one {@link FileBlockChecksum} JSON per line, which the ChecksumScheduler
+ * persists. It is the MD5 of the block's CRCs computed by a datanode holding
+ * the block, the same one getFileChecksum combines, so no block content is
+ * read by the action. With {@link #INCREMENTAL}, files
+ * whose fid, modification time and length match the fingerprints in the
+ * {@link #KNOWN_FINGERPRINTS} file are skipped. The action result only
+ * holds the counts of files.
+ */
 @ActionSignature(
     actionId = "checksum",
     displayName = "checksum",
-    usage = HdfsAction.FILE_PATH + " $src "
+    usage = HdfsAction.FILE_PATH + " $src " + CheckSumAction.THREADS + " $threads "
+        + CheckSumAction.BLOCK_CHECKSUM + " " + CheckSumAction.INCREMENTAL
 )
 public class CheckSumAction extends HdfsAction {
   private static final Logger LOG = LoggerFactory.getLogger(CheckSumAction.class);
+  public static final String THREADS = "-threads";
+  public static final String BLOCK_CHECKSUM = "-blockChecksum";
+  public static final String INCREMENTAL = "-incremental";
+  // The values for -knownFingerprints and -checksumFile are assigned by
+  // ChecksumScheduler, both are files in the SSM work dir.
+  public static final String KNOWN_FINGERPRINTS = "-knownFingerprints";
+  public static final String CHECKSUM_FILE = "-checksumFile";
+  public static final int DEFAULT_THREADS = 4;
+  private static final Gson GSON = new Gson();
+
   private String fileName;
   private SmartConf conf;
+  private int threads = DEFAULT_THREADS;
+  private boolean blockChecksum = false;
+  private boolean incremental = false;
+  private String fingerprintFile;
+  private String checksumFile;
+  // fid -> {modification time, length}
+  private Map<Long, long[]> knownFingerprints = new HashMap<>();
+  private Writer checksumWriter;
+  private volatile int total = 0;
+  private final AtomicInteger done = new AtomicInteger(0);
+  private final AtomicInteger skipped = new AtomicInteger(0);
 
   @Override
   public void init(Map<String, String> args) {
     super.init(args);
     fileName = args.get(FILE_PATH);
     this.conf = getContext().getConf();
+    if (args.containsKey(THREADS)) {
+      threads = Math.max(1, Integer.parseInt(args.get(THREADS)));
+    }
+    blockChecksum = args.containsKey(BLOCK_CHECKSUM);
+    incremental = args.containsKey(INCREMENTAL);
+    fingerprintFile = args.get(KNOWN_FINGERPRINTS);
+    checksumFile = args.get(CHECKSUM_FILE);
   }
 
   @Override
@@ -56,53 +128,231 @@ protected void execute() throws Exception {
     if (fileName == null) {
       throw new IllegalArgumentException("File src is missing.");
     }
+    if (incremental && fingerprintFile != null) {
+      knownFingerprints = readFingerprints(dfsClient, fingerprintFile);
+    }
 
-    if (fileName.charAt(fileName.length() - 1) == '*') {
-      DirectoryListing listing = dfsClient.listPaths(fileName.substring(0, fileName.length() - 1), HdfsFileStatus.EMPTY_NAME);
-      HdfsFileStatus[] fileList = listing.getPartialListing();
-      for (HdfsFileStatus fileStatus : fileList) {
-        String file1 = fileStatus.getFullPath(new Path(fileName.substring(0, fileName.length() - 1))).toString();
-        HdfsFileStatus fileStatus1 = dfsClient.getFileInfo(file1);
-        long length = fileStatus1.getLen();
-        MD5MD5CRC32FileChecksum md5 = dfsClient.getFileChecksum(file1, length);
-
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        DataOutputStream dataStream = new DataOutputStream(byteStream);
-        md5.write(dataStream);
-        byte[] bytes = byteStream.toByteArray();
-        appendLog(
-            String.format("%s\t%s\t%s",
-                file1,
-                md5.getAlgorithmName(),
-                byteArray2HexString(bytes)
-            ));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      if (blockChecksum && checksumFile != null) {
+        checksumWriter = new BufferedWriter(new OutputStreamWriter(
+            dfsClient.create(checksumFile, true), StandardCharsets.UTF_8));
       }
-      return;
+      if (fileName.charAt(fileName.length() - 1) == '*') {
+        // Files are checksummed page by page of the listing
+        String dir = fileName.substring(0, fileName.length() - 1);
+        byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+        DirectoryListing listing;
+        do {
+          listing = dfsClient.listPaths(dir, startAfter);
+          if (listing == null) {
+            break;
+          }
+          List<HdfsFileStatus> files = new ArrayList<>();
+          List<String> paths = new ArrayList<>();
+          for (HdfsFileStatus fileStatus : listing.getPartialListing()) {
+            if (!fileStatus.isDir()) {
+              files.add(fileStatus);
+              paths.add(fileStatus.getFullName(dir));
+            }
+          }
+          checksum(executor, files, paths);
+          startAfter = listing.getLastName();
+        } while (listing.hasMore());
+      } else {
+        HdfsFileStatus fileStatus = dfsClient.getFileInfo(fileName);
+        if (fileStatus == null) {
+          throw new IOException("File " + fileName + " does not exist.");
+        }
+        if (fileStatus.isDir()) {
+          appendResult("This is a directory which has no checksum result!");
+          appendLog("This is a directory which has no checksum result!");
+          return;
+        }
+        checksum(executor, Collections.singletonList(fileStatus),
+            Collections.singletonList(fileName));
+      }
+      if (checksumWriter != null) {
+        checksumWriter.close();
+      }
+    } finally {
+      executor.shutdownNow();
+      IOUtils.closeStream(checksumWriter);
     }
 
-    HdfsFileStatus fileStatus = dfsClient.getFileInfo(fileName);
-    if (fileStatus != null) {
-      if (fileStatus.isDir()) {
-        appendResult("This is a directory which has no checksum result!");
-        appendLog("This is a directory which has no checksum result!");
+    appendResult(String.format("%d files checksummed, %d unchanged files skipped",
+        done.get() - skipped.get(), skipped.get()));
+  }
+
+  private void checksum(ExecutorService executor, List<HdfsFileStatus> files,
+      final List<String> paths) throws Exception {
+    total += files.size();
+    List<Future<?>> futures = new ArrayList<>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      final HdfsFileStatus fileStatus = files.get(i);
+      final String path = paths.get(i);
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          try {
+            checksum(path, fileStatus);
+          } finally {
+            done.incrementAndGet();
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+  }
+
+  private void checksum(String path, HdfsFileStatus fileStatus) throws IOException {
+    long length = fileStatus.getLen();
+    if (incremental) {
+      long[] fingerprint = knownFingerprints.get(fileStatus.getFileId());
+      if (fingerprint != null && fingerprint[0] == fileStatus.getModificationTime()
+          && fingerprint[1] == length) {
+        skipped.incrementAndGet();
+        appendLog(String.format("%s\tunchanged, skipped", path));
         return;
       }
     }
 
-    long length = fileStatus.getLen();
-    MD5MD5CRC32FileChecksum md5 = dfsClient.getFileChecksum(fileName, length);
+    MD5MD5CRC32FileChecksum md5 = dfsClient.getFileChecksum(path, length);
     ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
     DataOutputStream dataStream = new DataOutputStream(byteStream);
     md5.write(dataStream);
-
     byte[] bytes = byteStream.toByteArray();
-
     appendLog(
         String.format("%s\t%s\t%s",
-            fileName,
+            path,
             md5.getAlgorithmName(),
             byteArray2HexString(bytes)
         ));
+
+    if (blockChecksum) {
+      List<String> checksums = new ArrayList<>();
+      String algorithm = getBlockChecksums(path, length, checksums);
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < checksums.size(); i++) {
+        if (i > 0) {
+          sb.append('\n');
+        }
+        sb.append(path).append("\tblock ").append(i).append('\t')
+            .append(algorithm).append('\t').append(checksums.get(i));
+      }
+      if (sb.length() > 0) {
+        appendLog(sb.toString());
+      }
+      if (checksumWriter != null) {
+        String line = GSON.toJson(new FileBlockChecksum(path, fileStatus.getFileId(),
+            fileStatus.getModificationTime(), length, fileStatus.getBlockSize(),
+            algorithm, checksums));
+        synchronized (checksumWriter) {
+          checksumWriter.write(line);
+          checksumWriter.write('\n');
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the fingerprints written by {@link #writeFingerprint}.
+   *
+   * @return fid to {modification time, length}
+   */
+  public static Map<Long, long[]> readFingerprints(DFSClient dfsClient, String file)
+      throws IOException {
+    Map<Long, long[]> fingerprints = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        dfsClient.open(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length == 3) {
+          fingerprints.put(Long.parseLong(fields[0]),
+              new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+        }
+      }
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Write the fingerprint of a file with stored block checksums as a line.
+   */
+  public static void writeFingerprint(Writer writer, long fid, long[] fingerprint)
+      throws IOException {
+    writer.write(fid + "\t" + fingerprint[0] + "\t" + fingerprint[1] + "\n");
+  }
+
+  /**
+   * Get the checksum of every block from a datanode holding it.
+   *
+   * @return the algorithm, e.g., MD5-of-512CRC32C, with MIXED in place of
+   *     the CRC type if the blocks use different ones
+   */
+  private String getBlockChecksums(String path, long length, List<String> checksums)
+      throws IOException {
+    String algorithm = null;
+    for (LocatedBlock block
+        : dfsClient.getLocatedBlocks(path, 0, length).getLocatedBlocks()) {
+      DataTransferProtos.OpBlockChecksumResponseProto response =
+          getBlockChecksum(path, block);
+      String crcType = response.hasCrcType()
+          ? response.getCrcType().name().replace("CHECKSUM_", "") : "CRC32";
+      String blockAlgorithm = "MD5-of-" + response.getBytesPerCrc() + crcType;
+      if (algorithm == null) {
+        algorithm = blockAlgorithm;
+      } else if (!algorithm.equals(blockAlgorithm)) {
+        algorithm = "MD5-of-" + response.getBytesPerCrc() + "MIXED";
+      }
+      checksums.add(byteArray2HexString(response.getMd5().toByteArray()));
+    }
+    return algorithm;
+  }
+
+  private DataTransferProtos.OpBlockChecksumResponseProto getBlockChecksum(
+      String path, LocatedBlock block) throws IOException {
+    IOException lastException = null;
+    for (DatanodeInfo datanode : block.getLocations()) {
+      Peer peer = null;
+      try {
+        peer = dfsClient.newConnectedPeer(
+            NetUtils.createSocketAddr(datanode.getXferAddr()),
+            block.getBlockToken(), datanode);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(peer.getOutputStream()));
+        DataInputStream in = new DataInputStream(peer.getInputStream());
+        new Sender(out).blockChecksum(block.getBlock(), block.getBlockToken());
+        out.flush();
+        DataTransferProtos.BlockOpResponseProto response =
+            DataTransferProtos.BlockOpResponseProto.parseFrom(
+                CompatibilityHelperLoader.getHelper().getVintPrefixed(in));
+        if (response.getStatus() != DataTransferProtos.Status.SUCCESS) {
+          throw new IOException("Got error, status message " + response.getMessage()
+              + ", failed to get the checksum of " + block.getBlock() + " from " + datanode);
+        }
+        return response.getChecksumResponse();
+      } catch (IOException e) {
+        LOG.debug("Failed to get the checksum of {} from {}", block.getBlock(), datanode, e);
+        lastException = e;
+      } finally {
+        IOUtils.closeStream(peer);
+      }
+    }
+    throw lastException != null ? lastException
+        : new IOException("No datanode has " + block.getBlock() + " of " + path);
+  }
+
+  @Override
+  public float getProgress() {
+    if (isSuccessful()) {
+      return 1.0F;
+    }
+    return total == 0 ? 0.0F : done.get() * 1.0F / total;
   }
 
   public static String byteArray2HexString(byte[] bytes) {
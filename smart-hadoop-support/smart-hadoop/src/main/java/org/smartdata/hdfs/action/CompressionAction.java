@@ -32,10 +32,13 @@
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartConstants;
 import org.smartdata.action.ActionException;
+import org.smartdata.action.BufferPool;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
 import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
+import org.smartdata.hdfs.compress.AdaptiveCodecSelector;
+import org.smartdata.model.CompressionDecision;
 import org.smartdata.model.CompressionFileInfo;
 import org.smartdata.model.CompressionFileState;
 import org.smartdata.utils.StringUtil;
@@ -43,6 +46,8 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -59,7 +64,11 @@
             + CompressionAction.BUF_SIZE
             + " $bufSize "
             + CompressionAction.CODEC
-            + " $codec"
+            + " $codec "
+            + CompressionAction.CODEC_IMPL
+            + " $codecImpl "
+            + CompressionAction.THREADS
+            + " $threads"
 )
 public class CompressionAction extends HdfsAction {
   private static final Logger LOG =
@@ -67,6 +76,8 @@ public class CompressionAction extends HdfsAction {
 
   public static final String BUF_SIZE = "-bufSize";
   public static final String CODEC = "-codec";
+  public static final String CODEC_IMPL = "-codecImpl";
+  public static final String THREADS = "-threads";
   private static List<String> compressionCodecList = CompressionCodec.CODEC_LIST;
 
   private String filePath;
@@ -79,8 +90,13 @@ public class CompressionAction extends HdfsAction {
   private int maxSplit;
   // Can be set in config or action arg.
   private String compressCodec;
+  // Native or pure Java implementation of the codec
+  private String codecImpl;
   // Specified by user in action arg.
   private int userDefinedBufferSize;
+  // The number of threads compressing chunks concurrently
+  private int threads;
+  private long maxMemory;
   public static final String XATTR_NAME =
       SmartConstants.SMART_FILE_STATE_XATTR_NAME;
 
@@ -100,11 +116,24 @@ public void init(Map<String, String> args) {
     this.maxSplit = conf.getInt(
         SmartConfKeys.SMART_COMPRESSION_MAX_SPLIT,
         SmartConfKeys.SMART_COMPRESSION_MAX_SPLIT_DEFAULT);
+    this.codecImpl = conf.get(
+        SmartConfKeys.SMART_COMPRESSION_CODEC_IMPL,
+        SmartConfKeys.SMART_COMPRESSION_CODEC_IMPL_DEFAULT);
+    this.threads = conf.getInt(
+        SmartConfKeys.SMART_COMPRESSION_THREADS,
+        SmartConfKeys.SMART_COMPRESSION_THREADS_DEFAULT);
+    this.maxMemory = conf.getLongBytes(
+        SmartConfKeys.SMART_COMPRESSION_MAX_MEMORY,
+        SmartConfKeys.SMART_COMPRESSION_MAX_MEMORY_DEFAULT);
     this.filePath = args.get(FILE_PATH);
+    if (args.containsKey(THREADS) && !args.get(THREADS).isEmpty()) {
+      this.threads = Integer.parseInt(args.get(THREADS));
+    }
     if (args.containsKey(BUF_SIZE) && !args.get(BUF_SIZE).isEmpty()) {
       this.userDefinedBufferSize = (int) StringUtil.parseToByte(args.get(BUF_SIZE));
     }
     this.compressCodec = args.get(CODEC) != null ? args.get(CODEC) : compressCodec;
+    this.codecImpl = args.get(CODEC_IMPL) != null ? args.get(CODEC_IMPL) : codecImpl;
     // This is a temp path for compressing a file.
     this.compressTmpPath = args.containsKey(COMPRESS_TMP) ?
         args.get(COMPRESS_TMP) : compressTmpPath;
@@ -119,10 +148,15 @@ protected void execute() throws Exception {
     if (compressTmpPath == null) {
       throw new IllegalArgumentException("Compression tmp path is not specified!");
     }
-    if (!compressionCodecList.contains(compressCodec)) {
+    boolean adaptive = CompressionCodec.ADAPTIVE.equals(compressCodec);
+    if (!adaptive && !compressionCodecList.contains(compressCodec)) {
       throw new ActionException(
           "Compression Action failed due to unsupported codec: " + compressCodec);
     }
+    if (!CompressionCodec.IMPL_LIST.contains(codecImpl)) {
+      throw new ActionException(
+          "Compression Action failed due to unsupported codec implementation: " + codecImpl);
+    }
     appendLog(
         String.format("Compression Action started at %s for %s",
             Utils.getFormatedCurrentTime(), filePath));
@@ -138,8 +172,22 @@ protected void execute() throws Exception {
       return;
     }
 
-    // Generate compressed file
     HdfsFileStatus srcFile = dfsClient.getFileInfo(filePath);
+    CompressionDecision decision = null;
+    if (adaptive) {
+      decision = selectCodec(srcFile.getLen());
+      if (decision.isSkipped()) {
+        appendLog("Skip compression, not compressible enough: " + decision);
+        compressionFileInfo = new CompressionFileInfo(false, null);
+        compressionFileInfo.setCompressionDecision(decision);
+        appendResult(new Gson().toJson(compressionFileInfo));
+        return;
+      }
+      compressCodec = decision.getCodec();
+      userDefinedBufferSize = decision.getBufferSize();
+    }
+
+    // Generate compressed file
     compressionFileState = new CompressionFileState(filePath, bufferSize, compressCodec);
     compressionFileState.setOriginalLength(srcFile.getLen());
 
@@ -171,9 +219,10 @@ protected void execute() throws Exception {
         compressionFileInfo =
             new CompressionFileInfo(true, compressTmpPath, compressionFileState);
       }
+      compressionFileInfo.setCompressionDecision(decision);
       compressionFileState.setBufferSize(bufferSize);
       appendLog("Compression buffer size: " + bufferSize);
-      appendLog("Compression codec: " + compressCodec);
+      appendLog("Compression codec: " + compressCodec + " (" + codecImpl + ")");
       String compressionInfoJson = new Gson().toJson(compressionFileInfo);
       appendResult(compressionInfoJson);
       LOG.warn(compressionInfoJson);
@@ -214,11 +263,70 @@ protected void execute() throws Exception {
   private void compress(InputStream inputStream, OutputStream outputStream) throws IOException {
     // We use 'progress' (a percentage) to track compression progress.
     SmartCompressorStream smartCompressorStream = new SmartCompressorStream(
-        inputStream, outputStream, bufferSize, compressionFileState, progress);
-    smartCompressorStream.convert();
+        inputStream, outputStream, bufferSize, compressionFileState, progress,
+        codecImpl, threads, maxMemory);
+    appendLog("Max chunks compressed concurrently: "
+        + smartCompressorStream.getMaxChunksInFlight());
+    if (smartCompressorStream.getMaxChunksInFlight() > 1) {
+      smartCompressorStream.convert();
+    } else {
+      try (BufferPool.Lease buffer = leaseBuffer(bufferSize)) {
+        smartCompressorStream.convert(buffer.array());
+      }
+    }
+  }
+
+  /**
+   * Choose the codec and buffer size by sampling the file.
+   */
+  private CompressionDecision selectCodec(long fileSize)
+      throws IOException, ActionException {
+    List<String> codecs = new ArrayList<>(conf.getTrimmedStringCollection(
+        SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_CODECS));
+    if (codecs.isEmpty()) {
+      codecs = Arrays.asList(SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_CODECS_DEFAULT.split(","));
+    }
+    List<Integer> bufferSizes = new ArrayList<>();
+    for (String size : conf.getTrimmedStrings(
+        SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_BUFFER_SIZES,
+        SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_BUFFER_SIZES_DEFAULT.split(","))) {
+      // Respect the min buffer size and max number of splits
+      bufferSizes.add(getActualBuffSize(fileSize, (int) StringUtil.parseToByte(size)));
+    }
+    AdaptiveCodecSelector selector = new AdaptiveCodecSelector(codecs, codecImpl, bufferSizes,
+        conf.getInt(SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_SAMPLES,
+            SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_SAMPLES_DEFAULT),
+        conf.getLongBytes(SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_SAMPLE_BYTES,
+            SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_SAMPLE_BYTES_DEFAULT),
+        conf.getFloat(SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_MAX_RATIO,
+            SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_MAX_RATIO_DEFAULT),
+        conf.getFloat(SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_DECODE_WEIGHT,
+            SmartConfKeys.SMART_COMPRESSION_ADAPTIVE_DECODE_WEIGHT_DEFAULT));
+
+    CompressionDecision decision;
+    if (fileSize == 0) {
+      // Nothing to sample, the codec only matters for the file state
+      decision = new CompressionDecision(codecs.get(0), bufferSize, 0, 0, 0);
+    } else {
+      DFSInputStream in = dfsClient.open(filePath);
+      try {
+        decision = selector.select(in, fileSize);
+      } finally {
+        in.close();
+      }
+      if (decision == null) {
+        throw new ActionException("None of the codecs " + codecs + " is available");
+      }
+    }
+    appendLog("Adaptive compression decision: " + decision);
+    return decision;
   }
 
   private int getActualBuffSize(long fileSize) {
+    return getActualBuffSize(fileSize, userDefinedBufferSize);
+  }
+
+  private int getActualBuffSize(long fileSize, int userDefinedBufferSize) {
     // The capacity of originalPos and compressedPos is maxSplit (1000, by default) in database
     // Calculated by max number of splits.
     int calculatedBufferSize = (int) (fileSize / maxSplit);
@@ -24,7 +24,9 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.SmartConstants;
 import org.smartdata.action.ActionException;
+import org.smartdata.action.BufferPool;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
 import org.smartdata.conf.SmartConfKeys;
@@ -114,7 +116,7 @@ private long getFileSize(String fileName) throws IOException {
 
   private boolean setXAttribute(String src, String dest) throws IOException {
 
-    String name = "user.coldloc";
+    String name = SmartConstants.SMART_S3_LOCATION_XATTR_NAME;
     dfsClient.setXAttr(srcPath, name, dest.getBytes(), EnumSet.of(XAttrSetFlag.CREATE,XAttrSetFlag.REPLACE) );
     appendLog(" SetXattr feature is set - srcPath  " + srcPath + "destination" + dest.getBytes() );
     return true;
@@ -124,18 +126,20 @@ private boolean copySingleFile(String src, String dest) throws IOException {
     //get The file size of source file
     InputStream in = null;
     OutputStream out = null;
+    BufferPool.Lease buffer = null;
 
     try {
       in = getSrcInputStream(src);
       out = CompatibilityHelperLoader
           .getHelper().getS3outputStream(dest, conf);
-      byte[] buf = new byte[bufferSize];
+      buffer = leaseBuffer(bufferSize);
+      byte[] buf = buffer.array();
       long bytesRemaining = getFileSize(src);
 
       while (bytesRemaining > 0L) {
         int bytesToRead =
-            (int) (bytesRemaining < (long) buf.length ? bytesRemaining :
-                (long) buf.length);
+            (int) (bytesRemaining < (long) bufferSize ? bytesRemaining :
+                (long) bufferSize);
         int bytesRead = in.read(buf, 0, bytesToRead);
         if (bytesRead == -1) {
           break;
@@ -145,6 +149,9 @@ private boolean copySingleFile(String src, String dest) throws IOException {
       }
       return true;
     } finally {
+      if (buffer != null) {
+        buffer.close();
+      }
       if (out != null) {
         out.close();
       }
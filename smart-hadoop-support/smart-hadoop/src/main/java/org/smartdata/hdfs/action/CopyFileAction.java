@@ -24,6 +24,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.action.ActionException;
+import org.smartdata.action.BufferPool;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
 import org.smartdata.conf.SmartConfKeys;
@@ -129,19 +130,21 @@ private boolean copyWithOffset(String src, String dest, int bufferSize,
         String.format("Copy with offset %s and length %s", offset, length));
     InputStream in = null;
     OutputStream out = null;
+    BufferPool.Lease buffer = null;
 
     try {
       in = getSrcInputStream(src);
       out = getDestOutPutStream(dest, offset);
       //skip offset
       in.skip(offset);
-      byte[] buf = new byte[bufferSize];
+      buffer = leaseBuffer(bufferSize);
+      byte[] buf = buffer.array();
       long bytesRemaining = length;
 
       while (bytesRemaining > 0L) {
         int bytesToRead =
-            (int) (bytesRemaining < (long) buf.length ? bytesRemaining :
-                (long) buf.length);
+            (int) (bytesRemaining < (long) bufferSize ? bytesRemaining :
+                (long) bufferSize);
         int bytesRead = in.read(buf, 0, bytesToRead);
         if (bytesRead == -1) {
           break;
@@ -151,6 +154,9 @@ private boolean copyWithOffset(String src, String dest, int bufferSize,
       }
       return true;
     } finally {
+      if (buffer != null) {
+        buffer.close();
+      }
       if (out != null) {
         out.close();
       }
@@ -54,7 +54,7 @@ public class HdfsActionFactory extends AbstractActionFactory {
     addAction(WriteFileAction.class);
     addAction(CheckStorageAction.class);
     addAction(SetXAttrAction.class);
-//    addAction("blockec", BlockErasureCodeFileAction.class);
+    addAction(BlockErasureCodeFileAction.class);
     addAction(CopyFileAction.class);
     addAction(DeleteFileAction.class);
     addAction(RenameFileAction.class);
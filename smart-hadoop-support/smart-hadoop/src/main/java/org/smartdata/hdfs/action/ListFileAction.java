@@ -33,18 +33,27 @@
 import java.net.URI;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An action to list files in a directory.
+ *
+ * <p>With {@link #RECURSIVELY} and {@link #THREADS} greater than 1, the
+ * directory tree of the local cluster is walked by a pool of workers. Each
+ * directory is fetched page by page with a {@code startAfter} cursor and the
+ * entries are written to the action log as they arrive, so the order of
+ * lines across directories is not defined.
  */
 @ActionSignature(
     actionId = "list",
     displayName = "list",
     usage = HdfsAction.FILE_PATH + " $src1" + ListFileAction.RECURSIVELY + " $src2" + ListFileAction.DUMP + " $src3"
-        + ListFileAction.HUMAN + " $src4"
+        + ListFileAction.HUMAN + " $src4" + ListFileAction.THREADS + " $threads"
 )
 public class ListFileAction extends HdfsAction {
   private static final Logger LOG = LoggerFactory.getLogger(ListFileAction.class);
@@ -52,11 +61,22 @@ public class ListFileAction extends HdfsAction {
   private boolean recursively = false;
   private boolean dump = false;
   private boolean human = false;
+  private int threads = 1;
+  private final AtomicLong numListed = new AtomicLong(0);
 
   // Options
   public static final String RECURSIVELY = "-R";
   public static final String DUMP = "-d";
   public static final String HUMAN = "-h";
+  public static final String THREADS = "-threads";
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        }
+      };
 
   @Override
   public void init(Map<String, String> args) {
@@ -78,6 +98,9 @@ public void init(Map<String, String> args) {
     }
     if (this.srcPath == null || this.srcPath == "")
       this.srcPath = args.get(FILE_PATH);
+    if (args.containsKey(THREADS)) {
+      this.threads = Math.max(1, Integer.parseInt(args.get(THREADS)));
+    }
   }
 
   @Override
@@ -88,7 +111,11 @@ protected void execute() throws Exception {
     appendLog(
         String.format("Action starts at %s : List %s", Utils.getFormatedCurrentTime(), srcPath));
     //list the file in directionary
-    listDirectory(srcPath);
+    if (recursively && threads > 1 && !dump && !srcPath.startsWith("hdfs")) {
+      listDirectoryConcurrently(srcPath);
+    } else {
+      listDirectory(srcPath);
+    }
   }
 
   private static String readableFileSize(long size) {
@@ -111,29 +138,25 @@ private void listDirectory(String src) throws IOException {
         return;
       }
       if (hdfsFileStatus.isDir() && !dump) {
-        DirectoryListing listing = dfsClient.listPaths(src, HdfsFileStatus.EMPTY_NAME);
-        HdfsFileStatus[] fileList = listing.getPartialListing();
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-        for (int i = 0; i < fileList.length; i++) {
-          appendLog(
-              String.format("%s%s %5d %s\t%s\t%13s %s %s", fileList[i].isDir() ? 'd' : '-',
-                  fileList[i].getPermission(), fileList[i].getReplication(),
-                  fileList[i].getOwner(), fileList[i].getGroup(),
-                  human ? readableFileSize(fileList[i].getLen()) : fileList[i].getLen(),
-                  formatter.format(fileList[i].getModificationTime()), fileList[i].getFullPath(new Path(src))));
-          if (recursively && fileList[i].isDir()) {
-            listDirectory(fileList[i].getFullPath(new Path(src)).toString());
+        byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+        DirectoryListing listing;
+        do {
+          listing = dfsClient.listPaths(src, startAfter);
+          if (listing == null) {
+            break;
           }
-        }
+          for (HdfsFileStatus child : listing.getPartialListing()) {
+            appendLog(formatStatus(child, src));
+            numListed.incrementAndGet();
+            if (recursively && child.isDir()) {
+              listDirectory(child.getFullName(src));
+            }
+          }
+          startAfter = listing.getLastName();
+        } while (listing.hasMore());
       } else {
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-        appendLog(
-            String.format("%s%s %5d %s\t%s\t%13s %s %s", hdfsFileStatus.isDir() ? 'd' : '-',
-                hdfsFileStatus.getPermission(),
-                hdfsFileStatus.getReplication(),
-                hdfsFileStatus.getOwner(), hdfsFileStatus.getGroup(),
-                human ? readableFileSize(hdfsFileStatus.getLen()) : hdfsFileStatus.getLen(),
-                formatter.format(hdfsFileStatus.getModificationTime()), hdfsFileStatus.getFullPath(new Path(src))));
+        appendLog(formatStatus(hdfsFileStatus, src));
+        numListed.incrementAndGet();
       }
     } else {
       //list file in remote Directory
@@ -156,4 +179,110 @@ private void listDirectory(String src) throws IOException {
       }
     }
   }
+
+  /**
+   * List the tree under the given directory with {@link #threads} workers.
+   * Every directory is one task that pages through its entries, emits them
+   * and submits its sub directories as new tasks.
+   */
+  private void listDirectoryConcurrently(String src) throws Exception {
+    HdfsFileStatus root = dfsClient.getFileInfo(src);
+    if (root == null) {
+      appendLog("File not found!");
+      return;
+    }
+    if (!root.isDir()) {
+      appendLog(formatStatus(root, src));
+      numListed.incrementAndGet();
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final AtomicInteger pending = new AtomicInteger(0);
+    final AtomicReference<Exception> error = new AtomicReference<>();
+    try {
+      submitListing(executor, src, pending, error);
+      synchronized (pending) {
+        while (pending.get() > 0 && error.get() == null) {
+          pending.wait();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    if (error.get() != null) {
+      throw error.get();
+    }
+    appendLog(String.format("Listed %d entries under %s with %d threads",
+        numListed.get(), src, threads));
+  }
+
+  private void submitListing(final ExecutorService executor, final String dir,
+      final AtomicInteger pending, final AtomicReference<Exception> error) {
+    pending.incrementAndGet();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+          DirectoryListing listing;
+          do {
+            if (error.get() != null) {
+              return;
+            }
+            listing = dfsClient.listPaths(dir, startAfter);
+            if (listing == null) {
+              return;
+            }
+            HdfsFileStatus[] children = listing.getPartialListing();
+            StringBuilder page = new StringBuilder();
+            for (HdfsFileStatus child : children) {
+              if (page.length() > 0) {
+                page.append('\n');
+              }
+              page.append(formatStatus(child, dir));
+              if (child.isDir()) {
+                submitListing(executor, child.getFullName(dir), pending, error);
+              }
+            }
+            if (children.length > 0) {
+              appendLog(page.toString());
+              numListed.addAndGet(children.length);
+            }
+            startAfter = listing.getLastName();
+          } while (listing.hasMore());
+        } catch (Exception e) {
+          error.compareAndSet(null, e);
+        } finally {
+          synchronized (pending) {
+            if (pending.decrementAndGet() == 0 || error.get() != null) {
+              pending.notifyAll();
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private String formatStatus(HdfsFileStatus status, String parent) {
+    StringBuilder sb = new StringBuilder(128);
+    sb.append(status.isDir() ? 'd' : '-').append(status.getPermission()).append(' ');
+    padLeft(sb, Short.toString(status.getReplication()), 5).append(' ');
+    sb.append(status.getOwner()).append('\t').append(status.getGroup()).append('\t');
+    padLeft(sb, human ? readableFileSize(status.getLen())
+        : Long.toString(status.getLen()), 13).append(' ');
+    sb.append(DATE_FORMAT.get().format(status.getModificationTime())).append(' ');
+    sb.append(status.getFullPath(new Path(parent)));
+    return sb.toString();
+  }
+
+  private static StringBuilder padLeft(StringBuilder sb, String value, int width) {
+    for (int i = value.length(); i < width; i++) {
+      sb.append(' ');
+    }
+    return sb.append(value);
+  }
+
+  public long getNumListed() {
+    return numListed.get();
+  }
 }
@@ -23,6 +23,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.action.BufferPool;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
 
@@ -91,10 +92,19 @@ protected void execute() throws Exception {
   private boolean mergeFiles(LinkedList<String> srcFiles, String dest) throws IOException {
     InputStream srcInputStream = null;
     OutputStream destInputStream = getTargetOutputStream(dest);
-    for (String srcEle : srcPathList) {
-      srcInputStream = getSourceInputStream(srcEle);
-      IOUtils.copyBytes(srcInputStream, destInputStream, bufferSize, false);
-      IOUtils.closeStream(srcInputStream);
+    BufferPool.Lease buffer = leaseBuffer(bufferSize);
+    try {
+      byte[] buf = buffer.array();
+      for (String srcEle : srcPathList) {
+        srcInputStream = getSourceInputStream(srcEle);
+        int bytesRead;
+        while ((bytesRead = srcInputStream.read(buf, 0, bufferSize)) != -1) {
+          destInputStream.write(buf, 0, bytesRead);
+        }
+        IOUtils.closeStream(srcInputStream);
+      }
+    } finally {
+      buffer.close();
     }
     IOUtils.closeStream(destInputStream);
     return true;
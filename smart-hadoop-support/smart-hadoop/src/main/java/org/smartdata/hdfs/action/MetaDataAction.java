@@ -19,8 +19,11 @@
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.action.annotation.ActionSignature;
@@ -28,10 +31,23 @@
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * action to set MetaData of file
+ *
+ * <p>With {@link #BATCH}, the src is treated as a directory, whose whole
+ * subtree is changed, or as a glob on the last path component, e.g.
+ * "/dir/*.log". The matched paths are changed by {@link #THREADS} workers
+ * in batches of {@link #BATCH_SIZE} as the subtree is walked. The action
+ * fails if the change cannot be applied to any of them.
  */
 @ActionSignature(
     actionId = "metadata",
@@ -39,7 +55,8 @@
     usage = HdfsAction.FILE_PATH + " $src " + MetaDataAction.OWNER_NAME + " $owner " +
         MetaDataAction.GROUP_NAME + " $group " + MetaDataAction.BLOCK_REPLICATION + " $replication " +
         MetaDataAction.PERMISSION + " $permission " + MetaDataAction.MTIME + " $mtime " +
-        MetaDataAction.ATIME + " $atime"
+        MetaDataAction.ATIME + " $atime " + MetaDataAction.BATCH + " "
+        + MetaDataAction.THREADS + " $threads"
 )
 public class MetaDataAction extends HdfsAction {
   private static final Logger LOG = LoggerFactory.getLogger(MetaDataAction.class);
@@ -50,6 +67,12 @@ public class MetaDataAction extends HdfsAction {
   public static final String PERMISSION = "-permission";
   public static final String MTIME = "-mtime";
   public static final String ATIME = "-atime";
+  public static final String BATCH = "-batch";
+  public static final String THREADS = "-threads";
+  public static final int DEFAULT_THREADS = 8;
+  // The max number of paths changed in a batch
+  static final int BATCH_SIZE = 1000;
+  private static final int MAX_FAILURES_LOGGED = 100;
 
   private String srcPath;
   private String ownerName;
@@ -58,6 +81,10 @@ public class MetaDataAction extends HdfsAction {
   private short permission;
   private long aTime;
   private long mTime;
+  private boolean batch;
+  private int threads;
+  private volatile int total = 0;
+  private final AtomicInteger done = new AtomicInteger(0);
 
   @Override
   public void init(Map<String, String> args) {
@@ -90,6 +117,11 @@ public void init(Map<String, String> args) {
     if (args.containsKey(ATIME)) {
       this.aTime = Long.parseLong(args.get(ATIME));
     }
+    this.batch = args.containsKey(BATCH);
+    this.threads = DEFAULT_THREADS;
+    if (args.containsKey(THREADS)) {
+      this.threads = Math.max(1, Integer.parseInt(args.get(THREADS)));
+    }
   }
 
   @Override
@@ -114,7 +146,174 @@ protected void execute() throws Exception {
             (byte) 1,
             (byte) 0);
 
-    changeFileMetaData(srcPath, fileInfo);
+    if (batch) {
+      if (srcPath.startsWith("hdfs")) {
+        throw new IllegalArgumentException(
+            "Batch mode is only supported for files in local cluster.");
+      }
+      changeMetaDataInBatch(srcPath, fileInfo);
+    } else {
+      changeFileMetaData(srcPath, fileInfo);
+    }
+  }
+
+  private void changeMetaDataInBatch(String src, final FileInfo fileInfo)
+      throws Exception {
+    PathWalker walker = new PathWalker(src);
+    appendLog(String.format("Change metadata of files matched by %s with %d threads",
+        src, threads));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final AtomicInteger numFailed = new AtomicInteger(0);
+    List<String> batch = new ArrayList<>(BATCH_SIZE);
+    List<Future<?>> futures = new ArrayList<>(BATCH_SIZE);
+    try {
+      // The subtree is walked and changed batch by batch to bound the memory
+      while (walker.hasNext()) {
+        batch.clear();
+        while (batch.size() < BATCH_SIZE && walker.hasNext()) {
+          batch.add(walker.next());
+        }
+        total += batch.size();
+        futures.clear();
+        for (final String path : batch) {
+          futures.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                applyLocally(path, fileInfo);
+              } catch (IOException e) {
+                LOG.warn("Metadata cannot be applied to " + path, e);
+                if (numFailed.incrementAndGet() <= MAX_FAILURES_LOGGED) {
+                  appendLog("Metadata cannot be applied to " + path + ": " + e);
+                }
+              } finally {
+                done.incrementAndGet();
+              }
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    int failed = numFailed.get();
+    appendResult(String.format("%d of %d files changed", total - failed, total));
+    if (failed > 0) {
+      throw new IOException(String.format(
+          "Metadata cannot be applied to %d of %d files matched by %s", failed, total, src));
+    }
+  }
+
+  /**
+   * Iterates over the paths matched by src. A glob in the last path
+   * component is matched against the entries of its parent directory,
+   * otherwise a directory is expanded to itself and all of its descendants.
+   * Directories are listed page by page as the paths are consumed.
+   */
+  private class PathWalker {
+    private final LinkedList<String> dirs = new LinkedList<>();
+    private final GlobPattern pattern;
+    private String dir;
+    private byte[] startAfter;
+    private HdfsFileStatus[] page = new HdfsFileStatus[0];
+    private int index = 0;
+    private boolean hasMorePages = false;
+    private String next;
+
+    PathWalker(String src) throws IOException {
+      int sep = src.lastIndexOf('/');
+      String name = src.substring(sep + 1);
+      if (sep >= 0 && isGlob(name)) {
+        pattern = new GlobPattern(name);
+        dirs.add(sep == 0 ? "/" : src.substring(0, sep));
+      } else {
+        pattern = null;
+        HdfsFileStatus status = dfsClient.getFileInfo(src);
+        if (status == null) {
+          throw new IOException("File " + src + " does not exist.");
+        }
+        next = src;
+        if (status.isDir()) {
+          dirs.add(src);
+        }
+      }
+    }
+
+    boolean hasNext() throws IOException {
+      while (next == null) {
+        if (index < page.length) {
+          HdfsFileStatus child = page[index++];
+          String path = child.getFullName(dir);
+          if (pattern == null) {
+            next = path;
+            if (child.isDir()) {
+              dirs.add(path);
+            }
+          } else if (pattern.matches(child.getLocalName())) {
+            next = path;
+          }
+        } else if (hasMorePages) {
+          listPage();
+        } else if (!dirs.isEmpty()) {
+          dir = dirs.poll();
+          startAfter = HdfsFileStatus.EMPTY_NAME;
+          listPage();
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    String next() {
+      String path = next;
+      next = null;
+      return path;
+    }
+
+    private void listPage() throws IOException {
+      DirectoryListing listing = dfsClient.listPaths(dir, startAfter);
+      index = 0;
+      if (listing == null) {
+        page = new HdfsFileStatus[0];
+        hasMorePages = false;
+        return;
+      }
+      page = listing.getPartialListing();
+      hasMorePages = listing.hasMore();
+      startAfter = listing.getLastName();
+    }
+  }
+
+  private static boolean isGlob(String name) {
+    for (char c : name.toCharArray()) {
+      if (c == '*' || c == '?' || c == '[' || c == '{') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Apply the change with as few RPCs as possible: owner and group are set
+   * in one call and a -1 time is left unchanged by the NameNode.
+   */
+  private void applyLocally(String path, FileInfo fileInfo) throws IOException {
+    if (fileInfo.getOwner() != null || fileInfo.getGroup() != null) {
+      dfsClient.setOwner(path, fileInfo.getOwner(), fileInfo.getGroup());
+    }
+    if (fileInfo.getBlockReplication() != -1) {
+      dfsClient.setReplication(path, fileInfo.getBlockReplication());
+    }
+    if (fileInfo.getPermission() != -1) {
+      dfsClient.setPermission(path, new FsPermission(fileInfo.getPermission()));
+    }
+    if (fileInfo.getModificationTime() != -1 || fileInfo.getAccessTime() != -1) {
+      dfsClient.setTimes(path, fileInfo.getModificationTime(), fileInfo.getAccessTime());
+    }
   }
 
   private boolean changeFileMetaData(String srcFile, FileInfo fileInfo) throws IOException {
@@ -191,4 +390,12 @@ private boolean changeFileMetaData(String srcFile, FileInfo fileInfo) throws IOE
     }
     return false;
   }
+
+  @Override
+  public float getProgress() {
+    if (isSuccessful()) {
+      return 1.0F;
+    }
+    return total == 0 ? 0.0F : done.get() * 1.0F / total;
+  }
 }
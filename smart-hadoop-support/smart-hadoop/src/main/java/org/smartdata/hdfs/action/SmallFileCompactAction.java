@@ -21,37 +21,65 @@
 import com.google.gson.reflect.TypeToken;
 import org.apache.commons.lang.SerializationUtils;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.io.IOUtils;
 import org.smartdata.SmartConstants;
 import org.smartdata.SmartFilePermission;
+import org.smartdata.action.BufferPool;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
+import org.smartdata.hdfs.ContainerIndex;
 import org.smartdata.hdfs.HadoopUtil;
 import org.smartdata.model.CompactFileState;
 import org.smartdata.model.FileContainerInfo;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 /**
  * An action to compact small files to a big container file.
+ *
+ * <p>Compaction is pipelined: up to {@link #THREADS} workers open and read
+ * upcoming small files while their predecessors are appended to the
+ * container. A small file is locked by an append stream only until its
+ * content is written, so at most twice as many files as workers are locked
+ * at a time. Small files are only truncated after the container is closed,
+ * if they have not been modified since they were unlocked, and their
+ * metadata is rewritten by the same bounded pool of workers.
+ *
+ * <p>If {@link SmartConfKeys#SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY} is
+ * set, a {@link ContainerIndex} footer covering all the small files of the
+ * container is written after the data.
+ *
+ * <p>With {@link #MAX_PADDING} set, a small file which would straddle a
+ * block boundary of the container starts at the next block instead, as
+ * long as the gap to pad is within the limit.
  */
 @ActionSignature(
     actionId = "compact",
     displayName = "compact",
     usage = HdfsAction.FILE_PATH + " $files "
         + SmallFileCompactAction.CONTAINER_FILE + " $container_file "
+        + SmallFileCompactAction.THREADS + " $threads "
+        + SmallFileCompactAction.MAX_PADDING + " $max_padding "
 )
 public class SmallFileCompactAction extends HdfsAction {
   private float status = 0f;
@@ -60,8 +88,14 @@ public class SmallFileCompactAction extends HdfsAction {
   private String containerFile = null;
   private String containerFilePermission = null;
   private String xAttrName = null;
+  private int threads = DEFAULT_THREADS;
+  private boolean writeIndex = false;
+  private long maxPadding = 0L;
   public static final String CONTAINER_FILE = "-containerFile";
   public static final String CONTAINER_FILE_PERMISSION = "-containerFilePermission";
+  public static final String THREADS = "-threads";
+  public static final int DEFAULT_THREADS = 4;
+  public static final String MAX_PADDING = "-maxPadding";
 
   @Override
   public void init(Map<String, String> args) {
@@ -71,6 +105,15 @@ public void init(Map<String, String> args) {
     this.smallFiles = args.get(FILE_PATH);
     this.containerFile = args.get(CONTAINER_FILE);
     this.containerFilePermission = args.get(CONTAINER_FILE_PERMISSION);
+    this.writeIndex = conf.getBoolean(
+        SmartConfKeys.SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY,
+        SmartConfKeys.SMART_COMPACT_CONTAINER_INDEX_ENABLED_DEFAULT);
+    if (args.containsKey(THREADS)) {
+      this.threads = Math.max(1, Integer.parseInt(args.get(THREADS)));
+    }
+    if (args.containsKey(MAX_PADDING)) {
+      this.maxPadding = Long.parseLong(args.get(MAX_PADDING));
+    }
   }
 
   @Override
@@ -112,8 +155,13 @@ protected void execute() throws Exception {
     // Create container file and set permission if not exists
     long offset;
     OutputStream out;
+    ContainerIndex index = null;
     boolean isContainerFileExist = dfsClient.exists(containerFile);
     if (isContainerFileExist) {
+      if (writeIndex) {
+        // Keep the entries of the previous footer, which becomes dead bytes
+        index = ContainerIndex.read(dfsClient, containerFile);
+      }
       offset = dfsClient.getFileInfo(containerFile).getLen();
       out = CompatibilityHelperLoader.getHelper()
           .getDFSClientAppend(dfsClient, containerFile, 64 * 1024, offset);
@@ -127,67 +175,215 @@ protected void execute() throws Exception {
       }
       offset = 0L;
     }
-    List<CompactFileState> compactFileStates = new ArrayList<>();
+    if (writeIndex && index == null) {
+      index = new ContainerIndex();
+    }
+    long blockSize = maxPadding > 0
+        ? dfsClient.getFileInfo(containerFile).getBlockSize() : 0L;
 
-    for (String smallFile : smallFileList) {
-      if ((smallFile != null) && !smallFile.isEmpty() && dfsClient.exists(smallFile)) {
-        HdfsDataOutputStream append =
-            (HdfsDataOutputStream) CompatibilityHelperLoader.getHelper().getDFSClientAppend(dfsClient, smallFile, 1024);
-        long fileLen = dfsClient.getFileInfo(smallFile).getLen();
-        if (fileLen > 0) {
-          try (InputStream in = dfsClient.open(smallFile)) {
-            // Copy bytes of small file to container file
-            IOUtils.copyBytes(in, out, 4096);
-
-            // Truncate small file, add file container info to XAttr
-            CompactFileState compactFileState = new CompactFileState(
-                smallFile, new FileContainerInfo(containerFile, offset, fileLen));
-            append.close();
-            truncateAndSetXAttr(smallFile, compactFileState);
-
-            // Update compact file state map, offset, status, and log
-            compactFileStates.add(compactFileState);
-            offset += fileLen;
-            this.status = (smallFileList.indexOf(smallFile) + 1.0f)
-                / smallFileList.size();
-            appendLog(String.format(
-                "Compact %s to %s successfully.", smallFile, containerFile));
-          } catch (IOException e) {
-            // Close append, output streams and put compact file state map into action result
-            if (append != null) {
-              append.close();
-            }
-            if (out != null) {
-              out.close();
-              appendResult(new Gson().toJson(compactFileStates));
-            }
-            if (!isContainerFileExist && compactFileStates.isEmpty()) {
-              dfsClient.delete(containerFile, false);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<SmallFile> copied = new ArrayList<>();
+    Deque<Future<SmallFile>> prefetching = new ArrayDeque<>();
+    int total = smallFileList.size();
+    try {
+      // Copy small files to the container while the following ones are prefetched
+      int next = 0;
+      while (next < total || !prefetching.isEmpty()) {
+        while (next < total && prefetching.size() < 2 * threads) {
+          final String smallFile = smallFileList.get(next++);
+          if (smallFile == null || smallFile.isEmpty()) {
+            continue;
+          }
+          prefetching.add(executor.submit(new Callable<SmallFile>() {
+            @Override
+            public SmallFile call() throws Exception {
+              return prefetch(smallFile);
             }
-            throw e;
+          }));
+        }
+        if (prefetching.isEmpty()) {
+          break;
+        }
+        SmallFile smallFile = getResult(prefetching.poll());
+        if (smallFile == null) {
+          continue;
+        }
+        copied.add(smallFile);
+        if (maxPadding > 0) {
+          long aligned = alignOffset(
+              offset, smallFile.data.size(), blockSize, maxPadding);
+          if (aligned > offset) {
+            writePadding(out, (int) (aligned - offset));
+            offset = aligned;
           }
         }
+        int length = smallFile.data.size();
+        out.write(smallFile.data.array(), 0, length);
+        smallFile.state = new CompactFileState(smallFile.path,
+            new FileContainerInfo(containerFile, offset, length));
+        if (index != null) {
+          CRC32 crc = new CRC32();
+          crc.update(smallFile.data.array(), 0, length);
+          index.add(smallFile.path, offset, length, crc.getValue());
+        }
+        offset += length;
+        smallFile.data.close();
+        smallFile.data = null;
+        // Unlock the small file, it is checked for changes before truncation
+        smallFile.lease.close();
+        smallFile.lease = null;
+        smallFile.unlocked = dfsClient.getFileInfo(smallFile.path);
+        this.status = (next - prefetching.size()) / (2.0f * total);
+      }
+      if (index != null && !copied.isEmpty()) {
+        index.writeTo(out, offset);
+      }
+      out.close();
+      out = null;
+    } catch (Exception e) {
+      // Nothing is truncated yet, release the small files and the container
+      for (Future<SmallFile> future : prefetching) {
+        try {
+          copied.add(future.get());
+        } catch (Exception ignored) {
+          // Already failed, no lease held
+        }
+      }
+      for (SmallFile smallFile : copied) {
+        if (smallFile != null) {
+          IOUtils.closeStream(smallFile.lease);
+          IOUtils.closeStream(smallFile.data);
+        }
+      }
+      IOUtils.closeStream(out);
+      appendResult(new Gson().toJson(new ArrayList<CompactFileState>()));
+      if (!isContainerFileExist) {
+        dfsClient.delete(containerFile, false);
       }
+      executor.shutdownNow();
+      throw e;
     }
 
-    appendResult(new Gson().toJson(compactFileStates));
-    if (out != null) {
-      out.close();
+    // The container is complete, truncate small files in parallel
+    List<Future<CompactFileState>> truncating = new ArrayList<>(copied.size());
+    for (final SmallFile smallFile : copied) {
+      truncating.add(executor.submit(new Callable<CompactFileState>() {
+        @Override
+        public CompactFileState call() throws Exception {
+          checkUnchanged(smallFile);
+          truncateAndSetXAttr(smallFile.path, smallFile.status, smallFile.state);
+          return smallFile.state;
+        }
+      }));
+    }
+    executor.shutdown();
+    List<CompactFileState> compactFileStates = new ArrayList<>();
+    Exception error = null;
+    for (int i = 0; i < truncating.size(); i++) {
+      String smallFile = copied.get(i).path;
+      try {
+        compactFileStates.add(getResult(truncating.get(i)));
+        appendLog(String.format(
+            "Compact %s to %s successfully.", smallFile, containerFile));
+      } catch (Exception e) {
+        appendLog(String.format("Failed to compact %s: %s", smallFile, e));
+        if (error == null) {
+          error = e;
+        }
+      }
+      this.status = 0.5f + (i + 1.0f) / (2.0f * copied.size());
     }
+
+    appendResult(new Gson().toJson(compactFileStates));
     if (!isContainerFileExist && compactFileStates.isEmpty()) {
       dfsClient.delete(containerFile, false);
     }
+    if (error != null) {
+      throw error;
+    }
+    this.status = 1.0f;
     appendLog(String.format(
         "Compact all the small files to %s successfully.", containerFile));
   }
 
   /**
-   * Truncate small file and set XAttr contains file container info.
+   * Lock the small file by opening it for append and read its content.
+   *
+   * @return null if the file does not exist or is empty
    */
-  private void truncateAndSetXAttr(String path, CompactFileState compactFileState)
-      throws IOException {
-    // Save original metadata of small file
+  private SmallFile prefetch(String path) throws IOException {
     HdfsFileStatus fileStatus = dfsClient.getFileInfo(path);
+    if (fileStatus == null || fileStatus.isDir() || fileStatus.getLen() == 0) {
+      return null;
+    }
+    OutputStream lease = CompatibilityHelperLoader.getHelper()
+        .getDFSClientAppend(dfsClient, path, 1024);
+    BufferPool.Lease data = null;
+    try (DFSInputStream in = dfsClient.open(path)) {
+      data = leaseBuffer((int) in.getFileLength());
+      IOUtils.readFully(in, data.array(), 0, data.size());
+      return new SmallFile(path, fileStatus, lease, data);
+    } catch (IOException e) {
+      IOUtils.closeStream(data);
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Make sure the small file still has the content copied to the container.
+   */
+  private void checkUnchanged(SmallFile smallFile) throws IOException {
+    HdfsFileStatus unlocked = smallFile.unlocked;
+    HdfsFileStatus current = dfsClient.getFileInfo(smallFile.path);
+    if (unlocked == null || current == null
+        || unlocked.getLen() != smallFile.state.getFileContainerInfo().getLength()
+        || current.getLen() != unlocked.getLen()
+        || current.getModificationTime() != unlocked.getModificationTime()
+        || current.getFileId() != unlocked.getFileId()) {
+      throw new IOException(smallFile.path + " was modified during compaction");
+    }
+  }
+
+  private void writePadding(OutputStream out, int length) throws IOException {
+    try (BufferPool.Lease padding = leaseBuffer(length)) {
+      Arrays.fill(padding.array(), 0, length, (byte) 0);
+      out.write(padding.array(), 0, length);
+    }
+  }
+
+  /**
+   * Get the offset in the container to write a small file at. The small
+   * file is moved to the next block if it would straddle the current one,
+   * fits in a block and the gap is not larger than maxPadding.
+   */
+  public static long alignOffset(long offset, long length, long blockSize,
+      long maxPadding) {
+    if (blockSize <= 0) {
+      return offset;
+    }
+    long rest = blockSize - offset % blockSize;
+    if (length > rest && length <= blockSize && rest <= maxPadding) {
+      return offset + rest;
+    }
+    return offset;
+  }
+
+  private static <T> T getResult(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * Truncate small file and set XAttr contains file container info.
+   */
+  private void truncateAndSetXAttr(String path, HdfsFileStatus fileStatus,
+      CompactFileState compactFileState) throws IOException {
+    // Save original xattrs of small file
     Map<String, byte[]> xAttr = dfsClient.getXAttrs(path);
 
     // Delete file
@@ -222,4 +418,26 @@ private void truncateAndSetXAttr(String path, CompactFileState compactFileState)
   public float getProgress() {
     return this.status;
   }
+
+  /**
+   * A small file read into memory, locked by an append stream until copied.
+   */
+  private static class SmallFile {
+    private final String path;
+    private final HdfsFileStatus status;
+    private OutputStream lease;
+    // The status right after the lock was released
+    private HdfsFileStatus unlocked;
+    // The content, leased from the buffer pool
+    private BufferPool.Lease data;
+    private CompactFileState state;
+
+    SmallFile(String path, HdfsFileStatus status, OutputStream lease,
+        BufferPool.Lease data) {
+      this.path = path;
+      this.status = status;
+      this.lease = lease;
+      this.data = data;
+    }
+  }
 }
@@ -19,9 +19,9 @@
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang.SerializationUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.XAttrSetFlag;
-import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.io.IOUtils;
@@ -29,20 +29,37 @@
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
 import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * An action to recovery contents of compacted ssm small files.
+ *
+ * <p>The container file is read sequentially once, in the order of the
+ * small files' offsets, and every small file is rewritten by a bounded
+ * pool of {@link #THREADS} writers. The result is the list of small files
+ * uncompacted successfully.
  */
 @ActionSignature(
     actionId = "uncompact",
     displayName = "uncompact",
     usage = SmallFileUncompactAction.CONTAINER_FILE + " $container_file "
+        + SmallFileUncompactAction.THREADS + " $threads "
 )
 public class SmallFileUncompactAction extends HdfsAction {
   private float status = 0f;
@@ -50,17 +67,21 @@ public class SmallFileUncompactAction extends HdfsAction {
   private String smallFiles = null;
   private String xAttrName = null;
   private String containerFile = null;
-  private DFSClient smartDFSClient = null;
+  private int threads = DEFAULT_THREADS;
   public static final String CONTAINER_FILE = "-containerFile";
+  public static final String THREADS = "-threads";
+  public static final int DEFAULT_THREADS = 4;
 
   @Override
   public void init(Map<String, String> args) {
     super.init(args);
     this.conf = getContext().getConf();
-    this.smartDFSClient = dfsClient;
     this.xAttrName = SmartConstants.SMART_FILE_STATE_XATTR_NAME;
     this.smallFiles = args.get(FILE_PATH);
     this.containerFile = args.get(CONTAINER_FILE);
+    if (args.containsKey(THREADS)) {
+      this.threads = Math.max(1, Integer.parseInt(args.get(THREADS)));
+    }
   }
 
   @Override
@@ -91,48 +112,146 @@ protected void execute() throws Exception {
         "Action starts at %s : uncompact small files.",
         Utils.getFormatedCurrentTime()));
 
-    for (String smallFile : smallFileList) {
-      if ((smallFile != null) && !smallFile.isEmpty()
-          && dfsClient.exists(smallFile)) {
-        DFSInputStream in = null;
-        OutputStream out = null;
-        try {
-          // Get compact input stream
-          in = smartDFSClient.open(smallFile);
-
-          // Save original metadata of small file and delete original small file
-          HdfsFileStatus fileStatus = dfsClient.getFileInfo(smallFile);
-          Map<String, byte[]> xAttr = dfsClient.getXAttrs(smallFile);
-          dfsClient.delete(smallFile, false);
-
-          // Create new small file
-          out = dfsClient.create(smallFile, true);
-
-          // Copy contents to original small file
-          IOUtils.copyBytes(in, out, 4096);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<String> uncompacted = new ArrayList<>();
+    Exception error = null;
+    try {
+      // Get metadata and location of all the small files in parallel
+      List<Future<SmallFile>> stating = new ArrayList<>(smallFileList.size());
+      for (final String smallFile : smallFileList) {
+        if (smallFile == null || smallFile.isEmpty()) {
+          continue;
+        }
+        stating.add(executor.submit(new Callable<SmallFile>() {
+          @Override
+          public SmallFile call() throws Exception {
+            return getSmallFile(smallFile);
+          }
+        }));
+      }
+      List<SmallFile> members = new ArrayList<>(stating.size());
+      for (Future<SmallFile> future : stating) {
+        SmallFile smallFile = getResult(future);
+        if (smallFile != null) {
+          members.add(smallFile);
+        }
+      }
+      Collections.sort(members, new Comparator<SmallFile>() {
+        @Override
+        public int compare(SmallFile a, SmallFile b) {
+          return Long.compare(a.offset, b.offset);
+        }
+      });
 
-          // Reset file meta data
-          resetFileMeta(smallFile, fileStatus, xAttr);
+      // Read the container once and fan the small files out to the writers,
+      // the number of small files held in memory is bounded
+      final Semaphore inFlight = new Semaphore(2 * threads);
+      List<Future<String>> writing = new ArrayList<>(members.size());
+      try (DFSInputStream in = dfsClient.open(containerFile)) {
+        for (final SmallFile smallFile : members) {
+          inFlight.acquire();
+          try {
+            smallFile.data = new byte[(int) smallFile.length];
+            in.seek(smallFile.offset);
+            IOUtils.readFully(in, smallFile.data, 0, smallFile.data.length);
+          } catch (IOException e) {
+            inFlight.release();
+            throw e;
+          }
+          writing.add(executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+              try {
+                rewrite(smallFile);
+                return smallFile.path;
+              } finally {
+                smallFile.data = null;
+                inFlight.release();
+              }
+            }
+          }));
+        }
+      } catch (IOException e) {
+        error = e;
+      }
 
-          // Set status and update log
-          this.status = (smallFileList.indexOf(smallFile) + 1.0f)
-              / smallFileList.size();
+      for (int i = 0; i < writing.size(); i++) {
+        String smallFile = members.get(i).path;
+        try {
+          uncompacted.add(getResult(writing.get(i)));
           appendLog(String.format("Uncompact %s successfully.", smallFile));
-        } finally {
-          if (in != null) {
-            in.close();
-          }
-          if (out != null) {
-            out.close();
+        } catch (Exception e) {
+          appendLog(String.format("Failed to uncompact %s: %s", smallFile, e));
+          if (error == null) {
+            error = e;
           }
         }
+        this.status = (i + 1.0f) / members.size();
       }
+    } finally {
+      executor.shutdownNow();
+      appendResult(new Gson().toJson(uncompacted));
+    }
+    if (error != null) {
+      throw error;
     }
 
     dfsClient.delete(containerFile, false);
+    this.status = 1.0f;
     appendLog(String.format("Uncompact all the small files of %s successfully.", containerFile));
   }
 
+  /**
+   * Get metadata and container location of the small file.
+   *
+   * @return null if the file does not exist or is not compacted to this container
+   */
+  private SmallFile getSmallFile(String path) throws IOException {
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(path);
+    if (fileStatus == null) {
+      return null;
+    }
+    Map<String, byte[]> xAttr = dfsClient.getXAttrs(path);
+    byte[] state = xAttr.get(xAttrName);
+    if (state == null) {
+      return null;
+    }
+    Object fileState = SerializationUtils.deserialize(state);
+    if (!(fileState instanceof CompactFileState)) {
+      return null;
+    }
+    FileContainerInfo containerInfo =
+        ((CompactFileState) fileState).getFileContainerInfo();
+    if (!containerFile.equals(containerInfo.getContainerFilePath())) {
+      return null;
+    }
+    return new SmallFile(path, fileStatus, xAttr,
+        containerInfo.getOffset(), containerInfo.getLength());
+  }
+
+  /**
+   * Replace the compacted small file by a normal file with its contents.
+   */
+  private void rewrite(SmallFile smallFile) throws IOException {
+    dfsClient.delete(smallFile.path, false);
+    OutputStream out = dfsClient.create(smallFile.path, true);
+    try {
+      out.write(smallFile.data);
+    } finally {
+      out.close();
+    }
+    resetFileMeta(smallFile.path, smallFile.status, smallFile.xAttr);
+  }
+
+  private static <T> T getResult(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
   /**
    * Reset meta data of small file.
    */
@@ -153,4 +272,25 @@ private void resetFileMeta(String path, HdfsFileStatus fileStatus,
   public float getProgress() {
     return this.status;
   }
+
+  /**
+   * A compacted small file and its location in the container.
+   */
+  private static class SmallFile {
+    private final String path;
+    private final HdfsFileStatus status;
+    private final Map<String, byte[]> xAttr;
+    private final long offset;
+    private final long length;
+    private byte[] data;
+
+    SmallFile(String path, HdfsFileStatus status, Map<String, byte[]> xAttr,
+        long offset, long length) {
+      this.path = path;
+      this.status = status;
+      this.xAttr = xAttr;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
 }
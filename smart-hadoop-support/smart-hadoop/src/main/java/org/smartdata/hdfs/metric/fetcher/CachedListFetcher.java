@@ -33,6 +33,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -103,7 +104,8 @@ public List<CachedFileStatus> getCachedList() throws MetaStoreException {
   private static class FetchTask extends Thread {
     private DFSClient dfsClient;
     private MetaStore metaStore;
-    private Set<Long> fileSet;
+    // Snapshot of cached files recorded in DB, path -> fid
+    private Map<String, Long> cachedFiles;
     private boolean reInit;
 
     public FetchTask(DFSClient dfsClient, MetaStore metaStore) {
@@ -113,22 +115,24 @@ public FetchTask(DFSClient dfsClient, MetaStore metaStore) {
     }
 
     private void syncFromDB() {
-      fileSet = new HashSet<>();
+      cachedFiles = new HashMap<>();
       try {
         LOG.debug("Sync CacheObject list from DB!");
-        fileSet.addAll(metaStore.getCachedFids());
+        for (CachedFileStatus status : metaStore.getCachedFileStatus()) {
+          cachedFiles.put(status.getPath(), status.getFid());
+        }
         reInit = false;
       } catch (MetaStoreException e) {
-        LOG.error("Read fids from DB error!", e);
+        LOG.error("Read cached files from DB error!", e);
         reInit = true;
       }
     }
 
     private void clearAll() throws MetaStoreException {
       LOG.debug("CacheObject List empty!");
-      if (fileSet.size() > 0) {
+      if (cachedFiles.size() > 0) {
         metaStore.deleteAllCachedFile();
-        fileSet.clear();
+        cachedFiles.clear();
       }
     }
 
@@ -136,9 +140,10 @@ private void clearAll() throws MetaStoreException {
     public void run() {
       if (reInit) {
         syncFromDB();
+        if (reInit) {
+          return;
+        }
       }
-      Set<Long> newFileSet = new HashSet<>();
-      List<CachedFileStatus> cachedFileStatuses = new ArrayList<>();
       try {
         CacheDirectiveInfo.Builder filterBuilder = new CacheDirectiveInfo.Builder();
         filterBuilder.setPool(CacheScheduler.SSM_POOL);
@@ -162,7 +167,7 @@ public void run() {
           clearAll();
           return;
         }
-        List<String> paths = new ArrayList<>();
+        Set<String> paths = new HashSet<>();
 
         while (cacheDirectives.hasNext()) {
           CacheDirectiveEntry cacheDirectiveEntry = cacheDirectives.next();
@@ -172,36 +177,45 @@ public void run() {
           LOG.debug("File in HDFS cache: " + currentInfo.getPath().toString());
         }
 
-
         //add cache information into metastore
         metaStore.insertUpdateStoragesTable(
             new StorageCapacity("cache", cacheMaxSize, cacheMaxSize - cacheUsage));
 
-        // Delete all records to avoid conflict
-        // metaStore.deleteAllCachedFile();
-        // Insert new records into DB
-        Map<String, Long> pathFid = metaStore.getFileIDs(paths);
-        if (pathFid == null || pathFid.size() == 0) {
-          clearAll();
-          return;
-        }
-        for (String p : pathFid.keySet()) {
-          long fid = pathFid.get(p);
-          newFileSet.add(fid);
-          if (!fileSet.contains(fid)) {
-            cachedFileStatuses.add(new CachedFileStatus(fid,
-                p, Time.now(), Time.now(), 0));
+        // Diff against the snapshot, only newly cached paths need fid lookup
+        List<String> added = new ArrayList<>();
+        for (String p : paths) {
+          if (!cachedFiles.containsKey(p)) {
+            added.add(p);
           }
         }
-        if (cachedFileStatuses.size() != 0) {
-          metaStore.insertCachedFiles(cachedFileStatuses);
+        List<String> removed = new ArrayList<>();
+        List<Long> toDelete = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : cachedFiles.entrySet()) {
+          if (!paths.contains(entry.getKey())) {
+            removed.add(entry.getKey());
+            toDelete.add(entry.getValue());
+          }
         }
-        // Remove uncached files from DB
-        for (Long fid : fileSet) {
-          if (!newFileSet.contains(fid)) {
-            metaStore.deleteCachedFile(fid);
+        List<CachedFileStatus> toInsert = new ArrayList<>();
+        Map<String, Long> pathFid = added.isEmpty()
+            ? new HashMap<String, Long>() : metaStore.getFileIDs(added);
+        if (pathFid != null) {
+          long now = Time.now();
+          for (Map.Entry<String, Long> entry : pathFid.entrySet()) {
+            toInsert.add(new CachedFileStatus(entry.getValue(),
+                entry.getKey(), now, now, 0));
           }
         }
+        if (toInsert.isEmpty() && toDelete.isEmpty()) {
+          return;
+        }
+        metaStore.updateCachedFiles(toInsert, toDelete);
+        for (String p : removed) {
+          cachedFiles.remove(p);
+        }
+        for (CachedFileStatus status : toInsert) {
+          cachedFiles.put(status.getPath(), status.getFid());
+        }
       } catch (MetaStoreException e) {
         LOG.error("Sync cached file list SQL error!", e);
         reInit = true;
@@ -209,7 +223,6 @@ public void run() {
         LOG.error("Sync cached file list HDFS error!", e);
         reInit = true;
       }
-      fileSet = newFileSet;
     }
   }
 }
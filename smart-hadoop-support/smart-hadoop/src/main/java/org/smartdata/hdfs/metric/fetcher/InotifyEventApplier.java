@@ -17,6 +17,7 @@
  */
 package org.smartdata.hdfs.metric.fetcher;
 
+import org.apache.commons.lang.SerializationUtils;
 import org.apache.hadoop.fs.XAttr;
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.inotify.Event;
@@ -24,6 +25,7 @@
 import org.apache.hadoop.io.WritableUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.SmartConstants;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
 import org.smartdata.hdfs.HadoopUtil;
@@ -31,6 +33,7 @@
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.BackUpInfo;
+import org.smartdata.model.BlockECFileState;
 import org.smartdata.model.FileDiff;
 import org.smartdata.model.FileDiffType;
 import org.smartdata.model.FileInfo;
@@ -39,6 +42,7 @@
 import java.io.DataInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.io.IOException;
 import java.net.URI;
@@ -210,6 +214,8 @@ private String getCreateSql(Event.CreateEvent createEvent) throws IOException, M
       }
     }
     metaStore.deleteFileByPath(fileInfo.getPath());
+    // An overwritten block erasure coded file leaves its parity behind
+    deleteParityFiles(getBlockECFileStates(fileInfo.getPath(), false));
     metaStore.deleteFileState(fileInfo.getPath());
     metaStore.insertFile(fileInfo);
     return "";
@@ -308,6 +314,11 @@ private List<String> getRenameSql(Event.RenameEvent renameEvent)
     FileInfo destInfo = metaStore.getFile(dest);
     if (destInfo != null) {
       metaStore.deleteFileByPath(dest);
+      if (!destInfo.isdir()
+          && deleteParityFiles(getBlockECFileStates(dest, false))) {
+        ret.add(String.format("DELETE FROM file_state WHERE path = '%s';", dest));
+        ret.add(String.format("DELETE FROM block_ec_file WHERE path = '%s';", dest));
+      }
     }
     // src is not in file table because it is not fetched or other reason
     if (info == null) {
@@ -338,6 +349,8 @@ private List<String> getRenameSql(Event.RenameEvent renameEvent)
             + "WHERE path = '%s';", src, dest, src));
         ret.add(String.format("UPDATE small_file SET path = replace(path, '%s', '%s') "
             + "WHERE path = '%s';", src, dest, src));
+        ret.add(String.format("UPDATE block_ec_file SET path = replace(path, '%s', '%s') "
+            + "WHERE path = '%s';", src, dest, src));
         if (info.isdir()) {
           if (metaStore.getDbType() == DBType.MYSQL) {
             ret.add(String.format("UPDATE file SET path = CONCAT('%s', SUBSTR(path, %d)) "
@@ -346,6 +359,8 @@ private List<String> getRenameSql(Event.RenameEvent renameEvent)
                 + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
             ret.add(String.format("UPDATE small_file SET path = CONCAT('%s', SUBSTR(path, %d)) "
                 + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
+            ret.add(String.format("UPDATE block_ec_file SET path = CONCAT('%s', SUBSTR(path, %d)) "
+                + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
           } else if (metaStore.getDbType() == DBType.SQLITE) {
             ret.add(String.format("UPDATE file SET path = '%s' || SUBSTR(path, %d) "
                 + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
@@ -353,6 +368,8 @@ private List<String> getRenameSql(Event.RenameEvent renameEvent)
                 + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
             ret.add(String.format("UPDATE small_file SET path = '%s' || SUBSTR(path, %d) "
                 + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
+            ret.add(String.format("UPDATE block_ec_file SET path = '%s' || SUBSTR(path, %d) "
+                + "WHERE path LIKE '%s/%%';", dest, src.length() + 1, src));
           }
         }
       }
@@ -476,13 +493,15 @@ private List<String> getUnlinkSql(Event.UnlinkEvent unlinkEvent) throws MetaStor
       return Arrays.asList(
           String.format("DELETE FROM file WHERE path like '%s%%'", root),
           String.format("DELETE FROM file_state WHERE path like '%s%%'", root),
-          String.format("DELETE FROM small_file WHERE path like '%s%%'", root));
+          String.format("DELETE FROM small_file WHERE path like '%s%%'", root),
+          String.format("DELETE FROM block_ec_file WHERE path like '%s%%'", root));
     }
     String path = unlinkEvent.getPath();
     // file has no "/" appended in the metaStore
     FileInfo fileInfo = metaStore.getFile(path.endsWith("/") ?
         path.substring(0, path.length() - 1) : path);
     if (fileInfo == null) return Arrays.asList();
+    deleteParityFiles(getBlockECFileStates(fileInfo.getPath(), fileInfo.isdir()));
     if (fileInfo.isdir()) {
       insertDeleteDiff(unlinkEvent.getPath(), true);
       // delete all files in this dir from file table
@@ -492,14 +511,70 @@ private List<String> getUnlinkSql(Event.UnlinkEvent unlinkEvent) throws MetaStor
           String.format("DELETE FROM file_state WHERE path LIKE '%s/%%';", unlinkEvent.getPath()),
           String.format("DELETE FROM file_state WHERE path = '%s';", unlinkEvent.getPath()),
           String.format("DELETE FROM small_file WHERE path LIKE '%s/%%';", unlinkEvent.getPath()),
-          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()));
+          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM block_ec_file WHERE path LIKE '%s/%%';",
+              unlinkEvent.getPath()));
     } else {
       insertDeleteDiff(unlinkEvent.getPath(), false);
       // delete file in file table
       return Arrays.asList(
           String.format("DELETE FROM file WHERE path = '%s';", unlinkEvent.getPath()),
           String.format("DELETE FROM file_state WHERE path = '%s';", unlinkEvent.getPath()),
-          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()));
+          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM block_ec_file WHERE path = '%s';", unlinkEvent.getPath()));
+    }
+  }
+
+  private List<BlockECFileState> getBlockECFileStates(String path, boolean isDir)
+      throws MetaStoreException {
+    if (isDir) {
+      return metaStore.getBlockECFileStatesUnder(path.endsWith("/") ? path : path + "/");
+    }
+    BlockECFileState state = metaStore.getBlockECFileState(path);
+    return state == null
+        ? Collections.<BlockECFileState>emptyList() : Collections.singletonList(state);
+  }
+
+  /**
+   * Delete the parity files of block erasure coded files which are deleted
+   * or overwritten. Parity still referred to by the file now at the same
+   * path is kept, e.g., if the event is applied after the new file has
+   * been erasure coded.
+   *
+   * @return true if any of the states is stale
+   */
+  private boolean deleteParityFiles(List<BlockECFileState> states) {
+    boolean stale = false;
+    for (BlockECFileState state : states) {
+      if (isParityInUse(state)) {
+        continue;
+      }
+      stale = true;
+      for (int i = 0; i < state.getNumParityUnits(); i++) {
+        String parityFile = state.getParityFilePath(i);
+        try {
+          client.delete(parityFile, false);
+        } catch (IOException e) {
+          LOG.warn("Failed to delete parity file " + parityFile, e);
+        }
+      }
+    }
+    return stale;
+  }
+
+  private boolean isParityInUse(BlockECFileState state) {
+    try {
+      byte[] value = client.getXAttr(state.getPath(),
+          SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+      if (value == null) {
+        return false;
+      }
+      Object current = SerializationUtils.deserialize(value);
+      return current instanceof BlockECFileState
+          && ((BlockECFileState) current).getParityPath().equals(state.getParityPath());
+    } catch (Exception e) {
+      // The file is gone or has no file state
+      return false;
     }
   }
 
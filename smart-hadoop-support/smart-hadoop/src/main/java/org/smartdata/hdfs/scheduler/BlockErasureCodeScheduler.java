@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import com.google.gson.Gson;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.SmartContext;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.hdfs.action.BlockErasureCodeFileAction;
+import org.smartdata.hdfs.action.HdfsAction;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.BlockECFileState;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.FileState;
+import org.smartdata.model.LaunchAction;
+import org.smartdata.model.action.ScheduleResult;
+import org.smartdata.protocol.message.LaunchCmdlet;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A scheduler for block level erasure code action.
+ */
+public class BlockErasureCodeScheduler extends ActionSchedulerService {
+  public static final Logger LOG =
+      LoggerFactory.getLogger(BlockErasureCodeScheduler.class);
+  public static final String BLOCK_EC_ACTION_ID =
+      BlockErasureCodeFileAction.class.getAnnotation(ActionSignature.class).actionId();
+  public static final List<String> actions = Collections.singletonList(BLOCK_EC_ACTION_ID);
+
+  private DFSClient dfsClient;
+  private final URI nnUri;
+  private MetaStore metaStore;
+  private SmartConf conf;
+  private String parityDir;
+  private Set<String> fileLock;
+
+  public BlockErasureCodeScheduler(SmartContext context, MetaStore metaStore)
+      throws IOException {
+    super(context, metaStore);
+    this.conf = context.getConf();
+    this.metaStore = metaStore;
+    this.nnUri = HadoopUtil.getNameNodeUri(conf);
+    this.parityDir = conf.get(SmartConfKeys.SMART_BLOCK_EC_PARITY_DIR_KEY,
+        SmartConfKeys.SMART_BLOCK_EC_PARITY_DIR_DEFAULT);
+    this.fileLock = new HashSet<>();
+  }
+
+  @Override
+  public void init() throws IOException {
+    dfsClient = HadoopUtil.getDFSClient(nnUri, conf);
+  }
+
+  @Override
+  public void start() throws IOException {
+  }
+
+  @Override
+  public void stop() throws IOException {
+  }
+
+  @Override
+  public List<String> getSupportedActions() {
+    return actions;
+  }
+
+  /**
+   * Check if the file can be erasure coded at block level.
+   *
+   * @param path
+   * @return true if it's a normal file, else false
+   */
+  public boolean supportBlockEC(String path) throws MetaStoreException, IOException {
+    if (path == null) {
+      LOG.warn("File path is not specified.");
+      return false;
+    }
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(path);
+    if (fileStatus == null || fileStatus.isDir()) {
+      LOG.warn("Block erasure code is only applicable to an existing file: " + path);
+      return false;
+    }
+    // Combining block EC with compression, compaction, etc. is not supported
+    FileState fileState = metaStore.getFileState(path);
+    if (fileState.getFileType().equals(FileState.FileType.NORMAL)
+        && fileState.getFileStage().equals(FileState.FileStage.DONE)) {
+      return true;
+    }
+    LOG.debug("File " + path + " doesn't support block erasure code action. "
+        + "Type: " + fileState.getFileType() + "; Stage: " + fileState.getFileStage());
+    return false;
+  }
+
+  @Override
+  public boolean onSubmit(CmdletInfo cmdletInfo, ActionInfo actionInfo,
+      int actionIndex) {
+    if (!actions.contains(actionInfo.getActionName())) {
+      return false;
+    }
+    String srcPath = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+    if (fileLock.contains(srcPath)) {
+      return false;
+    }
+    try {
+      if (!supportBlockEC(srcPath)) {
+        return false;
+      }
+      // Keep other actions off the file until its layout is recorded
+      metaStore.insertUpdateFileState(new FileState(srcPath,
+          FileState.FileType.BLOCK_EC, FileState.FileStage.PROCESSING));
+      return true;
+    } catch (MetaStoreException e) {
+      LOG.error("Failed to submit action due to metastore exception!", e);
+      return false;
+    } catch (IOException e) {
+      LOG.error(e.getMessage());
+      return false;
+    }
+  }
+
+  @Override
+  public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
+      LaunchCmdlet cmdlet, LaunchAction action, int actionIndex) {
+    if (!action.getArgs().containsKey(BlockErasureCodeFileAction.PARITY_DIR)) {
+      action.getArgs().put(BlockErasureCodeFileAction.PARITY_DIR, parityDir);
+      actionInfo.getArgs().put(BlockErasureCodeFileAction.PARITY_DIR, parityDir);
+    }
+    fileLock.add(actionInfo.getArgs().get(HdfsAction.FILE_PATH));
+    return ScheduleResult.SUCCESS;
+  }
+
+  @Override
+  public void onActionFinished(CmdletInfo cmdletInfo, ActionInfo actionInfo, int actionIndex) {
+    if (!actionInfo.isFinished()) {
+      return;
+    }
+    String srcPath = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+    try {
+      String result = actionInfo.getResult();
+      if (!actionInfo.isSuccessful() || result == null || result.isEmpty()) {
+        // No record in FileState table means the file is normal type
+        metaStore.deleteFileState(srcPath);
+        return;
+      }
+      BlockECFileState ecState = new Gson().fromJson(result, BlockECFileState.class);
+      ecState.setFileStage(FileState.FileStage.DONE);
+      metaStore.insertUpdateFileState(ecState);
+    } catch (MetaStoreException e) {
+      LOG.error("Block erasure code action failed in metastore!", e);
+    } catch (Exception e) {
+      LOG.error("Block erasure code action error", e);
+    } finally {
+      fileLock.remove(srcPath);
+    }
+  }
+}
@@ -18,28 +18,45 @@
 package org.smartdata.hdfs.scheduler;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.fs.CacheFlag;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
 import org.apache.hadoop.hdfs.protocol.CachePoolInfo;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartContext;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.hdfs.action.CacheFileAction;
 import org.smartdata.hdfs.action.HdfsAction;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
 import org.smartdata.model.LaunchAction;
 import org.smartdata.model.action.ScheduleResult;
 import org.smartdata.protocol.message.LaunchCmdlet;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class CacheScheduler extends ActionSchedulerService {
   private static final Logger LOG =
@@ -53,10 +70,23 @@ public class CacheScheduler extends ActionSchedulerService {
   private DFSClient dfsClient;
   private static boolean isCachePoolCreated;
 
+  private final long batchWindowMs;
+  private ScheduledExecutorService executorService;
+  // Actions waiting for the next batch, keyed by path
+  private final Map<String, PendingDirective> pendingDirectives = new LinkedHashMap<>();
+  // Cmdlets of actions handed over to a batch but not yet reported back,
+  // keyed by action id
+  private final Map<Long, CmdletInfo> batchedActions = new HashMap<>();
+  // Schedule results of batched actions, keyed by action id
+  private final Map<Long, ScheduleResult> batchResults = new HashMap<>();
+
   public CacheScheduler(SmartContext context, MetaStore metaStore) {
     super(context, metaStore);
     fileLock = new HashSet<>();
     isCachePoolCreated = false;
+    batchWindowMs = context.getConf().getLong(
+        SmartConfKeys.SMART_CACHE_BATCH_WINDOW_MS_KEY,
+        SmartConfKeys.SMART_CACHE_BATCH_WINDOW_MS_DEFAULT);
   }
 
   @Override
@@ -86,8 +116,199 @@ public boolean onSubmit(CmdletInfo cmdletInfo, ActionInfo actionInfo, int action
   public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
       LaunchCmdlet cmdlet, LaunchAction action, int actionIndex) {
     String srcPath = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
-    fileLock.add(srcPath);
-    return ScheduleResult.SUCCESS;
+    if (!isBatchEnabled() || srcPath == null || cmdletInfo.getAids().size() != 1) {
+      fileLock.add(srcPath);
+      return ScheduleResult.SUCCESS;
+    }
+    // Single cache/uncache actions are applied by the batch task and
+    // need no execution on agents.
+    long aid = actionInfo.getActionId();
+    synchronized (pendingDirectives) {
+      ScheduleResult result = batchResults.remove(aid);
+      if (result != null) {
+        batchedActions.remove(aid);
+        return result;
+      }
+      if (!batchedActions.containsKey(aid)) {
+        batchedActions.put(aid, cmdletInfo);
+        PendingDirective pending = pendingDirectives.get(srcPath);
+        if (pending == null) {
+          pending = new PendingDirective();
+          pendingDirectives.put(srcPath, pending);
+        }
+        pending.actions.add(actionInfo);
+      }
+      return ScheduleResult.RETRY;
+    }
+  }
+
+  private boolean isBatchEnabled() {
+    return batchWindowMs > 0 && dfsClient != null;
+  }
+
+  @VisibleForTesting
+  public int getNumBatchedActions() {
+    synchronized (pendingDirectives) {
+      return batchedActions.size();
+    }
+  }
+
+  /**
+   * Forget the batched action, whether it is still waiting for a batch or
+   * its result has not been collected yet.
+   */
+  private void removeBatchedAction(long aid) {
+    batchedActions.remove(aid);
+    batchResults.remove(aid);
+    Iterator<PendingDirective> it = pendingDirectives.values().iterator();
+    while (it.hasNext()) {
+      PendingDirective pending = it.next();
+      Iterator<ActionInfo> actions = pending.actions.iterator();
+      while (actions.hasNext()) {
+        if (actions.next().getActionId() == aid) {
+          actions.remove();
+        }
+      }
+      if (pending.actions.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop batched actions whose cmdlets have been cancelled or disabled in
+   * the meantime, as they will never be scheduled again.
+   */
+  private void removeCancelledActions() {
+    List<Long> cancelled = new ArrayList<>();
+    for (Map.Entry<Long, CmdletInfo> entry : batchedActions.entrySet()) {
+      if (CmdletState.isTerminalState(entry.getValue().getState())) {
+        cancelled.add(entry.getKey());
+      }
+    }
+    for (long aid : cancelled) {
+      removeBatchedAction(aid);
+    }
+  }
+
+  /**
+   * Apply all pending cache and uncache requests. Directives are looked up
+   * with one listing, and requests for the same path are coalesced so that
+   * at most one directive RPC is issued per path. The last action scheduled
+   * for a path decides its final cache state; earlier actions of the other
+   * kind are superseded by it and reported as failed.
+   */
+  @VisibleForTesting
+  public void flushDirectives() {
+    Map<String, PendingDirective> batch;
+    synchronized (pendingDirectives) {
+      removeCancelledActions();
+      if (pendingDirectives.isEmpty()) {
+        return;
+      }
+      batch = new LinkedHashMap<>(pendingDirectives);
+      pendingDirectives.clear();
+    }
+
+    Map<String, Long> directives = null;
+    try {
+      directives = listDirectives();
+    } catch (IOException e) {
+      LOG.error("Failed to list cache directives", e);
+    }
+    Map<Long, ScheduleResult> results = new HashMap<>();
+    for (Map.Entry<String, PendingDirective> entry : batch.entrySet()) {
+      String path = entry.getKey();
+      List<ActionInfo> actions = entry.getValue().actions;
+      ActionInfo last = actions.get(actions.size() - 1);
+      String action = last.getActionName();
+      ScheduleResult result = ScheduleResult.SUCCESS_NO_EXECUTION;
+      String log;
+      try {
+        if (directives == null) {
+          throw new IOException("Cache directives are unavailable");
+        }
+        log = applyDirective(path, last, directives.get(path));
+      } catch (IOException e) {
+        LOG.warn("Failed to " + action + " " + path, e);
+        log = "Failed to " + action + " " + path + ": " + e;
+        result = ScheduleResult.FAIL;
+      }
+      for (ActionInfo actionInfo : actions) {
+        synchronized (actionInfo) {
+          if (action.equals(actionInfo.getActionName())) {
+            actionInfo.appendLogLine(log);
+            results.put(actionInfo.getActionId(), result);
+          } else {
+            actionInfo.appendLogLine(String.format("Superseded by %s action %d on %s",
+                action, last.getActionId(), path));
+            results.put(actionInfo.getActionId(), ScheduleResult.FAIL);
+          }
+        }
+      }
+    }
+    synchronized (pendingDirectives) {
+      for (Map.Entry<Long, ScheduleResult> entry : results.entrySet()) {
+        // Skip actions finished or cancelled while the batch was applied
+        if (batchedActions.containsKey(entry.getKey())) {
+          batchResults.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  private String applyDirective(String path, ActionInfo actionInfo,
+      Long directiveId) throws IOException {
+    if (UNCACHE_ACTION.equals(actionInfo.getActionName())) {
+      if (directiveId == null) {
+        return String.format("File %s is not in cache. "
+            + "So there is no need to execute this action.", path);
+      }
+      dfsClient.removeCacheDirective(directiveId);
+      return "Uncached " + path;
+    }
+    if (directiveId != null) {
+      return "The given file has already been cached, "
+          + "so there is no need to execute this action.";
+    }
+    String replica = actionInfo.getArgs().get(CacheFileAction.REPLICA);
+    short replication = replica == null ? 0 : Short.parseShort(replica);
+    if (replication == 0) {
+      HdfsFileStatus fileStatus = dfsClient.getFileInfo(path);
+      if (fileStatus == null) {
+        throw new IOException("File does not exist");
+      }
+      replication = fileStatus.isDir() ? 1 : fileStatus.getReplication();
+    }
+    CacheDirectiveInfo info = new CacheDirectiveInfo.Builder()
+        .setPath(new Path(path))
+        .setPool(SSM_POOL)
+        .setReplication(replication)
+        .build();
+    long id = dfsClient.addCacheDirective(info, EnumSet.noneOf(CacheFlag.class));
+    // Only the action whose args created the directive owns it
+    synchronized (actionInfo) {
+      actionInfo.appendResult(CacheFileAction.DIRECTIVE_ADDED + id);
+    }
+    return "Cached " + path;
+  }
+
+  private Map<String, Long> listDirectives() throws IOException {
+    Map<String, Long> directives = new HashMap<>();
+    RemoteIterator<CacheDirectiveEntry> it =
+        dfsClient.listCacheDirectives(new CacheDirectiveInfo.Builder().build());
+    while (it.hasNext()) {
+      CacheDirectiveInfo info = it.next().getInfo();
+      String path = info.getPath().toUri().getPath();
+      if (!directives.containsKey(path)) {
+        directives.put(path, info.getId());
+      }
+    }
+    return directives;
+  }
+
+  private static class PendingDirective {
+    private final List<ActionInfo> actions = new ArrayList<>();
   }
 
   @Override
@@ -127,6 +348,9 @@ public void onActionFinished(CmdletInfo cmdletInfo, ActionInfo actionInfo, int a
     if (!ACTIONS.contains(actionInfo.getActionName())) {
       return;
     }
+    synchronized (pendingDirectives) {
+      removeBatchedAction(actionInfo.getActionId());
+    }
     if (isLocked(actionInfo)) {
       fileLock.remove(actionInfo.getArgs().get(HdfsAction.FILE_PATH));
     }
@@ -134,9 +358,25 @@ public void onActionFinished(CmdletInfo cmdletInfo, ActionInfo actionInfo, int a
 
   @Override
   public void start() throws IOException {
+    if (batchWindowMs > 0 && dfsClient != null) {
+      executorService = Executors.newSingleThreadScheduledExecutor();
+      executorService.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            flushDirectives();
+          } catch (Throwable t) {
+            LOG.error("Failed to apply cache directives", t);
+          }
+        }
+      }, batchWindowMs, batchWindowMs, TimeUnit.MILLISECONDS);
+    }
   }
 
   @Override
   public void stop() throws IOException {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
   }
 }
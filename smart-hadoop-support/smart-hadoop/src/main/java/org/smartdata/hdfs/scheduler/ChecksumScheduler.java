@@ -0,0 +1,252 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import com.google.gson.Gson;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.SmartContext;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.hdfs.action.CheckSumAction;
+import org.smartdata.hdfs.action.HdfsAction;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.FileBlockChecksum;
+import org.smartdata.model.LaunchAction;
+import org.smartdata.model.action.ScheduleResult;
+import org.smartdata.protocol.message.LaunchCmdlet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A scheduler for checksum action. It persists the block checksums written
+ * by the action to a file in the SSM work dir and, for incremental runs,
+ * writes the fingerprints of the stored checksums to another file read by
+ * the action, so that unchanged files are skipped. Both files are read and
+ * written in bounded batches and deleted once the action finishes.
+ */
+public class ChecksumScheduler extends ActionSchedulerService {
+  private static final Logger LOG = LoggerFactory.getLogger(ChecksumScheduler.class);
+  public static final String CHECKSUM_ACTION_ID =
+      CheckSumAction.class.getAnnotation(ActionSignature.class).actionId();
+  public static final List<String> ACTIONS = Arrays.asList(CHECKSUM_ACTION_ID);
+  public static final String CHECKSUM_DIR = "checksum/";
+  private static final String CHECKSUM_FILE_SUFFIX = ".checksums";
+  private static final String FINGERPRINT_FILE_SUFFIX = ".fingerprints";
+  private static final int PERSIST_BATCH_SIZE = 1000;
+
+  private MetaStore metaStore;
+  private DFSClient dfsClient;
+  private final String checksumDir;
+
+  public ChecksumScheduler(SmartContext context, MetaStore metaStore) {
+    super(context, metaStore);
+    this.metaStore = metaStore;
+    String workDir = context.getConf().get(
+        SmartConfKeys.SMART_WORK_DIR_KEY, SmartConfKeys.SMART_WORK_DIR_DEFAULT);
+    this.checksumDir = workDir + (workDir.endsWith("/") ? "" : "/") + CHECKSUM_DIR;
+  }
+
+  @Override
+  public void init() throws IOException {
+    try {
+      URI nnUri = HadoopUtil.getNameNodeUri(getContext().getConf());
+      dfsClient = HadoopUtil.getDFSClient(nnUri, getContext().getConf());
+    } catch (IOException e) {
+      LOG.warn("Failed to create dfsClient! Incremental checksum will not work!", e);
+    }
+  }
+
+  @Override
+  public void start() throws IOException {
+  }
+
+  @Override
+  public void stop() throws IOException {
+  }
+
+  @Override
+  public List<String> getSupportedActions() {
+    return ACTIONS;
+  }
+
+  @Override
+  public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
+      LaunchCmdlet cmdlet, LaunchAction action, int actionIndex) {
+    Map<String, String> args = action.getArgs();
+    if (!args.containsKey(CheckSumAction.BLOCK_CHECKSUM)
+        && !args.containsKey(CheckSumAction.INCREMENTAL)) {
+      return ScheduleResult.SUCCESS;
+    }
+    if (dfsClient == null) {
+      LOG.warn("DFSClient is not initialized, block checksums of action {} "
+          + "are neither looked up nor persisted", actionInfo.getActionId());
+      return ScheduleResult.SUCCESS;
+    }
+    String prefix = checksumDir + actionInfo.getActionId();
+    if (args.containsKey(CheckSumAction.BLOCK_CHECKSUM)) {
+      setArg(actionInfo, action, CheckSumAction.CHECKSUM_FILE, prefix + CHECKSUM_FILE_SUFFIX);
+    }
+    if (args.containsKey(CheckSumAction.INCREMENTAL)) {
+      String path = args.get(HdfsAction.FILE_PATH);
+      String fingerprintFile = prefix + FINGERPRINT_FILE_SUFFIX;
+      try {
+        writeFingerprints(path, fingerprintFile);
+        setArg(actionInfo, action, CheckSumAction.KNOWN_FINGERPRINTS, fingerprintFile);
+      } catch (IOException | MetaStoreException e) {
+        // Fall back to a full run
+        LOG.warn("Failed to get checksum fingerprints of " + path, e);
+      }
+    }
+    return ScheduleResult.SUCCESS;
+  }
+
+  private static void setArg(ActionInfo actionInfo, LaunchAction action,
+      String key, String value) {
+    action.getArgs().put(key, value);
+    actionInfo.getArgs().put(key, value);
+  }
+
+  /**
+   * Write the fingerprints of the files under path with stored block
+   * checksums, looked up a page of the directory listing at a time.
+   */
+  private void writeFingerprints(String path, String fingerprintFile)
+      throws IOException, MetaStoreException {
+    if (path == null || path.isEmpty()) {
+      return;
+    }
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        dfsClient.create(fingerprintFile, true), StandardCharsets.UTF_8))) {
+      if (path.charAt(path.length() - 1) == '*') {
+        String dir = path.substring(0, path.length() - 1);
+        byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+        DirectoryListing listing;
+        do {
+          listing = dfsClient.listPaths(dir, startAfter);
+          if (listing == null) {
+            break;
+          }
+          List<Long> fids = new ArrayList<>();
+          for (HdfsFileStatus status : listing.getPartialListing()) {
+            if (!status.isDir()) {
+              fids.add(status.getFileId());
+            }
+          }
+          writeFingerprints(writer, fids);
+          startAfter = listing.getLastName();
+        } while (listing.hasMore());
+      } else {
+        HdfsFileStatus status = dfsClient.getFileInfo(path);
+        if (status != null && !status.isDir()) {
+          writeFingerprints(writer, Collections.singletonList(status.getFileId()));
+        }
+      }
+    }
+  }
+
+  private void writeFingerprints(Writer writer, List<Long> fids)
+      throws IOException, MetaStoreException {
+    for (Map.Entry<Long, long[]> entry
+        : metaStore.getBlockChecksumFingerprints(fids).entrySet()) {
+      CheckSumAction.writeFingerprint(writer, entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void onActionFinished(CmdletInfo cmdletInfo, ActionInfo actionInfo, int actionIndex) {
+    if (!ACTIONS.contains(actionInfo.getActionName()) || !actionInfo.isFinished()) {
+      return;
+    }
+    String checksumFile = actionInfo.getArgs().get(CheckSumAction.CHECKSUM_FILE);
+    String fingerprintFile = actionInfo.getArgs().get(CheckSumAction.KNOWN_FINGERPRINTS);
+    if (dfsClient == null) {
+      return;
+    }
+    try {
+      if (checksumFile != null && actionInfo.isSuccessful()) {
+        persistChecksums(checksumFile);
+      }
+    } catch (MetaStoreException e) {
+      LOG.error("Failed to persist block checksums!", e);
+    } catch (Exception e) {
+      LOG.error("Failed to read block checksums of action " + actionInfo.getActionId(), e);
+    } finally {
+      deleteQuietly(checksumFile);
+      deleteQuietly(fingerprintFile);
+    }
+  }
+
+  /**
+   * Persist the block checksums written by the action in batches.
+   */
+  private void persistChecksums(String checksumFile) throws IOException, MetaStoreException {
+    if (dfsClient.getFileInfo(checksumFile) == null) {
+      return;
+    }
+    Gson gson = new Gson();
+    List<FileBlockChecksum> batch = new ArrayList<>(PERSIST_BATCH_SIZE);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        dfsClient.open(checksumFile), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        batch.add(gson.fromJson(line, FileBlockChecksum.class));
+        if (batch.size() >= PERSIST_BATCH_SIZE) {
+          metaStore.insertUpdateBlockChecksums(batch);
+          batch.clear();
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      metaStore.insertUpdateBlockChecksums(batch);
+    }
+  }
+
+  private void deleteQuietly(String file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      dfsClient.delete(file, false);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete " + file, e);
+    }
+  }
+}
@@ -263,6 +263,11 @@ private void onCompressActionFinished(ActionInfo actionInfo)
         new TypeToken<CompressionFileInfo>() {
         }.getType());
     CompressionFileState compressionFileState = compressionFileInfo.getCompressionFileState();
+    if (compressionFileState == null) {
+      // Skipped by adaptive compression, the file stays normal
+      metaStore.deleteFileState(actionInfo.getArgs().get(HdfsAction.FILE_PATH));
+      return;
+    }
     compressionFileState.setFileStage(FileState.FileStage.DONE);
     // Update metastore and then replace file with compressed one
     metaStore.insertUpdateFileState(compressionFileState);
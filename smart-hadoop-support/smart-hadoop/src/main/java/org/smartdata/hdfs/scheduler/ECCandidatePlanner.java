@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileInfo;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plans the ec conversions submitted by rules. The space saved by converting
+ * a file is estimated from the layouts of its current and target policies,
+ * and discounted by the chance that the file is rewritten or deleted soon,
+ * which decreases with the time since it was modified. A conversion wasted
+ * this way is charged with the bytes it writes. Files with no expected
+ * saving are skipped, and the others are converted in the order of expected
+ * saving per byte rewritten, where recently accessed files come later.
+ *
+ * <p>A candidate blocked for another reason, e.g., by the throttle or by
+ * another scheduler, or one not tried in a whole scheduling round, does not
+ * hold back the ones after it. It's skipped until it's tried again.
+ */
+public class ECCandidatePlanner {
+  public static final String REPLICATION_POLICY_NAME = "replication";
+  // Policy names are composed as codec-dataUnits-parityUnits-cellSizeInKB
+  private static final Pattern POLICY_NAME_PATTERN =
+      Pattern.compile("^(.+)-(\\d+)-(\\d+)-(\\d+)k$");
+
+  private final long churnPeriod;
+  private final TreeSet<Candidate> queue;
+  private final Map<Long, Candidate> candidates = new HashMap<>();
+  // Number of times planned candidates are checked, for telling the ones
+  // not tried lately
+  private long numChecks = 0;
+
+  /**
+   * @param churnPeriod in milliseconds. A file modified this long ago is
+   *     expected to be rewritten soon with a chance of one half. 0 means
+   *     files are never rewritten.
+   */
+  public ECCandidatePlanner(long churnPeriod) {
+    this.churnPeriod = churnPeriod;
+    this.queue = new TreeSet<>(new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate c1, Candidate c2) {
+        int ret = Double.compare(c2.score, c1.score);
+        return ret != 0 ? ret : Long.compare(c1.actionId, c2.actionId);
+      }
+    });
+  }
+
+  /**
+   * Estimate the saving of converting the file for the given action.
+   *
+   * @param srcPolicy the current policy of the file
+   * @return the candidate, or null if the layout of any policy is unknown
+   */
+  public Candidate plan(CmdletInfo cmdletInfo, long actionId, FileInfo file,
+      String srcPolicy, String targetPolicy, long now) {
+    Layout srcLayout = Layout.parse(srcPolicy);
+    Layout targetLayout = Layout.parse(targetPolicy);
+    if ((srcLayout == null && !srcPolicy.equals(REPLICATION_POLICY_NAME))
+        || targetLayout == null) {
+      return null;
+    }
+    long storedSize = getStoredSize(file.getLength(), file.getBlockReplication(), srcLayout);
+    long bytesRewritten = getStoredSize(file.getLength(), (short) 1, targetLayout);
+    long saving = storedSize - bytesRewritten;
+    double stable = getStability(now - file.getModificationTime());
+    long expectedSaving = (long) (saving * stable - bytesRewritten * (1 - stable));
+    double score = (double) expectedSaving / Math.max(bytesRewritten, 1)
+        * getStability(now - file.getAccessTime());
+    return new Candidate(cmdletInfo, actionId, file.getPath(), expectedSaving,
+        bytesRewritten, score);
+  }
+
+  private double getStability(long age) {
+    if (churnPeriod <= 0) {
+      return 1;
+    }
+    age = Math.max(age, 0);
+    return (double) age / (age + churnPeriod);
+  }
+
+  /**
+   * @param layout null for a replicated file
+   * @return bytes taken by a file in the given layout
+   */
+  public static long getStoredSize(long length, short replication, Layout layout) {
+    if (layout == null) {
+      return length * replication;
+    }
+    long stripeSize = (long) layout.dataUnits * layout.cellSize;
+    long fullStripes = length / stripeSize;
+    long remaining = length % stripeSize;
+    // Parity cells of the last stripe are as large as its first data cell
+    long parity = fullStripes * layout.parityUnits * layout.cellSize
+        + layout.parityUnits * Math.min(remaining, layout.cellSize);
+    return length + parity;
+  }
+
+  public synchronized void add(Candidate candidate) {
+    remove(candidate.actionId);
+    candidate.lastCheck = numChecks;
+    candidates.put(candidate.actionId, candidate);
+    queue.add(candidate);
+  }
+
+  public synchronized void remove(long actionId) {
+    Candidate candidate = candidates.remove(actionId);
+    if (candidate != null) {
+      queue.remove(candidate);
+    }
+  }
+
+  /**
+   * @return true if the action can be scheduled, i.e., it is not planned or
+   *     every pending candidate better than it is blocked
+   */
+  public synchronized boolean isNext(long actionId) {
+    Candidate candidate = candidates.get(actionId);
+    if (candidate == null) {
+      return true;
+    }
+    numChecks++;
+    candidate.lastCheck = numChecks;
+    candidate.blocked = false;
+    candidate.allowed = false;
+    for (Iterator<Candidate> it = queue.iterator(); it.hasNext();) {
+      Candidate better = it.next();
+      if (better == candidate) {
+        candidate.allowed = true;
+        return true;
+      }
+      // Drop the candidates cancelled or disabled meanwhile
+      if (better.cmdletInfo.getState() != CmdletState.PENDING) {
+        it.remove();
+        candidates.remove(better.actionId);
+      } else if (!isBlocked(better)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called when the action is not scheduled this time. If it was allowed,
+   * it's blocked for another reason and the candidates after it go first.
+   */
+  public synchronized void onRetry(long actionId) {
+    Candidate candidate = candidates.get(actionId);
+    if (candidate != null && candidate.allowed) {
+      candidate.blocked = true;
+      candidate.allowed = false;
+    }
+  }
+
+  private boolean isBlocked(Candidate candidate) {
+    // Every pending candidate is checked once a scheduling round, so one
+    // not checked for long is skipped by the rounds, e.g., deferred
+    return candidate.blocked || numChecks - candidate.lastCheck > 2 * candidates.size();
+  }
+
+  public synchronized int size() {
+    return candidates.size();
+  }
+
+  /**
+   * Layout of an erasure coding policy.
+   */
+  public static class Layout {
+    private final int dataUnits;
+    private final int parityUnits;
+    private final long cellSize;
+
+    public Layout(int dataUnits, int parityUnits, long cellSize) {
+      this.dataUnits = dataUnits;
+      this.parityUnits = parityUnits;
+      this.cellSize = cellSize;
+    }
+
+    /**
+     * @return the layout, or null if the name is not composed as usual
+     */
+    public static Layout parse(String policyName) {
+      Matcher matcher = POLICY_NAME_PATTERN.matcher(policyName);
+      if (!matcher.matches()) {
+        return null;
+      }
+      return new Layout(Integer.parseInt(matcher.group(2)),
+          Integer.parseInt(matcher.group(3)), Long.parseLong(matcher.group(4)) * 1024);
+    }
+  }
+
+  public static class Candidate {
+    private final CmdletInfo cmdletInfo;
+    private final long actionId;
+    private final String path;
+    private final long expectedSaving;
+    private final long bytesRewritten;
+    private final double score;
+    private long lastCheck;
+    private boolean allowed;
+    private boolean blocked;
+
+    public Candidate(CmdletInfo cmdletInfo, long actionId, String path,
+        long expectedSaving, long bytesRewritten, double score) {
+      this.cmdletInfo = cmdletInfo;
+      this.actionId = actionId;
+      this.path = path;
+      this.expectedSaving = expectedSaving;
+      this.bytesRewritten = bytesRewritten;
+      this.score = score;
+    }
+
+    public long getActionId() {
+      return actionId;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getExpectedSaving() {
+      return expectedSaving;
+    }
+
+    public long getBytesRewritten() {
+      return bytesRewritten;
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Candidate{path=\'%s\', expectedSaving=%d, "
+          + "bytesRewritten=%d, score=%.4f}", path, expectedSaving, bytesRewritten, score);
+    }
+  }
+}
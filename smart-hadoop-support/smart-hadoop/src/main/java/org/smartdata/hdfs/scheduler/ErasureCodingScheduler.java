@@ -18,27 +18,43 @@
 package org.smartdata.hdfs.scheduler;
 
 import com.google.common.util.concurrent.RateLimiter;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.util.VersionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartContext;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.ECCheckpointUtil;
+import org.smartdata.hdfs.HadoopUtil;
 import org.smartdata.hdfs.action.*;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.ECCheckpoint;
+import org.smartdata.model.ErasureCodingPolicyInfo;
 import org.smartdata.model.FileInfo;
 import org.smartdata.model.LaunchAction;
 import org.smartdata.model.action.ScheduleResult;
 import org.smartdata.protocol.message.LaunchCmdlet;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ErasureCodingScheduler extends ActionSchedulerService {
   public static final Logger LOG = LoggerFactory.getLogger(ErasureCodingScheduler.class);
@@ -53,11 +69,19 @@ public class ErasureCodingScheduler extends ActionSchedulerService {
   public static final String EC_TMP_DIR = "ec_tmp/";
   public static final String EC_TMP = "-ecTmp";
   public static final String EC_POLICY = "-policy";
+  private static final long CHECKPOINT_CLEANUP_INTERVAL_MS = 3600 * 1000L;
+  // Files being converted, or whose checkpoint is being updated or removed
   private Set<String> fileLock;
   private SmartConf conf;
   private MetaStore metaStore;
   private long throttleInMb;
   private RateLimiter rateLimiter;
+  private DFSClient dfsClient;
+  private ECCandidatePlanner planner;
+  private Map<Byte, String> ecPolicyNames = new ConcurrentHashMap<>();
+  private long checkpointTtlMs;
+  // Checks and cleans up checkpoints in HDFS off the status update path
+  private ScheduledExecutorService checkpointService;
 
   public ErasureCodingScheduler(SmartContext context, MetaStore metaStore) {
     super(context, metaStore);
@@ -72,6 +96,14 @@ public ErasureCodingScheduler(SmartContext context, MetaStore metaStore) {
         SmartConfKeys.SMART_WORK_DIR_KEY, SmartConfKeys.SMART_WORK_DIR_DEFAULT);
     ssmTmpDir = ssmTmpDir + (ssmTmpDir.endsWith("/") ? "" : "/");
     ErasureCodingScheduler.EC_DIR = ssmTmpDir + EC_TMP_DIR;
+    if (conf.getBoolean(SmartConfKeys.SMART_ACTION_EC_PLANNER_ENABLED_KEY,
+        SmartConfKeys.SMART_ACTION_EC_PLANNER_ENABLED_DEFAULT)) {
+      this.planner = new ECCandidatePlanner(conf.getLong(
+          SmartConfKeys.SMART_ACTION_EC_PLANNER_CHURN_PERIOD_MS_KEY,
+          SmartConfKeys.SMART_ACTION_EC_PLANNER_CHURN_PERIOD_MS_DEFAULT));
+    }
+    this.checkpointTtlMs = conf.getLong(SmartConfKeys.SMART_ACTION_EC_CHECKPOINT_TTL_MS_KEY,
+        SmartConfKeys.SMART_ACTION_EC_CHECKPOINT_TTL_MS_DEFAULT);
   }
 
   public List<String> getSupportedActions() {
@@ -79,17 +111,27 @@ public List<String> getSupportedActions() {
   }
 
   public void init() throws IOException {
-    fileLock = new HashSet<>();
+    fileLock = Collections.synchronizedSet(new HashSet<String>());
+    checkpointService = Executors.newSingleThreadScheduledExecutor();
+    try {
+      URI nnUri = HadoopUtil.getNameNodeUri(getContext().getConf());
+      dfsClient = HadoopUtil.getDFSClient(nnUri, getContext().getConf());
+    } catch (IOException e) {
+      LOG.warn("Failed to create dfsClient! Failed conversions will not be resumed!", e);
+    }
   }
 
   @Override
   public void start() throws IOException {
-
+    if (dfsClient != null && checkpointTtlMs > 0) {
+      checkpointService.scheduleAtFixedRate(new CheckpointCleanupTask(), 0,
+          CHECKPOINT_CLEANUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
   }
 
   @Override
   public void stop() throws IOException {
-
+    checkpointService.shutdown();
   }
 
   @Override
@@ -119,9 +161,64 @@ public boolean onSubmit(CmdletInfo cmdletInfo, ActionInfo actionInfo, int action
         return false;
       }
     }
+    // Plan the conversions submitted by rules
+    if (planner != null && cmdletInfo.getRid() > 0
+        && actionInfo.getActionName().equals(EC_ACTION_ID)) {
+      ECCandidatePlanner.Candidate candidate = planCandidate(cmdletInfo, actionInfo, srcPath);
+      if (candidate != null) {
+        if (candidate.getExpectedSaving() <= 0) {
+          LOG.info("Skip {} as no space is expected to be saved: {}",
+              actionInfo.getActionName(), candidate);
+          return false;
+        }
+        planner.add(candidate);
+      }
+    }
     return true;
   }
 
+  private ECCandidatePlanner.Candidate planCandidate(CmdletInfo cmdletInfo,
+      ActionInfo actionInfo, String srcPath) throws IOException {
+    try {
+      FileInfo fileInfo = metaStore.getFile(srcPath);
+      if (fileInfo == null || fileInfo.isdir()) {
+        return null;
+      }
+      String srcPolicy = ECCandidatePlanner.REPLICATION_POLICY_NAME;
+      if (fileInfo.getErasureCodingPolicy() != 0) {
+        srcPolicy = getEcPolicyName(fileInfo.getErasureCodingPolicy());
+        if (srcPolicy == null) {
+          return null;
+        }
+      }
+      String targetPolicy = getTargetPolicy(actionInfo);
+      if (srcPolicy.equals(targetPolicy)) {
+        return null;
+      }
+      return planner.plan(cmdletInfo, actionInfo.getActionId(), fileInfo,
+          srcPolicy, targetPolicy, System.currentTimeMillis());
+    } catch (MetaStoreException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private String getEcPolicyName(byte id) throws MetaStoreException {
+    if (!ecPolicyNames.containsKey(id)) {
+      for (ErasureCodingPolicyInfo info : metaStore.getAllEcPolicies()) {
+        ecPolicyNames.put(info.getID(), info.getEcPolicyName());
+      }
+    }
+    return ecPolicyNames.get(id);
+  }
+
+  private String getTargetPolicy(ActionInfo actionInfo) {
+    String ecPolicy = actionInfo.getArgs().get(EC_POLICY);
+    if (ecPolicy == null || ecPolicy.isEmpty()) {
+      return conf.getTrimmed("dfs.namenode.ec.system.default.policy", "RS-6-3-1024k");
+    }
+    return ecPolicy;
+  }
+
   public static boolean isECSupported() {
     String[] parts = VersionInfo.getVersion().split("\\.");
     return Integer.parseInt(parts[0]) == 3;
@@ -153,8 +250,7 @@ public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
       if (actionInfo.getActionName().equals(EC_ACTION_ID)) {
         String ecPolicy = actionInfo.getArgs().get(EC_POLICY);
         if (ecPolicy == null || ecPolicy.isEmpty()) {
-          String defaultEcPolicy = conf.getTrimmed("dfs.namenode.ec.system.default.policy",
-              "RS-6-3-1024k");
+          String defaultEcPolicy = getTargetPolicy(actionInfo);
           actionInfo.getArgs().put(EC_POLICY, defaultEcPolicy);
           action.getArgs().put(EC_POLICY, defaultEcPolicy);
         }
@@ -166,23 +262,42 @@ public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
       }
 
       // The below code is just for ec or unec action with file as argument, not directory
+      if (planner != null && !planner.isNext(actionInfo.getActionId())) {
+        // Wait for the conversions expected to save more
+        return ScheduleResult.RETRY;
+      }
       if (isLimitedByThrottle(srcPath)) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Failed to schedule {} due to the limitation of throttle!", actionInfo);
         }
         return ScheduleResult.RETRY;
       }
-      // For ec or unec, add ecTmp argument
-      String tmpName = createTmpName(action);
-      action.getArgs().put(EC_TMP, EC_DIR + tmpName);
-      actionInfo.getArgs().put(EC_TMP, EC_DIR + tmpName);
+      // For ec or unec, add ecTmp argument. The temp file of a failed
+      // conversion is reused to resume the conversion from its checkpoint.
+      synchronized (fileLock) {
+        // Wait for the checkpoint of the file to be updated or removed
+        if (fileLock.contains(srcPath)) {
+          return ScheduleResult.RETRY;
+        }
+        String tmpPath;
+        ECCheckpoint checkpoint = metaStore.getECCheckpoint(srcPath);
+        if (checkpoint != null) {
+          tmpPath = checkpoint.getTmpPath();
+          LOG.info("Resume the conversion of {} with {} bytes committed to {}",
+              srcPath, checkpoint.getCommitted(), tmpPath);
+        } else {
+          tmpPath = EC_DIR + createTmpName(action);
+        }
+        action.getArgs().put(EC_TMP, tmpPath);
+        actionInfo.getArgs().put(EC_TMP, tmpPath);
+        // lock the file only if ec or unec action is scheduled
+        fileLock.add(srcPath);
+      }
     } catch (MetaStoreException ex) {
       LOG.error("Error occurred for getting file info", ex);
       actionInfo.appendLog(ex.getMessage());
       return ScheduleResult.FAIL;
     }
-    // lock the file only if ec or unec action is scheduled
-    fileLock.add(srcPath);
     return ScheduleResult.SUCCESS;
   }
 
@@ -205,11 +320,142 @@ private String createTmpName(LaunchAction action) {
     return tmpName;
   }
 
+  @Override
+  public void postSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo, int actionIndex,
+      ScheduleResult result) {
+    if (planner != null) {
+      if (result == ScheduleResult.RETRY) {
+        planner.onRetry(actionInfo.getActionId());
+      } else {
+        planner.remove(actionInfo.getActionId());
+      }
+    }
+  }
+
   @Override
   public void onActionFinished(CmdletInfo cmdletInfo, ActionInfo actionInfo, int actionIndex) {
     if (actionInfo.getActionName().equals(EC_ACTION_ID) ||
         actionInfo.getActionName().equals(UNEC_ACTION_ID)) {
-      fileLock.remove(actionInfo.getArgs().get(HdfsAction.FILE_PATH));
+      final String srcPath = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+      final String tmpPath = actionInfo.getArgs().get(EC_TMP);
+      if (tmpPath == null) {
+        fileLock.remove(srcPath);
+        return;
+      }
+      // The file stays locked until its checkpoint is updated in background
+      final boolean successful = actionInfo.isSuccessful();
+      try {
+        checkpointService.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              updateCheckpoint(srcPath, tmpPath, successful);
+            } finally {
+              fileLock.remove(srcPath);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Stopped, the checkpoint is left as it was
+        fileLock.remove(srcPath);
+      }
+    }
+  }
+
+  /**
+   * Keep the checkpoint left by a failed conversion for the next attempt.
+   * The parts committed by the action are checked in HDFS, since the result
+   * reported by an action is lost if it times out.
+   */
+  private void updateCheckpoint(String srcPath, String tmpPath, boolean successful) {
+    try {
+      ECCheckpoint checkpoint = null;
+      if (!successful && dfsClient != null) {
+        checkpoint = ECCheckpointUtil.getCheckpoint(dfsClient, srcPath, tmpPath);
+      }
+      if (checkpoint != null) {
+        metaStore.insertUpdateECCheckpoint(checkpoint);
+        LOG.info("Checkpoint of failed conversion: {}", checkpoint);
+      } else {
+        metaStore.deleteECCheckpoint(srcPath);
+        if (!successful && dfsClient != null) {
+          // Remove the uncommitted part, if any
+          ECCheckpointUtil.deleteParts(dfsClient, tmpPath, 0);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to check the checkpoint of " + srcPath, e);
+    } catch (MetaStoreException e) {
+      LOG.warn("Failed to update the checkpoint of " + srcPath, e);
+    }
+  }
+
+  /**
+   * Remove the checkpoints not resumed within the TTL with their parts, and
+   * the parts older than the TTL left without a checkpoint, e.g., when the
+   * server stopped before recording it.
+   */
+  private void cleanupCheckpoints(long now) throws IOException, MetaStoreException {
+    long expiry = now - checkpointTtlMs;
+    for (ECCheckpoint checkpoint : metaStore.getECCheckpointsUpdatedBefore(expiry)) {
+      String srcPath = checkpoint.getPath();
+      synchronized (fileLock) {
+        if (!fileLock.add(srcPath)) {
+          // Being resumed
+          continue;
+        }
+      }
+      try {
+        ECCheckpointUtil.deleteParts(dfsClient, checkpoint.getTmpPath(), 0);
+        metaStore.deleteECCheckpoint(srcPath);
+        LOG.info("Removed the expired checkpoint: {}", checkpoint);
+      } finally {
+        fileLock.remove(srcPath);
+      }
+    }
+
+    Set<String> tmpPaths = new HashSet<>();
+    for (ECCheckpoint checkpoint : metaStore.getECCheckpoints()) {
+      tmpPaths.add(checkpoint.getTmpPath());
+    }
+    byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+    while (true) {
+      DirectoryListing listing;
+      try {
+        listing = dfsClient.listPaths(EC_DIR, startAfter, false);
+      } catch (FileNotFoundException e) {
+        return;
+      }
+      if (listing == null) {
+        return;
+      }
+      for (HdfsFileStatus status : listing.getPartialListing()) {
+        String name = status.getLocalName();
+        int index = name.lastIndexOf(ECCheckpointUtil.PART_SUFFIX);
+        if (index <= 0
+            || !name.substring(index + ECCheckpointUtil.PART_SUFFIX.length()).matches("\\d+")
+            || status.getModificationTime() >= expiry
+            || tmpPaths.contains(EC_DIR + name.substring(0, index))) {
+          continue;
+        }
+        dfsClient.delete(EC_DIR + name, false);
+        LOG.info("Removed the expired part {}{}", EC_DIR, name);
+      }
+      if (!listing.hasMore()) {
+        return;
+      }
+      startAfter = listing.getLastName();
+    }
+  }
+
+  private class CheckpointCleanupTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        cleanupCheckpoints(System.currentTimeMillis());
+      } catch (Throwable t) {
+        LOG.warn("Failed to clean up expired checkpoints", t);
+      }
     }
   }
 
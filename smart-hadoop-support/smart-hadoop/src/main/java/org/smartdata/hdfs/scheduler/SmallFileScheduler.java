@@ -18,6 +18,7 @@
 package org.smartdata.hdfs.scheduler;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,7 @@
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
 import org.smartdata.model.CompactFileState;
 import org.smartdata.model.FileInfo;
 import org.smartdata.model.FileState;
@@ -43,6 +45,8 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -60,6 +64,19 @@ public class SmallFileScheduler extends ActionSchedulerService {
    */
   private Set<String> containerFileLock;
 
+  /**
+   * Compact actions of each container file in submission order, which
+   * is the order they are scheduled in.
+   */
+  private Map<String, LinkedHashMap<Long, QueuedCompaction>> containerQueues;
+
+  /**
+   * Number of compact actions queued and of times they are checked, for
+   * telling the ones not scheduled lately.
+   */
+  private int numQueued = 0;
+  private long numChecks = 0;
+
   /**
    * Compact small file lock.
    */
@@ -99,6 +116,7 @@ public SmallFileScheduler(SmartContext context, MetaStore metaStore) {
   @Override
   public void init() {
     this.containerFileLock = Collections.synchronizedSet(new HashSet<String>());
+    this.containerQueues = new HashMap<>();
     this.compactSmallFileLock = Collections.synchronizedSet(new HashSet<String>());
     this.containerFileCache = Collections.synchronizedSet(new HashSet<String>());
     this.handlingSmallFileCache = Collections.synchronizedSet(new HashSet<String>());
@@ -155,6 +173,7 @@ public boolean onSubmit(CmdletInfo cmdletInfo, ActionInfo actionInfo, int action
 
       // Check if the small file list is valid
       if (checkIfValidSmallFiles(smallFileList)) {
+        enqueue(containerFilePath, cmdletInfo, actionInfo.getActionId());
         return true;
       } else {
         throw new IOException("Illegal small files are provided.");
@@ -164,6 +183,75 @@ public boolean onSubmit(CmdletInfo cmdletInfo, ActionInfo actionInfo, int action
     }
   }
 
+  private void enqueue(String containerFile, CmdletInfo cmdletInfo, long aid) {
+    synchronized (containerQueues) {
+      LinkedHashMap<Long, QueuedCompaction> queue = containerQueues.get(containerFile);
+      if (queue == null) {
+        queue = new LinkedHashMap<>();
+        containerQueues.put(containerFile, queue);
+      }
+      if (queue.put(aid, new QueuedCompaction(cmdletInfo, numChecks)) == null) {
+        numQueued++;
+      }
+    }
+  }
+
+  private void dequeue(String containerFile, long aid) {
+    synchronized (containerQueues) {
+      LinkedHashMap<Long, QueuedCompaction> queue = containerQueues.get(containerFile);
+      if (queue != null) {
+        if (queue.remove(aid) != null) {
+          numQueued--;
+        }
+        if (queue.isEmpty()) {
+          containerQueues.remove(containerFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if no compact action submitted earlier for the container file
+   * is still waiting. Actions of cancelled cmdlets are dropped, and so are
+   * the ones not checked in a whole scheduling round, e.g., of a cmdlet
+   * rejected after this scheduler accepted it. A dropped action checked
+   * again is queued after the others.
+   */
+  private boolean isNextCompaction(String containerFile, CmdletInfo cmdletInfo,
+      long aid) {
+    synchronized (containerQueues) {
+      numChecks++;
+      LinkedHashMap<Long, QueuedCompaction> queue = containerQueues.get(containerFile);
+      QueuedCompaction current = queue == null ? null : queue.get(aid);
+      if (current == null) {
+        enqueue(containerFile, cmdletInfo, aid);
+        queue = containerQueues.get(containerFile);
+        current = queue.get(aid);
+      }
+      current.lastCheck = numChecks;
+      Iterator<Map.Entry<Long, QueuedCompaction>> it = queue.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Long, QueuedCompaction> entry = it.next();
+        if (entry.getKey() == aid) {
+          return true;
+        }
+        if (!isStale(entry.getValue())) {
+          return false;
+        }
+        it.remove();
+        numQueued--;
+      }
+      return true;
+    }
+  }
+
+  // Should be called with the lock of containerQueues held
+  private boolean isStale(QueuedCompaction compaction) {
+    // Every pending action is checked once a scheduling round
+    return CmdletState.isTerminalState(compaction.cmdletInfo.getState())
+        || numChecks - compaction.lastCheck > 2 * numQueued;
+  }
+
   /**
    * Check if the small file list is valid.
    */
@@ -282,7 +370,22 @@ private SmartFilePermission getContainerFilePermission(ActionInfo actionInfo,
   /**
    * Get compact action schedule result according to action info.
    */
-  private ScheduleResult getCompactScheduleResult(ActionInfo actionInfo) {
+  private ScheduleResult getCompactScheduleResult(CmdletInfo cmdletInfo,
+      ActionInfo actionInfo) {
+    String containerFilePath = actionInfo.getArgs().get(
+        SmallFileCompactAction.CONTAINER_FILE);
+    // Batches of a container are compacted in the order they were planned
+    if (!isNextCompaction(containerFilePath, cmdletInfo, actionInfo.getActionId())) {
+      return ScheduleResult.RETRY;
+    }
+    ScheduleResult result = scheduleCompact(actionInfo);
+    if (result == ScheduleResult.FAIL) {
+      dequeue(containerFilePath, actionInfo.getActionId());
+    }
+    return result;
+  }
+
+  private ScheduleResult scheduleCompact(ActionInfo actionInfo) {
     // Get container file and small file list of this action
     String containerFilePath = actionInfo.getArgs().get(
         SmallFileCompactAction.CONTAINER_FILE);
@@ -418,7 +521,7 @@ private ScheduleResult getUncompactScheduleResult(ActionInfo actionInfo,
   public ScheduleResult onSchedule(CmdletInfo cmdletInfo, ActionInfo actionInfo,
       LaunchCmdlet cmdlet, LaunchAction action, int actionIndex) {
     if (COMPACT_ACTION_NAME.equals(actionInfo.getActionName())) {
-      return getCompactScheduleResult(actionInfo);
+      return getCompactScheduleResult(cmdletInfo, actionInfo);
     } else if (UNCOMPACT_ACTION_NAME.equals(actionInfo.getActionName())) {
       return getUncompactScheduleResult(actionInfo, action);
     } else {
@@ -457,6 +560,7 @@ private void handleCompactActionResult(ActionInfo actionInfo) {
     // Remove locks of container file and small files
     containerFileLock.remove(containerFilePath);
     compactSmallFileLock.removeAll(smallFileList);
+    dequeue(containerFilePath, actionInfo.getActionId());
   }
 
   /**
@@ -466,6 +570,24 @@ private void handleUncompactActionResult(ActionInfo actionInfo) {
     // Get container file path, small files, result of this action
     String containerFilePath = actionInfo.getArgs().get(
         SmallFileUncompactAction.CONTAINER_FILE);
+    List<String> uncompactedFiles = null;
+    try {
+      uncompactedFiles = new Gson().fromJson(actionInfo.getResult(),
+          new TypeToken<ArrayList<String>>() {
+          }.getType());
+    } catch (JsonSyntaxException e) {
+      LOG.debug("No uncompacted small file in the result of action {}.",
+          actionInfo.getActionId());
+    }
+
+    // Drop file states of all the uncompacted small files at once
+    if (uncompactedFiles != null && !uncompactedFiles.isEmpty()) {
+      try {
+        metaStore.deleteCompactFileStates(uncompactedFiles);
+      } catch (MetaStoreException e) {
+        LOG.error("Failed to delete file states of uncompacted small files.", e);
+      }
+    }
 
     if (actionInfo.isSuccessful()) {
       containerFileCache.remove(containerFilePath);
@@ -493,28 +615,47 @@ private void syncMetaStore() {
     List<CompactFileState> compactFileStates = new ArrayList<>();
 
     // Get compact file states from compactFileStateQueue
+    List<CompactFileState> polled = new ArrayList<>();
     for (int i = 0; i < META_STORE_INSERT_BATCH_SIZE; i++) {
       CompactFileState compactFileState = compactFileStateQueue.poll();
-      if (compactFileState != null) {
-        try {
-          FileInfo info = metaStore.getFile(compactFileState.getPath());
-          if (info != null && info.getLength() == 0) {
-            LOG.debug(String.format("Ready to insert the file state of %s.",
-                compactFileState.getPath()));
-            compactFileStates.add(compactFileState);
-          } else {
-            LOG.debug(String.format(
-                "Waiting for the small file %s synced in the meta store.",
-                compactFileState.getPath()));
-            compactFileStateQueue.offer(compactFileState);
-          }
-        } catch (MetaStoreException e) {
-          LOG.error("Failed to get file info.", e);
-          compactFileStateQueue.offer(compactFileState);
-        }
-      } else {
+      if (compactFileState == null) {
         break;
       }
+      polled.add(compactFileState);
+    }
+    if (polled.isEmpty()) {
+      return;
+    }
+
+    // Look up the whole group of small files at once
+    Map<String, FileInfo> fileInfos = new HashMap<>();
+    try {
+      List<String> paths = new ArrayList<>(polled.size());
+      for (CompactFileState compactFileState : polled) {
+        paths.add(compactFileState.getPath());
+      }
+      for (FileInfo info : metaStore.getFilesByPaths(paths)) {
+        fileInfos.put(info.getPath(), info);
+      }
+    } catch (MetaStoreException e) {
+      LOG.error("Failed to get file info.", e);
+      for (CompactFileState compactFileState : polled) {
+        compactFileStateQueue.offer(compactFileState);
+      }
+      return;
+    }
+    for (CompactFileState compactFileState : polled) {
+      FileInfo info = fileInfos.get(compactFileState.getPath());
+      if (info != null && info.getLength() == 0) {
+        LOG.debug(String.format("Ready to insert the file state of %s.",
+            compactFileState.getPath()));
+        compactFileStates.add(compactFileState);
+      } else {
+        LOG.debug(String.format(
+            "Waiting for the small file %s synced in the meta store.",
+            compactFileState.getPath()));
+        compactFileStateQueue.offer(compactFileState);
+      }
     }
 
     // Batch insert compact file states into meta store
@@ -534,6 +675,19 @@ private void syncMetaStore() {
     }
   }
 
+  /**
+   * A compact action waiting for the earlier ones of its container.
+   */
+  private static class QueuedCompaction {
+    private final CmdletInfo cmdletInfo;
+    private long lastCheck;
+
+    private QueuedCompaction(CmdletInfo cmdletInfo, long lastCheck) {
+      this.cmdletInfo = cmdletInfo;
+      this.lastCheck = lastCheck;
+    }
+  }
+
   /**
    * Scheduled task to sync meta store.
    */
@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.SmartInputStreamFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class TestCompactInputStream extends MiniClusterHarness {
+  private static final Logger LOG = LoggerFactory.getLogger(TestCompactInputStream.class);
+  private static final String CONTAINER = "/test/container";
+  private static final int OFFSET = 120;
+  private static final int LENGTH = 40;
+  private byte[] content;
+
+  private DFSInputStream open() throws Exception {
+    content = new byte[OFFSET + LENGTH + 60];
+    new Random(0).nextBytes(content);
+    if (!dfs.exists(new Path(CONTAINER))) {
+      FSDataOutputStream out = dfs.create(new Path(CONTAINER), (short) 1);
+      out.write(content);
+      out.close();
+    }
+    CompactFileState state = new CompactFileState("/test/small",
+        new FileContainerInfo(CONTAINER, OFFSET, LENGTH));
+    return SmartInputStreamFactory.create(dfsClient, "/test/small", true, state);
+  }
+
+  private byte[] expected(int from, int to) {
+    return Arrays.copyOfRange(content, OFFSET + from, OFFSET + to);
+  }
+
+  @Test
+  public void testLogicalView() throws Exception {
+    DFSInputStream in = open();
+    Assert.assertEquals(LENGTH, in.getFileLength());
+    Assert.assertEquals(0, in.getPos());
+    Assert.assertEquals(LENGTH, in.available());
+
+    byte[] buf = new byte[100];
+    int n = 0;
+    int r;
+    while ((r = in.read(buf, n, buf.length - n)) > 0) {
+      n += r;
+    }
+    Assert.assertEquals(LENGTH, n);
+    Assert.assertArrayEquals(expected(0, LENGTH), Arrays.copyOf(buf, n));
+    Assert.assertEquals(LENGTH, in.getPos());
+    Assert.assertEquals(-1, in.read());
+
+    in.seek(10);
+    Assert.assertEquals(10, in.getPos());
+    Assert.assertEquals(content[OFFSET + 10] & 0xff, in.read());
+    Assert.assertEquals(5, in.skip(5));
+    Assert.assertEquals(16, in.getPos());
+    Assert.assertEquals(content[OFFSET + 16] & 0xff, in.read());
+
+    // Positional read does not move the position
+    byte[] pbuf = new byte[20];
+    Assert.assertEquals(10, in.read(LENGTH - 10, pbuf, 0, 20));
+    Assert.assertArrayEquals(expected(LENGTH - 10, LENGTH), Arrays.copyOf(pbuf, 10));
+    Assert.assertEquals(17, in.getPos());
+
+    try {
+      in.seek(LENGTH + 1);
+      Assert.fail("Seek after EOF should fail");
+    } catch (java.io.EOFException e) {
+      // Expected
+    }
+    in.close();
+  }
+
+  /**
+   * Micro benchmark of the calls columnar readers issue per row group.
+   */
+  @Test
+  public void testSeekReadBenchmark() throws Exception {
+    DFSInputStream in = open();
+    byte[] buf = new byte[LENGTH];
+    // Warm up
+    for (int i = 0; i < 10000; i++) {
+      in.seek(in.getPos());
+    }
+
+    int getPosOps = 1000000;
+    long start = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < getPosOps; i++) {
+      sum += in.getPos();
+    }
+    long getPosNs = (System.nanoTime() - start) / getPosOps;
+
+    int seekOps = 200000;
+    start = System.nanoTime();
+    for (int i = 0; i < seekOps; i++) {
+      in.seek(in.getPos());
+      sum += in.getFileLength();
+    }
+    long seekNs = (System.nanoTime() - start) / seekOps;
+
+    int readOps = 2000;
+    start = System.nanoTime();
+    for (int i = 0; i < readOps; i++) {
+      in.seek(0);
+      int n = 0;
+      while (n < LENGTH) {
+        n += in.read(buf, n, LENGTH - n);
+      }
+    }
+    long readNs = (System.nanoTime() - start) / readOps;
+    in.close();
+    Assert.assertArrayEquals(expected(0, LENGTH), buf);
+    LOG.info("CompactInputStream getPos: {} ns/op, seek+getFileLength: {} ns/op, "
+        + "seek+read file: {} ns/op ({})", getPosNs, seekNs, readNs, sum);
+  }
+
+  @Test
+  public void testSharedContainerHandle() throws Exception {
+    ContainerHandleCache cache = new ContainerHandleCache(4, 64, 64 * 16);
+    ContainerHandleCache.set(cache);
+    try {
+      byte[] data = new byte[400];
+      new Random(1).nextBytes(data);
+      FSDataOutputStream out = dfs.create(new Path(CONTAINER), (short) 1);
+      out.write(data);
+      out.close();
+
+      // Read sibling small files of 40 bytes back-to-back, twice
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 10; i++) {
+          CompactFileState state = new CompactFileState("/test/small_" + i,
+              new FileContainerInfo(CONTAINER, i * 40, 40));
+          DFSInputStream in = SmartInputStreamFactory.create(
+              dfsClient, "/test/small_" + i, true, state);
+          byte[] buf = new byte[40];
+          int n = 0;
+          int r;
+          while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0) {
+            n += r;
+          }
+          Assert.assertEquals(40, n);
+          Assert.assertArrayEquals(
+              Arrays.copyOfRange(data, i * 40, i * 40 + 40), buf);
+          byte[] pread = new byte[10];
+          Assert.assertEquals(10, in.read(30, pread, 0, 10));
+          Assert.assertArrayEquals(
+              Arrays.copyOfRange(data, i * 40 + 30, i * 40 + 40), pread);
+          in.close();
+        }
+      }
+      // The container is opened once for all the 20 streams
+      Assert.assertEquals(1, cache.getHandleMisses());
+      Assert.assertEquals(19, cache.getHandleHits());
+      Assert.assertEquals(1, cache.size());
+      // 7 ranges of 64 bytes are fetched once, the rest is served from cache
+      Assert.assertEquals(7, cache.getRangeMisses());
+      Assert.assertTrue(cache.getRangeHitRate() > 0.8);
+      Assert.assertTrue(cache.getBytesSaved() >= 2 * 400 - 7 * 64);
+
+      // Small files appended later reopen the container
+      FSDataOutputStream append = dfs.append(new Path(CONTAINER));
+      append.write(data, 0, 40);
+      append.close();
+      CompactFileState state = new CompactFileState("/test/small_10",
+          new FileContainerInfo(CONTAINER, 400, 40));
+      DFSInputStream in = SmartInputStreamFactory.create(
+          dfsClient, "/test/small_10", true, state);
+      byte[] buf = new byte[40];
+      Assert.assertEquals(40, in.read(0, buf, 0, 40));
+      Assert.assertArrayEquals(Arrays.copyOf(data, 40), buf);
+      in.close();
+      Assert.assertEquals(2, cache.getHandleMisses());
+      Assert.assertEquals(1, cache.size());
+    } finally {
+      ContainerHandleCache.set(null);
+    }
+  }
+
+  @Test
+  public void testByteBufferRead() throws Exception {
+    // Without and with the range cache
+    ContainerHandleCache[] caches = {new ContainerHandleCache(4, 0, 0),
+        new ContainerHandleCache(4, 64, 64 * 16)};
+    for (ContainerHandleCache cache : caches) {
+      ContainerHandleCache.set(cache);
+      try {
+        DFSInputStream in = open();
+        ByteBuffer direct = ByteBuffer.allocateDirect(LENGTH + 10);
+        while (in.read(direct) > 0) {
+          // Read to the end of the small file
+        }
+        Assert.assertEquals(LENGTH, direct.position());
+        byte[] actual = new byte[LENGTH];
+        direct.flip();
+        direct.get(actual);
+        Assert.assertArrayEquals(expected(0, LENGTH), actual);
+
+        in.seek(10);
+        ByteBuffer heap = ByteBuffer.allocate(30);
+        heap.position(5);
+        while (heap.hasRemaining() && in.read(heap) > 0) {
+          // Fill the buffer
+        }
+        Assert.assertArrayEquals(expected(10, 35),
+            Arrays.copyOfRange(heap.array(), 5, 30));
+        Assert.assertEquals(35, in.getPos());
+        in.close();
+      } finally {
+        ContainerHandleCache.set(null);
+      }
+    }
+  }
+
+  @Test
+  public void testCloseHandles() throws Exception {
+    ContainerHandleCache cache = new ContainerHandleCache(4, 0, 0, false, 60000);
+    ContainerHandleCache.set(cache);
+    try {
+      DFSInputStream in = open();
+      Assert.assertEquals(LENGTH, in.read(0, new byte[LENGTH], 0, LENGTH));
+      // Handles in use are not expired
+      cache.expireIdle(System.currentTimeMillis() + 60000);
+      Assert.assertEquals(1, cache.size());
+      in.close();
+      cache.expireIdle(System.currentTimeMillis());
+      Assert.assertEquals(1, cache.size());
+      cache.expireIdle(System.currentTimeMillis() + 60000);
+      Assert.assertEquals(0, cache.size());
+
+      // Handles of a closed client are closed
+      open().close();
+      Assert.assertEquals(1, cache.size());
+      ContainerHandleCache.closeClient(dfsClient);
+      Assert.assertEquals(0, cache.size());
+    } finally {
+      ContainerHandleCache.set(null);
+    }
+  }
+
+  @Test
+  public void testContainerIndex() throws Exception {
+    ContainerHandleCache.set(new ContainerHandleCache(4, 0, 0, true));
+    try {
+      byte[] data = new byte[100];
+      new Random(2).nextBytes(data);
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, 60);
+      ContainerIndex index = new ContainerIndex();
+      index.add("/test/small_0", 0, 60, crc.getValue());
+      // Wrong checksum
+      index.add("/test/small_1", 60, 40, 0);
+      FSDataOutputStream out = dfs.create(new Path(CONTAINER), (short) 1);
+      out.write(data);
+      index.writeTo(out, data.length);
+      out.close();
+
+      byte[] buf = new byte[60];
+      DFSInputStream in = SmartInputStreamFactory.create(dfsClient, "/test/small_0",
+          true, new CompactFileState("/test/small_0", new FileContainerInfo(CONTAINER, 0, 60)));
+      org.apache.hadoop.io.IOUtils.readFully(in, buf, 0, 60);
+      Assert.assertArrayEquals(Arrays.copyOf(data, 60), buf);
+      in.close();
+
+      in = SmartInputStreamFactory.create(dfsClient, "/test/small_1",
+          true, new CompactFileState("/test/small_1", new FileContainerInfo(CONTAINER, 60, 40)));
+      // Random access is not verified
+      Assert.assertEquals(20, in.read(20, buf, 0, 20));
+      try {
+        org.apache.hadoop.io.IOUtils.readFully(in, buf, 0, 40);
+        Assert.fail("Checksum mismatch should be detected");
+      } catch (ChecksumException e) {
+        // Expected
+      }
+      in.close();
+
+      try {
+        SmartInputStreamFactory.create(dfsClient, "/test/small_0", true,
+            new CompactFileState("/test/small_0", new FileContainerInfo(CONTAINER, 10, 50)));
+        Assert.fail("Stale location should be rejected");
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("Stale location"));
+      }
+    } finally {
+      ContainerHandleCache.set(null);
+    }
+  }
+}
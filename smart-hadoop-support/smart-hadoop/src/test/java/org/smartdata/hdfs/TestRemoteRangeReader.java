@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+public class TestRemoteRangeReader {
+  private static final int RANGE_SIZE = 1024;
+  private FileSystem fs;
+  private Path path;
+  private byte[] content;
+
+  @Before
+  public void init() throws Exception {
+    fs = FileSystem.getLocal(new Configuration());
+    File dir = new File(System.getProperty("java.io.tmpdir"), "TestRemoteRangeReader");
+    path = new Path(dir.getAbsolutePath(), "file");
+    content = new byte[RANGE_SIZE * 20 + 100];
+    new Random(0).nextBytes(content);
+    FSDataOutputStream out = fs.create(path, true);
+    out.write(content);
+    out.close();
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    fs.delete(path.getParent(), true);
+  }
+
+  @Test
+  public void testSequentialReadAhead() throws Exception {
+    RangeCache cache = new RangeCache(RANGE_SIZE, RANGE_SIZE * 64);
+    RemoteRangeReader reader = new RemoteRangeReader(fs, path, cache, RANGE_SIZE * 8);
+    byte[] result = new byte[content.length];
+    int pos = 0;
+    int n;
+    while ((n = reader.read(pos, result, pos, 100)) > 0) {
+      pos += n;
+    }
+    reader.close();
+    Assert.assertEquals(content.length, pos);
+    Assert.assertArrayEquals(content, result);
+    // Small sequential reads are served by growing coalesced fetches
+    Assert.assertTrue(reader.getRemoteReads() <= 5);
+    Assert.assertEquals(content.length, reader.getRemoteBytes());
+  }
+
+  @Test
+  public void testRandomReadAndCache() throws Exception {
+    RangeCache cache = new RangeCache(RANGE_SIZE, RANGE_SIZE * 4);
+    RemoteRangeReader reader = new RemoteRangeReader(fs, path, cache, RANGE_SIZE * 8);
+    Random random = new Random(1);
+    for (int i = 0; i < 200; i++) {
+      int position = random.nextInt(content.length);
+      int len = Math.min(random.nextInt(3 * RANGE_SIZE), content.length - position);
+      byte[] buf = new byte[len];
+      int done = 0;
+      while (done < len) {
+        done += reader.read(position + done, buf, done, len - done);
+      }
+      for (int j = 0; j < len; j++) {
+        Assert.assertEquals(content[position + j], buf[j]);
+      }
+    }
+    Assert.assertTrue(cache.size() <= 4);
+    Assert.assertEquals(-1, reader.read(content.length, new byte[1], 0, 1));
+
+    // A second reader of the same file hits the shared cache
+    RemoteRangeReader other = new RemoteRangeReader(fs, path, cache, RANGE_SIZE);
+    byte[] buf = new byte[10];
+    long hits = cache.getHits();
+    reader.read(0, buf, 0, 10);
+    other.read(0, buf, 0, 10);
+    Assert.assertEquals(0, other.getRemoteReads());
+    Assert.assertTrue(cache.getHits() > hits);
+    reader.close();
+    other.close();
+  }
+}
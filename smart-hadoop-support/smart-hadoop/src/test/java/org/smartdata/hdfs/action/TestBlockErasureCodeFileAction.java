@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import com.google.gson.Gson;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.SmartInputStreamFactory;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.BlockECFileState;
+import org.smartdata.model.FileState;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TestBlockErasureCodeFileAction extends MiniClusterHarness {
+  private static final String PARITY_DIR = "/system/ssm/ec_parity/";
+
+  @Override
+  @Before
+  public void init() throws Exception {
+    DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    super.init();
+  }
+
+  private byte[] writeFile(String filePath, int length) throws Exception {
+    byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    FSDataOutputStream out = dfs.create(new Path(filePath), (short) 3);
+    out.write(data);
+    out.close();
+    return data;
+  }
+
+  private BlockECFileState blockEC(String filePath) throws Exception {
+    BlockErasureCodeFileAction action = new BlockErasureCodeFileAction();
+    action.setDfsClient(dfsClient);
+    action.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, filePath);
+    args.put(BlockErasureCodeFileAction.DATA_UNITS, "3");
+    args.put(BlockErasureCodeFileAction.PARITY_UNITS, "2");
+    args.put(BlockErasureCodeFileAction.CELL_SIZE, "256KB");
+    args.put(BlockErasureCodeFileAction.REPLICATION, "1");
+    args.put(BlockErasureCodeFileAction.PARITY_DIR, PARITY_DIR);
+    action.init(args);
+    action.run();
+    Assert.assertTrue(action.getExpectedAfterRun());
+    return new Gson().fromJson(action.getActionStatus().getResult(),
+        BlockECFileState.class);
+  }
+
+  private void loseBlock(String filePath, int blockIndex) throws Exception {
+    List<LocatedBlock> blocks = dfsClient.getLocatedBlocks(filePath, 0)
+        .getLocatedBlocks();
+    Assert.assertTrue(cluster.corruptBlockOnDataNodesByDeletingBlockFile(
+        blocks.get(blockIndex).getBlock()) > 0);
+  }
+
+  private byte[] readFile(DFSClient client, String filePath, FileState fileState)
+      throws Exception {
+    DFSInputStream in = SmartInputStreamFactory.create(client, filePath, true, fileState);
+    try {
+      byte[] read = new byte[(int) in.getFileLength()];
+      int off = 0;
+      int n;
+      while (off < read.length && (n = in.read(read, off, read.length - off)) > 0) {
+        off += n;
+      }
+      Assert.assertEquals(read.length, off);
+      Assert.assertEquals(-1, in.read());
+      return read;
+    } finally {
+      in.close();
+    }
+  }
+
+  private DFSClient newFastFailClient() throws Exception {
+    Configuration conf = new Configuration(smartContext.getConf());
+    // Don't wait long for blocks which are gone on every datanode
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRY_WINDOW_BASE, 1);
+    return new DFSClient(dfs.getUri(), conf);
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    String filePath = "/ec/file";
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    byte[] data = writeFile(filePath, 4 * blockSize + blockSize / 2 + 100);
+    BlockECFileState state = blockEC(filePath);
+
+    Assert.assertEquals(3, state.getNumDataUnits());
+    Assert.assertEquals(2, state.getNumParityUnits());
+    Assert.assertEquals(data.length, state.getFileLength());
+    Assert.assertEquals(dfsClient.getFileInfo(filePath).getModificationTime(),
+        state.getModificationTime());
+    Assert.assertEquals(2, state.getNumGroups());
+    Assert.assertTrue(state.getParityPath().startsWith(PARITY_DIR));
+    Assert.assertEquals(1, dfsClient.getFileInfo(filePath).getReplication());
+    for (int i = 0; i < state.getNumParityUnits(); i++) {
+      // The first unit of the last group is a full block
+      Assert.assertEquals(2 * blockSize,
+          dfsClient.getFileInfo(state.getParityFilePath(i)).getLen());
+      Assert.assertEquals(1,
+          dfsClient.getFileInfo(state.getParityFilePath(i)).getReplication());
+    }
+    FileState xattrState = (FileState) SerializationUtils.deserialize(
+        dfsClient.getXAttr(filePath, SmartConstants.SMART_FILE_STATE_XATTR_NAME));
+    Assert.assertEquals(FileState.FileType.BLOCK_EC, xattrState.getFileType());
+    Assert.assertEquals(state.getParityPath(),
+        ((BlockECFileState) xattrState).getParityPath());
+    // Intact file is read directly
+    Assert.assertArrayEquals(data, readFile(dfsClient, filePath, state));
+  }
+
+  @Test
+  public void testReconstructOnRead() throws Exception {
+    String filePath = "/ec/file";
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    byte[] data = writeFile(filePath, 4 * blockSize + blockSize / 2 + 100);
+    BlockECFileState state = blockEC(filePath);
+
+    // One block lost in the first group, both blocks lost in the second one
+    loseBlock(filePath, 1);
+    loseBlock(filePath, 3);
+    loseBlock(filePath, 4);
+
+    DFSClient client = newFastFailClient();
+    try {
+      Assert.assertArrayEquals(data, readFile(client, filePath, state));
+
+      // Positional read across the boundary of two lost blocks
+      DFSInputStream in = SmartInputStreamFactory.create(client, filePath, true, state);
+      try {
+        byte[] buf = new byte[blockSize];
+        int pos = 3 * blockSize + blockSize / 2;
+        in.readFully(pos, buf, 0, buf.length);
+        for (int i = 0; i < buf.length; i++) {
+          Assert.assertEquals(data[pos + i], buf[i]);
+        }
+        Assert.assertEquals(0, in.getPos());
+      } finally {
+        in.close();
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testTooManyLostUnits() throws Exception {
+    String filePath = "/ec/file";
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    writeFile(filePath, 3 * blockSize);
+    BlockECFileState state = blockEC(filePath);
+
+    loseBlock(filePath, 0);
+    loseBlock(state.getParityFilePath(0), 0);
+    loseBlock(state.getParityFilePath(1), 0);
+
+    DFSClient client = newFastFailClient();
+    try {
+      readFile(client, filePath, state);
+      Assert.fail("Should fail to read with more lost units than parity units");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("cannot be reconstructed"));
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testStaleParity() throws Exception {
+    String filePath = "/ec/file";
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    writeFile(filePath, 3 * blockSize);
+    BlockECFileState state = blockEC(filePath);
+
+    // Parity doesn't match once the file is modified
+    dfsClient.setTimes(filePath, state.getModificationTime() + 1000, -1);
+    loseBlock(filePath, 0);
+
+    DFSClient client = newFastFailClient();
+    try {
+      readFile(client, filePath, state);
+      Assert.fail("Should not reconstruct from stale parity");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("stale"));
+    } finally {
+      client.close();
+    }
+  }
+}
@@ -57,6 +57,9 @@ public void testCacheFile() throws IOException {
       cacheAction.run();
       Assert.assertTrue(cacheAction.isCached(file));
       Assert.assertTrue(cacheAction.getExpectedAfterRun());
+      // The directive created is reported to tell its owner
+      Assert.assertTrue(cacheAction.getActionStatus().getResult()
+          .startsWith(CacheFileAction.DIRECTIVE_ADDED));
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -17,14 +17,27 @@
  */
 package org.smartdata.hdfs.action;
 
+import com.google.gson.Gson;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.junit.Assert;
 import org.junit.Test;
 import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.FileBlockChecksum;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TestCheckSumAction extends MiniClusterHarness {
   @Test
@@ -48,4 +61,94 @@ public void testCheckSumAction() throws IOException {
     checkSumAction.run();
     Assert.assertTrue(checkSumAction.getExpectedAfterRun());
   }
+
+  @Test
+  public void testBlockChecksumAndIncremental() throws Exception {
+    dfsClient.mkdirs("/testPath");
+    // Block size of the mini cluster is 50, so each file has 3 blocks
+    byte[][] contents = new byte[3][120];
+    for (int i = 0; i < contents.length; i++) {
+      Arrays.fill(contents[i], (byte) i);
+      OutputStream out = dfsClient.create("/testPath/file" + i, true);
+      out.write(contents[i]);
+      out.close();
+    }
+
+    CheckSumAction checkSumAction = new CheckSumAction();
+    checkSumAction.setDfsClient(dfsClient);
+    checkSumAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(CheckSumAction.FILE_PATH, "/testPath/*");
+    args.put(CheckSumAction.THREADS, "2");
+    args.put(CheckSumAction.BLOCK_CHECKSUM, "");
+    args.put(CheckSumAction.CHECKSUM_FILE, "/system/checksums");
+    checkSumAction.init(args);
+    checkSumAction.run();
+    Assert.assertTrue(checkSumAction.getExpectedAfterRun());
+    // The result only has the counts, the checksums are in the file
+    Assert.assertTrue(checkSumAction.getActionStatus().getResult()
+        .contains("3 files checksummed, 0 unchanged files skipped"));
+
+    List<FileBlockChecksum> checksums = readChecksums("/system/checksums");
+    Assert.assertEquals(3, checksums.size());
+    Map<Long, long[]> fingerprints = new HashMap<>();
+    Set<String> blockChecksums = new HashSet<>();
+    for (FileBlockChecksum checksum : checksums) {
+      Assert.assertEquals(3, checksum.getBlockChecksums().size());
+      Assert.assertTrue(checksum.getAlgorithm().startsWith("MD5-of-"));
+      // Blocks of the same content have the same checksum
+      List<String> blocks = checksum.getBlockChecksums();
+      Assert.assertEquals(blocks.get(0), blocks.get(1));
+      Assert.assertNotEquals(blocks.get(0), blocks.get(2));
+      blockChecksums.addAll(blocks);
+      fingerprints.put(checksum.getFid(),
+          new long[] {checksum.getModificationTime(), checksum.getLength()});
+    }
+    // Files of different content have different block checksums
+    Assert.assertEquals(6, blockChecksums.size());
+
+    // Rewrite file0, only it should be checksummed again
+    OutputStream out = dfsClient.create("/testPath/file0", true);
+    out.write(new byte[70]);
+    out.close();
+    HdfsFileStatus file1 = dfsClient.getFileInfo("/testPath/file1");
+    HdfsFileStatus file2 = dfsClient.getFileInfo("/testPath/file2");
+    fingerprints.put(file1.getFileId(), new long[] {file1.getModificationTime(), 120});
+    fingerprints.put(file2.getFileId(), new long[] {file2.getModificationTime(), 120});
+
+    checkSumAction = new CheckSumAction();
+    checkSumAction.setDfsClient(dfsClient);
+    checkSumAction.setContext(smartContext);
+    try (Writer writer = new OutputStreamWriter(
+        dfsClient.create("/system/fingerprints", true), StandardCharsets.UTF_8)) {
+      for (Map.Entry<Long, long[]> entry : fingerprints.entrySet()) {
+        CheckSumAction.writeFingerprint(writer, entry.getKey(), entry.getValue());
+      }
+    }
+    Assert.assertEquals(3,
+        CheckSumAction.readFingerprints(dfsClient, "/system/fingerprints").size());
+    args.put(CheckSumAction.INCREMENTAL, "");
+    args.put(CheckSumAction.KNOWN_FINGERPRINTS, "/system/fingerprints");
+    checkSumAction.init(args);
+    checkSumAction.run();
+    Assert.assertTrue(checkSumAction.getExpectedAfterRun());
+    Assert.assertTrue(checkSumAction.getActionStatus().getResult()
+        .contains("1 files checksummed, 2 unchanged files skipped"));
+    checksums = readChecksums("/system/checksums");
+    Assert.assertEquals(1, checksums.size());
+    Assert.assertEquals("/testPath/file0", checksums.get(0).getPath());
+    Assert.assertEquals(2, checksums.get(0).getBlockChecksums().size());
+  }
+
+  private List<FileBlockChecksum> readChecksums(String file) throws IOException {
+    List<FileBlockChecksum> checksums = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        dfsClient.open(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        checksums.add(new Gson().fromJson(line, FileBlockChecksum.class));
+      }
+    }
+    return checksums;
+  }
 }
@@ -17,14 +17,21 @@
  */
 package org.smartdata.hdfs.action;
 
+import com.google.gson.Gson;
+import org.apache.hadoop.hdfs.CompressionCodec;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.smartdata.action.MockActionStatusReporter;
 import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.CompressionDecision;
+import org.smartdata.model.CompressionFileInfo;
+import org.smartdata.model.CompressionFileState;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.util.HashMap;
@@ -41,6 +48,20 @@ public void init() throws Exception {
   }
 
   protected void compression(String filePath, String bufferSize) throws IOException {
+    compression(filePath, bufferSize, (String) null);
+  }
+
+  protected CompressionFileState compression(String filePath, String bufferSize,
+      String threads) throws IOException {
+    Map<String, String> args = new HashMap<>();
+    if (threads != null) {
+      args.put(CompressionAction.THREADS, threads);
+    }
+    return compression(filePath, bufferSize, args).getCompressionFileState();
+  }
+
+  protected CompressionFileInfo compression(String filePath, String bufferSize,
+      Map<String, String> extraArgs) throws IOException {
     CompressionAction compressionAction = new CompressionAction();
     compressionAction.setDfsClient(dfsClient);
     compressionAction.setContext(smartContext);
@@ -52,11 +73,15 @@ protected void compression(String filePath, String bufferSize) throws IOExceptio
     String tempPath = COMPRESS_DIR + filePath + "_" + "aid" + compressionAction.getActionId()
         + "_" + System.currentTimeMillis();
     args.put(compressionAction.COMPRESS_TMP, tempPath);
+    args.putAll(extraArgs);
 //    args.put(CompressionAction.COMPRESS_IMPL, "Lz4");
 //    args.put(CompressionAction.COMPRESS_IMPL,"Bzip2");
 //    args.put(CompressionAction.COMPRESS_IMPL,"Zlib");
     compressionAction.init(args);
     compressionAction.run();
+    Assert.assertTrue(compressionAction.getExpectedAfterRun());
+    return new Gson().fromJson(compressionAction.getActionStatus().getResult(),
+        CompressionFileInfo.class);
   }
 
   @Test
@@ -100,6 +125,77 @@ public void testExecute() throws Exception {
     Assert.assertEquals(blockSize, fileStatus.getBlockSize());
   }
 
+  @Test
+  public void testParallelCompression() throws Exception {
+    int fileSize = 1024 * 1024 * 5 + 100;
+    byte[] bytes = TestCompressionAction.BytesGenerator.get(fileSize);
+    String[] files = {"/testParallelCompression/serial",
+        "/testParallelCompression/parallel"};
+    for (String file : files) {
+      OutputStream outputStream = dfsClient.create(file, true);
+      outputStream.write(bytes);
+      outputStream.close();
+    }
+
+    CompressionFileState serial = compression(files[0], "1MB", "1");
+    CompressionFileState parallel = compression(files[1], "1MB", "4");
+
+    // Same chunk index and same content as compressing one by one
+    Assert.assertEquals(6, parallel.getOriginalPos().length);
+    Assert.assertArrayEquals(serial.getOriginalPos(), parallel.getOriginalPos());
+    Assert.assertArrayEquals(serial.getCompressedPos(), parallel.getCompressedPos());
+    Assert.assertEquals(serial.getCompressedLength(), parallel.getCompressedLength());
+    Assert.assertArrayEquals(readFile(files[0]), readFile(files[1]));
+  }
+
+  @Test
+  public void testAdaptiveCompression() throws Exception {
+    int fileSize = 1024 * 1024 * 3;
+    String compressible = "/testAdaptiveCompression/compressible";
+    String incompressible = "/testAdaptiveCompression/incompressible";
+    OutputStream outputStream = dfsClient.create(compressible, true);
+    outputStream.write(TestCompressionAction.BytesGenerator.get(fileSize));
+    outputStream.close();
+    byte[] random = new byte[fileSize];
+    new Random(0).nextBytes(random);
+    outputStream = dfsClient.create(incompressible, true);
+    outputStream.write(random);
+    outputStream.close();
+
+    Map<String, String> args = new HashMap<>();
+    args.put(CompressionAction.CODEC, CompressionCodec.ADAPTIVE);
+    CompressionFileInfo info = compression(compressible, "1MB", args);
+    CompressionDecision decision = info.getCompressionDecision();
+    Assert.assertNotNull(decision);
+    Assert.assertFalse(decision.isSkipped());
+    Assert.assertTrue(decision.toString(), decision.getEstimatedRatio() < 0.9);
+    CompressionFileState state = info.getCompressionFileState();
+    Assert.assertEquals(decision.getCodec(), state.getCompressionImpl());
+    Assert.assertEquals(decision.getBufferSize(), state.getBufferSize());
+    Assert.assertTrue(state.getCompressedLength() < fileSize);
+
+    info = compression(incompressible, "1MB", args);
+    decision = info.getCompressionDecision();
+    Assert.assertTrue(decision.toString(), decision.isSkipped());
+    Assert.assertNull(info.getCompressionFileState());
+    // Left as it is
+    Assert.assertArrayEquals(random, readFile(incompressible));
+    Assert.assertFalse(dfsClient.getXAttrs(incompressible).containsKey(
+        CompressionAction.XATTR_NAME));
+  }
+
+  private byte[] readFile(String file) throws IOException {
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(file);
+    byte[] data = new byte[(int) fileStatus.getLen()];
+    InputStream in = dfsClient.open(file);
+    try {
+      IOUtils.readFully(in, data, 0, data.length);
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+
   static final class BytesGenerator {
     private static final byte[] CACHE = new byte[] { 0x0, 0x1, 0x2, 0x3, 0x4,
       0x5, 0x6, 0x7, 0x8, 0x9, 0xA, 0xB, 0xC, 0xD, 0xE, 0xF };
@@ -23,7 +23,10 @@
 import org.junit.Test;
 import org.smartdata.hdfs.MiniClusterHarness;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -115,4 +118,59 @@ public void testLocalFileList() throws Exception {
     listFileAction.run();
     Assert.assertTrue(listFileAction.getExpectedAfterRun());
   }
+
+  @Test
+  public void testConcurrentRecursiveList() throws Exception {
+    final String srcPath = "/testList";
+    int numDirs = 4;
+    int numFilesPerDir = 5;
+    dfs.mkdirs(new Path(srcPath));
+    for (int i = 0; i < numDirs; i++) {
+      String dir = srcPath + "/dir" + i;
+      dfs.mkdirs(new Path(dir + "/sub"));
+      for (int j = 0; j < numFilesPerDir; j++) {
+        FSDataOutputStream out = dfs.create(new Path(dir + "/sub/file" + j));
+        out.writeChars("test");
+        out.close();
+      }
+    }
+
+    // dirN, dirN/sub and the files under each sub directory
+    int numEntries = numDirs * (2 + numFilesPerDir);
+    String sequential = listRecursively(srcPath, 1, numEntries);
+    String concurrent = listRecursively(srcPath, 3, numEntries);
+    for (int i = 0; i < numDirs; i++) {
+      for (int j = 0; j < numFilesPerDir; j++) {
+        Assert.assertTrue(concurrent.contains(srcPath + "/dir" + i + "/sub/file" + j));
+      }
+    }
+    // The same entries are listed to the same channel whatever the threads
+    Assert.assertEquals(getEntries(sequential), getEntries(concurrent));
+  }
+
+  private String listRecursively(String srcPath, int threads, int numEntries)
+      throws Exception {
+    ListFileAction listFileAction = new ListFileAction();
+    listFileAction.setDfsClient(dfsClient);
+    listFileAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(ListFileAction.RECURSIVELY, srcPath);
+    args.put(ListFileAction.THREADS, String.valueOf(threads));
+    listFileAction.init(args);
+    listFileAction.run();
+    Assert.assertTrue(listFileAction.getExpectedAfterRun());
+    Assert.assertEquals(numEntries, listFileAction.getNumListed());
+    return listFileAction.getActionStatus().getLog();
+  }
+
+  private static List<String> getEntries(String log) {
+    List<String> entries = new ArrayList<>();
+    for (String line : log.split("\n")) {
+      if (line.contains("/testList/")) {
+        entries.add(line);
+      }
+    }
+    Collections.sort(entries);
+    return entries;
+  }
 }
@@ -84,4 +84,54 @@ public void testRemoteMetadataChange() throws IOException {
     Assert.assertTrue(dfs.getFileStatus(new Path(srcPath + "/" + file)).getPermission().toString().equals("rwxrwxrwx"));
 
   }
+
+  @Test
+  public void testBatchMetadataChange() throws Exception {
+    final String srcPath = "/test";
+    dfs.mkdirs(new Path(srcPath + "/sub"));
+    for (int i = 0; i < 5; i++) {
+      dfs.create(new Path(srcPath + "/file" + i + ".log")).close();
+      dfs.create(new Path(srcPath + "/sub/file" + i)).close();
+    }
+    dfs.create(new Path(srcPath + "/file.txt")).close();
+
+    // Glob on the last component
+    MetaDataAction metaFileAction = new MetaDataAction();
+    metaFileAction.setDfsClient(dfsClient);
+    metaFileAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(MetaDataAction.FILE_PATH, srcPath + "/*.log");
+    args.put(MetaDataAction.PERMISSION, "700");
+    args.put(MetaDataAction.BATCH, "");
+    args.put(MetaDataAction.THREADS, "3");
+    metaFileAction.init(args);
+    metaFileAction.run();
+    Assert.assertTrue(metaFileAction.getExpectedAfterRun());
+    Assert.assertEquals(1.0f, metaFileAction.getProgress(), 0.0f);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("rwx------", dfs.getFileStatus(
+          new Path(srcPath + "/file" + i + ".log")).getPermission().toString());
+    }
+    Assert.assertNotEquals("rwx------",
+        dfs.getFileStatus(new Path(srcPath + "/file.txt")).getPermission().toString());
+
+    // Whole directory tree
+    metaFileAction = new MetaDataAction();
+    metaFileAction.setDfsClient(dfsClient);
+    metaFileAction.setContext(smartContext);
+    args = new HashMap<>();
+    args.put(MetaDataAction.FILE_PATH, srcPath);
+    args.put(MetaDataAction.OWNER_NAME, "test");
+    args.put(MetaDataAction.MTIME, "1000");
+    args.put(MetaDataAction.BATCH, "");
+    metaFileAction.init(args);
+    metaFileAction.run();
+    Assert.assertTrue(metaFileAction.getExpectedAfterRun());
+    for (int i = 0; i < 5; i++) {
+      Path path = new Path(srcPath + "/sub/file" + i);
+      Assert.assertEquals("test", dfs.getFileStatus(path).getOwner());
+      Assert.assertEquals(1000L, dfs.getFileStatus(path).getModificationTime());
+    }
+    Assert.assertEquals("test", dfs.getFileStatus(new Path(srcPath)).getOwner());
+  }
 }
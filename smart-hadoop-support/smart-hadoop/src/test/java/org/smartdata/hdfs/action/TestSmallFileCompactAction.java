@@ -18,19 +18,29 @@
 package org.smartdata.hdfs.action;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang.SerializationUtils;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.ContainerIndex;
 import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.zip.CRC32;
 
 public class TestSmallFileCompactAction extends MiniClusterHarness {
 
@@ -76,6 +86,139 @@ public void testAction() throws Exception {
     Assert.assertEquals(sumFileLen, containerFileInfo.getLen());
   }
 
+  @Test
+  public void testPipelinedCompact() throws Exception {
+    dfs.mkdirs(new Path("/test/small_files/"));
+    Random random = new Random(2018);
+    Map<String, byte[]> contents = new HashMap<>();
+    List<String> smallFileList = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      String fileName = "/test/small_files/file_" + i;
+      byte[] data = new byte[1 + random.nextInt(120)];
+      random.nextBytes(data);
+      FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+      out.write(data);
+      out.close();
+      contents.put(fileName, data);
+      smallFileList.add(fileName);
+    }
+    // Missing and empty files are skipped
+    smallFileList.add("/test/small_files/not_exist");
+    dfs.create(new Path("/test/small_files/empty"), (short) 1).close();
+    smallFileList.add("/test/small_files/empty");
+
+    SmallFileCompactAction smallFileCompactAction = new SmallFileCompactAction();
+    smallFileCompactAction.setDfsClient(dfsClient);
+    smallFileCompactAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(SmallFileCompactAction.FILE_PATH, new Gson().toJson(smallFileList));
+    args.put(SmallFileCompactAction.CONTAINER_FILE, "/test/small_files/container_file");
+    args.put(SmallFileCompactAction.THREADS, "3");
+    smallFileCompactAction.init(args);
+    smallFileCompactAction.run();
+    Assert.assertNull(smallFileCompactAction.getActionStatus().getThrowable());
+    Assert.assertEquals(1.0f, smallFileCompactAction.getProgress(), 1e-6);
+
+    List<CompactFileState> states = new Gson().fromJson(
+        smallFileCompactAction.getActionStatus().getResult(),
+        new TypeToken<List<CompactFileState>>() {
+        }.getType());
+    Assert.assertEquals(20, states.size());
+    long offset = 0L;
+    for (int i = 0; i < states.size(); i++) {
+      CompactFileState state = states.get(i);
+      FileContainerInfo containerInfo = state.getFileContainerInfo();
+      byte[] expected = contents.get(state.getPath());
+      // Files keep their order inside the container
+      Assert.assertEquals(smallFileList.get(i), state.getPath());
+      Assert.assertEquals(offset, containerInfo.getOffset());
+      Assert.assertEquals(expected.length, containerInfo.getLength());
+      offset += expected.length;
+
+      byte[] actual = new byte[expected.length];
+      try (InputStream in = dfsClient.open("/test/small_files/container_file")) {
+        in.skip(containerInfo.getOffset());
+        org.apache.hadoop.io.IOUtils.readFully(in, actual, 0, actual.length);
+      }
+      Assert.assertTrue(Arrays.equals(expected, actual));
+
+      Assert.assertEquals(0L, dfsClient.getFileInfo(state.getPath()).getLen());
+      Assert.assertNotNull(dfsClient.getXAttrs(state.getPath())
+          .get(SmartConstants.SMART_FILE_STATE_XATTR_NAME));
+    }
+    Assert.assertEquals(offset,
+        dfsClient.getFileInfo("/test/small_files/container_file").getLen());
+  }
+
+  @Test
+  public void testContainerIndex() throws Exception {
+    smartContext.getConf().setBoolean(
+        SmartConfKeys.SMART_COMPACT_CONTAINER_INDEX_ENABLED_KEY, true);
+    String containerFile = "/test/small_files/container_file";
+    dfs.mkdirs(new Path("/test/small_files/"));
+    Random random = new Random(2018);
+    Map<String, byte[]> contents = new HashMap<>();
+    long dataLen = 0L;
+    // Compact two batches into the same container
+    for (int batch = 0; batch < 2; batch++) {
+      List<String> smallFileList = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        String fileName = "/test/small_files/file_" + batch + "_" + i;
+        byte[] data = new byte[1 + random.nextInt(80)];
+        random.nextBytes(data);
+        FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+        out.write(data);
+        out.close();
+        contents.put(fileName, data);
+        smallFileList.add(fileName);
+        dataLen += data.length;
+      }
+      SmallFileCompactAction smallFileCompactAction = new SmallFileCompactAction();
+      smallFileCompactAction.setDfsClient(dfsClient);
+      smallFileCompactAction.setContext(smartContext);
+      Map<String, String> args = new HashMap<>();
+      args.put(SmallFileCompactAction.FILE_PATH, new Gson().toJson(smallFileList));
+      args.put(SmallFileCompactAction.CONTAINER_FILE, containerFile);
+      smallFileCompactAction.init(args);
+      smallFileCompactAction.run();
+      Assert.assertNull(smallFileCompactAction.getActionStatus().getThrowable());
+    }
+    Assert.assertTrue(
+        dfsClient.getFileInfo(containerFile).getLen() > dataLen);
+
+    ContainerIndex index = ContainerIndex.read(dfsClient, containerFile);
+    Assert.assertNotNull(index);
+    Assert.assertEquals(10, index.size());
+    for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+      ContainerIndex.Entry entry = index.get(content.getKey());
+      Assert.assertEquals(content.getValue().length, entry.getLength());
+      byte[] actual = new byte[(int) entry.getLength()];
+      try (InputStream in = dfsClient.open(containerFile)) {
+        in.skip(entry.getOffset());
+        org.apache.hadoop.io.IOUtils.readFully(in, actual, 0, actual.length);
+      }
+      Assert.assertTrue(Arrays.equals(content.getValue(), actual));
+      CRC32 crc = new CRC32();
+      crc.update(actual);
+      Assert.assertEquals(crc.getValue(), entry.getChecksum());
+    }
+
+    // The index agrees with the file states kept in the xattrs
+    for (CompactFileState state : index.toCompactFileStates(containerFile)) {
+      FileContainerInfo expected = ((CompactFileState) SerializationUtils.deserialize(
+          dfsClient.getXAttrs(state.getPath())
+              .get(SmartConstants.SMART_FILE_STATE_XATTR_NAME)))
+          .getFileContainerInfo();
+      Assert.assertEquals(expected.getOffset(),
+          state.getFileContainerInfo().getOffset());
+      Assert.assertEquals(expected.getLength(),
+          state.getFileContainerInfo().getLength());
+    }
+
+    // Files without a footer have no index
+    Assert.assertNull(ContainerIndex.read(dfsClient, "/test/small_files/file_0_0"));
+  }
+
   @After
   public void tearDown() throws Exception {
     dfs.getClient().delete("/test", true);
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.hdfs.MiniClusterHarness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TestSmallFileUncompactAction extends MiniClusterHarness {
+
+  @Test
+  public void testAction() throws Exception {
+    String containerFile = "/test/small_files/container_file";
+    dfs.mkdirs(new Path("/test/small_files/"));
+    Random random = new Random(2018);
+    Map<String, byte[]> contents = new HashMap<>();
+    List<String> smallFileList = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      String fileName = "/test/small_files/file_" + i;
+      byte[] data = new byte[1 + random.nextInt(120)];
+      random.nextBytes(data);
+      FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+      out.write(data);
+      out.close();
+      dfs.setXAttr(new Path(fileName), "user.test", new byte[] {(byte) i});
+      contents.put(fileName, data);
+      smallFileList.add(fileName);
+    }
+
+    SmallFileCompactAction compactAction = new SmallFileCompactAction();
+    compactAction.setDfsClient(dfsClient);
+    compactAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(SmallFileCompactAction.FILE_PATH, new Gson().toJson(smallFileList));
+    args.put(SmallFileCompactAction.CONTAINER_FILE, containerFile);
+    compactAction.init(args);
+    compactAction.run();
+    Assert.assertNull(compactAction.getActionStatus().getThrowable());
+
+    // Uncompact in an order different from the one in the container
+    List<String> uncompactList = new ArrayList<>(smallFileList);
+    Collections.shuffle(uncompactList, random);
+    uncompactList.add("/test/small_files/not_exist");
+    SmallFileUncompactAction uncompactAction = new SmallFileUncompactAction();
+    uncompactAction.setDfsClient(dfsClient);
+    uncompactAction.setContext(smartContext);
+    args = new HashMap<>();
+    args.put(SmallFileUncompactAction.FILE_PATH, new Gson().toJson(uncompactList));
+    args.put(SmallFileUncompactAction.CONTAINER_FILE, containerFile);
+    args.put(SmallFileUncompactAction.THREADS, "3");
+    uncompactAction.init(args);
+    uncompactAction.run();
+    Assert.assertNull(uncompactAction.getActionStatus().getThrowable());
+    Assert.assertEquals(1.0f, uncompactAction.getProgress(), 1e-6);
+
+    List<String> uncompacted = new Gson().fromJson(
+        uncompactAction.getActionStatus().getResult(),
+        new TypeToken<List<String>>() {
+        }.getType());
+    Assert.assertEquals(smallFileList.size(), uncompacted.size());
+    Assert.assertTrue(uncompacted.containsAll(smallFileList));
+    Assert.assertFalse(dfsClient.exists(containerFile));
+
+    for (int i = 0; i < smallFileList.size(); i++) {
+      String fileName = smallFileList.get(i);
+      byte[] expected = contents.get(fileName);
+      byte[] actual = new byte[expected.length];
+      Assert.assertEquals(expected.length, dfsClient.getFileInfo(fileName).getLen());
+      try (FSDataInputStream in = dfs.open(new Path(fileName))) {
+        IOUtils.readFully(in, actual, 0, actual.length);
+      }
+      Assert.assertTrue(Arrays.equals(expected, actual));
+      Map<String, byte[]> xAttrs = dfsClient.getXAttrs(fileName);
+      Assert.assertFalse(xAttrs.containsKey(SmartConstants.SMART_FILE_STATE_XATTR_NAME));
+      Assert.assertArrayEquals(new byte[] {(byte) i}, xAttrs.get("user.test"));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dfs.getClient().delete("/test", true);
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.hadoop.hdfs.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.StopWatch;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A benchmark tool to compare the throughput and compression ratio of
+ * compression codecs used by SSM, native or pure Java, on several kinds of
+ * data. Data is compressed chunk by chunk as SmartCompressorStream does,
+ * and the decompressed result is validated.
+ */
+public final class CompressionCodecBenchmark {
+
+  private CompressionCodecBenchmark() {
+    // prevent instantiation
+  }
+
+  enum DATA {
+    TEXT("English-like text"),
+    LOG("Structured log lines"),
+    SPARSE("Mostly zero binary"),
+    RANDOM("Random binary");
+
+    private final String name;
+
+    DATA(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static void usage(String message) {
+    if (message != null) {
+      System.out.println(message);
+    }
+    System.out.println(
+        "Usage: CompressionCodecBenchmark <codec> <native/java/auto> " +
+            "[dataSize-in-MB] [chunkSize-in-KB]");
+    System.out.println("Available codecs: " + CompressionCodec.CODEC_LIST);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int dataSizeMB = 256;
+    int chunkSizeKB = 1024;
+    if (args.length < 2) {
+      usage(null);
+    }
+    String codec = args[0];
+    String impl = args[1];
+    if (!CompressionCodec.CODEC_LIST.contains(codec)) {
+      usage("Invalid codec: " + codec);
+    }
+    if (!CompressionCodec.IMPL_LIST.contains(impl)) {
+      usage("Invalid codec implementation: " + impl);
+    }
+    try {
+      if (args.length > 2) {
+        dataSizeMB = Integer.parseInt(args[2]);
+      }
+      if (args.length > 3) {
+        chunkSizeKB = Integer.parseInt(args[3]);
+      }
+    } catch (NumberFormatException e) {
+      usage("Malformed size: " + e.getMessage());
+    }
+    for (DATA data : DATA.values()) {
+      performBench(codec, impl, data, dataSizeMB, chunkSizeKB);
+    }
+  }
+
+  /**
+   * Compress and decompress the given size of data.
+   *
+   * @return the result of benchmark
+   */
+  public static Result performBench(String codec, String impl, DATA data,
+      int dataSizeMB, int chunkSizeKB) throws IOException {
+    int chunkSize = chunkSizeKB * 1024;
+    int overhead = CompressionCodec.compressionOverhead(chunkSize, codec);
+    Compressor compressor =
+        CompressionCodec.createCompressor(chunkSize + overhead, codec, impl);
+    Decompressor decompressor =
+        CompressionCodec.creatDecompressor(chunkSize + overhead, codec, impl);
+
+    // A pool of distinct chunks to avoid measuring a single chunk only
+    byte[][] chunks = new byte[4][];
+    Random random = new Random(12345L);
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = generate(data, chunkSize, random);
+    }
+    byte[][] compressed = new byte[chunks.length][];
+    int[] compressedLength = new int[chunks.length];
+    for (int i = 0; i < chunks.length; i++) {
+      // Leave room for codecs whose overhead is not bounded by the estimation
+      compressed[i] = new byte[2 * chunkSize + overhead];
+    }
+    byte[] decompressed = new byte[chunkSize];
+
+    long numChunks = Math.max(1, (long) dataSizeMB * 1024 / chunkSizeKB);
+    long totalCompressed = 0;
+    StopWatch compressWatch = new StopWatch();
+    StopWatch decompressWatch = new StopWatch();
+    for (long n = 0; n < numChunks; n++) {
+      int i = (int) (n % chunks.length);
+      compressWatch.start();
+      compressedLength[i] = compress(compressor, chunks[i], compressed[i]);
+      compressWatch.stop();
+      totalCompressed += compressedLength[i];
+
+      decompressWatch.start();
+      decompress(decompressor, compressed[i], compressedLength[i], decompressed);
+      decompressWatch.stop();
+      if (n < chunks.length && !Arrays.equals(chunks[i], decompressed)) {
+        throw new IOException("Decompressed data mismatch for " + codec
+            + " (" + impl + ")");
+      }
+    }
+    compressor.end();
+    decompressor.end();
+
+    Result result = new Result(codec, impl, data, numChunks * chunkSize, totalCompressed,
+        compressWatch.now(TimeUnit.MILLISECONDS),
+        decompressWatch.now(TimeUnit.MILLISECONDS));
+    System.out.println(result);
+    return result;
+  }
+
+  private static int compress(Compressor compressor, byte[] src, byte[] dst)
+      throws IOException {
+    compressor.reset();
+    compressor.setInput(src, 0, src.length);
+    compressor.finish();
+    int n = 0;
+    while (!compressor.finished()) {
+      n += compressor.compress(dst, n, dst.length - n);
+    }
+    return n;
+  }
+
+  private static void decompress(Decompressor decompressor, byte[] src, int len,
+      byte[] dst) throws IOException {
+    decompressor.reset();
+    decompressor.setInput(src, 0, len);
+    int n = 0;
+    while (n < dst.length) {
+      int count = decompressor.decompress(dst, n, dst.length - n);
+      if (count == 0 && (decompressor.finished() || decompressor.needsInput())) {
+        throw new IOException("Unexpected end of compressed data");
+      }
+      n += count;
+    }
+  }
+
+  static byte[] generate(DATA data, int size, Random random) {
+    byte[] buf = new byte[size];
+    switch (data) {
+      case TEXT:
+        fillWords(buf, random, new String[] {"the", "of", "and", "to", "in",
+            "file", "data", "storage", "block", "small", "cold", "hot", "policy",
+            "namenode", "datanode", "replica", "cluster", "smart", "rule"});
+        break;
+      case LOG:
+        int off = 0;
+        long ts = 1500000000000L;
+        while (off < size) {
+          ts += random.nextInt(1000);
+          String line = ts + " INFO org.smartdata.server.engine.CmdletManager: Cmdlet "
+              + random.nextInt(100000) + " state changed to "
+              + (random.nextBoolean() ? "DONE" : "EXECUTING") + "\n";
+          off = put(buf, off, line);
+        }
+        break;
+      case SPARSE:
+        for (int i = 0; i < size; i += 64) {
+          buf[i] = (byte) random.nextInt();
+        }
+        break;
+      case RANDOM:
+      default:
+        random.nextBytes(buf);
+    }
+    return buf;
+  }
+
+  private static void fillWords(byte[] buf, Random random, String[] words) {
+    int off = 0;
+    while (off < buf.length) {
+      off = put(buf, off, words[random.nextInt(words.length)]
+          + (random.nextInt(12) == 0 ? ".\n" : " "));
+    }
+  }
+
+  private static int put(byte[] buf, int off, String s) {
+    byte[] bytes = s.getBytes();
+    int n = Math.min(bytes.length, buf.length - off);
+    System.arraycopy(bytes, 0, buf, off, n);
+    return off + n;
+  }
+
+  /**
+   * Result of one benchmark run.
+   */
+  public static class Result {
+    private final String codec;
+    private final String impl;
+    private final DATA data;
+    private final long originalBytes;
+    private final long compressedBytes;
+    private final long compressMillis;
+    private final long decompressMillis;
+
+    Result(String codec, String impl, DATA data, long originalBytes,
+        long compressedBytes, long compressMillis, long decompressMillis) {
+      this.codec = codec;
+      this.impl = impl;
+      this.data = data;
+      this.originalBytes = originalBytes;
+      this.compressedBytes = compressedBytes;
+      this.compressMillis = compressMillis;
+      this.decompressMillis = decompressMillis;
+    }
+
+    public double getRatio() {
+      return (double) compressedBytes / originalBytes;
+    }
+
+    public double getCompressThroughput() {
+      return throughput(compressMillis);
+    }
+
+    public double getDecompressThroughput() {
+      return throughput(decompressMillis);
+    }
+
+    private double throughput(long millis) {
+      return originalBytes / 1024.0 / 1024 / Math.max(millis, 1) * 1000;
+    }
+
+    @Override
+    public String toString() {
+      DecimalFormat df = new DecimalFormat("#.##");
+      return codec + " (" + impl + "), " + data + ": ratio " + df.format(getRatio())
+          + ", compress " + df.format(getCompressThroughput()) + "MB/s"
+          + ", decompress " + df.format(getDecompressThroughput()) + "MB/s";
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.hadoop.hdfs.CompressionCodec;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests for the compression codec benchmark tool.
+ */
+public class TestCompressionCodecBenchmark {
+
+  @Test
+  public void testJavaCodecs() throws Exception {
+    for (String codec : new String[] {CompressionCodec.LZ4,
+        CompressionCodec.SNAPPY, CompressionCodec.ZLIB}) {
+      for (CompressionCodecBenchmark.DATA data : CompressionCodecBenchmark.DATA.values()) {
+        CompressionCodecBenchmark.Result result = CompressionCodecBenchmark.performBench(
+            codec, CompressionCodec.IMPL_JAVA, data, 16, 256);
+        if (data == CompressionCodecBenchmark.DATA.RANDOM) {
+          Assert.assertTrue(result.toString(), result.getRatio() < 1.01);
+        } else {
+          Assert.assertTrue(result.toString(), result.getRatio() < 0.6);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNativeCodecs() throws Exception {
+    Assume.assumeTrue(CompressionCodec.getNativeCodeLoaded());
+    for (String codec : CompressionCodec.CODEC_LIST) {
+      CompressionCodecBenchmark.performBench(codec, CompressionCodec.IMPL_NATIVE,
+          CompressionCodecBenchmark.DATA.TEXT, 16, 256);
+    }
+  }
+}
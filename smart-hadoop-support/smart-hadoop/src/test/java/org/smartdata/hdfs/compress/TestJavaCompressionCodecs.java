@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.hdfs.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for pure Java Lz4 and snappy codecs.
+ */
+public class TestJavaCompressionCodecs {
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final String[] CODECS =
+      {CompressionCodec.LZ4, CompressionCodec.SNAPPY};
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Random random = new Random(0);
+    for (String codec : CODECS) {
+      for (int size : new int[] {0, 1, 4, 12, 13, 17, 100, 65536, 65537, BUFFER_SIZE}) {
+        for (CompressionCodecBenchmark.DATA data : CompressionCodecBenchmark.DATA.values()) {
+          byte[] raw = CompressionCodecBenchmark.generate(data, size, random);
+          assertRoundTrip(codec, CompressionCodec.IMPL_JAVA, CompressionCodec.IMPL_JAVA, raw);
+        }
+      }
+      // Long runs and matches far away
+      byte[] raw = new byte[BUFFER_SIZE];
+      Arrays.fill(raw, 0, 100000, (byte) 'a');
+      byte[] pattern = CompressionCodecBenchmark.generate(
+          CompressionCodecBenchmark.DATA.RANDOM, 1000, random);
+      for (int off = 100000; off + pattern.length <= raw.length; off += 70000) {
+        System.arraycopy(pattern, 0, raw, off, pattern.length);
+      }
+      assertRoundTrip(codec, CompressionCodec.IMPL_JAVA, CompressionCodec.IMPL_JAVA, raw);
+    }
+  }
+
+  @Test
+  public void testCompatibleWithNative() throws Exception {
+    Assume.assumeTrue(CompressionCodec.getNativeCodeLoaded());
+    Random random = new Random(0);
+    for (String codec : CODECS) {
+      for (CompressionCodecBenchmark.DATA data : CompressionCodecBenchmark.DATA.values()) {
+        byte[] raw = CompressionCodecBenchmark.generate(data, BUFFER_SIZE, random);
+        assertRoundTrip(codec, CompressionCodec.IMPL_JAVA, CompressionCodec.IMPL_NATIVE, raw);
+        assertRoundTrip(codec, CompressionCodec.IMPL_NATIVE, CompressionCodec.IMPL_JAVA, raw);
+      }
+    }
+  }
+
+  /**
+   * Checks the Java codecs against golden blocks under compress/ in the test
+   * resources, so the native format is verified without libhadoop. The
+   * text.native.* blocks were compressed by native liblz4 and snappy, and the
+   * text.java.* blocks were produced by the Java compressors and checked to
+   * decompress with the native libraries.
+   */
+  @Test
+  public void testGoldenBlocks() throws Exception {
+    byte[] raw = readResource("text.raw");
+    for (String codec : CODECS) {
+      String ext = codec.toLowerCase();
+      byte[] nativeBlock = readResource("text.native." + ext);
+      Assert.assertArrayEquals(codec, raw,
+          decompress(codec, CompressionCodec.IMPL_JAVA, nativeBlock, raw.length));
+      byte[] javaBlock = readResource("text.java." + ext);
+      Assert.assertArrayEquals(codec, javaBlock,
+          compress(codec, CompressionCodec.IMPL_JAVA, raw));
+    }
+  }
+
+  @Test
+  public void testAutoWithoutNative() throws Exception {
+    Assume.assumeFalse(CompressionCodec.getNativeCodeLoaded());
+    Assert.assertTrue(CompressionCodec.createCompressor(BUFFER_SIZE,
+        CompressionCodec.LZ4) instanceof Lz4JavaCompressor);
+    Assert.assertTrue(CompressionCodec.creatDecompressor(BUFFER_SIZE,
+        CompressionCodec.SNAPPY) instanceof SnappyJavaDecompressor);
+    try {
+      CompressionCodec.createCompressor(BUFFER_SIZE, CompressionCodec.LZ4,
+          CompressionCodec.IMPL_NATIVE);
+      Assert.fail("Native codec should not be available");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCorruptedInput() throws Exception {
+    for (String codec : CODECS) {
+      byte[] raw = CompressionCodecBenchmark.generate(
+          CompressionCodecBenchmark.DATA.TEXT, 10000, new Random(0));
+      byte[] compressed = compress(codec, CompressionCodec.IMPL_JAVA, raw);
+      Decompressor decompressor = CompressionCodec.creatDecompressor(
+          BUFFER_SIZE, codec, CompressionCodec.IMPL_JAVA);
+      decompressor.setInput(compressed, 0, compressed.length / 2);
+      try {
+        decompressor.decompress(new byte[raw.length], 0, raw.length);
+        Assert.fail("Truncated " + codec + " block should not be decompressed");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  private void assertRoundTrip(String codec, String compressImpl,
+      String decompressImpl, byte[] raw) throws IOException {
+    byte[] compressed = compress(codec, compressImpl, raw);
+    Assert.assertArrayEquals(codec + " " + raw.length, raw,
+        decompress(codec, decompressImpl, compressed, raw.length));
+  }
+
+  private byte[] decompress(String codec, String impl, byte[] compressed,
+      int length) throws IOException {
+    Decompressor decompressor = CompressionCodec.creatDecompressor(BUFFER_SIZE
+        + CompressionCodec.compressionOverhead(BUFFER_SIZE, codec), codec, impl);
+    decompressor.setInput(compressed, 0, compressed.length);
+    byte[] result = new byte[length];
+    int n = 0;
+    while (n < length) {
+      int count = decompressor.decompress(result, n, length - n);
+      Assert.assertFalse(count == 0 && decompressor.finished());
+      n += count;
+    }
+    return result;
+  }
+
+  private byte[] readResource(String name) throws IOException {
+    InputStream in = getClass().getResourceAsStream("/compress/" + name);
+    Assert.assertNotNull(name, in);
+    try {
+      return IOUtils.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private byte[] compress(String codec, String impl, byte[] raw) throws IOException {
+    int overhead = CompressionCodec.compressionOverhead(BUFFER_SIZE, codec);
+    Compressor compressor =
+        CompressionCodec.createCompressor(BUFFER_SIZE + overhead, codec, impl);
+    compressor.setInput(raw, 0, raw.length);
+    compressor.finish();
+    // Pull in small pieces as SmartCompressorStream may do
+    byte[] piece = new byte[4096];
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (!compressor.finished()) {
+      int n = compressor.compress(piece, 0, piece.length);
+      out.write(piece, 0, n);
+    }
+    return out.toByteArray();
+  }
+}
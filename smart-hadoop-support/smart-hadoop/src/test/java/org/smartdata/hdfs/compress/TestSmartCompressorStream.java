@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.commons.lang.mutable.MutableFloat;
+import org.apache.hadoop.hdfs.CompressionCodec;
+import org.apache.hadoop.hdfs.SmartCompressorStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.model.CompressionFileState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Tests for {@link SmartCompressorStream}.
+ */
+public class TestSmartCompressorStream {
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  @Test
+  public void testParallelCompressionError() throws Exception {
+    final byte[] raw = CompressionCodecBenchmark.generate(
+        CompressionCodecBenchmark.DATA.TEXT, 16 * BUFFER_SIZE, new Random(0));
+    // Fails after a few chunks are handed to the compressing threads
+    InputStream in = new ByteArrayInputStream(raw) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        if (pos >= 6 * BUFFER_SIZE) {
+          throw new IllegalStateException("Read error");
+        }
+        return super.read(b, off, len);
+      }
+    };
+    CompressionFileState state = CompressionFileState.newBuilder()
+        .setFileName("/test").setBufferSize(BUFFER_SIZE)
+        .setCompressImpl(CompressionCodec.LZ4).setOriginalLength(raw.length).build();
+    SmartCompressorStream stream = new SmartCompressorStream(in,
+        new ByteArrayOutputStream(), BUFFER_SIZE, state, new MutableFloat(),
+        CompressionCodec.IMPL_JAVA, 4, 64L * BUFFER_SIZE);
+    try {
+      stream.convert();
+      Assert.fail("Read error should fail the conversion");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // No chunk is still being compressed once convert returns
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+      for (StackTraceElement element : stack) {
+        Assert.assertFalse(element.getClassName().equals(SmartCompressorStream.class.getName())
+            && element.getMethodName().equals("compressChunk"));
+      }
+    }
+  }
+}
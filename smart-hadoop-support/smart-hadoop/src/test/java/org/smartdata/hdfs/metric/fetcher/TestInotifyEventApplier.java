@@ -35,6 +35,7 @@
 
 import org.smartdata.metastore.TestDaoUtil;
 import org.smartdata.model.BackUpInfo;
+import org.smartdata.model.BlockECFileState;
 import org.smartdata.model.FileDiff;
 import org.smartdata.model.FileDiffType;
 import org.smartdata.model.FileInfo;
@@ -307,6 +308,35 @@ public void testApplierRenameEvent() throws Exception {
     Assert.assertTrue(info4 == null && info5 != null);
   }
 
+  @Test
+  public void testApplierBlockECFile() throws Exception {
+    DFSClient client = Mockito.mock(DFSClient.class);
+    InotifyEventApplier applier = new InotifyEventApplier(metaStore, client);
+    metaStore.insertFiles(new FileInfo[] {
+        HadoopUtil.convertFileStatus(getDummyDirStatus("/dir", 9000), "/dir"),
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/dir/file", 9001), "/dir/file")});
+    BlockECFileState state = new BlockECFileState("/dir/file",
+        "/system/ssm/ec_parity/9001", "rs", 3, 2, 1024, 4096, 10000, 1000);
+    metaStore.insertUpdateFileState(state);
+
+    // The layout follows renames, the parity files are kept
+    Mockito.when(client.getFileInfo("/dir1")).thenReturn(getDummyDirStatus("/dir1", 9000));
+    applier.apply(new Event[] {
+        new Event.RenameEvent.Builder().srcPath("/dir").dstPath("/dir1").build()});
+    Assert.assertNull(metaStore.getBlockECFileState("/dir/file"));
+    Assert.assertEquals(state.getParityPath(),
+        metaStore.getBlockECFileState("/dir1/file").getParityPath());
+    Mockito.verify(client, Mockito.never()).delete(Matchers.anyString(), Matchers.anyBoolean());
+
+    // Deleting the file deletes its parity files and layout
+    applier.apply(new Event[] {
+        new Event.UnlinkEvent.Builder().path("/dir1/file").timestamp(1).build()});
+    Assert.assertNull(metaStore.getBlockECFileState("/dir1/file"));
+    for (int i = 0; i < state.getNumParityUnits(); i++) {
+      Mockito.verify(client).delete(state.getParityFilePath(i), false);
+    }
+  }
+
   private HdfsFileStatus getDummyFileStatus(String file, long fid) {
     return doGetDummyStatus(file, fid, false);
   }
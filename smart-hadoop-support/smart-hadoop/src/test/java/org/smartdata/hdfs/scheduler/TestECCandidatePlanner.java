@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileInfo;
+
+public class TestECCandidatePlanner {
+  private static final long MB = 1024 * 1024L;
+  private static final long HOUR = 3600 * 1000L;
+  private static final String RS_6_3 = "RS-6-3-1024k";
+
+  private final long now = System.currentTimeMillis();
+  private final ECCandidatePlanner planner = new ECCandidatePlanner(HOUR);
+
+  @Test
+  public void testStoredSize() {
+    ECCandidatePlanner.Layout layout = ECCandidatePlanner.Layout.parse(RS_6_3);
+    Assert.assertEquals(400 * 1024L,
+        ECCandidatePlanner.getStoredSize(100 * 1024L, (short) 1, layout));
+    Assert.assertEquals(9 * MB, ECCandidatePlanner.getStoredSize(6 * MB, (short) 1, layout));
+    Assert.assertEquals(9 * MB + 400 * 1024L,
+        ECCandidatePlanner.getStoredSize(6 * MB + 100 * 1024L, (short) 1, layout));
+    Assert.assertEquals(30 * MB, ECCandidatePlanner.getStoredSize(10 * MB, (short) 3, null));
+    Assert.assertNull(ECCandidatePlanner.Layout.parse("replication"));
+  }
+
+  @Test
+  public void testExpectedSaving() {
+    // Small files take more space once striped
+    Assert.assertTrue(plan(1, 100 * 1024L, (short) 3, now - 100 * HOUR)
+        .getExpectedSaving() < 0);
+    ECCandidatePlanner.Candidate cold = plan(2, 600 * MB, (short) 3, now - 100 * HOUR);
+    Assert.assertEquals(900 * MB, cold.getBytesRewritten());
+    Assert.assertTrue(cold.getExpectedSaving() > 0);
+    Assert.assertTrue(cold.getExpectedSaving() < 900 * MB);
+    // A file just modified is likely to be rewritten
+    Assert.assertTrue(plan(3, 600 * MB, (short) 3, now).getExpectedSaving() < 0);
+    // Without churn the saving is certain
+    Assert.assertEquals(900 * MB, new ECCandidatePlanner(0).plan(cmdlet(4), 4,
+        file(600 * MB, (short) 3, now, now), "replication", RS_6_3, now).getExpectedSaving());
+  }
+
+  @Test
+  public void testOrder() {
+    CmdletInfo twoReplicas = cmdlet(1);
+    planner.add(planner.plan(twoReplicas, 1,
+        file(600 * MB, (short) 2, now - 100 * HOUR, now - 100 * HOUR), "replication", RS_6_3, now));
+    CmdletInfo threeReplicas = cmdlet(2);
+    planner.add(planner.plan(threeReplicas, 2,
+        file(600 * MB, (short) 3, now - 100 * HOUR, now - 100 * HOUR), "replication", RS_6_3, now));
+    CmdletInfo justRead = cmdlet(3);
+    planner.add(planner.plan(justRead, 3,
+        file(600 * MB, (short) 3, now - 100 * HOUR, now), "replication", RS_6_3, now));
+
+    // Unplanned actions are not held back
+    Assert.assertTrue(planner.isNext(100));
+    Assert.assertFalse(planner.isNext(1));
+    Assert.assertFalse(planner.isNext(3));
+    Assert.assertTrue(planner.isNext(2));
+    planner.remove(2);
+    Assert.assertTrue(planner.isNext(1));
+    // The candidate cancelled is dropped
+    twoReplicas.setState(CmdletState.CANCELLED);
+    Assert.assertTrue(planner.isNext(3));
+    Assert.assertEquals(1, planner.size());
+  }
+
+  @Test
+  public void testBlockedHead() {
+    for (long id = 1; id <= 3; id++) {
+      // The longer ago accessed, the better
+      planner.add(planner.plan(cmdlet(id), id, file(600 * MB, (short) 3,
+          now - 100 * HOUR, now - id * id * HOUR), "replication", RS_6_3, now));
+    }
+    Assert.assertFalse(planner.isNext(1));
+    Assert.assertTrue(planner.isNext(3));
+    // Blocked elsewhere, the next one goes first
+    planner.onRetry(3);
+    Assert.assertFalse(planner.isNext(1));
+    Assert.assertTrue(planner.isNext(2));
+    // Tried again, it's back at the head
+    Assert.assertTrue(planner.isNext(3));
+    Assert.assertFalse(planner.isNext(2));
+    // A candidate denied by the planner is not blocked
+    planner.onRetry(2);
+    Assert.assertFalse(planner.isNext(1));
+
+    // The head not tried in whole rounds, e.g., deferred, is skipped
+    for (int i = 0; i < 2; i++) {
+      Assert.assertFalse(planner.isNext(1));
+      Assert.assertFalse(planner.isNext(2));
+    }
+    Assert.assertTrue(planner.isNext(2));
+    Assert.assertEquals(3, planner.size());
+  }
+
+  private ECCandidatePlanner.Candidate plan(long id, long length, short replication,
+      long mtime) {
+    return planner.plan(cmdlet(id), id, file(length, replication, mtime, mtime),
+        "replication", RS_6_3, now);
+  }
+
+  private static CmdletInfo cmdlet(long id) {
+    return new CmdletInfo(id, 1, CmdletState.PENDING, "ec", 0, 0);
+  }
+
+  private static FileInfo file(long length, short replication, long mtime, long atime) {
+    return new FileInfo("/file", 1, length, false, replication, 128 * MB, mtime, atime,
+        (short) 0644, "user", "group", (byte) 0, (byte) 0);
+  }
+}
@@ -0,0 +1,431 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.erasurecode.ECBlock;
+import org.smartdata.erasurecode.ECBlockGroup;
+import org.smartdata.erasurecode.ECChunk;
+import org.smartdata.erasurecode.ECSchema;
+import org.smartdata.erasurecode.ErasureCodeConstants;
+import org.smartdata.erasurecode.ErasureCodecOptions;
+import org.smartdata.erasurecode.codec.RSErasureCodec;
+import org.smartdata.erasurecode.coder.ErasureCoder;
+import org.smartdata.erasurecode.coder.ErasureCodingStep;
+import org.smartdata.model.BlockECFileState;
+import org.smartdata.model.FileState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Input stream for files erasure coded at block level by SSM. Data is read
+ * from the blocks of the file itself. A block that cannot be read is
+ * reconstructed from the other blocks of its group and the parity files
+ * recorded in {@link BlockECFileState}, so the file stays readable with
+ * replication 1. Nothing is reconstructed once the file is modified after
+ * being encoded, since its parity no longer matches.
+ *
+ * <p>Lost data is reconstructed a cell at a time, and the last cell is kept
+ * so that the small reads of a sequential scan do not read k units each.
+ */
+public class BlockECInputStream extends SmartInputStream {
+  static final Logger LOG = LoggerFactory.getLogger(BlockECInputStream.class);
+
+  private final DFSClient dfsClient;
+  private final String src;
+  private final BlockECFileState ecState;
+  private final ErasureCoder decoder;
+  private final DFSInputStream[] parityStreams;
+  private final boolean[] lostParities;
+  // Blocks of the file known to be unreadable, they are reconstructed directly
+  private final Set<Integer> lostBlocks = new HashSet<>();
+  private final int cellSize;
+  // Whether the file is checked to be unchanged since it was encoded
+  private volatile boolean unchanged = false;
+  // The cell reconstructed last, replaced as a whole
+  private volatile Cell lastCell;
+  private long pos = 0;
+  private boolean closed = false;
+
+  BlockECInputStream(DFSClient dfsClient, String src, boolean verifyChecksum,
+      FileState fileState) throws IOException, UnresolvedLinkException {
+    super(dfsClient, src, verifyChecksum, fileState);
+    this.dfsClient = dfsClient;
+    this.src = src;
+    this.ecState = (BlockECFileState) fileState;
+    if (!ErasureCodeConstants.RS_DEFAULT_CODEC_NAME.equals(ecState.getCodecName())) {
+      throw new IOException("Unsupported erasure codec " + ecState.getCodecName()
+          + " of " + src);
+    }
+    ECSchema schema = new ECSchema(ecState.getCodecName(),
+        ecState.getNumDataUnits(), ecState.getNumParityUnits());
+    this.decoder = new RSErasureCodec(dfsClient.getConfiguration(),
+        new ErasureCodecOptions(schema)).createDecoder();
+    this.decoder.setConf(dfsClient.getConfiguration());
+    this.parityStreams = new DFSInputStream[ecState.getNumParityUnits()];
+    this.lostParities = new boolean[ecState.getNumParityUnits()];
+    int cellSize = ecState.getCellSize() > 0
+        ? ecState.getCellSize() : SmartConfKeys.SMART_BLOCK_EC_CELL_SIZE_DEFAULT;
+    this.cellSize = (int) Math.min(cellSize, ecState.getBlockSize());
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    byte[] oneByteBuf = new byte[1];
+    int ret = read(oneByteBuf, 0, 1);
+    return (ret <= 0) ? -1 : (oneByteBuf[0] & 0xff);
+  }
+
+  @Override
+  public synchronized int read(final byte b[], int off, int len) throws IOException {
+    if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    int n = read(pos, b, off, len);
+    if (n > 0) {
+      pos += n;
+    }
+    return n;
+  }
+
+  @Override
+  public synchronized int read(final ByteBuffer buf) throws IOException {
+    if (buf.hasArray()) {
+      int n = read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    byte[] tmp = new byte[buf.remaining()];
+    int n = read(tmp, 0, tmp.length);
+    if (n > 0) {
+      buf.put(tmp, 0, n);
+    }
+    return n;
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    checkOpen();
+    long fileLength = getFileLength();
+    if (position < 0 || position >= fileLength) {
+      return -1;
+    }
+    int realLen = (int) Math.min(length, fileLength - position);
+    long blockSize = ecState.getBlockSize();
+    int done = 0;
+    // Positional read does not move the stream position
+    while (done < realLen) {
+      long cur = position + done;
+      int blockIndex = (int) (cur / blockSize);
+      long offsetInBlock = cur % blockSize;
+      int n = (int) Math.min(realLen - done, blockSize - offsetInBlock);
+      readBlock(blockIndex, offsetInBlock, buffer, offset + done, n);
+      done += n;
+    }
+    return realLen;
+  }
+
+  private void readBlock(int blockIndex, long offsetInBlock, byte[] buffer,
+      int offset, int length) throws IOException {
+    if (!isLost(blockIndex)) {
+      try {
+        readFile(blockIndex * ecState.getBlockSize() + offsetInBlock,
+            buffer, offset, length);
+        return;
+      } catch (IOException e) {
+        LOG.warn("Failed to read block " + blockIndex + " of " + src
+            + ", reconstruct it from parity", e);
+        markLost(blockIndex);
+      }
+    }
+    reconstruct(blockIndex, offsetInBlock, buffer, offset, length);
+  }
+
+  /**
+   * Reconstruct a range of a data block from the cells covering it, the
+   * last one is reused if the range starts in it.
+   */
+  private void reconstruct(int blockIndex, long offsetInBlock, byte[] buffer,
+      int offset, int length) throws IOException {
+    int done = 0;
+    while (done < length) {
+      long cur = offsetInBlock + done;
+      Cell cell = lastCell;
+      if (cell == null || !cell.contains(blockIndex, cur)) {
+        cell = reconstructCell(blockIndex, cur - cur % cellSize);
+        lastCell = cell;
+      }
+      int n = (int) Math.min(length - done, cell.start + cell.data.length - cur);
+      System.arraycopy(cell.data, (int) (cur - cell.start),
+          buffer, offset + done, n);
+      done += n;
+    }
+  }
+
+  /**
+   * Reconstruct a cell of a data block. The same range of the other units
+   * in the group is read until enough of them are valid for decoding.
+   */
+  private Cell reconstructCell(int blockIndex, long offsetInBlock)
+      throws IOException {
+    checkUnchanged();
+    long blockLength = Math.min(ecState.getBlockSize(),
+        getFileLength() - blockIndex * ecState.getBlockSize());
+    int length = (int) Math.min(cellSize, blockLength - offsetInBlock);
+    int numDataUnits = ecState.getNumDataUnits();
+    int numParityUnits = ecState.getNumParityUnits();
+    int group = blockIndex / numDataUnits;
+    int erasedUnit = blockIndex % numDataUnits;
+
+    ECChunk[] inputs = new ECChunk[numDataUnits + numParityUnits];
+    int valid = 0;
+    for (int unit = 0; unit < inputs.length && valid < numDataUnits; unit++) {
+      if (unit == erasedUnit) {
+        continue;
+      }
+      byte[] data = new byte[length];
+      boolean read = unit < numDataUnits
+          ? readDataUnit(group, unit, offsetInBlock, data)
+          : readParityUnit(group, unit - numDataUnits, offsetInBlock, data);
+      if (read) {
+        inputs[unit] = new ECChunk(data, 0, length);
+        valid++;
+      }
+    }
+    if (valid < numDataUnits) {
+      throw new IOException("Block " + blockIndex + " of " + src
+          + " cannot be reconstructed, only " + valid + " of "
+          + numDataUnits + " units are available");
+    }
+
+    ECBlock[] dataBlocks = new ECBlock[numDataUnits];
+    for (int i = 0; i < numDataUnits; i++) {
+      dataBlocks[i] = new ECBlock(false, i == erasedUnit);
+    }
+    ECBlock[] parityBlocks = new ECBlock[numParityUnits];
+    for (int i = 0; i < numParityUnits; i++) {
+      parityBlocks[i] = new ECBlock(true, false);
+    }
+    byte[] recovered = new byte[length];
+    synchronized (decoder) {
+      ErasureCodingStep step = decoder.calculateCoding(
+          new ECBlockGroup(dataBlocks, parityBlocks));
+      step.performCoding(inputs, new ECChunk[] {new ECChunk(recovered)});
+      step.finish();
+    }
+    return new Cell(blockIndex, offsetInBlock, recovered);
+  }
+
+  /**
+   * Check that the file is not modified since it was encoded. Like the
+   * block locations, the result is kept for the life of the stream.
+   */
+  private void checkUnchanged() throws IOException {
+    if (unchanged) {
+      return;
+    }
+    HdfsFileStatus status = dfsClient.getFileInfo(src);
+    if (status == null || getFileLength() != ecState.getFileLength()
+        || status.getLen() != ecState.getFileLength()
+        || status.getModificationTime() != ecState.getModificationTime()) {
+      throw new IOException("Parity of " + src + " is stale, the file is "
+          + "modified after being erasure coded");
+    }
+    unchanged = true;
+  }
+
+  private boolean readDataUnit(int group, int unit, long offsetInBlock,
+      byte[] data) throws IOException {
+    int blockIndex = group * ecState.getNumDataUnits() + unit;
+    long blockStart = blockIndex * ecState.getBlockSize();
+    // Units beyond the end of file are encoded as zeros
+    long blockLength = Math.max(0, Math.min(ecState.getBlockSize(),
+        getFileLength() - blockStart));
+    int toRead = (int) Math.max(0, Math.min(data.length, blockLength - offsetInBlock));
+    if (toRead == 0) {
+      return true;
+    }
+    if (isLost(blockIndex)) {
+      return false;
+    }
+    try {
+      readFile(blockStart + offsetInBlock, data, 0, toRead);
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Failed to read block " + blockIndex + " of " + src, e);
+      markLost(blockIndex);
+      return false;
+    }
+  }
+
+  private boolean readParityUnit(int group, int parityIndex, long offsetInBlock,
+      byte[] data) throws IOException {
+    synchronized (parityStreams) {
+      if (lostParities[parityIndex]) {
+        return false;
+      }
+      String parityFile = ecState.getParityFilePath(parityIndex);
+      try {
+        if (parityStreams[parityIndex] == null) {
+          parityStreams[parityIndex] = dfsClient.open(parityFile);
+        }
+        parityStreams[parityIndex].readFully(
+            group * ecState.getBlockSize() + offsetInBlock, data, 0, data.length);
+        return true;
+      } catch (IOException e) {
+        LOG.warn("Failed to read parity file " + parityFile, e);
+        lostParities[parityIndex] = true;
+        return false;
+      }
+    }
+  }
+
+  private void readFile(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    int done = 0;
+    while (done < length) {
+      int n = super.read(position + done, buffer, offset + done, length - done);
+      if (n < 0) {
+        throw new EOFException("Unexpected EOF of " + src + " at "
+            + (position + done));
+      }
+      done += n;
+    }
+  }
+
+  private boolean isLost(int blockIndex) {
+    synchronized (lostBlocks) {
+      return lostBlocks.contains(blockIndex);
+    }
+  }
+
+  private void markLost(int blockIndex) {
+    synchronized (lostBlocks) {
+      lostBlocks.add(blockIndex);
+    }
+  }
+
+  @Override
+  public synchronized long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long target = Math.min(pos + n, getFileLength());
+    long skipped = target - pos;
+    pos = target;
+    return skipped;
+  }
+
+  @Override
+  public synchronized void seek(long targetPos) throws IOException {
+    if (targetPos > getFileLength()) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
+    }
+    pos = targetPos;
+  }
+
+  @Override
+  public synchronized boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  @Override
+  public synchronized long getPos() {
+    return pos;
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    checkOpen();
+    final long remaining = getFileLength() - pos;
+    return remaining <= Integer.MAX_VALUE ? (int) remaining : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      synchronized (parityStreams) {
+        for (DFSInputStream in : parityStreams) {
+          if (in != null) {
+            in.close();
+          }
+        }
+      }
+      decoder.release();
+    } finally {
+      super.close();
+    }
+  }
+
+  @Override
+  public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+      int maxLength, EnumSet<ReadOption> opts)
+      throws IOException, UnsupportedOperationException {
+    throw new UnsupportedOperationException("Read(ByteBufferPool, int, EnumSet) "
+        + "not supported for block erasure coded file");
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  /**
+   * Reconstructed data of a data block starting at start.
+   */
+  private static final class Cell {
+    private final int blockIndex;
+    private final long start;
+    private final byte[] data;
+
+    Cell(int blockIndex, long start, byte[] data) {
+      this.blockIndex = blockIndex;
+      this.start = start;
+      this.data = data;
+    }
+
+    boolean contains(int blockIndex, long offsetInBlock) {
+      return this.blockIndex == blockIndex && offsetInBlock >= start
+          && offsetInBlock < start + data.length;
+    }
+  }
+}
@@ -29,12 +29,18 @@
 import org.apache.hadoop.io.compress.lz4.Lz4Decompressor;
 import org.apache.hadoop.io.compress.snappy.SnappyCompressor;
 import org.apache.hadoop.io.compress.snappy.SnappyDecompressor;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibDeflater;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
 import org.apache.hadoop.io.compress.zlib.ZlibCompressor;
 import org.apache.hadoop.io.compress.zlib.ZlibDecompressor;
 import org.apache.hadoop.io.compress.zlib.ZlibFactory;
 import org.apache.hadoop.util.NativeCodeLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.hdfs.compress.Lz4JavaCompressor;
+import org.smartdata.hdfs.compress.Lz4JavaDecompressor;
+import org.smartdata.hdfs.compress.SnappyJavaCompressor;
+import org.smartdata.hdfs.compress.SnappyJavaDecompressor;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -50,6 +56,15 @@ public class CompressionCodec {
   public static final String SNAPPY = "snappy";
   public static final String ZLIB = "Zlib";
   public static final List<String> CODEC_LIST = Arrays.asList(LZ4, BZIP2, SNAPPY, ZLIB);
+  // Not a codec, but to choose one of them for each file by sampling
+  public static final String ADAPTIVE = "adaptive";
+
+  // Codec implementations. Pure Java Lz4 and snappy are compatible with the
+  // native ones, and are used by AUTO when Hadoop native lib is not loaded.
+  public static final String IMPL_AUTO = "auto";
+  public static final String IMPL_NATIVE = "native";
+  public static final String IMPL_JAVA = "java";
+  public static final List<String> IMPL_LIST = Arrays.asList(IMPL_AUTO, IMPL_NATIVE, IMPL_JAVA);
 
   private static Configuration conf = new Configuration();
   private static boolean nativeCodeLoaded = NativeCodeLoader.isNativeCodeLoaded();
@@ -77,27 +92,35 @@ public static int compressionOverhead(int bufferSize, String codec) {
   }
 
   /**
-   *  Create a compressor
+   *  Create a compressor, native one is preferred.
    */
   public static Compressor createCompressor(int bufferSize, String codec)
       throws IOException {
+    return createCompressor(bufferSize, codec, IMPL_AUTO);
+  }
+
+  /**
+   *  Create a compressor with the given implementation.
+   */
+  public static Compressor createCompressor(int bufferSize, String codec, String impl)
+      throws IOException {
 
     if (!CODEC_LIST.contains(codec)) {
       throw new IOException("Invalid compression codec, SSM only support: " +
           CODEC_LIST.toString());
     }
-    if (!codec.equals(ZLIB) && !nativeCodeLoaded) {
-      throw new IOException(codec + " is not supported, " +
-          " because Hadoop native lib was not successfully loaded");
-    }
+    checkImpl(codec, impl);
 
     // Sequentially load compressors
     switch (codec) {
       case LZ4:
-        if (Lz4Codec.isNativeCodeLoaded()) {
+        if (useNative(impl) && Lz4Codec.isNativeCodeLoaded()) {
           return new Lz4Compressor(bufferSize);
         }
-        throw new IOException("Failed to load/initialize native-Lz4 library");
+        if (IMPL_NATIVE.equals(impl)) {
+          throw new IOException("Failed to load/initialize native-Lz4 library");
+        }
+        return new Lz4JavaCompressor(bufferSize);
 
       case BZIP2:
         if (Bzip2Factory.isNativeBzip2Loaded(conf)) {
@@ -108,12 +131,18 @@ public static Compressor createCompressor(int bufferSize, String codec)
         throw new IOException("Failed to load/initialize native-bzip2 library");
 
       case SNAPPY:
-        if (SnappyCodec.isNativeCodeLoaded()) {
+        if (useNative(impl) && SnappyCodec.isNativeCodeLoaded()) {
           return new SnappyCompressor(bufferSize);
         }
-        throw new IOException("Failed to load/initialize native-snappy library");
+        if (IMPL_NATIVE.equals(impl)) {
+          throw new IOException("Failed to load/initialize native-snappy library");
+        }
+        return new SnappyJavaCompressor(bufferSize);
 
       case ZLIB:
+        if (IMPL_JAVA.equals(impl)) {
+          return new BuiltInZlibDeflater();
+        }
         if (nativeCodeLoaded) {
           return new ZlibCompressor(ZlibCompressor.CompressionLevel.DEFAULT_COMPRESSION,
               ZlibCompressor.CompressionStrategy.DEFAULT_STRATEGY,
@@ -129,27 +158,34 @@ public static Compressor createCompressor(int bufferSize, String codec)
   }
 
   /**
-   *  Create a Decompressor
+   *  Create a Decompressor, native one is preferred.
    */
   public static Decompressor creatDecompressor(int bufferSize, String codec) throws IOException {
+    return creatDecompressor(bufferSize, codec, IMPL_AUTO);
+  }
+
+  /**
+   *  Create a Decompressor with the given implementation.
+   */
+  public static Decompressor creatDecompressor(int bufferSize, String codec, String impl)
+      throws IOException {
 
     if (!CODEC_LIST.contains(codec)) {
       throw new IOException("Invalid compression codec, SSM only recognize: " +
           CODEC_LIST.toString());
     }
-
-    if (!codec.equals(ZLIB) && !nativeCodeLoaded) {
-      throw new IOException("Hadoop native lib was not successfully loaded, so " +
-          codec + " is not supported.");
-    }
+    checkImpl(codec, impl);
 
     // Sequentially load a decompressor
     switch (codec) {
       case LZ4:
-        if (Lz4Codec.isNativeCodeLoaded()) {
+        if (useNative(impl) && Lz4Codec.isNativeCodeLoaded()) {
           return new Lz4Decompressor(bufferSize);
         }
-        throw new IOException("Failed to load/initialize native-Lz4 library");
+        if (IMPL_NATIVE.equals(impl)) {
+          throw new IOException("Failed to load/initialize native-Lz4 library");
+        }
+        return new Lz4JavaDecompressor(bufferSize);
 
       case BZIP2:
         if (Bzip2Factory.isNativeBzip2Loaded(conf)) {
@@ -158,13 +194,18 @@ public static Decompressor creatDecompressor(int bufferSize, String codec) throw
         throw new IOException("Failed to load/initialize native-bzip2 library");
 
       case SNAPPY:
-        if (SnappyCodec.isNativeCodeLoaded()) {
+        if (useNative(impl) && SnappyCodec.isNativeCodeLoaded()) {
           return new SnappyDecompressor(bufferSize);
         }
-        throw new IOException("Failed to load/initialize native-snappy library");
-
+        if (IMPL_NATIVE.equals(impl)) {
+          throw new IOException("Failed to load/initialize native-snappy library");
+        }
+        return new SnappyJavaDecompressor(bufferSize);
 
       case ZLIB:
+        if (IMPL_JAVA.equals(impl)) {
+          return new BuiltInZlibInflater();
+        }
         if (nativeCodeLoaded) {
           return new ZlibDecompressor(
               ZlibDecompressor.CompressionHeader.DEFAULT_HEADER, bufferSize);
@@ -175,4 +216,24 @@ public static Decompressor creatDecompressor(int bufferSize, String codec) throw
         throw new IOException("Unsupported codec: " + codec);
     }
   }
+
+  private static void checkImpl(String codec, String impl) throws IOException {
+    if (!IMPL_LIST.contains(impl)) {
+      throw new IOException("Invalid codec implementation, SSM only support: " +
+          IMPL_LIST.toString());
+    }
+    if (codec.equals(BZIP2) && IMPL_JAVA.equals(impl)) {
+      throw new IOException("No pure Java implementation for " + codec);
+    }
+    if ((codec.equals(BZIP2) || IMPL_NATIVE.equals(impl)) && !nativeCodeLoaded) {
+      throw new IOException("Hadoop native lib was not successfully loaded, so native " +
+          codec + " is not supported.");
+    }
+  }
+
+  private static boolean useNative(String impl) {
+    // Codec specific native check may fail with UnsatisfiedLinkError
+    // when Hadoop native lib is not loaded
+    return nativeCodeLoaded && !IMPL_JAVA.equals(impl);
+  }
 }
@@ -17,14 +17,186 @@
  */
 package org.apache.hadoop.hdfs;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.smartdata.SmartConstants;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.RangeCache;
+import org.smartdata.hdfs.RemoteRangeReader;
 import org.smartdata.model.FileState;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Input stream for files archived to S3. Data is read from the remote copy
+ * recorded in the file's xattr through a {@link RemoteRangeReader}, which
+ * does read-ahead, range coalescing and caching of hot ranges.
+ *
+ * <p>Streams opened with the same range size and cache capacity share one
+ * {@link RangeCache}; a conf with different settings gets its own cache.
+ */
 public class S3InputStream extends SmartInputStream {
+  private static final Map<String, RangeCache> sharedCaches = new HashMap<>();
+
+  private final RemoteRangeReader reader;
+  private long pos = 0;
+  private boolean closed = false;
+
   S3InputStream(DFSClient dfsClient, String src, boolean verifyChecksum,
       FileState fileState) throws IOException, UnresolvedLinkException {
     super(dfsClient, src, verifyChecksum, fileState);
+    byte[] location = dfsClient.getXAttr(src, SmartConstants.SMART_S3_LOCATION_XATTR_NAME);
+    if (location == null) {
+      throw new IOException("S3 location of " + src + " cannot be fetched");
+    }
+    Configuration conf = dfsClient.getConfiguration();
+    String dest = new String(location, StandardCharsets.UTF_8);
+    FileSystem fs = FileSystem.get(URI.create(dest), conf);
+    this.reader = new RemoteRangeReader(fs, new Path(dest), getSharedCache(conf),
+        conf.getLong(SmartConfKeys.SMART_S3_READ_AHEAD_MAX_KEY,
+            SmartConfKeys.SMART_S3_READ_AHEAD_MAX_DEFAULT));
+  }
+
+  private static synchronized RangeCache getSharedCache(Configuration conf) {
+    int rangeSize = conf.getInt(SmartConfKeys.SMART_S3_READ_RANGE_SIZE_KEY,
+        SmartConfKeys.SMART_S3_READ_RANGE_SIZE_DEFAULT);
+    long capacity = conf.getLong(SmartConfKeys.SMART_S3_READ_CACHE_CAPACITY_KEY,
+        SmartConfKeys.SMART_S3_READ_CACHE_CAPACITY_DEFAULT);
+    String key = rangeSize + ":" + capacity;
+    RangeCache cache = sharedCaches.get(key);
+    if (cache == null) {
+      cache = new RangeCache(rangeSize, capacity);
+      sharedCaches.put(key, cache);
+    }
+    return cache;
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    byte[] oneByteBuf = new byte[1];
+    int ret = read(oneByteBuf, 0, 1);
+    return (ret <= 0) ? -1 : (oneByteBuf[0] & 0xff);
+  }
+
+  @Override
+  public synchronized int read(final byte b[], int off, int len) throws IOException {
+    if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    checkOpen();
+    int n = reader.read(pos, b, off, len);
+    if (n > 0) {
+      pos += n;
+    }
+    return n;
+  }
+
+  @Override
+  public synchronized int read(final ByteBuffer buf) throws IOException {
+    if (buf.hasArray()) {
+      int n = read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    byte[] tmp = new byte[buf.remaining()];
+    int n = read(tmp, 0, tmp.length);
+    if (n > 0) {
+      buf.put(tmp, 0, n);
+    }
+    return n;
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    checkOpen();
+    // Positional read does not move the stream position
+    return reader.read(position, buffer, offset, length);
+  }
+
+  @Override
+  public synchronized long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long target = Math.min(pos + n, reader.getLength());
+    long skipped = target - pos;
+    pos = target;
+    return skipped;
+  }
+
+  @Override
+  public synchronized void seek(long targetPos) throws IOException {
+    if (targetPos > reader.getLength()) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
+    }
+    pos = targetPos;
+  }
+
+  @Override
+  public synchronized boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  @Override
+  public synchronized long getPos() {
+    return pos;
+  }
+
+  @Override
+  public long getFileLength() {
+    return reader.getLength();
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    checkOpen();
+    final long remaining = reader.getLength() - pos;
+    return remaining <= Integer.MAX_VALUE ? (int) remaining : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      reader.close();
+    } finally {
+      super.close();
+    }
+  }
+
+  @Override
+  public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+      int maxLength, EnumSet<ReadOption> opts)
+      throws IOException, UnsupportedOperationException {
+    throw new UnsupportedOperationException("Read(ByteBufferPool, int, EnumSet) "
+        + "not supported for S3 file");
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
   }
 }
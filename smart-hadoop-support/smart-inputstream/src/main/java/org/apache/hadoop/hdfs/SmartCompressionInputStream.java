@@ -21,23 +21,42 @@
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.compress.Decompressor;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.model.CompressionFileState;
-import org.smartdata.model.CompressionTrunk;
 import org.smartdata.model.FileState;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * DFSInputStream for SSM compressed file.
+ *
+ * <p>Every read, sequential or positional, resolves the original offset to
+ * its compression trunk through the position mapping of
+ * {@link CompressionFileState} and copies from the decompressed trunk. The
+ * stream position is the only mutable state of sequential reads, so
+ * positional reads are stateless and can run concurrently. Decompressed
+ * trunks are kept in a small LRU shared by all reads of this stream.
+ */
 public class SmartCompressionInputStream extends SmartInputStream {
-  private Decompressor decompressor = null;
-  private byte[] buffer;
-  private boolean closed = false;
+  private volatile boolean closed = false;
   private long pos = 0;
 
   private CompressionFileState compressionFileState;
   private final long originalLength;
+  private final int decompressorBufferSize;
+  // Decompressors are not thread safe, each trunk decompression borrows one
+  private final Deque<Decompressor> decompressors = new ArrayDeque<>();
+  private final Map<Integer, byte[]> trunkCache;
+  private final AtomicLong trunkCacheHits = new AtomicLong(0);
+  private final AtomicLong trunkCacheMisses = new AtomicLong(0);
 
   SmartCompressionInputStream(DFSClient dfsClient, String src, boolean verifyChecksum,
       FileState fileState) throws IOException {
@@ -49,9 +68,20 @@ public class SmartCompressionInputStream extends SmartInputStream {
     }
     originalLength = compressionFileState.getOriginalLength();
     int bufferSize = compressionFileState.getBufferSize();
-    this.buffer = new byte[bufferSize];
-    this.decompressor = CompressionCodec.creatDecompressor(bufferSize,
-        compressionFileState.getCompressionImpl());
+    // A compressed trunk can be larger than the original one
+    this.decompressorBufferSize = bufferSize + CompressionCodec.compressionOverhead(
+        bufferSize, compressionFileState.getCompressionImpl());
+    decompressors.push(CompressionCodec.creatDecompressor(decompressorBufferSize,
+        compressionFileState.getCompressionImpl()));
+    final int maxCachedTrunks = dfsClient.getConfiguration().getInt(
+        SmartConfKeys.SMART_CLIENT_COMPRESSION_CACHE_CHUNKS_KEY,
+        SmartConfKeys.SMART_CLIENT_COMPRESSION_CACHE_CHUNKS_DEFAULT);
+    this.trunkCache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+        return size() > maxCachedTrunks;
+      }
+    };
   }
 
   @Override
@@ -69,81 +99,189 @@ public synchronized int read(final byte b[], int off, int len) throws IOExceptio
       return 0;
     }
 
-    int n = decompress(b, off, len);
-    pos += n;
+    int n = read(pos, b, off, len);
+    if (n > 0) {
+      pos += n;
+    }
     return n;
   }
 
   @Override
   public synchronized int read(final ByteBuffer buf) throws IOException {
-    return read(buf.array(), buf.position(), buf.remaining());
+    checkOpen();
+    if (!buf.hasRemaining()) {
+      return 0;
+    }
+    if (pos >= originalLength) {
+      return -1;
+    }
+    int n = 0;
+    while (buf.hasRemaining() && pos < originalLength) {
+      int index = compressionFileState.getPosIndexByOriginalOffset(pos);
+      byte[] trunk = getTrunk(index);
+      int trunkOff = (int) (pos - compressionFileState.getOriginalPos()[index]);
+      int count = Math.min(buf.remaining(), trunk.length - trunkOff);
+      // Copy to the buffer directly, no matter whether it is backed by an array
+      buf.put(trunk, trunkOff, count);
+      pos += count;
+      n += count;
+    }
+    return n;
   }
 
+  /**
+   * Positional read without touching the stream position, safe to be called
+   * concurrently with other reads of this stream.
+   */
   @Override
   public int read(long position, byte[] buffer, int offset, int length)
       throws IOException {
-    seek(position);
-    return read(buffer, offset, length);
+    checkOpen();
+    if (position < 0) {
+      throw new EOFException("Cannot read from negative offset");
+    }
+    if (length == 0) {
+      return 0;
+    }
+    if (position >= originalLength) {
+      return -1;
+    }
+    int n = 0;
+    while (n < length && position < originalLength) {
+      int index = compressionFileState.getPosIndexByOriginalOffset(position);
+      byte[] trunk = getTrunk(index);
+      int trunkOff = (int) (position - compressionFileState.getOriginalPos()[index]);
+      int count = Math.min(length - n, trunk.length - trunkOff);
+      System.arraycopy(trunk, trunkOff, buffer, offset + n, count);
+      position += count;
+      n += count;
+    }
+    return n;
   }
 
   @Override
   public synchronized void close() throws IOException {
     super.close();
     this.closed = true;
-  }
-
-  private int decompress(byte[] b, int off, int len) throws IOException {
-    int n = 0;
-    while ((n = decompressor.decompress(b, off, len)) == 0) {
-      if (decompressor.needsInput()) {
-        int m;
-        try {
-          m = getCompressedData();
-        } catch (EOFException e) {
-          return -1;
-        }
-        // Send the read data to the decompressor
-        decompressor.reset();
-        decompressor.setInput(buffer, 0, m);
+    synchronized (trunkCache) {
+      trunkCache.clear();
+    }
+    synchronized (decompressors) {
+      for (Decompressor decompressor : decompressors) {
+        decompressor.end();
       }
+      decompressors.clear();
     }
+  }
 
-    // Note the no. of decompressed bytes read from 'current' block
-    //noUncompressedBytes += n;
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
 
-    return n;
+  private byte[] getTrunk(int index) throws IOException {
+    synchronized (trunkCache) {
+      byte[] trunk = trunkCache.get(index);
+      if (trunk != null) {
+        trunkCacheHits.incrementAndGet();
+        return trunk;
+      }
+    }
+    trunkCacheMisses.incrementAndGet();
+    // Decompress without holding the lock, so that reads of cached trunks
+    // do not wait for it
+    byte[] trunk = decompressTrunk(index);
+    synchronized (trunkCache) {
+      trunkCache.put(index, trunk);
+    }
+    return trunk;
   }
 
-  private int getCompressedData() throws IOException {
-    // Get the size of the compressed chunk (always non-negative)
-    int len = rawReadInt();
+  /**
+   * Read the compressed trunk with positional read and decompress it as a whole.
+   */
+  private byte[] decompressTrunk(int index) throws IOException {
+    int originLength = (int) compressionFileState.getOriginTrunkSize(index);
+    int compressedLength = (int) compressionFileState.getCompressedTrunkSize(index);
+    byte[] compressed = new byte[compressedLength];
+    readCompressed(compressionFileState.getCompressedPos()[index], compressed);
 
-    // Read len bytes from underlying stream
-    if (len > buffer.length) {
-      buffer = new byte[len];
+    // A trunk is written as one or more length prefixed pieces of the
+    // compressor output, concatenate them in place.
+    int in = 0;
+    int out = 0;
+    while (in < compressedLength) {
+      if (in + 4 > compressedLength) {
+        throw new IOException("Corrupted compression trunk " + index);
+      }
+      int len = ((compressed[in] & 0xff) << 24) + ((compressed[in + 1] & 0xff) << 16)
+          + ((compressed[in + 2] & 0xff) << 8) + (compressed[in + 3] & 0xff);
+      in += 4;
+      if (len < 0 || in + len > compressedLength) {
+        throw new IOException("Corrupted compression trunk " + index);
+      }
+      System.arraycopy(compressed, in, compressed, out, len);
+      in += len;
+      out += len;
     }
-    int n = 0, off = 0;
-    while (n < len) {
-      int count = super.read(buffer, off + n, len - n);
+
+    byte[] trunk = new byte[originLength];
+    Decompressor decompressor = borrowDecompressor();
+    try {
+      decompressor.reset();
+      decompressor.setInput(compressed, 0, out);
+      int n = 0;
+      while (n < originLength) {
+        int count = decompressor.decompress(trunk, n, originLength - n);
+        if (count == 0 && (decompressor.finished() || decompressor.needsInput())) {
+          throw new EOFException("Unexpected end of compression trunk " + index);
+        }
+        n += count;
+      }
+    } finally {
+      returnDecompressor(decompressor);
+    }
+    return trunk;
+  }
+
+  private void readCompressed(long position, byte[] buf) throws IOException {
+    int n = 0;
+    while (n < buf.length) {
+      int count = super.read(position + n, buf, n, buf.length - n);
       if (count < 0) {
         throw new EOFException("Unexpected end of block in input stream");
       }
       n += count;
     }
+  }
+
+  private Decompressor borrowDecompressor() throws IOException {
+    synchronized (decompressors) {
+      if (!decompressors.isEmpty()) {
+        return decompressors.pop();
+      }
+    }
+    return CompressionCodec.creatDecompressor(decompressorBufferSize,
+        compressionFileState.getCompressionImpl());
+  }
+
+  private void returnDecompressor(Decompressor decompressor) {
+    synchronized (decompressors) {
+      if (!closed) {
+        decompressors.push(decompressor);
+        return;
+      }
+    }
+    decompressor.end();
+  }
 
-    return len;
+  public long getTrunkCacheHits() {
+    return trunkCacheHits.get();
   }
 
-  private int rawReadInt() throws IOException {
-    byte[] bytes = new byte[4];
-    int b1 = super.read(bytes, 0, 1);
-    int b2 = super.read(bytes, 1, 1);
-    int b3 = super.read(bytes, 2, 1);
-    int b4 = super.read(bytes, 3, 1);
-    if ((b1 | b2 | b3 | b4) < 0)
-      throw new EOFException();
-    return (((bytes[0] & 0xff) << 24) + ((bytes[1] & 0xff) << 16)
-        + ((bytes[2] & 0xff) << 8) + ((bytes[3] & 0xff) << 0));
+  public long getTrunkCacheMisses() {
+    return trunkCacheMisses.get();
   }
 
  /* @Override
@@ -164,25 +302,7 @@ public synchronized void seek(long targetPos) throws IOException {
     if (targetPos < 0) {
       throw new EOFException("Cannot seek to negative offset");
     }
-    if(targetPos == pos) {
-      return;
-    }
-
-    // Seek to the start of the compression trunk
-    CompressionTrunk compressionTrunk = compressionFileState.locateCompressionTrunk(
-        false, targetPos);
-    long hdfsFilePos = compressionTrunk.getCompressedOffset();
-    super.seek(hdfsFilePos);
-
-    // Decompress the trunk until reaching the targetPos of the original file
-    int startPos = (int)(targetPos - compressionTrunk.getOriginOffset());
-    decompressor.reset();
-    int m = getCompressedData();
-    decompressor.setInput(buffer, 0, m);
-    if (startPos > 0) {
-      byte[] temp = new byte[startPos];
-      decompress(temp, 0, startPos);
-    }
+    // The trunk is decompressed (or taken from cache) by the next read
     pos = targetPos;
   }
 
@@ -25,11 +25,22 @@
 import org.apache.hadoop.io.compress.zlib.ZlibCompressor;
 import org.smartdata.model.CompressionFileState;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SmartOutputStream.
@@ -51,9 +62,34 @@ public class SmartCompressorStream {
   private List<Long> originPositions = new ArrayList<>();
   private List<Long> compressedPositions = new ArrayList<>();
 
+  private final String codecImpl;
+  private final int threads;
+  // The max number of chunks read ahead but not written out yet
+  private final int maxChunksInFlight;
+  // Compressors for compressing chunks in parallel
+  private final Deque<Compressor> compressors = new ArrayDeque<>();
+  // Set once the compressors are ended, guarded by compressors
+  private boolean compressorsEnded = false;
+  // Chunk and piece buffers of bufferSize bytes free for reuse by parallel compression
+  private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+
   public SmartCompressorStream(InputStream inputStream, OutputStream outputStream,
       int bufferSize, CompressionFileState compressionInfo, MutableFloat progress) throws IOException {
+    this(inputStream, outputStream, bufferSize, compressionInfo, progress,
+        CompressionCodec.IMPL_AUTO, 1, 0);
+  }
+
+  /**
+   * @param codecImpl the codec implementation, see {@link CompressionCodec#IMPL_LIST}
+   * @param threads the number of threads compressing chunks concurrently
+   * @param maxMemory the max memory taken by the chunks being compressed
+   *                  concurrently, which bounds the parallelism
+   */
+  public SmartCompressorStream(InputStream inputStream, OutputStream outputStream,
+      int bufferSize, CompressionFileState compressionInfo, MutableFloat progress,
+      String codecImpl, int threads, long maxMemory) throws IOException {
     this.out = outputStream;
+    this.codecImpl = codecImpl;
     this.in = inputStream;
     this.compressionInfo = compressionInfo;
     this.progress = progress;
@@ -69,8 +105,17 @@ public SmartCompressorStream(InputStream inputStream, OutputStream outputStream,
     buffer = new byte[bufferSize + overHead];
     this.compressor = CompressionCodec
         .createCompressor(bufferSize + overHead,
-            compressionInfo.getCompressionImpl());
+            compressionInfo.getCompressionImpl(), codecImpl);
     checkCompressor();
+
+    // Each chunk in flight holds its original data and its compressed output
+    long chunkMemory = 2L * bufferSize + overHead;
+    this.maxChunksInFlight = (int) Math.max(1, Math.min(2L * threads, maxMemory / chunkMemory));
+    this.threads = Math.min(threads, maxChunksInFlight);
+  }
+
+  public int getMaxChunksInFlight() {
+    return threads > 1 ? maxChunksInFlight : 1;
   }
 
   private void checkCompressor() {
@@ -89,7 +134,19 @@ private void checkCompressor() {
    * Convert the original input stream to compressed output stream.
    */
   public void convert() throws IOException {
-    byte[] buf = new byte[bufferSize];
+    convert(threads > 1 ? null : new byte[bufferSize]);
+  }
+
+  /**
+   * Convert with the given buffer of at least bufferSize bytes for reading
+   * the original chunks, e.g., one leased by the caller. It is not used if
+   * chunks are compressed in parallel.
+   */
+  public void convert(byte[] buf) throws IOException {
+    if (threads > 1) {
+      convertInParallel();
+      return;
+    }
     while (true) {
       int off = 0;
       // Compression chunk with chunk size (bufferSize)
@@ -112,6 +169,153 @@ public void convert() throws IOException {
     }
   }
 
+  /**
+   * Read ahead chunks and compress them concurrently. The compressed chunks
+   * are written out in order, exactly as {@link #write} does one by one.
+   */
+  private void convertInParallel() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Deque<Future<CompressedChunk>> inFlight = new ArrayDeque<>();
+    try {
+      boolean eof = false;
+      while (!eof || !inFlight.isEmpty()) {
+        while (!eof && inFlight.size() < maxChunksInFlight) {
+          byte[] free = freeBuffers.poll();
+          final byte[] chunk = free != null ? free : new byte[bufferSize];
+          final int len = readChunk(chunk);
+          if (len < bufferSize) {
+            eof = true;
+          }
+          if (len > 0) {
+            inFlight.add(executor.submit(new Callable<CompressedChunk>() {
+              @Override
+              public CompressedChunk call() throws Exception {
+                return compressChunk(chunk, len);
+              }
+            }));
+          }
+        }
+        if (!inFlight.isEmpty()) {
+          CompressedChunk compressedChunk = getChunk(inFlight.poll());
+          originPositions.add(originPos);
+          compressedPositions.add(compressedPos);
+          out.write(compressedChunk.data, 0, compressedChunk.data.length);
+          originPos += compressedChunk.originLength;
+          compressedPos += compressedChunk.data.length;
+          this.progress.setValue((float) originPos / compressionInfo.getOriginalLength());
+        }
+      }
+      finish();
+      out.close();
+      compressionInfo.setPositionMapping(originPositions.toArray(new Long[0]),
+          compressedPositions.toArray(new Long[0]));
+    } finally {
+      // On error, stop the chunks still in flight and wait for the running
+      // ones, so that no compressor is in use when they are ended
+      for (Future<CompressedChunk> future : inFlight) {
+        future.cancel(true);
+      }
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (compressors) {
+        for (Compressor c : compressors) {
+          c.end();
+        }
+        compressors.clear();
+        compressorsEnded = true;
+      }
+      freeBuffers.clear();
+    }
+  }
+
+  private int readChunk(byte[] chunk) throws IOException {
+    int off = 0;
+    while (off < chunk.length) {
+      int len = in.read(chunk, off, chunk.length - off);
+      if (len <= 0) {
+        break;
+      }
+      off += len;
+    }
+    return off;
+  }
+
+  private CompressedChunk getChunk(Future<CompressedChunk> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted in compressing " + compressionInfo.getPath(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Compress one chunk into length prefixed pieces, same as {@link #compress}.
+   */
+  private CompressedChunk compressChunk(byte[] chunk, int len) throws IOException {
+    Compressor c;
+    synchronized (compressors) {
+      c = compressors.poll();
+    }
+    if (c == null) {
+      c = CompressionCodec.createCompressor(buffer.length,
+          compressionInfo.getCompressionImpl(), codecImpl);
+    }
+    byte[] piece = freeBuffers.poll();
+    if (piece == null) {
+      piece = new byte[bufferSize];
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffer.length + 4);
+    try {
+      c.setInput(chunk, 0, len);
+      c.finish();
+      while (!c.finished()) {
+        int n = c.compress(piece, 0, bufferSize);
+        if (n > 0) {
+          compressed.write((n >>> 24) & 0xFF);
+          compressed.write((n >>> 16) & 0xFF);
+          compressed.write((n >>>  8) & 0xFF);
+          compressed.write((n >>>  0) & 0xFF);
+          compressed.write(piece, 0, n);
+        }
+      }
+      c.reset();
+    } catch (IOException | RuntimeException e) {
+      c.end();
+      throw e;
+    }
+    synchronized (compressors) {
+      if (compressorsEnded) {
+        // Only if interrupted while waiting for the task to finish
+        c.end();
+      } else {
+        compressors.push(c);
+      }
+    }
+    freeBuffers.offer(piece);
+    freeBuffers.offer(chunk);
+    return new CompressedChunk(len, compressed.toByteArray());
+  }
+
+  private static class CompressedChunk {
+    private final int originLength;
+    private final byte[] data;
+
+    private CompressedChunk(int originLength, byte[] data) {
+      this.originLength = originLength;
+      this.data = data;
+    }
+  }
+
   public void write(byte[] b, int off, int len) throws IOException {
     if (b == null) {
       throw new NullPointerException();
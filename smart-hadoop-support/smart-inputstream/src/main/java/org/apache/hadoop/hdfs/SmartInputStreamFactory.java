@@ -65,6 +65,9 @@ protected static DFSInputStream createSmartInputStream(DFSClient dfsClient, Stri
       case S3:
         inputStream = new S3InputStream(dfsClient, src, verifyChecksum, fileState);
         break;
+      case BLOCK_EC:
+        inputStream = new BlockECInputStream(dfsClient, src, verifyChecksum, fileState);
+        break;
       default:
         throw new IOException("Unsupported file type");
     }
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.hdfs.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.model.CompressionDecision;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Choose the codec and chunk size for a file by compressing a few sampled
+ * chunks of it with each candidate. The candidate with the lowest cost
+ * <pre>
+ *   estimated ratio + decodeWeight * milliseconds to decompress a chunk
+ * </pre>
+ * is chosen, i.e. decodeWeight trades storage saving for the latency of
+ * random reads, each of which decompresses a whole chunk. The file is
+ * skipped if even the best estimated ratio is above maxRatio.
+ */
+public class AdaptiveCodecSelector {
+  static final Logger LOG = LoggerFactory.getLogger(AdaptiveCodecSelector.class);
+
+  // Bytes of length prefix per compressed piece
+  private static final int PIECE_OVERHEAD = 4;
+  // Bytes of position mapping per chunk (originalPos, compressedPos)
+  private static final int INDEX_OVERHEAD = 16;
+
+  private final List<String> codecs;
+  private final String codecImpl;
+  private final TreeSet<Integer> chunkSizes;
+  private final int samples;
+  private final long maxSampleBytes;
+  private final double maxRatio;
+  private final double decodeWeight;
+
+  /**
+   * @param codecs candidate codecs, the unavailable ones are ignored
+   * @param codecImpl codec implementation, see {@link CompressionCodec#IMPL_LIST}
+   * @param chunkSizes candidate chunk sizes
+   * @param samples the max number of chunks sampled for each candidate
+   * @param maxSampleBytes the max bytes sampled for each candidate
+   * @param maxRatio the max estimated ratio for a file to be compressed
+   * @param decodeWeight the weight of decompression time of a chunk in ms
+   */
+  public AdaptiveCodecSelector(List<String> codecs, String codecImpl,
+      List<Integer> chunkSizes, int samples, long maxSampleBytes,
+      double maxRatio, double decodeWeight) {
+    this.codecs = codecs;
+    this.codecImpl = codecImpl;
+    this.chunkSizes = new TreeSet<>(chunkSizes);
+    this.samples = Math.max(1, samples);
+    this.maxSampleBytes = maxSampleBytes;
+    this.maxRatio = maxRatio;
+    this.decodeWeight = decodeWeight;
+  }
+
+  /**
+   * Sample the file and choose the codec and chunk size for it.
+   *
+   * @param in the file to sample with positional reads
+   * @param fileLength length of the file, which should be positive
+   * @return the decision, or null if none of the codecs is available
+   */
+  public CompressionDecision select(PositionedReadable in, long fileLength)
+      throws IOException {
+    CompressionDecision best = null;
+    Map<Long, byte[]> sampleCache = new HashMap<>();
+    for (int chunkSize : chunkSizes) {
+      List<byte[]> chunks = sample(in, fileLength, chunkSize, sampleCache);
+      for (String codec : codecs) {
+        CompressionDecision decision = estimate(codec, chunkSize, chunks);
+        if (decision != null && (best == null || decision.getCost() < best.getCost())) {
+          best = decision;
+        }
+      }
+      if (chunkSize >= fileLength) {
+        // Larger chunk sizes make the same single chunk
+        break;
+      }
+    }
+    if (best != null && best.getEstimatedRatio() > maxRatio) {
+      best.setSkipped(true);
+    }
+    return best;
+  }
+
+  /**
+   * Read evenly spaced chunks of the file, aligned to the chunk size.
+   */
+  private List<byte[]> sample(PositionedReadable in, long fileLength, int chunkSize,
+      Map<Long, byte[]> sampleCache) throws IOException {
+    long numChunks = (fileLength + chunkSize - 1) / chunkSize;
+    int n = (int) Math.min(numChunks,
+        Math.max(1, Math.min(samples, maxSampleBytes / chunkSize)));
+    List<byte[]> chunks = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      long index = n == 1 ? 0 : (numChunks - 1) * i / (n - 1);
+      long offset = index * chunkSize;
+      int length = (int) Math.min(chunkSize, fileLength - offset);
+      // Chunks of different sizes starting at the same offset share the prefix
+      byte[] cached = sampleCache.get(offset);
+      byte[] chunk;
+      if (cached != null && cached.length == length) {
+        chunk = cached;
+      } else {
+        chunk = new byte[length];
+        in.readFully(offset, chunk, 0, length);
+        sampleCache.put(offset, chunk);
+      }
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private CompressionDecision estimate(String codec, int chunkSize, List<byte[]> chunks) {
+    int overhead = CompressionCodec.compressionOverhead(chunkSize, codec);
+    Compressor compressor;
+    Decompressor decompressor;
+    try {
+      compressor = CompressionCodec.createCompressor(chunkSize + overhead, codec, codecImpl);
+      decompressor = CompressionCodec.creatDecompressor(chunkSize + overhead, codec, codecImpl);
+    } catch (IOException e) {
+      LOG.debug("Codec " + codec + " is not available: " + e.getMessage());
+      return null;
+    }
+    try {
+      byte[] piece = new byte[chunkSize];
+      byte[] decompressed = new byte[chunkSize];
+      long original = 0;
+      long compressed = 0;
+      long decodeNanos = 0;
+      for (int i = 0; i < chunks.size(); i++) {
+        byte[] chunk = chunks.get(i);
+        byte[] data = compress(compressor, chunk, piece);
+        // Pieces are at most chunkSize long, see SmartCompressorStream#compress
+        long pieces = Math.max(1, (data.length + chunkSize - 1) / chunkSize);
+        compressed += data.length + pieces * PIECE_OVERHEAD + INDEX_OVERHEAD;
+        original += chunk.length;
+        if (i == 0) {
+          // Warm up, the first run is far slower than the steady state
+          decompress(decompressor, data, decompressed, chunk.length);
+        }
+        long start = System.nanoTime();
+        decompress(decompressor, data, decompressed, chunk.length);
+        decodeNanos += System.nanoTime() - start;
+      }
+      double ratio = (double) compressed / original;
+      double decodeThroughput = original / 1024.0 / 1024 / (Math.max(decodeNanos, 1) / 1e9);
+      double chunkDecodeMillis = chunkSize / 1024.0 / 1024 / decodeThroughput * 1000;
+      double cost = ratio + decodeWeight * chunkDecodeMillis;
+      return new CompressionDecision(codec, chunkSize, ratio, decodeThroughput, cost);
+    } catch (IOException e) {
+      LOG.warn("Failed to estimate codec " + codec, e);
+      return null;
+    } finally {
+      compressor.end();
+      decompressor.end();
+    }
+  }
+
+  /**
+   * Compress a chunk as SmartCompressorStream does, without length prefixes.
+   */
+  private static byte[] compress(Compressor compressor, byte[] chunk, byte[] piece)
+      throws IOException {
+    compressor.reset();
+    compressor.setInput(chunk, 0, chunk.length);
+    compressor.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length);
+    while (!compressor.finished()) {
+      int n = compressor.compress(piece, 0, piece.length);
+      out.write(piece, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  private static void decompress(Decompressor decompressor, byte[] data,
+      byte[] out, int length) throws IOException {
+    decompressor.reset();
+    decompressor.setInput(data, 0, data.length);
+    int n = 0;
+    while (n < length) {
+      int count = decompressor.decompress(out, n, length - n);
+      if (count == 0 && (decompressor.finished() || decompressor.needsInput())) {
+        throw new IOException("Unexpected end of compressed data");
+      }
+      n += count;
+    }
+  }
+}
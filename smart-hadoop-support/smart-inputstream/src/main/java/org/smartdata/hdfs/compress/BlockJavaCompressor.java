@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.Compressor;
+
+import java.io.IOException;
+
+/**
+ * Base of pure Java compressors which compress all the buffered input into
+ * one raw block, the same way as Hadoop native block compressors
+ * (e.g., Lz4Compressor, SnappyCompressor) do.
+ */
+public abstract class BlockJavaCompressor implements Compressor {
+  private final byte[] uncompressed;
+  private int uncompressedLen = 0;
+  private final byte[] compressed;
+  private int compressedOff = 0;
+  private int compressedLen = 0;
+
+  private byte[] userBuf = null;
+  private int userBufOff = 0;
+  private int userBufLen = 0;
+  private boolean finish;
+  private boolean finished;
+
+  private long bytesRead = 0L;
+  private long bytesWritten = 0L;
+
+  /**
+   * @param bufferSize the max size of a raw block before compression
+   */
+  protected BlockJavaCompressor(int bufferSize) {
+    this.uncompressed = new byte[bufferSize];
+    this.compressed = new byte[maxCompressedLength(bufferSize)];
+  }
+
+  /**
+   * @return the max length of a compressed block of the given length
+   */
+  protected abstract int maxCompressedLength(int length);
+
+  /**
+   * Compress src into one raw block in dst, which is large enough.
+   *
+   * @return the length of the compressed block
+   */
+  protected abstract int compressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff);
+
+  @Override
+  public void setInput(byte[] b, int off, int len) {
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    finished = false;
+    if (len > uncompressed.length - uncompressedLen) {
+      // Keep the rest of user data for the next block
+      userBuf = b;
+      userBufOff = off;
+      userBufLen = len;
+    } else {
+      System.arraycopy(b, off, uncompressed, uncompressedLen, len);
+      uncompressedLen += len;
+    }
+    bytesRead += len;
+  }
+
+  private void setInputFromSavedData() {
+    if (userBufLen <= 0) {
+      return;
+    }
+    int len = Math.min(userBufLen, uncompressed.length - uncompressedLen);
+    System.arraycopy(userBuf, userBufOff, uncompressed, uncompressedLen, len);
+    uncompressedLen += len;
+    userBufOff += len;
+    userBufLen -= len;
+  }
+
+  @Override
+  public void setDictionary(byte[] b, int off, int len) {
+    // do nothing
+  }
+
+  @Override
+  public boolean needsInput() {
+    return !(compressedLen - compressedOff > 0
+        || uncompressedLen == uncompressed.length || userBufLen > 0);
+  }
+
+  @Override
+  public void finish() {
+    finish = true;
+  }
+
+  @Override
+  public boolean finished() {
+    return finish && finished && compressedLen - compressedOff == 0;
+  }
+
+  @Override
+  public int compress(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+
+    // Hand out the compressed data left by the previous call
+    int n = compressedLen - compressedOff;
+    if (n > 0) {
+      n = Math.min(n, len);
+      System.arraycopy(compressed, compressedOff, b, off, n);
+      compressedOff += n;
+      bytesWritten += n;
+      return n;
+    }
+
+    compressedOff = 0;
+    compressedLen = 0;
+    if (uncompressedLen == 0) {
+      setInputFromSavedData();
+      if (uncompressedLen == 0) {
+        // Called without data; write nothing
+        finished = true;
+        return 0;
+      }
+    }
+
+    compressedLen = compressBlock(uncompressed, 0, uncompressedLen, compressed, 0);
+    uncompressedLen = 0;
+    if (userBufLen == 0) {
+      finished = true;
+    }
+
+    n = Math.min(compressedLen, len);
+    System.arraycopy(compressed, 0, b, off, n);
+    compressedOff = n;
+    bytesWritten += n;
+    return n;
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public void reset() {
+    finish = false;
+    finished = false;
+    uncompressedLen = 0;
+    compressedOff = 0;
+    compressedLen = 0;
+    userBufOff = 0;
+    userBufLen = 0;
+    bytesRead = 0L;
+    bytesWritten = 0L;
+  }
+
+  @Override
+  public void reinit(Configuration conf) {
+    reset();
+  }
+
+  @Override
+  public void end() {
+    // do nothing
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import org.apache.hadoop.io.compress.Decompressor;
+
+import java.io.IOException;
+
+/**
+ * Base of pure Java decompressors which decompress the whole input as one
+ * raw block, the same way as Hadoop native block decompressors
+ * (e.g., Lz4Decompressor, SnappyDecompressor) do.
+ */
+public abstract class BlockJavaDecompressor implements Decompressor {
+  private byte[] compressed;
+  private int compressedLen = 0;
+  private byte[] uncompressed;
+  private int uncompressedOff = 0;
+  private int uncompressedLen = 0;
+  private boolean finished;
+
+  /**
+   * @param bufferSize the max size of a raw block after decompression
+   */
+  protected BlockJavaDecompressor(int bufferSize) {
+    this.compressed = new byte[bufferSize];
+    this.uncompressed = new byte[bufferSize];
+  }
+
+  /**
+   * @return the length of the block after decompression, or -1 if it is
+   *         not recorded in the block
+   */
+  protected abstract int uncompressedLength(byte[] src, int srcOff, int srcLen)
+      throws IOException;
+
+  /**
+   * Decompress one raw block from src into dst.
+   *
+   * @return the length of the decompressed data
+   * @throws IOException if the block is corrupted or does not fit in dst
+   */
+  protected abstract int decompressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff, int dstLen) throws IOException;
+
+  @Override
+  public void setInput(byte[] b, int off, int len) {
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    // A raw block can only be decompressed as a whole
+    if (compressed.length < len) {
+      compressed = new byte[len];
+    }
+    System.arraycopy(b, off, compressed, 0, len);
+    compressedLen = len;
+    uncompressedOff = 0;
+    uncompressedLen = 0;
+    finished = false;
+  }
+
+  @Override
+  public boolean needsInput() {
+    return uncompressedLen - uncompressedOff <= 0 && compressedLen <= 0;
+  }
+
+  @Override
+  public void setDictionary(byte[] b, int off, int len) {
+    // do nothing
+  }
+
+  @Override
+  public boolean needsDictionary() {
+    return false;
+  }
+
+  @Override
+  public boolean finished() {
+    return finished && uncompressedLen - uncompressedOff == 0;
+  }
+
+  @Override
+  public int decompress(byte[] b, int off, int len) throws IOException {
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+
+    int n = uncompressedLen - uncompressedOff;
+    if (n <= 0 && compressedLen > 0) {
+      int length = uncompressedLength(compressed, 0, compressedLen);
+      if (length > uncompressed.length) {
+        uncompressed = new byte[length];
+      }
+      uncompressedLen = decompressBlock(compressed, 0, compressedLen,
+          uncompressed, 0, uncompressed.length);
+      uncompressedOff = 0;
+      compressedLen = 0;
+      finished = true;
+      n = uncompressedLen;
+    }
+    n = Math.min(n, len);
+    if (n > 0) {
+      System.arraycopy(uncompressed, uncompressedOff, b, off, n);
+      uncompressedOff += n;
+    }
+    return n;
+  }
+
+  @Override
+  public int getRemaining() {
+    return 0;
+  }
+
+  @Override
+  public void reset() {
+    compressedLen = 0;
+    uncompressedOff = 0;
+    uncompressedLen = 0;
+    finished = false;
+  }
+
+  @Override
+  public void end() {
+    // do nothing
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+/**
+ * A pure Java compressor producing raw LZ4 blocks, which can be decompressed
+ * by Hadoop native Lz4Decompressor and vice versa.
+ */
+public class Lz4JavaCompressor extends BlockJavaCompressor {
+  static final int MIN_MATCH = 4;
+  // The last match must start at least 12 bytes before the end of block
+  static final int MF_LIMIT = 12;
+  // The last 5 bytes of a block are always literals
+  static final int LAST_LITERALS = 5;
+  static final int MAX_DISTANCE = 65535;
+  static final int ML_BITS = 4;
+  static final int ML_MASK = (1 << ML_BITS) - 1;
+  static final int RUN_MASK = (1 << (8 - ML_BITS)) - 1;
+
+  private static final int HASH_LOG = 14;
+  // Skip faster over incompressible data
+  private static final int SKIP_TRIGGER = 6;
+
+  private final int[] hashTable = new int[1 << HASH_LOG];
+
+  public Lz4JavaCompressor(int bufferSize) {
+    super(bufferSize);
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  @Override
+  protected int compressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff) {
+    final int srcEnd = srcOff + srcLen;
+    final int mfLimit = srcEnd - MF_LIMIT;
+    final int matchLimit = srcEnd - LAST_LITERALS;
+    int anchor = srcOff;
+    int d = dstOff;
+
+    if (srcLen > MF_LIMIT) {
+      for (int i = 0; i < hashTable.length; i++) {
+        hashTable[i] = -1;
+      }
+      int ip = srcOff;
+      int searchCount = 1 << SKIP_TRIGGER;
+      while (ip < mfLimit) {
+        int h = hash(readInt(src, ip));
+        int ref = hashTable[h];
+        hashTable[h] = ip;
+        if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+          ip += searchCount++ >>> SKIP_TRIGGER;
+          continue;
+        }
+        searchCount = 1 << SKIP_TRIGGER;
+
+        // Extend the match backward and forward
+        while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLen = MIN_MATCH;
+        while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+          matchLen++;
+        }
+
+        d = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, d);
+        ip += matchLen;
+        anchor = ip;
+        if (ip < mfLimit) {
+          hashTable[hash(readInt(src, ip - 2))] = ip - 2;
+        }
+      }
+    }
+
+    // Last literals
+    return writeLiterals(src, anchor, srcEnd - anchor, dst, d) - dstOff;
+  }
+
+  private static int writeSequence(byte[] src, int litOff, int litLen,
+      int offset, int matchLen, byte[] dst, int d) {
+    int token = d;
+    d = writeLiterals(src, litOff, litLen, dst, d);
+    dst[d++] = (byte) offset;
+    dst[d++] = (byte) (offset >>> 8);
+    int len = matchLen - MIN_MATCH;
+    if (len >= ML_MASK) {
+      dst[token] |= ML_MASK;
+      d = writeLength(len - ML_MASK, dst, d);
+    } else {
+      dst[token] |= len;
+    }
+    return d;
+  }
+
+  private static int writeLiterals(byte[] src, int litOff, int litLen,
+      byte[] dst, int d) {
+    int token = d++;
+    if (litLen >= RUN_MASK) {
+      dst[token] = (byte) (RUN_MASK << ML_BITS);
+      d = writeLength(litLen - RUN_MASK, dst, d);
+    } else {
+      dst[token] = (byte) (litLen << ML_BITS);
+    }
+    System.arraycopy(src, litOff, dst, d, litLen);
+    return d + litLen;
+  }
+
+  private static int writeLength(int len, byte[] dst, int d) {
+    while (len >= 255) {
+      dst[d++] = (byte) 255;
+      len -= 255;
+    }
+    dst[d++] = (byte) len;
+    return d;
+  }
+
+  private static int hash(int i) {
+    return (i * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  static int readInt(byte[] buf, int i) {
+    return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8)
+        | ((buf[i + 2] & 0xff) << 16) | ((buf[i + 3] & 0xff) << 24);
+  }
+}
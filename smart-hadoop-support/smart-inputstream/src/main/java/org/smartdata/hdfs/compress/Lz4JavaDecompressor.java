@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import java.io.IOException;
+
+import static org.smartdata.hdfs.compress.Lz4JavaCompressor.MIN_MATCH;
+import static org.smartdata.hdfs.compress.Lz4JavaCompressor.ML_BITS;
+import static org.smartdata.hdfs.compress.Lz4JavaCompressor.ML_MASK;
+import static org.smartdata.hdfs.compress.Lz4JavaCompressor.RUN_MASK;
+
+/**
+ * A pure Java decompressor of raw LZ4 blocks, compatible with Hadoop native
+ * Lz4Compressor.
+ */
+public class Lz4JavaDecompressor extends BlockJavaDecompressor {
+
+  public Lz4JavaDecompressor(int bufferSize) {
+    super(bufferSize);
+  }
+
+  @Override
+  protected int uncompressedLength(byte[] src, int srcOff, int srcLen) {
+    // Not recorded in a raw LZ4 block
+    return -1;
+  }
+
+  @Override
+  protected int decompressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff, int dstLen) throws IOException {
+    final int srcEnd = srcOff + srcLen;
+    final int dstEnd = dstOff + dstLen;
+    int s = srcOff;
+    int d = dstOff;
+    try {
+      while (true) {
+        int token = src[s++] & 0xff;
+
+        // Literals
+        int litLen = token >>> ML_BITS;
+        if (litLen == RUN_MASK) {
+          int b;
+          do {
+            b = src[s++] & 0xff;
+            litLen += b;
+          } while (b == 255);
+        }
+        if (litLen > srcEnd - s || litLen > dstEnd - d) {
+          throw new IOException("Malformed LZ4 block: literals out of bound");
+        }
+        System.arraycopy(src, s, dst, d, litLen);
+        s += litLen;
+        d += litLen;
+        if (s == srcEnd) {
+          // The last sequence has literals only
+          return d - dstOff;
+        }
+
+        // Match
+        int offset = (src[s] & 0xff) | ((src[s + 1] & 0xff) << 8);
+        s += 2;
+        if (offset == 0 || offset > d - dstOff) {
+          throw new IOException("Malformed LZ4 block: invalid offset " + offset);
+        }
+        int matchLen = token & ML_MASK;
+        if (matchLen == ML_MASK) {
+          int b;
+          do {
+            b = src[s++] & 0xff;
+            matchLen += b;
+          } while (b == 255);
+        }
+        matchLen += MIN_MATCH;
+        if (matchLen > dstEnd - d) {
+          throw new IOException("Malformed LZ4 block: match out of bound");
+        }
+        copyMatch(dst, d - offset, d, matchLen);
+        d += matchLen;
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Malformed LZ4 block: unexpected end of input", e);
+    }
+  }
+
+  static void copyMatch(byte[] buf, int from, int to, int len) {
+    if (to - from >= len) {
+      System.arraycopy(buf, from, buf, to, len);
+    } else {
+      // Overlapped copy repeats the pattern
+      for (int i = 0; i < len; i++) {
+        buf[to + i] = buf[from + i];
+      }
+    }
+  }
+}
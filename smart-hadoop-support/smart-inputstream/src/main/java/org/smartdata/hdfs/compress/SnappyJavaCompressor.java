@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import static org.smartdata.hdfs.compress.Lz4JavaCompressor.readInt;
+
+/**
+ * A pure Java compressor producing raw Snappy blocks, which can be
+ * decompressed by Hadoop native SnappyDecompressor and vice versa.
+ */
+public class SnappyJavaCompressor extends BlockJavaCompressor {
+  static final int LITERAL = 0;
+  static final int COPY_1_BYTE_OFFSET = 1;
+  static final int COPY_2_BYTE_OFFSET = 2;
+  static final int COPY_4_BYTE_OFFSET = 3;
+  static final int MAX_DISTANCE = 65535;
+
+  private static final int MIN_MATCH = 4;
+  private static final int HASH_LOG = 14;
+  // Skip faster over incompressible data
+  private static final int SKIP_TRIGGER = 5;
+
+  private final int[] hashTable = new int[1 << HASH_LOG];
+
+  public SnappyJavaCompressor(int bufferSize) {
+    super(bufferSize);
+  }
+
+  @Override
+  protected int maxCompressedLength(int length) {
+    return 32 + length + length / 6;
+  }
+
+  @Override
+  protected int compressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff) {
+    final int srcEnd = srcOff + srcLen;
+    int d = writeVarInt(srcLen, dst, dstOff);
+    int anchor = srcOff;
+
+    if (srcLen >= MIN_MATCH) {
+      for (int i = 0; i < hashTable.length; i++) {
+        hashTable[i] = -1;
+      }
+      final int limit = srcEnd - MIN_MATCH;
+      int ip = srcOff;
+      int searchCount = 1 << SKIP_TRIGGER;
+      while (ip <= limit) {
+        int h = hash(readInt(src, ip));
+        int ref = hashTable[h];
+        hashTable[h] = ip;
+        if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+          ip += searchCount++ >>> SKIP_TRIGGER;
+          continue;
+        }
+        searchCount = 1 << SKIP_TRIGGER;
+
+        int matchLen = MIN_MATCH;
+        while (ip + matchLen < srcEnd && src[ip + matchLen] == src[ref + matchLen]) {
+          matchLen++;
+        }
+        d = writeLiteral(src, anchor, ip - anchor, dst, d);
+        d = writeCopy(ip - ref, matchLen, dst, d);
+        ip += matchLen;
+        anchor = ip;
+      }
+    }
+
+    d = writeLiteral(src, anchor, srcEnd - anchor, dst, d);
+    return d - dstOff;
+  }
+
+  private static int writeVarInt(int v, byte[] dst, int d) {
+    while ((v & ~0x7f) != 0) {
+      dst[d++] = (byte) ((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    dst[d++] = (byte) v;
+    return d;
+  }
+
+  private static int writeLiteral(byte[] src, int off, int len, byte[] dst, int d) {
+    if (len == 0) {
+      return d;
+    }
+    int n = len - 1;
+    if (n < 60) {
+      dst[d++] = (byte) (LITERAL | (n << 2));
+    } else {
+      int bytes = n < (1 << 8) ? 1 : n < (1 << 16) ? 2 : n < (1 << 24) ? 3 : 4;
+      dst[d++] = (byte) (LITERAL | ((59 + bytes) << 2));
+      for (int i = 0; i < bytes; i++) {
+        dst[d++] = (byte) (n >>> (8 * i));
+      }
+    }
+    System.arraycopy(src, off, dst, d, len);
+    return d + len;
+  }
+
+  private static int writeCopy(int offset, int len, byte[] dst, int d) {
+    // A copy element covers at most 64 bytes, keep the last one no shorter
+    // than 4 bytes so that it can use 1 byte offset
+    while (len >= 68) {
+      d = writeCopyAtMost64(offset, 64, dst, d);
+      len -= 64;
+    }
+    if (len > 64) {
+      d = writeCopyAtMost64(offset, 60, dst, d);
+      len -= 60;
+    }
+    return writeCopyAtMost64(offset, len, dst, d);
+  }
+
+  private static int writeCopyAtMost64(int offset, int len, byte[] dst, int d) {
+    if (len < 12 && offset < 2048) {
+      dst[d++] = (byte) (COPY_1_BYTE_OFFSET | ((len - 4) << 2) | ((offset >>> 8) << 5));
+      dst[d++] = (byte) offset;
+    } else {
+      dst[d++] = (byte) (COPY_2_BYTE_OFFSET | ((len - 1) << 2));
+      dst[d++] = (byte) offset;
+      dst[d++] = (byte) (offset >>> 8);
+    }
+    return d;
+  }
+
+  private static int hash(int i) {
+    return (i * 0x1e35a7bd) >>> (32 - HASH_LOG);
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.compress;
+
+import java.io.IOException;
+
+import static org.smartdata.hdfs.compress.Lz4JavaDecompressor.copyMatch;
+import static org.smartdata.hdfs.compress.SnappyJavaCompressor.COPY_1_BYTE_OFFSET;
+import static org.smartdata.hdfs.compress.SnappyJavaCompressor.COPY_2_BYTE_OFFSET;
+import static org.smartdata.hdfs.compress.SnappyJavaCompressor.LITERAL;
+
+/**
+ * A pure Java decompressor of raw Snappy blocks, compatible with Hadoop
+ * native SnappyCompressor.
+ */
+public class SnappyJavaDecompressor extends BlockJavaDecompressor {
+
+  public SnappyJavaDecompressor(int bufferSize) {
+    super(bufferSize);
+  }
+
+  @Override
+  protected int uncompressedLength(byte[] src, int srcOff, int srcLen)
+      throws IOException {
+    int end = srcOff + srcLen;
+    int result = 0;
+    for (int shift = 0, s = srcOff; shift < 32 && s < end; shift += 7) {
+      int b = src[s++] & 0xff;
+      result |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (result < 0) {
+          break;
+        }
+        return result;
+      }
+    }
+    throw new IOException("Malformed Snappy block: invalid length");
+  }
+
+  @Override
+  protected int decompressBlock(byte[] src, int srcOff, int srcLen,
+      byte[] dst, int dstOff, int dstLen) throws IOException {
+    int length = uncompressedLength(src, srcOff, srcLen);
+    if (length > dstLen) {
+      throw new IOException("Malformed Snappy block: length " + length
+          + " exceeds buffer size " + dstLen);
+    }
+    final int srcEnd = srcOff + srcLen;
+    final int dstEnd = dstOff + length;
+    int s = srcOff;
+    while ((src[s++] & 0x80) != 0) {
+      // skip the length preamble
+    }
+    int d = dstOff;
+    try {
+      while (s < srcEnd) {
+        int tag = src[s++] & 0xff;
+        int type = tag & 3;
+        if (type == LITERAL) {
+          int len = tag >>> 2;
+          if (len >= 60) {
+            int bytes = len - 59;
+            len = 0;
+            for (int i = 0; i < bytes; i++) {
+              len |= (src[s++] & 0xff) << (8 * i);
+            }
+          }
+          len++;
+          if (len <= 0 || len > srcEnd - s || len > dstEnd - d) {
+            throw new IOException("Malformed Snappy block: literal out of bound");
+          }
+          System.arraycopy(src, s, dst, d, len);
+          s += len;
+          d += len;
+          continue;
+        }
+
+        int len;
+        int offset;
+        if (type == COPY_1_BYTE_OFFSET) {
+          len = ((tag >>> 2) & 7) + 4;
+          offset = ((tag >>> 5) << 8) | (src[s++] & 0xff);
+        } else if (type == COPY_2_BYTE_OFFSET) {
+          len = (tag >>> 2) + 1;
+          offset = (src[s] & 0xff) | ((src[s + 1] & 0xff) << 8);
+          s += 2;
+        } else {
+          len = (tag >>> 2) + 1;
+          offset = (src[s] & 0xff) | ((src[s + 1] & 0xff) << 8)
+              | ((src[s + 2] & 0xff) << 16) | ((src[s + 3] & 0xff) << 24);
+          s += 4;
+        }
+        if (offset <= 0 || offset > d - dstOff || len > dstEnd - d) {
+          throw new IOException("Malformed Snappy block: invalid copy");
+        }
+        copyMatch(dst, d - offset, d, len);
+        d += len;
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Malformed Snappy block: unexpected end of input", e);
+    }
+    if (d != dstEnd) {
+      throw new IOException("Malformed Snappy block: expected length " + length
+          + " but got " + (d - dstOff));
+    }
+    return length;
+  }
+}
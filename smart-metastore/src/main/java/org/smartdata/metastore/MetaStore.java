@@ -26,6 +26,8 @@
 import org.smartdata.metastore.dao.AccessCountTable;
 import org.smartdata.metastore.dao.ActionDao;
 import org.smartdata.metastore.dao.BackUpInfoDao;
+import org.smartdata.metastore.dao.BlockChecksumDao;
+import org.smartdata.metastore.dao.BlockECFileDao;
 import org.smartdata.metastore.dao.CacheFileDao;
 import org.smartdata.metastore.dao.ClusterConfigDao;
 import org.smartdata.metastore.dao.ClusterInfoDao;
@@ -33,6 +35,7 @@
 import org.smartdata.metastore.dao.CompressionFileDao;
 import org.smartdata.metastore.dao.DataNodeInfoDao;
 import org.smartdata.metastore.dao.DataNodeStorageInfoDao;
+import org.smartdata.metastore.dao.ECCheckpointDao;
 import org.smartdata.metastore.dao.ErasureCodingPolicyDao;
 import org.smartdata.metastore.dao.FileDiffDao;
 import org.smartdata.metastore.dao.FileInfoDao;
@@ -51,6 +54,7 @@
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.BackUpInfo;
+import org.smartdata.model.BlockECFileState;
 import org.smartdata.model.CachedFileStatus;
 import org.smartdata.model.ClusterConfig;
 import org.smartdata.model.ClusterInfo;
@@ -62,8 +66,10 @@
 import org.smartdata.model.DataNodeStorageInfo;
 import org.smartdata.model.DetailedFileAction;
 import org.smartdata.model.DetailedRuleInfo;
+import org.smartdata.model.ECCheckpoint;
 import org.smartdata.model.ErasureCodingPolicyInfo;
 import org.smartdata.model.FileAccessInfo;
+import org.smartdata.model.FileBlockChecksum;
 import org.smartdata.model.FileDiff;
 import org.smartdata.model.FileDiffState;
 import org.smartdata.model.FileInfo;
@@ -80,6 +86,10 @@
 import org.smartdata.model.XAttribute;
 
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -128,7 +138,10 @@ public class MetaStore implements CopyMetaService, CmdletMetaService, BackupMeta
   private CompressionFileDao compressionFileDao;
   private GeneralDao generalDao;
   private SmallFileDao smallFileDao;
+  private BlockECFileDao blockECFileDao;
   private ErasureCodingPolicyDao ecDao;
+  private BlockChecksumDao blockChecksumDao;
+  private ECCheckpointDao ecCheckpointDao;
 
   public MetaStore(DBPool pool) throws MetaStoreException {
     this.pool = pool;
@@ -156,7 +169,10 @@ public MetaStore(DBPool pool) throws MetaStoreException {
     compressionFileDao = new CompressionFileDao(pool.getDataSource());
     generalDao = new GeneralDao(pool.getDataSource());
     smallFileDao = new SmallFileDao(pool.getDataSource());
+    blockECFileDao = new BlockECFileDao(pool.getDataSource());
     ecDao = new ErasureCodingPolicyDao(pool.getDataSource());
+    blockChecksumDao = new BlockChecksumDao(pool.getDataSource());
+    ecCheckpointDao = new ECCheckpointDao(pool.getDataSource());
   }
 
   private void initDbInfo() throws MetaStoreException {
@@ -629,6 +645,18 @@ public void deleteCachedFile(long fid) throws MetaStoreException {
     }
   }
 
+  /**
+   * Delete and insert cached file records in one transaction.
+   */
+  public void updateCachedFiles(List<CachedFileStatus> toInsert,
+      List<Long> toDelete) throws MetaStoreException {
+    try {
+      cacheFileDao.applyChanges(toInsert, toDelete);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   public List<CachedFileStatus> getCachedFileStatus() throws MetaStoreException {
     try {
       return cacheFileDao.getAll();
@@ -2255,6 +2283,12 @@ public void insertUpdateFileState(FileState fileState)
           break;
         case S3:
           break;
+        case BLOCK_EC:
+          // Layout of the file is only known once it's erasure coded
+          if (fileState instanceof BlockECFileState) {
+            blockECFileDao.insertUpdate((BlockECFileState) fileState);
+          }
+          break;
         default:
       }
     } catch (Exception e) {
@@ -2301,6 +2335,13 @@ public FileState getFileState(String path) throws MetaStoreException {
         case S3:
           fileState = new S3FileState(path);
           break;
+        case BLOCK_EC:
+          BlockECFileState blockECFileState = getBlockECFileState(path);
+          if (blockECFileState != null) {
+            blockECFileState.setFileStage(fileState.getFileStage());
+            fileState = blockECFileState;
+          }
+          break;
         default:
       }
     } catch (EmptyResultDataAccessException e1) {
@@ -2342,6 +2383,9 @@ public void deleteFileState(String filePath) throws MetaStoreException {
           break;
         case S3:
           break;
+        case BLOCK_EC:
+          blockECFileDao.deleteByPath(filePath);
+          break;
         default:
       }
     } catch (Exception e) {
@@ -2349,11 +2393,27 @@ public void deleteFileState(String filePath) throws MetaStoreException {
     }
   }
 
-  public void deleteCompactFileStates(List<String> paths)
+  /**
+   * Delete file states of compacted small files in one transaction.
+   *
+   * @param paths
+   * @throws MetaStoreException
+   */
+  public void deleteCompactFileStates(final List<String> paths)
     throws MetaStoreException {
+    if (paths.isEmpty()) {
+      return;
+    }
     try {
-      fileStateDao.batchDelete(paths);
-      smallFileDao.batchDelete(paths);
+      TransactionTemplate transactionTemplate = new TransactionTemplate(
+          new DataSourceTransactionManager(pool.getDataSource()));
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          fileStateDao.batchDelete(paths);
+          smallFileDao.batchDelete(paths);
+        }
+      });
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
@@ -2380,6 +2440,56 @@ public List<String> getAllContainerFiles() throws MetaStoreException {
     }
   }
 
+  public void insertUpdateBlockChecksums(List<FileBlockChecksum> checksums)
+      throws MetaStoreException {
+    try {
+      blockChecksumDao.batchInsertUpdate(checksums);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Get the stored block checksums of the given files.
+   *
+   * @param fids
+   * @return fid to block checksums, files never checksummed are absent
+   * @throws MetaStoreException
+   */
+  public Map<Long, FileBlockChecksum> getBlockChecksums(List<Long> fids)
+      throws MetaStoreException {
+    try {
+      return blockChecksumDao.getByFids(fids);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Get the modification time and length of the given files when their
+   * block checksums were stored.
+   *
+   * @param fids
+   * @return fid to {modification time, length}, files never checksummed are absent
+   * @throws MetaStoreException
+   */
+  public Map<Long, long[]> getBlockChecksumFingerprints(List<Long> fids)
+      throws MetaStoreException {
+    try {
+      return blockChecksumDao.getFingerprintsByFids(fids);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public void deleteBlockChecksums(List<Long> fids) throws MetaStoreException {
+    try {
+      blockChecksumDao.deleteByFids(fids);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   /**
    * Clear up FileState info from database (including all corresponding compression/
    * compact/s3 state).
@@ -2432,4 +2542,92 @@ public synchronized CompressionFileState getCompressionInfo(
       throw new MetaStoreException(e);
     }
   }
+
+  /**
+   * Get the layout of a file erasure coded at block level.
+   *
+   * @param path
+   * @return the state if the file is erasure coded, otherwise return null
+   * @throws MetaStoreException
+   */
+  public BlockECFileState getBlockECFileState(String path)
+      throws MetaStoreException {
+    try {
+      return blockECFileDao.getByPath(path);
+    } catch (EmptyResultDataAccessException e) {
+      return null;
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Get the layouts of files erasure coded at block level under a directory.
+   *
+   * @param dir directory path ending with "/"
+   * @return states of the files under the directory
+   * @throws MetaStoreException
+   */
+  public List<BlockECFileState> getBlockECFileStatesUnder(String dir)
+      throws MetaStoreException {
+    try {
+      return blockECFileDao.getByPathPrefix(dir);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public void insertUpdateECCheckpoint(ECCheckpoint checkpoint)
+      throws MetaStoreException {
+    try {
+      ecCheckpointDao.insertUpdate(checkpoint);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Get the checkpoint of a partially finished ec or unec conversion.
+   *
+   * @param path
+   * @return the checkpoint if there is one for the file, otherwise return null
+   * @throws MetaStoreException
+   */
+  public ECCheckpoint getECCheckpoint(String path) throws MetaStoreException {
+    try {
+      return ecCheckpointDao.getByPath(path);
+    } catch (EmptyResultDataAccessException e) {
+      return null;
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public List<ECCheckpoint> getECCheckpoints() throws MetaStoreException {
+    try {
+      return ecCheckpointDao.getAll();
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Get the checkpoints not updated since the given time.
+   */
+  public List<ECCheckpoint> getECCheckpointsUpdatedBefore(long time)
+      throws MetaStoreException {
+    try {
+      return ecCheckpointDao.getUpdatedBefore(time);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public void deleteECCheckpoint(String path) throws MetaStoreException {
+    try {
+      ecCheckpointDao.deleteByPath(path);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
 }
@@ -119,6 +119,17 @@ public List<AccessCountTable> getTables(long lengthInMillis) throws MetaStoreExc
     return AccessCountTableManager.getTables(this.tableDeques, this.metaStore, lengthInMillis);
   }
 
+  /**
+   * Get a snapshot of the tables kept at the given granularity, oldest first.
+   */
+  public List<AccessCountTable> getTables(TimeGranularity granularity) {
+    AccessCountTableDeque tables = tableDeques.get(granularity);
+    if (tables == null) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(tables);
+  }
+
   public static List<AccessCountTable> getTables(
       Map<TimeGranularity, AccessCountTableDeque> tableDeques,
       MetaStore metaStore,
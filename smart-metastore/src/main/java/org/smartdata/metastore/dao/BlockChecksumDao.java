@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.apache.commons.lang.StringUtils;
+import org.smartdata.model.FileBlockChecksum;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BlockChecksumDao. One row per block of a file, keyed by fid and block index.
+ */
+public class BlockChecksumDao {
+  private static final String TABLE_NAME = "block_checksum";
+
+  private DataSource dataSource;
+
+  public void setDataSource(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public BlockChecksumDao(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  /**
+   * Replace all the block checksums of the given files. Rows of a file are
+   * deleted first, since a rewritten file may have fewer blocks, and in the
+   * same transaction as the insertion so that a failure loses no rows.
+   */
+  public void batchInsertUpdate(final List<FileBlockChecksum> checksums) {
+    if (checksums.isEmpty()) {
+      return;
+    }
+    final List<Object[]> rows = new ArrayList<>();
+    for (FileBlockChecksum checksum : checksums) {
+      List<String> blocks = checksum.getBlockChecksums();
+      for (int i = 0; i < blocks.size(); i++) {
+        rows.add(new Object[] {checksum, i, blocks.get(i)});
+      }
+    }
+    final String sql = "INSERT INTO " + TABLE_NAME + " (fid, block_index, modification_time, "
+        + "length, block_size, algorithm, checksum) VALUES (?,?,?,?,?,?,?)";
+    final BatchPreparedStatementSetter setter = new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        FileBlockChecksum checksum = (FileBlockChecksum) rows.get(i)[0];
+        ps.setLong(1, checksum.getFid());
+        ps.setInt(2, (Integer) rows.get(i)[1]);
+        ps.setLong(3, checksum.getModificationTime());
+        ps.setLong(4, checksum.getLength());
+        ps.setLong(5, checksum.getBlockSize());
+        ps.setString(6, checksum.getAlgorithm());
+        ps.setString(7, (String) rows.get(i)[2]);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return rows.size();
+      }
+    };
+    final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final List<Long> fids = new ArrayList<>(checksums.size());
+    for (FileBlockChecksum checksum : checksums) {
+      fids.add(checksum.getFid());
+    }
+    TransactionTemplate transactionTemplate =
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        deleteByFids(fids);
+        jdbcTemplate.batchUpdate(sql, setter);
+      }
+    });
+  }
+
+  /**
+   * Get the modification time and length of the given files when their
+   * block checksums were stored.
+   *
+   * @return fid to {modification time, length}, files never checksummed are absent
+   */
+  public Map<Long, long[]> getFingerprintsByFids(List<Long> fids) {
+    final Map<Long, long[]> fingerprints = new HashMap<>();
+    if (fids.isEmpty()) {
+      return fingerprints;
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "SELECT fid, modification_time, length FROM " + TABLE_NAME
+        + " WHERE block_index = 0 AND fid IN (" + StringUtils.join(fids, ",") + ")";
+    jdbcTemplate.query(sql, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        fingerprints.put(rs.getLong("fid"),
+            new long[] {rs.getLong("modification_time"), rs.getLong("length")});
+      }
+    });
+    return fingerprints;
+  }
+
+  public FileBlockChecksum getByFid(long fid) {
+    List<Long> fids = new ArrayList<>();
+    fids.add(fid);
+    return getByFids(fids).get(fid);
+  }
+
+  /**
+   * Get the block checksums of the given files. Files without stored
+   * checksums are absent from the returned map.
+   */
+  public Map<Long, FileBlockChecksum> getByFids(List<Long> fids) {
+    final Map<Long, FileBlockChecksum> checksums = new HashMap<>();
+    if (fids.isEmpty()) {
+      return checksums;
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "SELECT * FROM " + TABLE_NAME + " WHERE fid IN ("
+        + StringUtils.join(fids, ",") + ") ORDER BY fid, block_index";
+    jdbcTemplate.query(sql, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        long fid = rs.getLong("fid");
+        FileBlockChecksum checksum = checksums.get(fid);
+        if (checksum == null) {
+          checksum = new FileBlockChecksum(null, fid,
+              rs.getLong("modification_time"), rs.getLong("length"),
+              rs.getLong("block_size"), rs.getString("algorithm"),
+              new ArrayList<String>());
+          checksums.put(fid, checksum);
+        }
+        checksum.getBlockChecksums().add(rs.getString("checksum"));
+      }
+    });
+    return checksums;
+  }
+
+  public void deleteByFids(List<Long> fids) {
+    if (fids.isEmpty()) {
+      return;
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.update("DELETE FROM " + TABLE_NAME + " WHERE fid IN ("
+        + StringUtils.join(fids, ",") + ")");
+  }
+
+  public void deleteAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("DELETE FROM " + TABLE_NAME);
+  }
+}
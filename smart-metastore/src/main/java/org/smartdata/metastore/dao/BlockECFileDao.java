@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.smartdata.model.BlockECFileState;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * BlockECFileDao, for files erasure coded at block level by SSM.
+ */
+public class BlockECFileDao {
+  private static final String TABLE_NAME = "block_ec_file";
+
+  private DataSource dataSource;
+
+  public void setDataSource(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public BlockECFileDao(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public void insertUpdate(BlockECFileState fileState) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "REPLACE INTO " + TABLE_NAME
+        + "(path, parity_path, codec_name, data_units, parity_units, "
+        + "cell_size, block_size, file_length, modification_time)"
+        + " VALUES(?,?,?,?,?,?,?,?,?);";
+    jdbcTemplate.update(sql, fileState.getPath(),
+        fileState.getParityPath(),
+        fileState.getCodecName(),
+        fileState.getNumDataUnits(),
+        fileState.getNumParityUnits(),
+        fileState.getCellSize(),
+        fileState.getBlockSize(),
+        fileState.getFileLength(),
+        fileState.getModificationTime());
+  }
+
+  public void deleteByPath(String filePath) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM " + TABLE_NAME + " WHERE path = ?";
+    jdbcTemplate.update(sql, filePath);
+  }
+
+  public void deleteAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM " + TABLE_NAME;
+    jdbcTemplate.execute(sql);
+  }
+
+  public List<BlockECFileState> getAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.query("SELECT * FROM " + TABLE_NAME,
+        new BlockECFileRowMapper());
+  }
+
+  public BlockECFileState getByPath(String filePath) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.queryForObject(
+        "SELECT * FROM " + TABLE_NAME + " WHERE path = ?",
+        new Object[]{filePath}, new BlockECFileRowMapper());
+  }
+
+  public List<BlockECFileState> getByPathPrefix(String prefix) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.query(
+        "SELECT * FROM " + TABLE_NAME + " WHERE path LIKE ?",
+        new Object[]{prefix + "%"}, new BlockECFileRowMapper());
+  }
+
+  class BlockECFileRowMapper implements RowMapper<BlockECFileState> {
+    @Override
+    public BlockECFileState mapRow(ResultSet resultSet, int i)
+        throws SQLException {
+      return new BlockECFileState(resultSet.getString("path"),
+          resultSet.getString("parity_path"),
+          resultSet.getString("codec_name"),
+          resultSet.getInt("data_units"),
+          resultSet.getInt("parity_units"),
+          resultSet.getInt("cell_size"),
+          resultSet.getLong("block_size"),
+          resultSet.getLong("file_length"),
+          resultSet.getLong("modification_time"));
+    }
+  }
+}
@@ -20,12 +20,18 @@
 import org.apache.commons.collections.CollectionUtils;
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.CachedFileStatus;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
@@ -138,6 +144,44 @@ public void deleteById(long fid) {
     jdbcTemplate.update(sql, fid);
   }
 
+  public void deleteByIds(final List<Long> fids) {
+    if (fids.isEmpty()) {
+      return;
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM cached_file WHERE fid = ?";
+    jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setLong(1, fids.get(i));
+      }
+
+      public int getBatchSize() {
+        return fids.size();
+      }
+    });
+  }
+
+  /**
+   * Delete and insert records in one transaction, so readers never see
+   * a partially applied change.
+   */
+  public void applyChanges(final List<CachedFileStatus> toInsert, final List<Long> toDelete) {
+    if (toInsert.isEmpty() && toDelete.isEmpty()) {
+      return;
+    }
+    TransactionTemplate transactionTemplate =
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        deleteByIds(toDelete);
+        if (!toInsert.isEmpty()) {
+          insert(toInsert.toArray(new CachedFileStatus[toInsert.size()]));
+        }
+      }
+    });
+  }
+
   public void deleteAll() {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     String sql = "DELETE FROM cached_file";
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.smartdata.model.ECCheckpoint;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import javax.sql.DataSource;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * ECCheckpointDao, for resuming partially finished ec or unec conversions.
+ */
+public class ECCheckpointDao {
+  private static final String TABLE_NAME = "ec_checkpoint";
+
+  private DataSource dataSource;
+
+  public void setDataSource(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public ECCheckpointDao(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public void insertUpdate(ECCheckpoint checkpoint) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "REPLACE INTO " + TABLE_NAME
+        + "(path, tmp_path, committed, src_length, src_mtime, update_time)"
+        + " VALUES(?,?,?,?,?,?);";
+    jdbcTemplate.update(sql, checkpoint.getPath(),
+        checkpoint.getTmpPath(),
+        checkpoint.getCommitted(),
+        checkpoint.getSrcLength(),
+        checkpoint.getSrcMtime(),
+        checkpoint.getUpdateTime());
+  }
+
+  public void deleteByPath(String filePath) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM " + TABLE_NAME + " WHERE path = ?";
+    jdbcTemplate.update(sql, filePath);
+  }
+
+  public void deleteAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM " + TABLE_NAME;
+    jdbcTemplate.execute(sql);
+  }
+
+  public List<ECCheckpoint> getAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.query("SELECT * FROM " + TABLE_NAME,
+        new ECCheckpointRowMapper());
+  }
+
+  public List<ECCheckpoint> getUpdatedBefore(long time) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.query("SELECT * FROM " + TABLE_NAME + " WHERE update_time < ?",
+        new Object[]{time}, new ECCheckpointRowMapper());
+  }
+
+  public ECCheckpoint getByPath(String filePath) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.queryForObject(
+        "SELECT * FROM " + TABLE_NAME + " WHERE path = ?",
+        new Object[]{filePath}, new ECCheckpointRowMapper());
+  }
+
+  class ECCheckpointRowMapper implements RowMapper<ECCheckpoint> {
+    @Override
+    public ECCheckpoint mapRow(ResultSet resultSet, int i)
+        throws SQLException {
+      return new ECCheckpoint(resultSet.getString("path"),
+          resultSet.getString("tmp_path"),
+          resultSet.getLong("committed"),
+          resultSet.getLong("src_length"),
+          resultSet.getLong("src_mtime"),
+          resultSet.getLong("update_time"));
+    }
+  }
+}
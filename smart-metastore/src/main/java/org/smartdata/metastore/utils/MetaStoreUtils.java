@@ -90,6 +90,9 @@ public class MetaStoreUtils {
             "file_state",
             "compression_file",
             "small_file",
+            "block_ec_file",
+            "ec_checkpoint",
+            "block_checksum",
             "user_info"
   };
 
@@ -355,6 +358,35 @@ public static void initializeDataBase(
               + "container_file_path varchar(4096) NOT NULL,\n"
               + "offset bigint(20) NOT NULL,\n"
               + "length bigint(20) NOT NULL\n"
+              + ");",
+          "CREATE TABLE block_ec_file (\n"
+              + " path varchar(512) PRIMARY KEY,\n"
+              + " parity_path varchar(4096) NOT NULL,\n"
+              + " codec_name varchar(64) NOT NULL,\n"
+              + " data_units int(11) NOT NULL,\n"
+              + " parity_units int(11) NOT NULL,\n"
+              + " cell_size int(11) NOT NULL,\n"
+              + " block_size bigint(20) NOT NULL,\n"
+              + " file_length bigint(20) NOT NULL,\n"
+              + " modification_time bigint(20) NOT NULL\n"
+              + ");",
+          "CREATE TABLE ec_checkpoint (\n"
+              + " path varchar(512) PRIMARY KEY,\n"
+              + " tmp_path varchar(4096) NOT NULL,\n"
+              + " committed bigint(20) NOT NULL,\n"
+              + " src_length bigint(20) NOT NULL,\n"
+              + " src_mtime bigint(20) NOT NULL,\n"
+              + " update_time bigint(20) NOT NULL\n"
+              + ");",
+          "CREATE TABLE block_checksum (\n"
+              + " fid bigint(20) NOT NULL,\n"
+              + " block_index int(11) NOT NULL,\n"
+              + " modification_time bigint(20) NOT NULL,\n"
+              + " length bigint(20) NOT NULL,\n"
+              + " block_size bigint(20) NOT NULL,\n"
+              + " algorithm varchar(64) NOT NULL,\n"
+              + " checksum varchar(256) NOT NULL,\n"
+              + " PRIMARY KEY (fid, block_index)\n"
               + ");"
         };
     try {
@@ -29,9 +29,11 @@
 import org.smartdata.model.ClusterInfo;
 import org.smartdata.model.CmdletInfo;
 import org.smartdata.model.CmdletState;
+import org.smartdata.model.CompactFileState;
 import org.smartdata.model.CompressionFileState;
 import org.smartdata.model.DataNodeInfo;
 import org.smartdata.model.DataNodeStorageInfo;
+import org.smartdata.model.FileContainerInfo;
 import org.smartdata.model.FileInfo;
 import org.smartdata.model.FileState;
 import org.smartdata.model.GlobalConfig;
@@ -910,4 +912,23 @@ public void testDeleteFileState() throws MetaStoreException {
     Assert.assertEquals(new NormalFileState("/test2"), metaStore.getFileState("/test2"));
     Assert.assertEquals(new NormalFileState("/test3"), metaStore.getFileState("/test3"));
   }
+
+  @Test
+  public void testDeleteCompactFileStates() throws MetaStoreException {
+    CompactFileState[] states = new CompactFileState[3];
+    for (int i = 0; i < states.length; i++) {
+      states[i] = new CompactFileState("/small_" + i,
+          new FileContainerInfo("/container", i * 10, 10));
+    }
+    metaStore.insertCompactFileStates(states);
+    Assert.assertEquals(3,
+        metaStore.getSmallFilesByContainerFile("/container").size());
+
+    metaStore.deleteCompactFileStates(Arrays.asList("/small_0", "/small_2"));
+    Assert.assertEquals(Arrays.asList("/small_1"),
+        metaStore.getSmallFilesByContainerFile("/container"));
+    Assert.assertEquals(new NormalFileState("/small_0"),
+        metaStore.getFileState("/small_0"));
+    Assert.assertTrue(metaStore.getFileState("/small_1") instanceof CompactFileState);
+  }
 }
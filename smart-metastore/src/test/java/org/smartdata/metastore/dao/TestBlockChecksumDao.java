@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.metastore.TestDaoUtil;
+import org.smartdata.model.FileBlockChecksum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class TestBlockChecksumDao extends TestDaoUtil {
+  private BlockChecksumDao blockChecksumDao;
+
+  @Before
+  public void initBlockChecksumDao() throws Exception {
+    initDao();
+    blockChecksumDao = new BlockChecksumDao(druidPool.getDataSource());
+  }
+
+  @After
+  public void closeBlockChecksumDao() throws Exception {
+    closeDao();
+    blockChecksumDao = null;
+  }
+
+  @Test
+  public void testInsertUpdateAndGet() throws Exception {
+    List<FileBlockChecksum> checksums = new ArrayList<>();
+    checksums.add(new FileBlockChecksum("/file1", 1000L, 10L, 300L, 128L, "MD5",
+        Arrays.asList("a1", "a2", "a3")));
+    checksums.add(new FileBlockChecksum("/file2", 1001L, 20L, 100L, 128L, "MD5",
+        Arrays.asList("b1")));
+    blockChecksumDao.batchInsertUpdate(checksums);
+
+    FileBlockChecksum checksum = blockChecksumDao.getByFid(1000L);
+    Assert.assertEquals(Arrays.asList("a1", "a2", "a3"), checksum.getBlockChecksums());
+    Assert.assertTrue(checksum.matches(1000L, 10L, 300L));
+    Assert.assertFalse(checksum.matches(1000L, 11L, 300L));
+    Assert.assertEquals(128L, checksum.getBlockSize());
+
+    // A rewritten file with fewer blocks replaces all of its old rows
+    checksums.clear();
+    checksums.add(new FileBlockChecksum("/file1", 1000L, 30L, 100L, 128L, "MD5",
+        Arrays.asList("c1")));
+    blockChecksumDao.batchInsertUpdate(checksums);
+    Map<Long, FileBlockChecksum> stored =
+        blockChecksumDao.getByFids(Arrays.asList(1000L, 1001L, 1002L));
+    Assert.assertEquals(2, stored.size());
+    Assert.assertEquals(Arrays.asList("c1"), stored.get(1000L).getBlockChecksums());
+    Assert.assertEquals(Arrays.asList("b1"), stored.get(1001L).getBlockChecksums());
+
+    blockChecksumDao.deleteByFids(Arrays.asList(1000L));
+    Assert.assertNull(blockChecksumDao.getByFid(1000L));
+    blockChecksumDao.deleteAll();
+    Assert.assertNull(blockChecksumDao.getByFid(1001L));
+  }
+
+  @Test
+  public void testFingerprints() throws Exception {
+    blockChecksumDao.batchInsertUpdate(Arrays.asList(
+        new FileBlockChecksum("/file1", 1000L, 10L, 300L, 128L, "MD5",
+            Arrays.asList("a1", "a2", "a3"))));
+    Map<Long, long[]> fingerprints =
+        blockChecksumDao.getFingerprintsByFids(Arrays.asList(1000L, 1001L));
+    Assert.assertEquals(1, fingerprints.size());
+    Assert.assertArrayEquals(new long[] {10L, 300L}, fingerprints.get(1000L));
+  }
+
+  @Test
+  public void testFailedUpdateKeepsRows() throws Exception {
+    blockChecksumDao.batchInsertUpdate(Arrays.asList(
+        new FileBlockChecksum("/file1", 1000L, 10L, 100L, 128L, "MD5",
+            Arrays.asList("a1"))));
+    // The same file twice violates the primary key after the old rows are deleted
+    List<FileBlockChecksum> checksums = new ArrayList<>();
+    checksums.add(new FileBlockChecksum("/file1", 1000L, 20L, 100L, 128L, "MD5",
+        Arrays.asList("b1")));
+    checksums.add(new FileBlockChecksum("/file1", 1000L, 20L, 100L, 128L, "MD5",
+        Arrays.asList("b1")));
+    try {
+      blockChecksumDao.batchInsertUpdate(checksums);
+      Assert.fail("Duplicate rows should be rejected");
+    } catch (Exception e) {
+      // Expected
+    }
+    Assert.assertEquals(Arrays.asList("a1"),
+        blockChecksumDao.getByFid(1000L).getBlockChecksums());
+  }
+}
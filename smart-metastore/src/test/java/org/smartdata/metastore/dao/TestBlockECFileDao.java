@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.metastore.TestDaoUtil;
+import org.smartdata.model.BlockECFileState;
+
+public class TestBlockECFileDao extends TestDaoUtil {
+  private BlockECFileDao blockECFileDao;
+
+  @Before
+  public void initBlockECFileDao() throws Exception {
+    initDao();
+    blockECFileDao = new BlockECFileDao(druidPool.getDataSource());
+  }
+
+  @After
+  public void closeBlockECFileDao() throws Exception {
+    closeDao();
+    blockECFileDao = null;
+  }
+
+  @Test
+  public void testInsertUpdateDelete() throws Exception {
+    BlockECFileState state = new BlockECFileState("/test",
+        "/system/ssm/ec_parity/1001", "rs", 6, 3, 1024 * 1024,
+        128 * 1024 * 1024L, 1000 * 1024 * 1024L, 1515000000000L);
+    blockECFileDao.insertUpdate(state);
+    BlockECFileState dbState = blockECFileDao.getByPath("/test");
+    Assert.assertEquals(state.getParityPath(), dbState.getParityPath());
+    Assert.assertEquals(6, dbState.getNumDataUnits());
+    Assert.assertEquals(3, dbState.getNumParityUnits());
+    Assert.assertEquals(state.getFileLength(), dbState.getFileLength());
+    Assert.assertEquals(state.getModificationTime(), dbState.getModificationTime());
+    Assert.assertEquals(2, dbState.getNumGroups());
+
+    // Re-encoding replaces the layout
+    state = new BlockECFileState("/test", "/system/ssm/ec_parity/1001",
+        "rs", 3, 2, 1024 * 1024, 128 * 1024 * 1024L, 1000 * 1024 * 1024L,
+        1515000000000L);
+    blockECFileDao.insertUpdate(state);
+    Assert.assertEquals(1, blockECFileDao.getAll().size());
+    Assert.assertEquals(3, blockECFileDao.getByPath("/test").getNumDataUnits());
+    Assert.assertEquals(1, blockECFileDao.getByPathPrefix("/").size());
+    Assert.assertEquals(0, blockECFileDao.getByPathPrefix("/test/").size());
+
+    blockECFileDao.deleteByPath("/test");
+    Assert.assertEquals(0, blockECFileDao.getAll().size());
+  }
+}
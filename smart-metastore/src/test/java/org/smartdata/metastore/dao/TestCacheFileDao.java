@@ -132,4 +132,37 @@ public void testGetCachedFileStatus() throws Exception {
     Assert.assertTrue(cachedFileList.get(1).getFid() == 19);
     Assert.assertTrue(cachedFileList.get(2).getFid() == 23);
   }
+
+  @Test
+  public void testApplyChanges() throws Exception {
+    cacheFileDao.insert(1L, "testPath1", 1000L, 1000L, 0);
+    cacheFileDao.insert(2L, "testPath2", 1000L, 1000L, 0);
+    List<CachedFileStatus> toInsert = new ArrayList<>();
+    toInsert.add(new CachedFileStatus(3L, "testPath3", 2000L, 2000L, 0));
+    toInsert.add(new CachedFileStatus(4L, "testPath4", 2000L, 2000L, 0));
+    List<Long> toDelete = new ArrayList<>();
+    toDelete.add(1L);
+    cacheFileDao.applyChanges(toInsert, toDelete);
+    List<Long> fids = cacheFileDao.getFids();
+    Assert.assertEquals(3, fids.size());
+    Assert.assertFalse(fids.contains(1L));
+    Assert.assertTrue(fids.contains(3L) && fids.contains(4L));
+
+    // A failed change is rolled back as a whole
+    toInsert.clear();
+    toInsert.add(new CachedFileStatus(5L, "testPath5", 3000L, 3000L, 0));
+    toInsert.add(new CachedFileStatus(6L, null, 3000L, 3000L, 0));
+    toDelete.clear();
+    toDelete.add(2L);
+    try {
+      cacheFileDao.applyChanges(toInsert, toDelete);
+      Assert.fail("Null path should be rejected");
+    } catch (Exception e) {
+      // Expected
+    }
+    fids = cacheFileDao.getFids();
+    Assert.assertEquals(3, fids.size());
+    Assert.assertTrue(fids.contains(2L));
+    Assert.assertFalse(fids.contains(5L));
+  }
 }
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.metastore.TestDaoUtil;
+import org.smartdata.model.ECCheckpoint;
+
+import java.util.List;
+
+public class TestECCheckpointDao extends TestDaoUtil {
+  private ECCheckpointDao ecCheckpointDao;
+
+  @Before
+  public void initECCheckpointDao() throws Exception {
+    initDao();
+    ecCheckpointDao = new ECCheckpointDao(druidPool.getDataSource());
+  }
+
+  @After
+  public void closeECCheckpointDao() throws Exception {
+    closeDao();
+    ecCheckpointDao = null;
+  }
+
+  @Test
+  public void testInsertUpdateDelete() throws Exception {
+    ECCheckpoint checkpoint = new ECCheckpoint("/test",
+        "/system/ssm/ec_tmp/test_aid1_1000", 768 * 1024 * 1024L,
+        10 * 1024 * 1024 * 1024L, 1000L, 2000L);
+    ecCheckpointDao.insertUpdate(checkpoint);
+    Assert.assertEquals(checkpoint, ecCheckpointDao.getByPath("/test"));
+
+    // A later attempt moves the checkpoint forward
+    checkpoint.setCommitted(2 * 768 * 1024 * 1024L);
+    checkpoint.setUpdateTime(3000L);
+    ecCheckpointDao.insertUpdate(checkpoint);
+    Assert.assertEquals(1, ecCheckpointDao.getAll().size());
+    Assert.assertEquals(checkpoint, ecCheckpointDao.getByPath("/test"));
+
+    ecCheckpointDao.deleteByPath("/test");
+    Assert.assertEquals(0, ecCheckpointDao.getAll().size());
+  }
+
+  @Test
+  public void testGetUpdatedBefore() throws Exception {
+    ECCheckpoint old = new ECCheckpoint("/old", "/system/ssm/ec_tmp/old_aid1_1000",
+        1024L, 4096L, 1000L, 2000L);
+    ECCheckpoint recent = new ECCheckpoint("/recent", "/system/ssm/ec_tmp/recent_aid2_1000",
+        1024L, 4096L, 1000L, 5000L);
+    ecCheckpointDao.insertUpdate(old);
+    ecCheckpointDao.insertUpdate(recent);
+    Assert.assertEquals(0, ecCheckpointDao.getUpdatedBefore(2000L).size());
+    List<ECCheckpoint> expired = ecCheckpointDao.getUpdatedBefore(3000L);
+    Assert.assertEquals(1, expired.size());
+    Assert.assertEquals(old, expired.get(0));
+    Assert.assertEquals(2, ecCheckpointDao.getUpdatedBefore(6000L).size());
+  }
+}
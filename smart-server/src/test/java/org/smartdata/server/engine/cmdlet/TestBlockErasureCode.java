@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.hdfs.client.SmartDFSClient;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.model.BlockECFileState;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileState;
+import org.smartdata.server.MiniSmartClusterHarness;
+import org.smartdata.server.engine.CmdletManager;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+public class TestBlockErasureCode extends MiniSmartClusterHarness {
+  private DFSClient smartDFSClient;
+
+  @Override
+  @Before
+  public void init() throws Exception {
+    DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    super.init();
+    Configuration conf = new Configuration(ssm.getContext().getConf());
+    // Don't wait long for blocks which are gone on every datanode
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_RETRY_WINDOW_BASE, 1);
+    smartDFSClient = new SmartDFSClient(conf);
+  }
+
+  @Test
+  public void testBlockErasureCode() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    String fileName = "/ssm/blockec/file1";
+    int fileSize = 5 * DEFAULT_BLOCK_SIZE + 1000;
+    byte[] bytes = new byte[fileSize];
+    new Random(fileSize).nextBytes(bytes);
+    OutputStream out = dfsClient.create(fileName, true);
+    out.write(bytes);
+    out.close();
+
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    long cmdId = cmdletManager.submitCmdlet("blockec -file " + fileName
+        + " -dataUnits 3 -parityUnits 2 -cellSize 64KB");
+    waitTillCmdletDone(cmdId);
+
+    MetaStore metaStore = ssm.getMetaStore();
+    FileState fileState = null;
+    int n = 0;
+    while (true) {
+      fileState = metaStore.getFileState(fileName);
+      if (FileState.FileStage.DONE.equals(fileState.getFileStage())) {
+        break;
+      }
+      Thread.sleep(1000);
+      if (n++ >= 20) {
+        throw new Exception("Time out in waiting for getting expect file state.");
+      }
+    }
+    Assert.assertTrue(fileState instanceof BlockECFileState);
+    BlockECFileState ecState = (BlockECFileState) fileState;
+    Assert.assertEquals(3, ecState.getNumDataUnits());
+    Assert.assertEquals(2, ecState.getNumParityUnits());
+    Assert.assertEquals(fileSize, ecState.getFileLength());
+    Assert.assertEquals(1, dfsClient.getFileInfo(fileName).getReplication());
+
+    // Lose two blocks of the first group and read through SmartDFSClient
+    List<LocatedBlock> blocks = dfsClient.getLocatedBlocks(fileName, 0)
+        .getLocatedBlocks();
+    cluster.corruptBlockOnDataNodesByDeletingBlockFile(blocks.get(0).getBlock());
+    cluster.corruptBlockOnDataNodesByDeletingBlockFile(blocks.get(2).getBlock());
+    byte[] input = new byte[fileSize];
+    DFSInputStream in = smartDFSClient.open(fileName);
+    int offset = 0;
+    while (offset < fileSize) {
+      int len = in.read(input, offset, fileSize - offset);
+      if (len <= 0) {
+        break;
+      }
+      offset += len;
+    }
+    in.close();
+    Assert.assertArrayEquals(bytes, input);
+
+    // Small reads of a lost block are served by the cell reconstructed last
+    in = smartDFSClient.open(fileName);
+    for (int i = 0; i < 4 * 64 * 1024 + 10; i++) {
+      Assert.assertEquals(bytes[i] & 0xff, in.read());
+    }
+    in.close();
+  }
+
+  private void waitTillCmdletDone(long cmdId) throws Exception {
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    int n = 0;
+    while (true) {
+      Thread.sleep(1000);
+      CmdletInfo info = cmdletManager.getCmdletInfo(cmdId);
+      if (info == null) {
+        continue;
+      }
+      if (info.getState() == CmdletState.DONE) {
+        return;
+      } else if (info.getState() == CmdletState.FAILED) {
+        long aid = info.getAids().get(0);
+        Assert.fail("Action failed. " + cmdletManager.getActionInfo(aid).getLog());
+      }
+      if (++n == 30) {
+        throw new Exception("Time out in waiting for cmdlet: " + info);
+      }
+    }
+  }
+}
@@ -20,16 +20,30 @@
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
 import org.junit.Test;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.action.CacheFileAction;
+import org.smartdata.hdfs.action.HdfsAction;
 import org.smartdata.hdfs.scheduler.CacheScheduler;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CmdletInfo;
 import org.smartdata.model.CmdletState;
 import org.smartdata.model.action.ActionScheduler;
+import org.smartdata.model.action.ScheduleResult;
 import org.smartdata.server.MiniSmartClusterHarness;
 import org.smartdata.server.engine.CmdletManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -74,4 +88,84 @@ public void testCacheUncacheFile() throws Exception {
     // There is no file locked after the action is finished.
     assertTrue(fileLock.isEmpty());
   }
+
+  @Test(timeout = 100000)
+  public void testBatchCacheUncache() throws Exception {
+    waitTillSSMExitSafeMode();
+    // The batch is flushed by the test only
+    smartContext.getConf().setLong(SmartConfKeys.SMART_CACHE_BATCH_WINDOW_MS_KEY, 3600000L);
+    CacheScheduler scheduler = new CacheScheduler(smartContext, ssm.getMetaStore());
+    scheduler.init();
+
+    int num = 4;
+    List<CmdletInfo> cmdlets = new ArrayList<>();
+    List<ActionInfo> actions = new ArrayList<>();
+    for (int i = 0; i < num; i++) {
+      String filePath = "/testBatch/file" + i;
+      FSDataOutputStream out = dfs.create(new Path(filePath));
+      out.writeChars("test content");
+      out.close();
+      addAction(cmdlets, actions, CacheScheduler.CACHE_ACTION, filePath);
+    }
+    // A later uncache of the same file supersedes the cache action
+    addAction(cmdlets, actions, CacheScheduler.UNCACHE_ACTION, "/testBatch/file0");
+    for (int i = 0; i < actions.size(); i++) {
+      assertEquals(ScheduleResult.RETRY, schedule(scheduler, cmdlets.get(i), actions.get(i)));
+    }
+    // Cancelled before the batch is applied
+    cmdlets.get(3).setState(CmdletState.DISABLED);
+    scheduler.flushDirectives();
+    assertEquals(actions.size() - 1, scheduler.getNumBatchedActions());
+
+    assertEquals(ScheduleResult.FAIL, schedule(scheduler, cmdlets.get(0), actions.get(0)));
+    assertTrue(actions.get(0).getLog().contains("Superseded"));
+    for (int i = 1; i < actions.size(); i++) {
+      if (i != 3) {
+        assertEquals(ScheduleResult.SUCCESS_NO_EXECUTION,
+            schedule(scheduler, cmdlets.get(i), actions.get(i)));
+      }
+    }
+    assertEquals(0, scheduler.getNumBatchedActions());
+    assertEquals(2, countDirectives("/testBatch/"));
+    // The directive created is reported to tell its owner
+    assertTrue(actions.get(1).getResult().startsWith(CacheFileAction.DIRECTIVE_ADDED));
+
+    // A finished action is forgotten and never applied
+    cmdlets.clear();
+    actions.clear();
+    addAction(cmdlets, actions, CacheScheduler.UNCACHE_ACTION, "/testBatch/file1");
+    assertEquals(ScheduleResult.RETRY, schedule(scheduler, cmdlets.get(0), actions.get(0)));
+    scheduler.onActionFinished(cmdlets.get(0), actions.get(0), 0);
+    assertEquals(0, scheduler.getNumBatchedActions());
+    scheduler.flushDirectives();
+    assertEquals(2, countDirectives("/testBatch/"));
+  }
+
+  private void addAction(List<CmdletInfo> cmdlets, List<ActionInfo> actions,
+      String actionName, String filePath) {
+    long id = actions.size() + 1;
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, filePath);
+    cmdlets.add(new CmdletInfo(id, 0, Arrays.asList(id), CmdletState.PENDING,
+        actionName + " -file " + filePath, 0, 0));
+    actions.add(new ActionInfo(id, id, actionName, args, "", "",
+        false, 0, false, 0, 0));
+  }
+
+  private ScheduleResult schedule(CacheScheduler scheduler, CmdletInfo cmdletInfo,
+      ActionInfo actionInfo) {
+    return scheduler.onSchedule(cmdletInfo, actionInfo, null, null, 0);
+  }
+
+  private int countDirectives(String prefix) throws Exception {
+    int count = 0;
+    RemoteIterator<CacheDirectiveEntry> it =
+        dfsClient.listCacheDirectives(new CacheDirectiveInfo.Builder().build());
+    while (it.hasNext()) {
+      if (it.next().getInfo().getPath().toUri().getPath().startsWith(prefix)) {
+        count++;
+      }
+    }
+    return count;
+  }
 }
@@ -25,6 +25,7 @@
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.SmartCompressionInputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.junit.Assert;
 import org.junit.Before;
@@ -45,9 +46,15 @@
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestCompressDecompress extends MiniSmartClusterHarness {
   private DFSClient smartDFSClient;
@@ -199,6 +206,134 @@ public void testCompressedFileRandomRead() throws Exception {
     }
   }
 
+  @Test
+  public void testConcurrentPositionalRead() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    int arraySize = 1024 * 1024 * 4;
+    String fileName = "/ssm/compression/file5";
+    final byte[] bytes = prepareFile(fileName, arraySize);
+
+    final int bufSize = 256 * 1024;
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    long cmdId = cmdletManager.submitCmdlet("compress -file " + fileName
+        + " -bufSize " + bufSize + " -codec " + codec);
+    waitTillActionDone(cmdId);
+
+    final DFSInputStream dfsInputStream = smartDFSClient.open(fileName);
+    Assert.assertTrue(dfsInputStream instanceof SmartCompressionInputStream);
+    // Preads from several threads, each around its own trunk
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      final int trunk = i;
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          Random rnd = new Random(trunk);
+          byte[] buf = new byte[1000];
+          for (int j = 0; j < 100; j++) {
+            long pos = trunk * bufSize + rnd.nextInt(bufSize - 1000);
+            dfsInputStream.readFully(pos, buf);
+            if (!Arrays.equals(buf,
+                Arrays.copyOfRange(bytes, (int) pos, (int) pos + 1000))) {
+              return false;
+            }
+          }
+          return true;
+        }
+      }));
+    }
+    for (Future<Boolean> future : futures) {
+      Assert.assertTrue(future.get());
+    }
+    executor.shutdown();
+    // Preads do not move the stream position
+    Assert.assertEquals(0, dfsInputStream.getPos());
+    SmartCompressionInputStream compressionInputStream =
+        (SmartCompressionInputStream) dfsInputStream;
+    Assert.assertTrue(compressionInputStream.getTrunkCacheHits()
+        > compressionInputStream.getTrunkCacheMisses());
+
+    // Sequential read into a direct buffer across trunk boundaries
+    ByteBuffer direct = ByteBuffer.allocateDirect(bufSize + 1000);
+    dfsInputStream.seek(bufSize - 500);
+    while (direct.hasRemaining()) {
+      Assert.assertTrue(dfsInputStream.read(direct) > 0);
+    }
+    direct.flip();
+    byte[] read = new byte[direct.remaining()];
+    direct.get(read);
+    Assert.assertArrayEquals(
+        Arrays.copyOfRange(bytes, bufSize - 500, 2 * bufSize + 500), read);
+    Assert.assertEquals(2 * bufSize + 500, dfsInputStream.getPos());
+    dfsInputStream.close();
+  }
+
+  @Test
+  public void testJavaCodecs() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    int arraySize = 1024 * 1024 * 3 + 100;
+    int bufSize = 1024 * 1024;
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    for (String javaCodec : new String[] {CompressionCodec.LZ4, CompressionCodec.SNAPPY}) {
+      String fileName = "/ssm/compression/java_" + javaCodec;
+      byte[] bytes = prepareFile(fileName, arraySize);
+      long cmdId = cmdletManager.submitCmdlet("compress -file " + fileName
+          + " -bufSize " + bufSize + " -codec " + javaCodec + " -codecImpl java");
+      waitTillActionDone(cmdId);
+
+      // Read with native codec if loaded, otherwise with pure Java codec
+      byte[] input = new byte[arraySize];
+      DFSInputStream dfsInputStream = smartDFSClient.open(fileName);
+      Assert.assertTrue(dfsInputStream instanceof SmartCompressionInputStream);
+      dfsInputStream.readFully(0, input);
+      dfsInputStream.close();
+      Assert.assertArrayEquals(javaCodec, bytes, input);
+    }
+  }
+
+  @Test
+  public void testAdaptiveCompression() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    int arraySize = 1024 * 1024 * 2;
+    String compressible = "/ssm/compression/adaptive1";
+    String incompressible = "/ssm/compression/adaptive2";
+    byte[] bytes = prepareFile(compressible, arraySize);
+    byte[] random = new byte[arraySize];
+    new Random(0).nextBytes(random);
+    OutputStream outputStream = dfsClient.create(incompressible, true);
+    outputStream.write(random);
+    outputStream.close();
+
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    MetaStore metaStore = ssm.getMetaStore();
+    long cmdId = cmdletManager.submitCmdlet("compress -file " + compressible
+        + " -codec " + CompressionCodec.ADAPTIVE);
+    waitTillActionDone(cmdId);
+    cmdId = cmdletManager.submitCmdlet("compress -file " + incompressible
+        + " -codec " + CompressionCodec.ADAPTIVE);
+    waitTillActionDone(cmdId);
+
+    FileState fileState = metaStore.getFileState(compressible);
+    Assert.assertEquals(FileState.FileType.COMPRESSION, fileState.getFileType());
+    Assert.assertTrue(CompressionCodec.CODEC_LIST.contains(
+        ((CompressionFileState) fileState).getCompressionImpl()));
+    byte[] input = new byte[arraySize];
+    DFSInputStream dfsInputStream = smartDFSClient.open(compressible);
+    dfsInputStream.readFully(0, input);
+    dfsInputStream.close();
+    Assert.assertArrayEquals(bytes, input);
+
+    // Skipped file is left as a normal one
+    fileState = metaStore.getFileState(incompressible);
+    Assert.assertEquals(FileState.FileType.NORMAL, fileState.getFileType());
+    Assert.assertEquals(FileState.FileStage.DONE, fileState.getFileStage());
+    Assert.assertEquals(arraySize, dfsClient.getFileInfo(incompressible).getLen());
+  }
+
   @Test
   public void testDecompress() throws Exception {
     int arraySize = 1024 * 1024 * 8;